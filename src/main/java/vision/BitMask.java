@@ -0,0 +1,264 @@
+package vision;
+
+import java.util.Arrays;
+
+/**
+ * A BitMask is a binary image packed 64 pixels to a long, one row after
+ * another. Bit <code>x % 64</code> of word <code>x / 64</code> of a row holds
+ * pixel x; the unused high bits of each row's last word are always zero.
+ *
+ * Dilation and erosion by a square are done a whole word at a time, and
+ * each axis takes O(log r) shifted ORs rather than one per offset, so their
+ * cost barely depends on the square's size. The square may reach further
+ * to one side than the other, which gives the even sizes.
+ *
+ * @author prentice
+ */
+public class BitMask {
+	final int width;
+	final int height;
+	final int wordsPerRow;
+	final long[] bits;
+	private final long lastWordMask;
+
+	public BitMask(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.wordsPerRow = (width + 63) >>> 6;
+		this.bits = new long[wordsPerRow * height];
+		int tail = width & 63;
+		this.lastWordMask = (tail == 0) ? -1L : (1L << tail) - 1;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public void clear() {
+		Arrays.fill(bits, 0L);
+	}
+
+	public void set(int x, int y) {
+		bits[y * wordsPerRow + (x >>> 6)] |= 1L << (x & 63);
+	}
+
+	public boolean get(int x, int y) {
+		return (bits[y * wordsPerRow + (x >>> 6)] & (1L << (x & 63))) != 0;
+	}
+
+	public boolean isEmpty() {
+		for (int i = 0; i < bits.length; i++) {
+			if (bits[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void copyFrom(BitMask src) {
+		System.arraycopy(src.bits, 0, bits, 0, bits.length);
+	}
+
+	/**
+	 * Dilate src by a (2 * radius + 1) square into this mask. Pixels outside
+	 * the image count as unset. src may be this mask; the two scratch masks
+	 * must be distinct from each other and from both, and all must be the
+	 * same size.
+	 */
+	public void dilate(BitMask src, int radius, BitMask scratch1, BitMask scratch2) {
+		dilate(src, radius, radius, scratch1, scratch2);
+	}
+
+	/**
+	 * Dilate src by a (before + after + 1) square into this mask: each set
+	 * pixel also sets the pixels up to before to its left and above it, and
+	 * up to after to its right and below it. Two pixels then touch, 8-way,
+	 * if they are at most before + after + 1 apart along each axis.
+	 */
+	public void dilate(BitMask src, int before, int after, BitMask scratch1, BitMask scratch2) {
+		copyFrom(src);
+		if (before <= 0 && after <= 0) {
+			return;
+		}
+		spread(before, after, true, scratch1, scratch2);
+		spread(before, after, false, scratch1, scratch2);
+	}
+
+	/**
+	 * Erode src by a (2 * radius + 1) square into this mask. Pixels outside
+	 * the image count as set, so regions touching the border are not eaten
+	 * away from that side.
+	 */
+	public void erode(BitMask src, int radius, BitMask scratch1, BitMask scratch2) {
+		erode(src, radius, radius, scratch1, scratch2);
+	}
+
+	/**
+	 * Erode src by the same square as {@link #dilate(BitMask, int, int,
+	 * BitMask, BitMask)}: a pixel stays set only if every pixel from before
+	 * to its left and above it to after to its right and below it is set, so
+	 * that dilating and then eroding with the same reaches is a closing.
+	 */
+	public void erode(BitMask src, int before, int after, BitMask scratch1, BitMask scratch2) {
+		copyFrom(src);
+		if (before <= 0 && after <= 0) {
+			return;
+		}
+		// an unset pixel unsets the pixels whose square reaches it
+		invert();
+		spread(after, before, true, scratch1, scratch2);
+		spread(after, before, false, scratch1, scratch2);
+		invert();
+	}
+
+	/**
+	 * Morphological opening (erosion followed by dilation) of src into this
+	 * mask, removing specks and strands thinner than 2 * radius + 1 pixels
+	 * while keeping the shape of larger regions.
+	 */
+	public void open(BitMask src, int radius, BitMask scratch1, BitMask scratch2) {
+		erode(src, radius, scratch1, scratch2);
+		dilate(this, radius, scratch1, scratch2);
+	}
+
+	private void invert() {
+		for (int row = 0; row < height; row++) {
+			int base = row * wordsPerRow;
+			for (int w = 0; w < wordsPerRow; w++) {
+				bits[base + w] = ~bits[base + w];
+			}
+			bits[base + wordsPerRow - 1] &= lastWordMask;
+		}
+	}
+
+	/**
+	 * Along one axis, spread every set pixel up to before towards lower
+	 * coordinates and up to after towards higher ones. The two halves of
+	 * the window are each built by doubling: after k steps a pixel covers
+	 * 2^k offsets, with one final overlapping step to reach exactly the
+	 * reach + 1.
+	 */
+	private void spread(int before, int after, boolean horizontal, BitMask forward, BitMask temp) {
+		forward.copyFrom(this);
+		spreadOneWay(forward, after, horizontal, 1, temp);
+		spreadOneWay(this, before, horizontal, -1, temp);
+		long[] f = forward.bits;
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] |= f[i];
+		}
+	}
+
+	private static void spreadOneWay(BitMask mask, int radius, boolean horizontal, int direction, BitMask temp) {
+		int covered = 1;
+		while (covered < radius + 1) {
+			int step = Math.min(covered, radius + 1 - covered);
+			temp.copyFrom(mask);
+			if (horizontal) {
+				mask.orShiftedColumns(temp, direction * step);
+			} else {
+				mask.orShiftedRows(temp, direction * step);
+			}
+			covered += step;
+		}
+	}
+
+	/**
+	 * this |= src moved right by dx pixels (left if dx is negative).
+	 */
+	private void orShiftedColumns(BitMask src, int dx) {
+		long[] s = src.bits;
+		int shift = Math.abs(dx);
+		int wordShift = shift >>> 6;
+		int bitShift = shift & 63;
+		for (int row = 0; row < height; row++) {
+			int base = row * wordsPerRow;
+			for (int w = 0; w < wordsPerRow; w++) {
+				long word;
+				if (dx > 0) {
+					int from = w - wordShift;
+					word = (from >= 0) ? s[base + from] << bitShift : 0L;
+					if (bitShift != 0 && from - 1 >= 0) {
+						word |= s[base + from - 1] >>> (64 - bitShift);
+					}
+				} else {
+					int from = w + wordShift;
+					word = (from < wordsPerRow) ? s[base + from] >>> bitShift : 0L;
+					if (bitShift != 0 && from + 1 < wordsPerRow) {
+						word |= s[base + from + 1] << (64 - bitShift);
+					}
+				}
+				bits[base + w] |= word;
+			}
+			bits[base + wordsPerRow - 1] &= lastWordMask;
+		}
+	}
+
+	/**
+	 * this |= src moved down by dy rows (up if dy is negative).
+	 */
+	private void orShiftedRows(BitMask src, int dy) {
+		long[] s = src.bits;
+		for (int row = 0; row < height; row++) {
+			int from = row - dy;
+			if (from < 0 || from >= height) {
+				continue;
+			}
+			int base = row * wordsPerRow;
+			int fromBase = from * wordsPerRow;
+			for (int w = 0; w < wordsPerRow; w++) {
+				bits[base + w] |= s[fromBase + w];
+			}
+		}
+	}
+
+	/**
+	 * Find the runs of set pixels in one row.
+	 *
+	 * @param runs
+	 *            receives the first and last column of each run, interleaved;
+	 *            must have room for width + 1 entries
+	 * @return the number of runs found
+	 */
+	public int rowRuns(int row, int[] runs) {
+		int count = 0;
+		int base = row * wordsPerRow;
+		int x = 0;
+		while (x < width) {
+			int start = nextSetBit(base, x, false);
+			if (start >= width) {
+				break;
+			}
+			int end = nextSetBit(base, start, true);
+			runs[2 * count] = start;
+			runs[2 * count + 1] = Math.min(end, width) - 1;
+			count++;
+			x = end;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the first column at or after x whose bit is set (or clear, if
+	 *         findClear), or a value of at least width if there is none
+	 */
+	private int nextSetBit(int base, int x, boolean findClear) {
+		int w = x >>> 6;
+		long word = bits[base + w];
+		if (findClear) {
+			word = ~word;
+		}
+		word &= -1L << (x & 63);
+		while (word == 0) {
+			w++;
+			if (w >= wordsPerRow) {
+				return wordsPerRow << 6;
+			}
+			word = findClear ? ~bits[base + w] : bits[base + w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(word);
+	}
+}
@@ -1,97 +1,278 @@
 package vision;
 
-import java.awt.geom.Point2D;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
 
+/**
+ * A Blob is a connected region of the image, stored as horizontal runs of
+ * pixels. Each run takes three ints (row, first column, last column) in a
+ * flat array, and runs are kept in the order they were added, which the
+ * labelers make top-to-bottom, left-to-right. A blob therefore costs memory in
+ * proportion to its height rather than its area.
+ */
 public class Blob {
 	private final double circleThreshold = 0.3;
 	private final double verticalAlignThreshold = 0.2;
 	private final double horizontalAlignThreshold = 0.15;
 	private final double blockSize = 0.06;
 	private final double sphereSize = 0.1;
-	
-	private Set<Point2D.Double> points;
-	private Set<Point2D.Double> hullPoints;
-	Map<Integer, Integer> minYforGivenX;
-	Map<Integer, Integer> maxYforGivenX;
-	Map<Integer, Integer> minXforGivenY;
-	Map<Integer, Integer> maxXforGivenY;
-	
+
+	private int[] runs;
+	private int runCount;
+	private int size;
+	// pixels on the outer contour as x, y pairs, if the labeler traced it
+	private int[] contour = new int[16];
+	private int contourLength;
+
+	// scratch for isCircle, kept so that a recycled blob does not allocate
+	private int[] minXforGivenY = new int[8];
+	private int[] maxXforGivenY = new int[8];
+	private int[] minYforGivenX = new int[8];
+	private int[] maxYforGivenX = new int[8];
+	private int[] rowEnds = new int[8];
+	private int[] columnsByRow = new int[16];
+	private int[] hullPoints = new int[64];
+
 	public double centroidX;
 	public double centroidY;
 	public double width;
 	public double height;
-	
+	public int bottomRow;
+
 	private double hue;
+	private boolean hasBasics;
+	private boolean colorKnown;
 	public int color;
 	// red = 0, orange = 1, yellow = 2, green = 3, blue = 4, purple = 5
+	public static final int COLORS = 6;
+
+	public Blob() {
+		runs = new int[3 * 8];
+	}
+
+	/**
+	 * Empty this blob so that it can be filled again, keeping its buffers.
+	 */
+	public void reset() {
+		runCount = 0;
+		size = 0;
+		centroidX = 0;
+		centroidY = 0;
+		width = 0;
+		height = 0;
+		bottomRow = 0;
+		hue = 0;
+		hasBasics = false;
+		colorKnown = false;
+		color = 0;
+		contourLength = 0;
+	}
+
+	/**
+	 * Append the run of pixels from xStart to xEnd inclusive on the given
+	 * row. Runs must be added in raster order.
+	 */
+	public void addRun(int row, int xStart, int xEnd) {
+		if (3 * runCount == runs.length) {
+			runs = Arrays.copyOf(runs, 2 * runs.length);
+		}
+		runs[3 * runCount] = row;
+		runs[3 * runCount + 1] = xStart;
+		runs[3 * runCount + 2] = xEnd;
+		runCount++;
+		size += xEnd - xStart + 1;
+	}
+
+	public int getRunCount() {
+		return runCount;
+	}
+
+	/**
+	 * @return how many runs the blob can hold without growing
+	 */
+	int getRunCapacity() {
+		return runs.length / 3;
+	}
+
+	public int getRunRow(int run) {
+		return runs[3 * run];
+	}
+
+	public int getRunStart(int run) {
+		return runs[3 * run + 1];
+	}
+
+	public int getRunEnd(int run) {
+		return runs[3 * run + 2];
+	}
 
-	public Blob(Set<Point2D.Double> points) {
-		this.points = points;
-		hullPoints = new HashSet<Point2D.Double>();
-		minYforGivenX = new HashMap<Integer,Integer>();
-		maxYforGivenX = new HashMap<Integer,Integer>();
-		minXforGivenY = new HashMap<Integer,Integer>();
-		maxXforGivenY = new HashMap<Integer,Integer>();
+	/**
+	 * Record a pixel of the blob's outer contour. Once a blob has a contour,
+	 * {@link #isCircle()} reads the outermost pixels of each row and column
+	 * from it instead of from the runs; every such pixel lies on the outer
+	 * contour, so the result is the same. Pixels may be given more than once.
+	 */
+	public void addContourPixel(int x, int y) {
+		if (2 * contourLength == contour.length) {
+			contour = Arrays.copyOf(contour, 2 * contour.length);
+		}
+		contour[2 * contourLength] = x;
+		contour[2 * contourLength + 1] = y;
+		contourLength++;
 	}
-	
+
 	public int getSize() {
-		return points.size();
+		return size;
 	}
-	
+
 	public boolean pointsOnEdge(int width, int height) {
-		for (Point2D.Double point : points) {
-			if ((int)point.x == 0 || (int)point.x == width-1 || (int)point.y == 0 || (int)point.y == height-1)
+		for (int i = 0; i < 3 * runCount; i += 3) {
+			if (runs[i] == 0 || runs[i] == height-1 || runs[i+1] == 0 || runs[i+2] == width-1)
 				return true;
 		}
 		return false;
 	}
-	
+
+	/**
+	 * Paint every pixel of this blob in the given colour.
+	 */
+	public void paint(Image dest, byte r, byte g, byte b) {
+		for (int i = 0; i < 3 * runCount; i += 3) {
+			for (int x = runs[i+1]; x <= runs[i+2]; x++) {
+				dest.setPixel(x, runs[i], r, g, b);
+			}
+		}
+	}
+
 	public boolean isCircle() {
-		findConvexHull();
-		Point2D.Double centroid = new Point2D.Double(centroidX, centroidY);
+		int hullSize = findConvexHull();
 		double sumDist = 0.0;
-		for (Point2D.Double point : hullPoints) {
-			sumDist += point.distance(centroid);
+		for (int i = 0; i < 2 * hullSize; i += 2) {
+			sumDist += Math.hypot(hullPoints[i] - centroidX, hullPoints[i+1] - centroidY);
 		}
-		double avgDist = sumDist/hullPoints.size();
-		
+		double avgDist = sumDist/hullSize;
+
 		double sumError = 0.0;
-		for (Point2D.Double point : hullPoints) {
-			sumError += Math.pow(point.distance(centroid) - avgDist, 2);
+		for (int i = 0; i < 2 * hullSize; i += 2) {
+			sumError += Math.pow(Math.hypot(hullPoints[i] - centroidX, hullPoints[i+1] - centroidY) - avgDist, 2);
 		}
-		double stdDev = sumError/hullPoints.size();
-		
+		double stdDev = sumError/hullSize;
+
 		return (stdDev <= circleThreshold*avgDist);
 	}
-	
-	private void findConvexHull() {
-		int x;
-		int y;
-		for (Point2D.Double point : points) {
-			x = (int)point.x;
-			y = (int)point.y;
-			minYforGivenX.put(x, !minYforGivenX.containsKey(x) ? y : Math.min(y, minYforGivenX.get(x)));
-			maxYforGivenX.put(x, !maxYforGivenX.containsKey(x) ? y : Math.max(y, maxYforGivenX.get(x)));
-			minXforGivenY.put(y, !minXforGivenY.containsKey(y) ? x : Math.min(x, minXforGivenY.get(y)));
-			maxXforGivenY.put(y, !maxXforGivenY.containsKey(y) ? x : Math.max(x, maxXforGivenY.get(y)));
+
+	/**
+	 * Collect the outermost pixel of every row and column, without
+	 * duplicates, as interleaved x, y pairs at the start of hullPoints, in
+	 * raster order.
+	 * 
+	 * @return the number of pixels collected
+	 */
+	private int findConvexHull() {
+		int minX = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		for (int i = 0; i < 3 * runCount; i += 3) {
+			minX = Math.min(minX, runs[i+1]);
+			maxX = Math.max(maxX, runs[i+2]);
 		}
-		
-		for (Map.Entry<Integer, Integer> point : minYforGivenX.entrySet()) {
-			hullPoints.add(new Point2D.Double(point.getKey(),point.getValue()));
+		int minY = runs[0];
+		int maxY = runs[3 * (runCount - 1)];
+		int boxWidth = maxX - minX + 1;
+		int boxHeight = maxY - minY + 1;
+
+		if (minXforGivenY.length < boxHeight + 1) {
+			minXforGivenY = new int[2 * boxHeight + 1];
+			maxXforGivenY = new int[2 * boxHeight + 1];
+			rowEnds = new int[2 * boxHeight + 1];
 		}
-		for (Map.Entry<Integer, Integer> point : maxYforGivenX.entrySet()) {
-			hullPoints.add(new Point2D.Double(point.getKey(),point.getValue()));
+		if (minYforGivenX.length < boxWidth) {
+			minYforGivenX = new int[2 * boxWidth];
+			maxYforGivenX = new int[2 * boxWidth];
+			columnsByRow = new int[4 * boxWidth];
 		}
-		for (Map.Entry<Integer, Integer> point : minXforGivenY.entrySet()) {
-			hullPoints.add(new Point2D.Double(point.getValue(),point.getKey()));
+		if (hullPoints.length < 4 * (boxWidth + boxHeight)) {
+			hullPoints = new int[8 * (boxWidth + boxHeight)];
 		}
-		for (Map.Entry<Integer, Integer> point : maxXforGivenY.entrySet()) {
-			hullPoints.add(new Point2D.Double(point.getValue(),point.getKey()));
+		Arrays.fill(minXforGivenY, 0, boxHeight, Integer.MAX_VALUE);
+		Arrays.fill(maxXforGivenY, 0, boxHeight, -1);
+		Arrays.fill(minYforGivenX, 0, boxWidth, Integer.MAX_VALUE);
+		Arrays.fill(maxYforGivenX, 0, boxWidth, -1);
+		if (contourLength > 0) {
+			for (int i = 0; i < 2 * contourLength; i += 2) {
+				int x = contour[i] - minX;
+				int y = contour[i+1] - minY;
+				minXforGivenY[y] = Math.min(minXforGivenY[y], x);
+				maxXforGivenY[y] = Math.max(maxXforGivenY[y], x);
+				minYforGivenX[x] = Math.min(minYforGivenX[x], y);
+				maxYforGivenX[x] = Math.max(maxYforGivenX[x], y);
+			}
 		}
+		else {
+			for (int i = 0; i < 3 * runCount; i += 3) {
+				int y = runs[i] - minY;
+				minXforGivenY[y] = Math.min(minXforGivenY[y], runs[i+1] - minX);
+				maxXforGivenY[y] = Math.max(maxXforGivenY[y], runs[i+2] - minX);
+				for (int x = runs[i+1] - minX; x <= runs[i+2] - minX; x++) {
+					minYforGivenX[x] = Math.min(minYforGivenX[x], y);
+					maxYforGivenX[x] = Math.max(maxYforGivenX[x], y);
+				}
+			}
+		}
+
+		// bucket the column extremes by row with a counting sort; columns are
+		// visited left to right, so each row's bucket comes out sorted
+		Arrays.fill(rowEnds, 0, boxHeight + 1, 0);
+		for (int x = 0; x < boxWidth; x++) {
+			if (maxYforGivenX[x] >= 0) {
+				rowEnds[minYforGivenX[x] + 1]++;
+				if (maxYforGivenX[x] != minYforGivenX[x]) {
+					rowEnds[maxYforGivenX[x] + 1]++;
+				}
+			}
+		}
+		for (int y = 1; y <= boxHeight; y++) {
+			rowEnds[y] += rowEnds[y-1];
+		}
+		for (int x = 0; x < boxWidth; x++) {
+			if (maxYforGivenX[x] >= 0) {
+				columnsByRow[rowEnds[minYforGivenX[x]]++] = x;
+				if (maxYforGivenX[x] != minYforGivenX[x]) {
+					columnsByRow[rowEnds[maxYforGivenX[x]]++] = x;
+				}
+			}
+		}
+
+		// merge each row's extremes into its bucket, dropping the pixels that
+		// are extreme in both a row and a column
+		int hullSize = 0;
+		int bucketStart = 0;
+		for (int y = 0; y < boxHeight; y++) {
+			int bucketEnd = rowEnds[y];
+			int rowLeft = (maxXforGivenY[y] >= 0) ? minXforGivenY[y] : Integer.MAX_VALUE;
+			int rowRight = (maxXforGivenY[y] >= 0) ? maxXforGivenY[y] : Integer.MAX_VALUE;
+			int last = -1;
+			int i = bucketStart;
+			while (true) {
+				int x = Math.min(rowLeft, (i < bucketEnd) ? columnsByRow[i] : Integer.MAX_VALUE);
+				if (x == Integer.MAX_VALUE) {
+					break;
+				}
+				if (x == rowLeft) {
+					rowLeft = rowRight;
+					rowRight = Integer.MAX_VALUE;
+				}
+				else {
+					i++;
+				}
+				if (x != last) {
+					hullPoints[2 * hullSize] = minX + x;
+					hullPoints[2 * hullSize + 1] = minY + y;
+					hullSize++;
+					last = x;
+				}
+			}
+			bucketStart = bucketEnd;
+		}
+		return hullSize;
 	}
 
 	public void calculateBasics(int imgWidth, int imgHeight, int[][][] hsv) {
@@ -103,38 +284,112 @@ public class Blob {
 		double maxY = 0;
 		double sumHue = 0;
 
-		for (Point2D.Double point : points) {
-			sumX += point.x;
-			sumY += point.y;
-			minX = Math.min(minX, point.x);
-			maxX = Math.max(maxX, point.x);
-			minY = Math.min(minY, point.y);
-			maxY = Math.max(maxY, point.y);
-			sumHue += hsv[(int)point.y][(int)point.x][0];
+		for (int i = 0; i < 3 * runCount; i += 3) {
+			int y = runs[i];
+			int xStart = runs[i+1];
+			int xEnd = runs[i+2];
+			int length = xEnd - xStart + 1;
+			sumX += (double) (xStart + xEnd) * length / 2;
+			sumY += (double) y * length;
+			minX = Math.min(minX, xStart);
+			maxX = Math.max(maxX, xEnd);
+			minY = Math.min(minY, y);
+			maxY = Math.max(maxY, y);
+			int[][] hsvRow = hsv[y];
+			for (int x = xStart; x <= xEnd; x++) {
+				sumHue += hsvRow[x][0];
+			}
 		}
 
-		centroidX = sumX / points.size();
-		centroidY = sumY / points.size();
+		centroidX = sumX / size;
+		centroidY = sumY / size;
 		width = maxX - minX;
 		height = maxY - minY;
-		hue = sumHue / points.size();
-	}
-	
-	public int colorClassifier() {
-		int red_orange = 10;
-		int orange_yellow = 24;
-		int yellow_green = 50;
-		int green_blue = 120;
-		int blue_purple = 230;
-		if (hue < red_orange) { color = 0; return color; }
-		if (hue >= red_orange && hue < orange_yellow) { color = 1; return color; }
-		if (hue >= orange_yellow && hue < yellow_green) { color = 2; return color; }
-		if (hue >= yellow_green && hue < green_blue) { color = 3; return color; }
-		if (hue >= green_blue && hue < blue_purple) { color = 4; return color; }
-		if (hue >= blue_purple) { color = 5; return color; }
-		return 0;
-	}
-	
+		bottomRow = (int) maxY;
+		hue = sumHue / size;
+		hasBasics = true;
+	}
+
+	/**
+	 * Calculate the basics as {@link #calculateBasics(int, int, int[][][])}
+	 * does, but take each run's hues from integral images in constant time.
+	 * The hue is then the circular mean, so a blob whose hues lie either side
+	 * of 0 comes out red.
+	 */
+	public void calculateBasics(int imgWidth, int imgHeight, IntegralImages integrals) {
+		double sumX = 0;
+		double minX = imgWidth;
+		double maxX = 0;
+		double sumY = 0;
+		double minY = imgHeight;
+		double maxY = 0;
+		double sumCos = 0;
+		double sumSin = 0;
+
+		for (int i = 0; i < 3 * runCount; i += 3) {
+			int y = runs[i];
+			int xStart = runs[i+1];
+			int xEnd = runs[i+2];
+			int length = xEnd - xStart + 1;
+			sumX += (double) (xStart + xEnd) * length / 2;
+			sumY += (double) y * length;
+			minX = Math.min(minX, xStart);
+			maxX = Math.max(maxX, xEnd);
+			minY = Math.min(minY, y);
+			maxY = Math.max(maxY, y);
+			sumCos += integrals.hueCosSum(xStart, y, xEnd + 1, y + 1);
+			sumSin += integrals.hueSinSum(xStart, y, xEnd + 1, y + 1);
+		}
+
+		centroidX = sumX / size;
+		centroidY = sumY / size;
+		width = maxX - minX;
+		height = maxY - minY;
+		bottomRow = (int) maxY;
+		// the tables' rounded cosines and sines put the mean up to about 0.02
+		// of a hue out; round it to a sixteenth, so that a blob of one hue
+		// keeps it exactly, and with it its colour
+		hue = Math.round(16 * Math.max(0, IntegralImages.circularMean(sumCos, sumSin))) / 16.0;
+		hasBasics = true;
+	}
+
+	/**
+	 * Set the basics from the blob's traced outer contour rather than its
+	 * pixels, for labelers that know the blob's colour without averaging its
+	 * hues.
+	 */
+	public void setContourBasics(double centroidX, double centroidY, int minX, int minY, int maxX, int maxY, int color) {
+		this.centroidX = centroidX;
+		this.centroidY = centroidY;
+		this.width = maxX - minX;
+		this.height = maxY - minY;
+		this.bottomRow = maxY;
+		this.color = color;
+		colorKnown = true;
+		hasBasics = true;
+	}
+
+	/**
+	 * Whether {@link #calculateBasics} has run since the blob was last
+	 * emptied. A blob kept unchanged from an earlier frame keeps its basics.
+	 */
+	public boolean hasBasics() {
+		return hasBasics;
+	}
+
+	/**
+	 * Classify this blob by its mean hue; colours start on whole hues, so
+	 * the mean's integer part decides. A colour given with the contour basics
+	 * is kept.
+	 */
+	public int colorClassifier(ColorTable colors) {
+		if (colorKnown) {
+			return color;
+		}
+		color = colors.colorOf((int) hue);
+		return color;
+	}
+
 	public boolean formsFiducial(Blob second, int imgWidth, int imgHeight) {
 		/*System.out.println("width check: " + (this.width - second.width));
 		System.out.println("centroid check: " + (this.centroidX - second.centroidX));
@@ -143,25 +398,29 @@ public class Blob {
 			(Math.abs(this.width - second.width) <= 0.5*this.width) &&
 			(Math.abs(this.centroidX - second.centroidX) <= 0.2*this.width));
 	}
-	
+
 	public boolean isValidHorizontalFiducial(int imgHeight) {
 		return ((Math.abs(this.centroidY + this.height/2 - imgHeight/2) <= horizontalAlignThreshold*imgHeight) ||
 				(Math.abs(this.centroidY - this.height/2 - imgHeight/2) <= horizontalAlignThreshold*imgHeight));
 	}
 
-	public double calculateRangeBlock() {
-		return blockSize*160/this.width*0.29/0.28;
+	public double calculateRangeBlock(CameraModel camera) {
+		return camera.range(blockSize, this.width);
 	}
-	
-	public double calculateRangeFiducial() {
-		return sphereSize*160/this.width*0.29/0.28;
+
+	public double calculateRangeFiducial(CameraModel camera) {
+		return camera.range(sphereSize, this.width);
 	}
 
-	public double calculateBearing(int imgWidth) {
-		return (imgWidth/2 - centroidX)*Math.atan2(14.0, 29.0)/80;
+	public double calculateBearing(CameraModel camera) {
+		return camera.bearing(centroidX);
 	}
 
-	public Set<Point2D.Double> getPoints() {
-		return points;
+	/**
+	 * @return the distance along the floor to the point where this blob
+	 *         touches it, taken to be the middle of its bottom row
+	 */
+	public double calculateGroundRange(CameraModel camera) {
+		return camera.groundRange(bottomRow);
 	}
 }
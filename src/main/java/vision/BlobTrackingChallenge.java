@@ -1,15 +1,9 @@
 package vision;
 
-import java.awt.Color;
-import java.awt.geom.Point2D;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
-import java.util.Set;
 import java.io.FileOutputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
@@ -22,17 +16,47 @@ import org.apache.commons.lang.time.StopWatch;
  * module. BlobTracking filters raw pixels from an image and classifies blobs,
  * generating a higher-level vision image.
  * 
+ * The tracker itself only holds its immutable {@link DetectorConfig} and the
+ * {@link ColorTable} in use; all per-frame state is kept in a
+ * {@link DetectionContext}, so one instance may be shared by several threads
+ * as long as each frame in flight has its own context. The colour table can
+ * be replaced at any time; each frame uses the table that was current when
+ * it was prepared.
+ * 
+ * Frames may have any size. The configured size is only the size new
+ * contexts start with; a context is resized when a frame of another size
+ * reaches it.
+ * 
+ * If the configuration has a {@link RegionOfInterest}, only the pixels inside
+ * it are blurred, converted and labeled.
+ * 
+ * The methods taking a context allocate nothing once the context has seen a
+ * frame of the current size: blobs, lists and result messages all come from the context. Their
+ * results are only valid until the context's next frame.
+ * 
  * @author previous TA's, prentice
  */
 public class BlobTrackingChallenge {
-	private int width;
-	private int height;
-	private boolean serialize;
-	private boolean useBlurred;
-	private int hueThreshold;
-	private int satThreshold;
-	private int skipThreshold;
-	private int sizeThreshold;
+	private static final int[][] BLOB_COLORS = {
+		{255, 0, 0},     // red
+		{252, 134, 16},  // orange
+		{249, 244, 24},  // yellow
+		{106, 215, 45},  // green
+		{50, 183, 210},  // blue
+		{119, 36, 128}   // purple
+	};
+
+	/**
+	 * Label-map value of pixels that belong to no blob.
+	 */
+	static final int UNLABELED = -1;
+
+	private final DetectorConfig config;
+	private volatile ColorTable colorTable;
+	// guarded by itself; an ArrayDeque, unlike a concurrent queue, does not
+	// allocate a node for every context handed back
+	private final ArrayDeque<DetectionContext> contextPool = new ArrayDeque<DetectionContext>();
+	private volatile boolean serialize;
 
 	public boolean targetDetected = false;
     PrintWriter out;
@@ -40,28 +64,21 @@ public class BlobTrackingChallenge {
     FileOutputStream fileOut;
     ObjectOutputStream outStream;
     List<Image> capturedImages;
-    Image currentImage;
-    Image destinationImage;
-    int[][][] currentHSV;
-    
-    int red_r = 255; int red_g = 0; int red_b = 0;
-    int orange_r = 252; int orange_g = 134; int orange_b = 16;
-    int yellow_r = 249; int yellow_g = 244; int yellow_b = 24;
-    int green_r = 106; int green_g = 215; int green_b = 45;
-    int blue_r = 50; int blue_g = 183; int blue_b = 210;
-    int purple_r = 119; int purple_g = 36; int purple_b = 128;
-    int blob_r; int blob_g; int blob_b;
 
+	/**
+	 * @param satThreshold
+	 *            ignored; which saturations qualify is set by the colour
+	 *            table
+	 */
 	public BlobTrackingChallenge(int width, int height, boolean serialize, boolean useBlurred, int hueThreshold, int satThreshold, int skipThreshold, int sizeThreshold) {
-		this.width = width;
-		this.height = height;
+		this(new DetectorConfig.Builder(width, height).blurred(useBlurred).hueThreshold(hueThreshold)
+				.skipThreshold(skipThreshold).sizeThreshold(sizeThreshold).build(), serialize);
+	}
+
+	public BlobTrackingChallenge(DetectorConfig config, boolean serialize) {
+		this.config = config;
+		this.colorTable = config.colorTable;
 		this.serialize = serialize;
-		this.useBlurred = useBlurred;
-		this.hueThreshold = hueThreshold;
-		this.satThreshold = satThreshold;
-		this.skipThreshold = skipThreshold;
-		this.sizeThreshold = sizeThreshold;
-		currentHSV = new int[height][width][3];
 		
 		if (serialize) {
 			try {
@@ -77,195 +94,361 @@ public class BlobTrackingChallenge {
 		capturedImages = new ArrayList<Image>();
 	}
 
+	public DetectorConfig getConfig() {
+		return config;
+	}
+
+	public ColorTable getColorTable() {
+		return colorTable;
+	}
+
+	/**
+	 * Classify pixels with another colour table from the next frame
+	 * prepared on. Safe to call from any thread.
+	 */
+	public void setColorTable(ColorTable colorTable) {
+		this.colorTable = colorTable.withDefaultHueThreshold(config.hueThreshold);
+	}
+
+	/**
+	 * Take a scratch context from the pool, creating one if every pooled
+	 * context is in use. The caller owns the context until it is handed back
+	 * with {@link #releaseContext(DetectionContext)}.
+	 */
+	public DetectionContext acquireContext() {
+		DetectionContext ctx;
+		synchronized (contextPool) {
+			ctx = contextPool.poll();
+		}
+		return (ctx != null) ? ctx : new DetectionContext(config.width, config.height, config.cameraModel, config.roi);
+	}
+
+	public void releaseContext(DetectionContext ctx) {
+		ctx.currentImage = null;
+		synchronized (contextPool) {
+			contextPool.offer(ctx);
+		}
+	}
+
+	/**
+	 * Detect on a borrowed context. The result is a copy that the caller
+	 * owns; use {@link #applyBlock(Image, Image, DetectionContext)} to avoid
+	 * allocating it.
+	 */
 	public CompleteBallMessage applyBlock(Image src, Image dest) {
-		currentImage = src;
-		destinationImage = dest; 
+		DetectionContext ctx = acquireContext();
+		try {
+			CompleteBallMessage result = new CompleteBallMessage();
+			result.set(applyBlock(src, dest, ctx));
+			return result;
+		}
+		finally {
+			releaseContext(ctx);
+		}
+	}
+
+	public CompleteFiducialMessage applyFiducial(Image src, Image dest) {
+		DetectionContext ctx = acquireContext();
+		try {
+			CompleteFiducialMessage result = new CompleteFiducialMessage();
+			result.set(applyFiducial(src, dest, ctx));
+			return result;
+		}
+		finally {
+			releaseContext(ctx);
+		}
+	}
+
+	public CompleteBallMessage applyBlock(Image src, Image dest, DetectionContext ctx) {
+		prepare(src, ctx);
+		return detectBlock(ctx, dest);
+	}
+
+	public CompleteFiducialMessage applyFiducial(Image src, Image dest, DetectionContext ctx) {
+		prepare(src, ctx);
+		return detectFiducial(ctx, dest);
+	}
+
+	public CompleteBallMessage applyBlock(YuvImage src, Image dest, DetectionContext ctx) {
+		prepare(src, ctx);
+		return detectBlock(ctx, dest);
+	}
+
+	public CompleteFiducialMessage applyFiducial(YuvImage src, Image dest, DetectionContext ctx) {
+		prepare(src, ctx);
+		return detectFiducial(ctx, dest);
+	}
+
+	/**
+	 * First processing stage: blur the source image if configured and compute
+	 * its HSV values into the context. Only touches the context, so it can run
+	 * on one thread while another thread runs a detect stage on a different
+	 * context.
+	 */
+	public void prepare(Image src, DetectionContext ctx) {
+		ctx.ensureSize(src.getWidth(), src.getHeight(), config.cameraModel, config.roi);
+		ctx.colorTable = colorTable;
+		ctx.currentImage = src;
+		RegionOfInterest roi = ctx.roi;
 		
+		FrameDeadline deadline = ctx.deadline;
+
 		// Change current image to blurred image if boolean activated
-		if (useBlurred) {
-			byte[] blurredPixels = new byte[width * height * 3];
-			GaussianBlur.apply(src.toArray(), blurredPixels, width, height);
-			currentImage = new Image(blurredPixels, width, height);
+		if (config.useBlurred && (deadline == null || deadline.allows(FrameDeadline.Stage.BLUR))) {
+			long blurStart = System.nanoTime();
+			if (roi == null) {
+				GaussianBlur.apply(src.getPixelBuffer(), ctx.blurredPixels, ctx.blurScratch, ctx.width, ctx.height);
+			}
+			else {
+				GaussianBlur.apply(src.getPixelBuffer(), ctx.blurredPixels, ctx.blurScratch, ctx.width, ctx.height,
+						roi.minX, roi.minY, roi.maxX + 1, roi.maxY + 1);
+			}
+			ctx.currentImage = ctx.blurredImage;
+			if (deadline != null) {
+				deadline.record(FrameDeadline.Stage.BLUR, System.nanoTime() - blurStart);
+			}
 		}
 		
 		// Compute the hues of the current image (unfiltered and filtered)
-		currentHSV = currentImage.getHSVArray();
+		long start = System.nanoTime();
+		if (config.changeThreshold < 0) {
+			convertRegion(ctx, null, 0, 0, ctx.width, ctx.height);
+		}
+		else {
+			convertChangedTiles(ctx);
+		}
+		if (deadline != null) {
+			deadline.record(FrameDeadline.Stage.CONVERT, System.nanoTime() - start);
+		}
+		finishPrepare(ctx);
+	}
+
+	/**
+	 * First processing stage for a YUV frame: compute its HSV values straight
+	 * from its luma and chroma, without an RGB copy. Blur and change
+	 * detection work on RGB pixels, so if either is configured the frame is
+	 * converted to RGB on the context and prepared like any other.
+	 */
+	public void prepare(YuvImage src, DetectionContext ctx) {
+		ctx.ensureSize(src.getWidth(), src.getHeight(), config.cameraModel, config.roi);
+		if (config.useBlurred || config.changeThreshold >= 0 || serialize) {
+			if (ctx.rgbImage == null) {
+				ctx.rgbPixels = new byte[ctx.width * ctx.height * 3];
+				ctx.rgbImage = new Image(ctx.rgbPixels, ctx.width, ctx.height);
+			}
+			src.toRGB(ctx.rgbPixels);
+			prepare(ctx.rgbImage, ctx);
+			return;
+		}
+		ctx.colorTable = colorTable;
+		ctx.currentImage = null;
+
+		long start = System.nanoTime();
+		convertRegion(ctx, src, 0, 0, ctx.width, ctx.height);
+		if (ctx.deadline != null) {
+			ctx.deadline.record(FrameDeadline.Stage.CONVERT, System.nanoTime() - start);
+		}
+		finishPrepare(ctx);
+	}
 
-		if(serialize) storeImage();
+	private void finishPrepare(DetectionContext ctx) {
+		if (config.integralImages) {
+			if (ctx.integrals == null) {
+				ctx.integrals = new IntegralImages(ctx.width, ctx.height);
+			}
+			ctx.integrals.build(ctx.currentHSV, ctx.colorTable, ctx.roi);
+		}
+		startBudget(ctx);
+
+		if(serialize) storeImage(ctx);
 
 		//computeUpperLeftAverage();
-		
-		// Interpret the image
-		Set<Blob> hueConstantRegions = findHueConstantRegions(false, new HashSet<Integer>());
-		Set<Blob> discoveredObjects = findObjectRegions(hueConstantRegions);
-		List<Blob> discoveredBlocks = findSpheres(discoveredObjects);
-		
-		//Color blobs grey
-		int grayscale = 100;
-		for (Blob blob : discoveredObjects) {
-			Set<Point2D.Double> blobPoints = blob.getPoints();
-			for (Point2D.Double point : blobPoints) {
-				dest.setPixel((int) point.x, (int) point.y, (byte) grayscale,
-						(byte) grayscale, (byte) grayscale);
+	}
+
+	/**
+	 * Compare the current image with the last one converted on this context,
+	 * tile by tile, and compute HSV values only for the tiles whose sum of
+	 * absolute differences exceeds the change threshold. Changed tiles are
+	 * stamped with the new frame number for the incremental labelers.
+	 */
+	private void convertChangedTiles(DetectionContext ctx) {
+		int width = ctx.width;
+		int height = ctx.height;
+		int tile = DetectionContext.TILE;
+		if (ctx.referencePixels == null) {
+			ctx.referencePixels = new byte[width * height * 3];
+		}
+		byte[] pixels = ctx.currentImage.getPixelBuffer();
+		byte[] reference = ctx.referencePixels;
+		long frame = ++ctx.frameNumber;
+		for (int ty = 0; ty < ctx.tilesY; ty++) {
+			int y0 = ty * tile;
+			int y1 = Math.min(height, y0 + tile);
+			for (int tx = 0; tx < ctx.tilesX; tx++) {
+				int x0 = tx * tile;
+				int x1 = Math.min(width, x0 + tile);
+				if (ctx.hasReference && !tileDiffers(pixels, reference, width, x0, y0, x1, y1)) {
+					continue;
+				}
+				for (int y = y0; y < y1; y++) {
+					int start = (y * width + x0) * 3;
+					System.arraycopy(pixels, start, reference, start, (x1 - x0) * 3);
+				}
+				convertRegion(ctx, null, x0, y0, x1, y1);
+				ctx.tileChangedAt[ty * ctx.tilesX + tx] = frame;
 			}
 		}
-		
-		CompleteBallMessage completeBallMsg = new CompleteBallMessage();
-		for (Blob blob : discoveredBlocks) {
-			Set<Point2D.Double> blobPoints = blob.getPoints();
-			getBlobColors(blob.colorClassifier());
-			for (Point2D.Double point : blobPoints) {
-				dest.setPixel((int) point.x, (int) point.y, (byte) blob_r,
-						(byte) blob_g, (byte) blob_b);
-			}
-			double currentRange = blob.calculateRangeBlock();
-			double currentBearing = blob.calculateBearing(width);
-			if (!completeBallMsg.sendMessage || currentRange < completeBallMsg.range) {
-				completeBallMsg = new CompleteBallMessage(currentRange, currentBearing, blob.color);
-			}		
+		ctx.hasReference = true;
+	}
+
+	/**
+	 * Compute the HSV values of the pixels of the rectangle from (x0, y0)
+	 * inclusive to (x1, y1) exclusive that lie in the region of interest.
+	 *
+	 * @param yuv
+	 *            the YUV frame to convert, or null to convert the context's
+	 *            current image
+	 */
+	private void convertRegion(DetectionContext ctx, YuvImage yuv, int x0, int y0, int x1, int y1) {
+		RegionOfInterest roi = ctx.roi;
+		if (roi == null) {
+			if (yuv == null) {
+				ctx.currentImage.getHSVArray(ctx.currentHSV, x0, y0, x1, y1);
+			}
+			else {
+				yuv.getHSVArray(ctx.currentHSV, x0, y0, x1, y1);
+			}
+			return;
+		}
+		int lastRow = Math.min(y1 - 1, roi.maxY);
+		for (int y = Math.max(y0, roi.minY); y <= lastRow; y++) {
+			for (int run = 0; run < roi.getRunCount(y); run++) {
+				int start = Math.max(x0, roi.getRunStart(y, run));
+				int end = Math.min(x1 - 1, roi.getRunEnd(y, run));
+				if (start > end) {
+					continue;
+				}
+				if (yuv == null) {
+					ctx.currentImage.getHSVRun(ctx.currentHSV, y, start, end);
+				}
+				else {
+					yuv.getHSVRun(ctx.currentHSV, y, start, end);
+				}
+			}
 		}
-		
-		return completeBallMsg;
 	}
-	
-	public CompleteFiducialMessage applyFiducial(Image src, Image dest) {
-		currentImage = src;
-		destinationImage = dest; 
-		
-		// Change current image to blurred image if boolean activated
-		if (useBlurred) {
-			byte[] blurredPixels = new byte[width * height * 3];
-			GaussianBlur.apply(src.toArray(), blurredPixels, width, height);
-			currentImage = new Image(blurredPixels, width, height);
+
+	private boolean tileDiffers(byte[] pixels, byte[] reference, int width, int x0, int y0, int x1, int y1) {
+		int threshold = config.changeThreshold;
+		int difference = 0;
+		for (int y = y0; y < y1; y++) {
+			int end = (y * width + x1) * 3;
+			for (int i = (y * width + x0) * 3; i < end; i++) {
+				difference += Math.abs((pixels[i] & 0xff) - (reference[i] & 0xff));
+			}
+			if (difference > threshold) {
+				return true;
+			}
 		}
-		
-		// Compute the hues of the current image (unfiltered and filtered)
-		currentHSV = currentImage.getHSVArray();
+		return false;
+	}
 
-		if(serialize) storeImage();
-		//computeUpperLeftAverage();
-		
-		// Attempt to find the wall
-		Set<Blob> wallPotentialRegions = findHueConstantRegions(true, new HashSet<Integer>());
+	/**
+	 * Second processing stage for the block camera: label, classify and paint
+	 * a context filled in by {@link #prepare(Image, DetectionContext)}. Runs
+	 * {@link DetectorStages#BLOCK}.
+	 */
+	public CompleteBallMessage detectBlock(DetectionContext ctx, Image dest) {
+		ctx.releaseBlobs();
+		return DetectorStages.BLOCK.run(this, ctx, null, dest);
+	}
+	
+	/**
+	 * Second processing stage for the fiducial camera: suppress the wall, then
+	 * label, classify, pair and paint a context filled in by
+	 * {@link #prepare(Image, DetectionContext)}. Runs
+	 * {@link DetectorStages#FIDUCIAL}.
+	 */
+	public CompleteFiducialMessage detectFiducial(DetectionContext ctx, Image dest) {
+		ctx.releaseBlobs();
+		return DetectorStages.FIDUCIAL.run(this, ctx, null, dest);
+	}
+
+	/**
+	 * Find the largest region of the wall pass and, if it is big enough to be
+	 * the wall, forbid its most common hues to the object pass.
+	 *
+	 * @return the largest wall region, or null if there is none
+	 */
+	Blob findWall(DetectionContext ctx, boolean[] disallowedHues) {
+		List<Blob> wallPotentialRegions = findHueConstantRegions(ctx, true, ctx.noForbiddenHues, ctx.wallRegions);
+		if (ctx.overBudget) {
+			return null;
+		}
 		int maxSize = 0;
 		Blob potentialWall = null;
-		for (Blob blob : wallPotentialRegions) {
-			if (blob.getPoints().size() > maxSize) {
-				maxSize = blob.getPoints().size();
+		for (int i = 0; i < wallPotentialRegions.size(); i++) {
+			Blob blob = wallPotentialRegions.get(i);
+			if (blob.getSize() > maxSize) {
+				maxSize = blob.getSize();
 				potentialWall = blob;
 			}
 		}
-		Set<Integer> disallowedHues = new HashSet<Integer>();
-		if (maxSize > 5000) {
-			Map<Integer,Integer> wallHueHistogram = new HashMap<Integer,Integer>();
-			for (Point2D.Double point : potentialWall.getPoints()) {
-				int hue = currentHSV[(int)point.y][(int)point.x][0];
-				if (wallHueHistogram.containsKey(hue)) {
-					wallHueHistogram.put(hue, wallHueHistogram.get(hue) + 1);
-				}
-				else {
-					wallHueHistogram.put(hue,  1);
+		if (maxSize > scaledArea(ctx, 5000)) {
+			int[] wallHueHistogram = ctx.wallHueHistogram;
+			Arrays.fill(wallHueHistogram, 0);
+			for (int run = 0; run < potentialWall.getRunCount(); run++) {
+				int[][] hsvRow = ctx.currentHSV[potentialWall.getRunRow(run)];
+				for (int x = potentialWall.getRunStart(run); x <= potentialWall.getRunEnd(run); x++) {
+					wallHueHistogram[hsvRow[x][0]]++;
 				}
 			}
 			
-			/*for (int hue : wallHueHistogram.keySet()) {
-				System.out.println("hue: " + hue + " num: " + wallHueHistogram.get(hue));
+			/*for (int hue = 0; hue < wallHueHistogram.length; hue++) {
+				System.out.println("hue: " + hue + " num: " + wallHueHistogram[hue]);
 			}*/
 			
+			// forbid the 8 most common wall hues; a removed hue counts as zero
 			for (int i=0; i<8; i++) {
 				int maxHue = 0;
-				for (int hue : wallHueHistogram.keySet()) {
-					if (wallHueHistogram.get(hue) > (wallHueHistogram.containsKey(maxHue) ? wallHueHistogram.get(maxHue) : 0)) {
+				for (int hue = 0; hue < wallHueHistogram.length; hue++) {
+					if (wallHueHistogram[hue] > wallHueHistogram[maxHue]) {
 						maxHue = hue;
 					}
 				}
-				wallHueHistogram.remove(maxHue);
-				disallowedHues.add(maxHue);
-			}
-	
-			/*for (int hue : disallowedHues) {
-				System.out.println("disallowed hue: " + hue);
-			}*/
-		}
-		
-		//System.out.println("maximum size blob: " + maxSize);
-		if (potentialWall != null) {
-			for (Point2D.Double point : potentialWall.getPoints()) {
-				dest.setPixel((int) point.x, (int) point.y, (byte) 0, (byte) 0, (byte) 0);
+				wallHueHistogram[maxHue] = 0;
+				disallowedHues[maxHue] = true;
 			}
 		}
 		
-		Set<Blob> hueConstantRegions = findHueConstantRegions(false, disallowedHues);
-		Set<Blob> discoveredObjects = findObjectRegions(hueConstantRegions);
-		List<Blob> discoveredSpheres = findSpheres(discoveredObjects);
 		
-		//Color blobs grey
-		int grayscale = 100;
-		for (Blob blob : discoveredObjects) {
-			Set<Point2D.Double> blobPoints = blob.getPoints();
-			for (Point2D.Double point : blobPoints) {
-				dest.setPixel((int) point.x, (int) point.y, (byte) grayscale,
-						(byte) grayscale, (byte) grayscale);
-			}
-		}
-		
-		//Color spheres white and spaced correctly spheres pink
-		for (Blob blob : discoveredSpheres) {
-			Set<Point2D.Double> blobPoints = blob.getPoints();
-			for (Point2D.Double point : blobPoints) {
-				dest.setPixel((int) point.x, (int) point.y, (byte) 255, (byte) 255, (byte) 255);
-			}
-			if (blob.isValidHorizontalFiducial(height)) {
-				for (Point2D.Double point : blobPoints) {
-					dest.setPixel((int) point.x, (int) point.y, (byte) 255, (byte) 102, (byte) 153);
-				}
-			}
-		}
-			
-		//Color fiducials
-		CompleteFiducialMessage completeFidMsg = new CompleteFiducialMessage();
-		for (int i=0; i<discoveredSpheres.size(); i++) {
-			for (int j=i+1; j<discoveredSpheres.size(); j++) {
-				
-				Blob blob1 = discoveredSpheres.get(i);
-				Blob blob2 = discoveredSpheres.get(j);
-				if (blob1.formsFiducial(blob2, width, height)) {
-					// send message
-					Set<Point2D.Double> blobPoints1 = blob1.getPoints();
-					Set<Point2D.Double> blobPoints2 = blob2.getPoints();
-					getBlobColors(blob1.colorClassifier());
-					for (Point2D.Double point : blobPoints1) {
-						dest.setPixel((int) point.x, (int) point.y, (byte) blob_r,
-								(byte) blob_g, (byte) blob_b);
-					}
-					getBlobColors(blob2.colorClassifier());
-					for (Point2D.Double point : blobPoints2) {
-						dest.setPixel((int) point.x, (int) point.y, (byte) blob_r,
-								(byte) blob_g, (byte) blob_b);
-					}
-					double currentRange = (blob1.calculateRangeFiducial() + blob2.calculateRangeFiducial()) / 2.0;
-					double currentBearing = (blob1.calculateBearing(width) + blob2.calculateBearing(width)) / 2.0;
-					if (!completeFidMsg.sendMessage || currentRange < completeFidMsg.range) {
-						if (blob1.centroidY > blob2.centroidY) {
-							completeFidMsg = new CompleteFiducialMessage(currentRange, currentBearing, blob2.color, blob1.color);
-						}
-						else {
-							completeFidMsg = new CompleteFiducialMessage(currentRange, currentBearing, blob1.color, blob2.color);
-						}						
-					}
-				}
-			}
-		}
-		
-		return completeFidMsg;
+		//System.out.println("maximum size blob: " + maxSize);
+		return potentialWall;
+	}
+
+	static CompleteFiducialMessage fiducialOverBudget(DetectionContext ctx) {
+		CompleteFiducialMessage result = ctx.fiducialResult;
+		result.clear();
+		result.overBudget = true;
+		return result;
 	}
 
-	public void computeUpperLeftAverage() {
+	public void computeUpperLeftAverage(DetectionContext ctx) {
+		int width = ctx.width;
+		int height = ctx.height;
 		int ht = height / 10;
 		int wt = width / 10;
 		int ht_start = 0;
 		int wt_start = 0;
 
+		if (ctx.integrals != null) {
+			IntegralImages integrals = ctx.integrals;
+			System.out.println("Upper left:: hue: " + (int) integrals.meanHue(wt_start, ht_start, wt_start + wt, ht_start + ht)
+					+ " sat: " + (int) integrals.meanSaturation(wt_start, ht_start, wt_start + wt, ht_start + ht)
+					+ " val: " + (int) integrals.meanValue(wt_start, ht_start, wt_start + wt, ht_start + ht));
+			return;
+		}
+
 		double hueSum = 0;
 		double satSum = 0;
 		double valSum = 0;
@@ -273,9 +456,9 @@ public class BlobTrackingChallenge {
 		// Determine the average rgb/hsv pixel values in the upper left hand corner
 		for (int x = wt_start; x < wt_start + wt; x++) {
 			for (int y = ht_start; y < ht_start + ht; y++) {
-				hueSum += currentHSV[y][x][0];
-				satSum += currentHSV[y][x][1];
-				valSum += currentHSV[y][x][2];
+				hueSum += ctx.currentHSV[y][x][0];
+				satSum += ctx.currentHSV[y][x][1];
+				valSum += ctx.currentHSV[y][x][2];
 			}
 		}
 		int hueApprox = (int) hueSum / (ht * wt);
@@ -284,33 +467,35 @@ public class BlobTrackingChallenge {
 		System.out.println("Upper left:: hue: " + hueApprox + " sat: " + satApprox + " val: " + valApprox);
 	}
 	
-	public void storeImage() {
+	public synchronized void storeImage(DetectionContext ctx) {
+		int width = ctx.width;
+		int height = ctx.height;
 		if (watch.getTime() > 1000*3) {
 			watch.reset();
 			watch.start();
 			for (int y = 0; y < height; y++) {
 				for (int x = 0; x < width; x++) {
-				    out.print(currentHSV[y][x][0] + " ");
+				    out.print(ctx.currentHSV[y][x][0] + " ");
 			    }
 			    out.println();
 			}
 			out.println(); out.println(); out.flush();
 			for (int y = 0; y < height; y++) {
 				for (int x = 0; x < width; x++) {
-					out.print(currentHSV[y][x][1] + " ");
+					out.print(ctx.currentHSV[y][x][1] + " ");
 			    }
 			    out.println();
 			}
 			out.println(); out.println(); out.flush();
 			for (int y = 0; y < height; y++) {
 				for (int x = 0; x < width; x++) {
-					out.print(currentHSV[y][x][2] + " ");
+					out.print(ctx.currentHSV[y][x][2] + " ");
 			    }
 			    out.println();
 			}
 			out.println(); out.println(); out.flush();
 			
-			capturedImages.add(currentImage);
+			capturedImages.add(new Image(ctx.currentImage));
 			System.out.println("Size of captured images: " + capturedImages.size());
 			if (capturedImages.size() == 20) {
 				closeSerialization();
@@ -318,30 +503,165 @@ public class BlobTrackingChallenge {
 		}
     }
 		
-	public Set<Blob> findHueConstantRegions(boolean findWall, Set<Integer> forbiddenHues) {
-		Set<Point2D.Double> examinedPoints = new HashSet<Point2D.Double>();
-		Set<Blob> discoveredBlobs = new HashSet<Blob>();
+	/**
+	 * Find the hue-constant regions of the context's frame, replacing the
+	 * contents of the given list with them.
+	 * 
+	 * @param forbiddenHues
+	 *            indexed by hue, true for hues that never qualify
+	 * @return regions
+	 */
+	public List<Blob> findHueConstantRegions(DetectionContext ctx, boolean findWall, boolean[] forbiddenHues, List<Blob> regions) {
+		regions.clear();
+		// with no pixel that may belong to an object, the object pass has
+		// nothing to find
+		if (!findWall && ctx.integrals != null && ctx.integrals.qualifyingCount(0, 0, ctx.width, ctx.height) == 0) {
+			return regions;
+		}
+		if (config.changeThreshold >= 0 && config.labelingMode == LabelingMode.SERIAL) {
+			int pass = findWall ? 0 : 1;
+			if (ctx.incrementalLabelers[pass] == null) {
+				ctx.incrementalLabelers[pass] = new IncrementalLabeler(this, ctx);
+			}
+			ctx.incrementalLabelers[pass].label(findWall, forbiddenHues, regions);
+			return checkBudget(ctx, findWall, regions);
+		}
+		// the masks group pixels by colour band, which would merge an object
+		// touching the wall into it, so the wall is always flood filled
+		if (config.labelingMode == LabelingMode.MASK && !findWall) {
+			if (ctx.maskLabeler == null) {
+				ctx.maskLabeler = new MaskLabeler(this, ctx);
+			}
+			ctx.maskLabeler.label(forbiddenHues, regions);
+			return checkBudget(ctx, findWall, regions);
+		}
+		if (config.labelingMode == LabelingMode.CONTOUR && !findWall) {
+			if (ctx.contourLabeler == null) {
+				ctx.contourLabeler = new ContourLabeler(this, ctx);
+			}
+			ctx.contourLabeler.label(forbiddenHues, regions);
+			return checkBudget(ctx, findWall, regions);
+		}
 
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				Point2D.Double startPoint = new Point2D.Double(x, y);
-				if (!examinedPoints.contains(startPoint) && doesPixelQualify(findWall, currentHSV[y][x][0], currentHSV[y][x][1], forbiddenHues)) {
-					Set<Point2D.Double> currentBlobPoints = findNewBlob(startPoint, findWall, forbiddenHues, examinedPoints);
-					examinedPoints.addAll(currentBlobPoints);
-					discoveredBlobs.add(new Blob(currentBlobPoints));
+		int labelCount;
+		if (config.labelingMode == LabelingMode.STRIPS) {
+			if (ctx.stripLabeler == null) {
+				ctx.stripLabeler = new StripLabeler(this, ctx);
+			}
+			labelCount = ctx.stripLabeler.label(findWall, forbiddenHues);
+		}
+		else {
+			labelCount = labelSerial(ctx, findWall, forbiddenHues);
+		}
+		if (!ctx.overBudget) {
+			collectBlobs(ctx, labelCount, regions);
+		}
+		return checkBudget(ctx, findWall, regions);
+	}
+
+	/**
+	 * Give the frame up, leaving no regions, if labeling ran over the work
+	 * budget or found more regions, or a larger candidate object, than the
+	 * budget allows.
+	 */
+	private List<Blob> checkBudget(DetectionContext ctx, boolean findWall, List<Blob> regions) {
+		if (regions.size() > ctx.blobCountBudget) {
+			ctx.overBudget = true;
+		}
+		for (int i = 0; i < regions.size() && !findWall && !ctx.overBudget; i++) {
+			if (regions.get(i).getSize() > ctx.blobAreaBudget) {
+				ctx.overBudget = true;
+			}
+		}
+		if (ctx.overBudget) {
+			regions.clear();
+		}
+		return regions;
+	}
+
+	/**
+	 * Start a frame's work budget, scaled to the context's frame size. The
+	 * prepare stage does this once for each frame; the detect stage spends
+	 * it.
+	 */
+	void startBudget(DetectionContext ctx) {
+		WorkBudget budget = config.budget;
+		ctx.pixelVisits = 0;
+		ctx.overBudget = false;
+		ctx.visitBudget = (long) scaledBudget(ctx, budget.maxPixelVisits);
+		ctx.blobCountBudget = budget.maxBlobs;
+		ctx.blobAreaBudget = (int) scaledBudget(ctx, budget.maxBlobArea);
+	}
+
+	/**
+	 * Scale a budget in pixels like {@link #scaledArea}; the result is
+	 * converted to an integer type by the caller, which saturates, so an
+	 * unlimited budget stays unlimited.
+	 */
+	private double scaledBudget(DetectionContext ctx, long amount) {
+		if (ctx.width == config.width && ctx.height == config.height) {
+			return amount;
+		}
+		return (double) amount * ctx.width * ctx.height / ((double) config.width * config.height);
+	}
+
+	private int labelSerial(DetectionContext ctx, boolean findWall, boolean[] forbiddenHues) {
+		int width = ctx.width;
+		int height = ctx.height;
+		int[] labels = ctx.labels;
+		ColorTable colors = ctx.colorTable;
+		ctx.clearLabels(labels);
+		int labelCount = 0;
+
+		// pixels outside the region of interest are marked in the label map,
+		// so only its bounding box needs scanning
+		RegionOfInterest roi = ctx.roi;
+		int lastX = (roi == null) ? width - 1 : roi.maxX;
+		int lastY = (roi == null) ? height - 1 : roi.maxY;
+		for (int x = (roi == null) ? 0 : roi.minX; x <= lastX; x++) {
+			for (int y = (roi == null) ? 0 : roi.minY; y <= lastY; y++) {
+				if (labels[y * width + x] == UNLABELED && colors.qualifies(findWall, ctx.currentHSV[y][x][0], ctx.currentHSV[y][x][1], forbiddenHues)) {
+					findNewBlob(ctx, x, y, labelCount++, findWall, forbiddenHues);
+					if (ctx.overBudget || labelCount > ctx.blobCountBudget) {
+						ctx.overBudget = true;
+						return labelCount;
+					}
 				}
 			}
 		}
 
-		return discoveredBlobs;
+		return labelCount;
 	}
-	
-	private boolean doesPixelQualify(boolean findWall, int hue, int sat, Set<Integer> forbiddenHues) {
-		if (findWall) {
-			return (hue > 10 && hue < 32 && sat > 80);
+
+	/**
+	 * Turn a label map into blobs by scanning it row by row and appending
+	 * each horizontal run of equal labels to its blob. Pixels with a negative
+	 * label belong to no blob. Blobs are added to the empty list
+	 * in label order, so the result does not depend on the labeling mode.
+	 */
+	private void collectBlobs(DetectionContext ctx, int labelCount, List<Blob> blobs) {
+		int width = ctx.width;
+		int height = ctx.height;
+		int[] labels = ctx.labels;
+		for (int i = 0; i < labelCount; i++) {
+			blobs.add(ctx.obtainBlob());
 		}
-		else {
-			return (!forbiddenHues.contains(hue) && sat > 80 && !(hue > 17 && hue < 25));
+		for (int y = 0; y < height; y++) {
+			int rowStart = y * width;
+			int x = 0;
+			while (x < width) {
+				int label = labels[rowStart + x];
+				if (label < 0) {
+					x++;
+					continue;
+				}
+				int runStart = x;
+				while (x + 1 < width && labels[rowStart + x + 1] == label) {
+					x++;
+				}
+				blobs.get(label).addRun(y, runStart, x);
+				x++;
+			}
 		}
 	}
 	
@@ -353,46 +673,68 @@ public class BlobTrackingChallenge {
 //		return false;
 	}*/
 
-	public Set<Point2D.Double> findNewBlob(Point2D.Double startPoint, boolean findWall, Set<Integer> forbiddenHues, Set<Point2D.Double> examinedPoints) {
-		// Initialize a set representing the blob and a queue of points to add
-		// to the blob
-		Set<Point2D.Double> currentPoints = new HashSet<Point2D.Double>();
-		Queue<Point2D.Double> pointsToTest = new LinkedList<Point2D.Double>();
-		pointsToTest.add(startPoint);
-
-		while (!pointsToTest.isEmpty()) {
-			// Add the first point in the queue to the blob if it isn't already
-			// present
-			Point2D.Double point = pointsToTest.remove();
-			if (!currentPoints.contains(point)) {
-				currentPoints.add(point);
-				
-				// System.out.println("Current blob just added : " + point.x + " " + point.y);
-
-				// Add the surrounding points with similar hues to the queue of
-				// points to examine
-				for (int xSq = -1 * skipThreshold; xSq < skipThreshold + 1; xSq++) {
-					for (int ySq = -1 * skipThreshold; ySq < skipThreshold + 1; ySq++) {
-						int xPos = (int) point.x + xSq;
-						int yPos = (int) point.y + ySq;
-
-						// If the surrounding point is within the image and
-						// satisfies the hue difference
-						// criteria, add it to the queue
-						if (xPos >= 0 && xPos <= width - 1 && yPos >= 0 && yPos <= height - 1) {
-							int modifiedHueThreshold = hueThreshold;
-							if (currentHSV[yPos][xPos][0] > 90) { 
-								modifiedHueThreshold = 4;
-							}
-							if (currentHSV[yPos][xPos][0] > 10 && currentHSV[yPos][xPos][0] < 32) {
-							    modifiedHueThreshold = 1;
-							}
-							Point2D.Double considerPoint = new Point2D.Double(xPos, yPos);
-							if (!examinedPoints.contains(considerPoint)) {
-								if (Image.hueWithinThreshold(currentHSV[yPos][xPos][0], currentHSV[(int)point.y][(int)point.x][0], modifiedHueThreshold)) {
-									if (doesPixelQualify(findWall, currentHSV[yPos][xPos][0], currentHSV[yPos][xPos][1], forbiddenHues)) {
-										pointsToTest.add(considerPoint);
-									}			
+	/**
+	 * Flood fill from (startX, startY), writing the given label into the
+	 * context's label map for every pixel reached.
+	 * 
+	 * @return the number of pixels in the new blob
+	 */
+	public int findNewBlob(DetectionContext ctx, int startX, int startY, int label, boolean findWall, boolean[] forbiddenHues) {
+		return floodFill(ctx, ctx.labels, startX, startY, label, findWall, forbiddenHues);
+	}
+
+	/**
+	 * Flood fill into the given label map. The indexes of the pixels reached
+	 * are left at the start of the context's queue. If the fill runs over the
+	 * work budget it stops early and flags the context.
+	 * 
+	 * @return the number of pixels reached
+	 */
+	int floodFill(DetectionContext ctx, int[] labels, int startX, int startY, int label, boolean findWall, boolean[] forbiddenHues) {
+		int[][][] currentHSV = ctx.currentHSV;
+		ColorTable colors = ctx.colorTable;
+		int width = ctx.width;
+		int height = ctx.height;
+		int skipThreshold = config.skipThreshold;
+		int probes = (2 * skipThreshold + 1) * (2 * skipThreshold + 1);
+		int areaBudget = findWall ? Integer.MAX_VALUE : ctx.blobAreaBudget;
+
+		// The label map doubles as the visited set: a pixel is labeled as soon
+		// as it is queued, so it is queued at most once
+		int[] pointsToTest = ctx.queue;
+		int head = 0;
+		int tail = 0;
+		labels[startY * width + startX] = label;
+		pointsToTest[tail++] = startY * width + startX;
+
+		while (head < tail) {
+			ctx.pixelVisits += probes;
+			if (ctx.pixelVisits > ctx.visitBudget || tail > areaBudget) {
+				ctx.overBudget = true;
+				break;
+			}
+			int point = pointsToTest[head++];
+			int pointX = point % width;
+			int pointY = point / width;
+			int pointHue = currentHSV[pointY][pointX][0];
+
+			// Add the surrounding points with similar hues to the queue of
+			// points to examine
+			for (int xSq = -1 * skipThreshold; xSq < skipThreshold + 1; xSq++) {
+				for (int ySq = -1 * skipThreshold; ySq < skipThreshold + 1; ySq++) {
+					int xPos = pointX + xSq;
+					int yPos = pointY + ySq;
+
+					// If the surrounding point is within the image and
+					// satisfies the hue difference
+					// criteria, add it to the queue
+					if (xPos >= 0 && xPos <= width - 1 && yPos >= 0 && yPos <= height - 1) {
+						int considerPoint = yPos * width + xPos;
+						if (labels[considerPoint] == UNLABELED) {
+							if (colors.connects(currentHSV[yPos][xPos][0], pointHue)) {
+								if (colors.qualifies(findWall, currentHSV[yPos][xPos][0], currentHSV[yPos][xPos][1], forbiddenHues)) {
+									labels[considerPoint] = label;
+									pointsToTest[tail++] = considerPoint;
 								}
 							}
 						}
@@ -401,23 +743,46 @@ public class BlobTrackingChallenge {
 			}
 		}
 
-		return currentPoints;
+		return tail;
 	}
 	
-	public Set<Blob> findObjectRegions(Set<Blob> hueConstantRegions) {
-		Set<Blob> objectBlobs = new HashSet<Blob>();
-		for (Blob blob : hueConstantRegions) {
-			if (blob.getSize() > sizeThreshold && !blob.pointsOnEdge(width, height)) {
+	public List<Blob> findObjectRegions(DetectionContext ctx, List<Blob> hueConstantRegions, List<Blob> objectBlobs) {
+		objectBlobs.clear();
+		int width = ctx.width;
+		int height = ctx.height;
+		for (int i = 0; i < hueConstantRegions.size(); i++) {
+			Blob blob = hueConstantRegions.get(i);
+			if (blob.getSize() > scaledArea(ctx, config.sizeThreshold) && !blob.pointsOnEdge(width, height)) {
 				objectBlobs.add(blob);
-				blob.calculateBasics(width, height, currentHSV);
+				if (blob.hasBasics()) {
+					continue;
+				}
+				if (ctx.integrals != null) {
+					blob.calculateBasics(width, height, ctx.integrals);
+				}
+				else {
+					blob.calculateBasics(width, height, ctx.currentHSV);
+				}
 			}
 		}
 		return objectBlobs;
 	}
 	
-	public List<Blob> findSpheres(Set<Blob> objectBlobs) {
-		List<Blob> sphereBlobs = new ArrayList<Blob>();
-		for (Blob blob : objectBlobs) {
+	/**
+	 * Scale an area in pixels, tuned at the configured resolution, to the
+	 * resolution of the context's frame.
+	 */
+	private int scaledArea(DetectionContext ctx, int area) {
+		if (ctx.width == config.width && ctx.height == config.height) {
+			return area;
+		}
+		return (int) ((long) area * ctx.width * ctx.height / ((long) config.width * config.height));
+	}
+	
+	public List<Blob> findSpheres(List<Blob> objectBlobs, List<Blob> sphereBlobs) {
+		sphereBlobs.clear();
+		for (int i = 0; i < objectBlobs.size(); i++) {
+			Blob blob = objectBlobs.get(i);
 			if (blob.isCircle()) {
 				sphereBlobs.add(blob);
 			}
@@ -425,18 +790,11 @@ public class BlobTrackingChallenge {
 		return sphereBlobs;
 	}
 	
-	private void getBlobColors(int color) {
-		switch(color) {
-		case 0: blob_r = red_r; blob_g = red_g; blob_b = red_b; break;
-		case 1: blob_r = orange_r; blob_g = orange_g; blob_b = orange_b; break;
-		case 2: blob_r = yellow_r; blob_g = yellow_g; blob_b = yellow_b; break;
-		case 3: blob_r = green_r; blob_g = green_g; blob_b = green_b; break;
-		case 4: blob_r = blue_r; blob_g = blue_g; blob_b = blue_b; break;
-		case 5: blob_r = purple_r; blob_g = purple_g; blob_b = purple_b; break;
-		}
+	static int[] getBlobColors(int color) {
+		return BLOB_COLORS[color];
 	}
 	
-	public void closeSerialization() {
+	public synchronized void closeSerialization() {
 		try {
 			outStream.writeObject(capturedImages);
 			outStream.close();
@@ -0,0 +1,148 @@
+package vision;
+
+/**
+ * CameraConfig declares one camera stream handled by {@link VisualServo}: the
+ * topic its frames arrive on, the resolution they are processed at, which
+ * detector runs on them and the topic the detections are published to.
+ * Frames larger than the resolution are scaled down to it; smaller frames
+ * are processed as they are.
+ *
+ * A stream is written as a single string so that a list of them fits in one
+ * ROS parameter:
+ *
+ * <pre>
+ * /rss/low_video 160x120 block /vision/BallLocation
+ * </pre>
+ *
+ * A trailing <code>compressed</code> subscribes to the camera's JPEG frames,
+ * published as sensor_msgs/CompressedImage on the topic's
+ * <code>/compressed</code> subtopic, instead of its raw ones.
+ *
+ * @author prentice
+ */
+public class CameraConfig {
+	/**
+	 * The detector run on a stream.
+	 */
+	public static enum Mode {
+		/** Single coloured balls, published as BallLocationMsg. */
+		BLOCK("rss_msgs/BallLocationMsg"),
+		/** Two-sphere fiducials, published as FiducialMsg. */
+		FIDUCIAL("rss_msgs/FiducialMsg");
+
+		/**
+		 * The message type published for this mode.
+		 */
+		public final String messageType;
+
+		private Mode(String messageType) {
+			this.messageType = messageType;
+		}
+	}
+
+	/**
+	 * The two cameras on the robot, used when no <code>cameras</code>
+	 * parameter is given.
+	 */
+	public static final String[] DEFAULT_CAMERAS = {
+		"/rss/low_video 160x120 block /vision/BallLocation",
+		"/rss/high_video 160x120 fiducial /vision/FiducialLocation"
+	};
+
+	final String topic;
+	final int width;
+	final int height;
+	final Mode mode;
+	final String outputTopic;
+	final boolean compressed;
+
+	public CameraConfig(String topic, int width, int height, Mode mode, String outputTopic) {
+		this(topic, width, height, mode, outputTopic, false);
+	}
+
+	public CameraConfig(String topic, int width, int height, Mode mode, String outputTopic, boolean compressed) {
+		this.topic = topic;
+		this.width = width;
+		this.height = height;
+		this.mode = mode;
+		this.outputTopic = outputTopic;
+		this.compressed = compressed;
+	}
+
+	/**
+	 * Parse a stream written as
+	 * <code>&lt;topic&gt; &lt;width&gt;x&lt;height&gt; &lt;block|fiducial&gt; &lt;output topic&gt; [compressed]</code>.
+	 */
+	public static CameraConfig parse(String spec) {
+		String[] fields = spec.trim().split("\\s+");
+		boolean compressed = fields.length == 5 && fields[4].equalsIgnoreCase("compressed");
+		if (fields.length != 4 && !compressed) {
+			throw new IllegalArgumentException("Camera stream must be '<topic> <width>x<height> <mode> <output topic> [compressed]': " + spec);
+		}
+		int[] size = parseResolution(fields[1]);
+		return new CameraConfig(fields[0], size[0], size[1], Mode.valueOf(fields[2].toUpperCase()), fields[3], compressed);
+	}
+
+	/**
+	 * Parse a resolution written as <code>&lt;width&gt;x&lt;height&gt;</code>.
+	 *
+	 * @return the width and the height
+	 */
+	public static int[] parseResolution(String resolution) {
+		String[] size = resolution.trim().toLowerCase().split("x");
+		if (size.length != 2) {
+			throw new IllegalArgumentException("Camera resolution must be <width>x<height>: " + resolution);
+		}
+		int width = Integer.parseInt(size[0]);
+		int height = Integer.parseInt(size[1]);
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Camera resolution must be positive: " + resolution);
+		}
+		return new int[] {width, height};
+	}
+
+	/**
+	 * @return a copy of this stream with another resolution
+	 */
+	public CameraConfig withResolution(int width, int height) {
+		return new CameraConfig(topic, width, height, mode, outputTopic, compressed);
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	/**
+	 * @return the last part of the topic, which names the camera in
+	 *         parameters and thread names
+	 */
+	public String getName() {
+		return topic.substring(topic.lastIndexOf('/') + 1);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public String getOutputTopic() {
+		return outputTopic;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	@Override
+	public String toString() {
+		return topic + " " + width + "x" + height + " " + mode.name().toLowerCase() + " " + outputTopic
+				+ (compressed ? " compressed" : "");
+	}
+}
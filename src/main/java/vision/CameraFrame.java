@@ -0,0 +1,120 @@
+package vision;
+
+/**
+ * CameraFrame is an image together with the times it passed through the
+ * node, so that the age of a detection can be traced back to the moment the
+ * camera captured it.
+ *
+ * Capture and ingest times are wall-clock milliseconds, since the capture
+ * time comes from the camera driver's header stamp. Times after ingest are
+ * {@link System#nanoTime()} readings, which are only compared with each
+ * other.
+ *
+ * A frame holds either RGB pixels or, if the camera sent YUV and the stream
+ * can process it directly, a {@link YuvImage}. RGB pixels may come from a
+ * {@link FramePool}, in which case the stream releases the frame back to it
+ * once the frame has been published or dropped.
+ *
+ * @author prentice
+ */
+public class CameraFrame {
+	// exactly one of these is set
+	final Image image;
+	final YuvImage yuv;
+	final long captureTime;
+	final long ingestTime;
+	final long ingestNanos;
+	volatile long startNanos;
+	// where the image goes back to, if it was taken from a pool
+	private FramePool pool;
+
+	/**
+	 * @param image
+	 *            the frame's pixels
+	 * @param captureTime
+	 *            wall-clock capture time in milliseconds, or 0 if the driver
+	 *            did not stamp the frame
+	 */
+	public CameraFrame(Image image, long captureTime) {
+		this(image, null, captureTime);
+	}
+
+	/**
+	 * @param image
+	 *            the frame's pixels, taken from the pool
+	 * @param captureTime
+	 *            wall-clock capture time in milliseconds, or 0 if the driver
+	 *            did not stamp the frame
+	 */
+	CameraFrame(Image image, long captureTime, FramePool pool) {
+		this(image, null, captureTime);
+		this.pool = pool;
+	}
+
+	/**
+	 * @param yuv
+	 *            the frame's samples
+	 * @param captureTime
+	 *            wall-clock capture time in milliseconds, or 0 if the driver
+	 *            did not stamp the frame
+	 */
+	public CameraFrame(YuvImage yuv, long captureTime) {
+		this(null, yuv, captureTime);
+	}
+
+	private CameraFrame(Image image, YuvImage yuv, long captureTime) {
+		this.image = image;
+		this.yuv = yuv;
+		this.ingestTime = System.currentTimeMillis();
+		this.ingestNanos = System.nanoTime();
+		this.captureTime = (captureTime > 0) ? captureTime : ingestTime;
+	}
+
+	/**
+	 * @return the frame's RGB pixels, or null if it is a YUV frame
+	 */
+	public Image getImage() {
+		return image;
+	}
+
+	/**
+	 * @return the frame's YUV samples, or null if it is an RGB frame
+	 */
+	public YuvImage getYuv() {
+		return yuv;
+	}
+
+	public int getWidth() {
+		return (image != null) ? image.getWidth() : yuv.getWidth();
+	}
+
+	public int getHeight() {
+		return (image != null) ? image.getHeight() : yuv.getHeight();
+	}
+
+	/**
+	 * @return the capture time in wall-clock milliseconds, or the ingest time
+	 *         if the frame was not stamped
+	 */
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	/**
+	 * Record that a worker has started processing this frame.
+	 */
+	void markStart() {
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Give the frame's pixels back to their pool, if they came from one. Only
+	 * the stream calls this, once, when it is done with the frame.
+	 */
+	void release() {
+		if (pool != null) {
+			pool.release(image);
+			pool = null;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package vision;
+
+/**
+ * CameraModel turns image positions into range and bearing for one camera
+ * at one resolution. It is a pinhole model whose intrinsics are given as
+ * fractions of the image size, so the same intrinsics serve any resolution;
+ * {@link #forResolution(int, int)} builds the lookup tables for a resolution
+ * once, and every conversion after that is a table lookup.
+ *
+ * The default intrinsics are the ones the robot's cameras were calibrated
+ * with at 160x120: a focal length of 29/28 of the image width, which puts
+ * atan2(14, 29) at the edge of the image and makes an object of size s that
+ * appears w pixels wide at 160x120 lie at s * 160 / w * 0.29 / 0.28.
+ *
+ * For ground-plane projection the camera's height above the floor and its
+ * downward tilt must be given; without a height, ground ranges are NaN.
+ *
+ * Instances are immutable.
+ *
+ * @author prentice
+ */
+public class CameraModel {
+	/**
+	 * The calibration of the robot's cameras, at 160x120.
+	 */
+	public static final CameraModel DEFAULT = new CameraModel(29.0 / 28.0, 0.5, 0.5, 0, 0, 160, 120);
+
+	final double focalLength;
+	final double centerX;
+	final double centerY;
+	final double cameraHeight;
+	final double tilt;
+	final int width;
+	final int height;
+
+	// bearing of each column boundary x, for x from 0 to width
+	private final double[] bearingByColumn;
+	// range of an object 1 m across, by apparent width in pixels
+	private final double[] rangeBySize;
+	// distance along the floor to a point seen on each row
+	private final double[] groundRangeByRow;
+
+	/**
+	 * @param focalLength
+	 *            focal length in pixels divided by the image width, the same
+	 *            vertically and horizontally
+	 * @param centerX
+	 *            column of the optical axis divided by the image width
+	 * @param centerY
+	 *            row of the optical axis divided by the image height
+	 * @param cameraHeight
+	 *            height of the camera above the floor in metres, or 0 if
+	 *            unknown
+	 * @param tilt
+	 *            angle of the optical axis below the horizontal, in radians
+	 * @param width
+	 *            image width in pixels
+	 * @param height
+	 *            image height in pixels
+	 */
+	public CameraModel(double focalLength, double centerX, double centerY, double cameraHeight, double tilt,
+			int width, int height) {
+		this.focalLength = focalLength;
+		this.centerX = centerX;
+		this.centerY = centerY;
+		this.cameraHeight = cameraHeight;
+		this.tilt = tilt;
+		this.width = width;
+		this.height = height;
+
+		double f = focalLength * width;
+		double cx = centerX * width;
+		double cy = centerY * height;
+
+		bearingByColumn = new double[width + 1];
+		for (int x = 0; x <= width; x++) {
+			bearingByColumn[x] = Math.atan((cx - x) / f);
+		}
+
+		rangeBySize = new double[width + 1];
+		for (int size = 0; size <= width; size++) {
+			rangeBySize[size] = f / size;
+		}
+
+		groundRangeByRow = new double[height + 1];
+		for (int y = 0; y <= height; y++) {
+			double depression = tilt + Math.atan((y - cy) / f);
+			if (cameraHeight <= 0) {
+				groundRangeByRow[y] = Double.NaN;
+			} else if (depression <= 0) {
+				// at or above the horizon
+				groundRangeByRow[y] = Double.POSITIVE_INFINITY;
+			} else {
+				groundRangeByRow[y] = cameraHeight / Math.tan(depression);
+			}
+		}
+	}
+
+	/**
+	 * The same intrinsics with tables for another resolution.
+	 */
+	public CameraModel forResolution(int width, int height) {
+		if (width == this.width && height == this.height) {
+			return this;
+		}
+		return new CameraModel(focalLength, centerX, centerY, cameraHeight, tilt, width, height);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the bearing in radians of image column x, positive to the left
+	 *         of the optical axis; fractional columns are interpolated
+	 */
+	public double bearing(double x) {
+		return interpolate(bearingByColumn, x);
+	}
+
+	/**
+	 * @return the range in metres of an object objectSize metres across that
+	 *         appears apparentSize pixels wide
+	 */
+	public double range(double objectSize, double apparentSize) {
+		return objectSize * interpolate(rangeBySize, apparentSize);
+	}
+
+	/**
+	 * @return the distance in metres along the floor to a point of the floor
+	 *         seen on image row y, infinite at or above the horizon and NaN if
+	 *         the camera height is unknown
+	 */
+	public double groundRange(double y) {
+		return interpolate(groundRangeByRow, y);
+	}
+
+	/**
+	 * Look up a table at a fractional index, interpolating between entries.
+	 * Indexes outside the table are clamped to its ends.
+	 */
+	private static double interpolate(double[] table, double index) {
+		if (index <= 0) {
+			return table[0];
+		}
+		int last = table.length - 1;
+		if (index >= last) {
+			return table[last];
+		}
+		int i = (int) index;
+		double fraction = index - i;
+		if (fraction == 0) {
+			return table[i];
+		}
+		return table[i] + (table[i + 1] - table[i]) * fraction;
+	}
+
+	@Override
+	public String toString() {
+		return "focal " + focalLength + ", center " + centerX + "," + centerY + ", height " + cameraHeight
+				+ ", tilt " + tilt + " at " + width + "x" + height;
+	}
+}
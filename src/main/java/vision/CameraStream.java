@@ -0,0 +1,510 @@
+package vision;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * CameraStream takes frames from one camera, runs the configured detector on
+ * them and publishes the result. Frames come from a {@link FrameSource} and
+ * detections go to a {@link DetectionSink}, which on the robot are the
+ * camera's topic and the stream's output topic, and elsewhere can be a
+ * recording and memory, so that the stream runs exactly as on the robot
+ * without ROS.
+ *
+ * Incoming frames go into a single ingest slot. When the slot fills, the
+ * stream schedules one processing task on the worker pool it shares with the
+ * other streams; a newer frame arriving before that task runs simply replaces
+ * the older one. Each stream therefore has at most one task queued or running
+ * on the pool at any time, and processes the most recent frame it has. That
+ * also lets the stream keep one detection context and one output image of
+ * its own, reused for every frame. A frame whose pixels came from a
+ * {@link FramePool} is released back to it as soon as the frame has been
+ * published, or replaced or dropped unprocessed.
+ *
+ * The processing resolution can be changed while the stream runs with
+ * {@link #setResolution(int, int)}. Frames may arrive at any size; ones
+ * larger than the processing resolution are scaled down to it first. YUV
+ * frames that need no scaling are processed without an RGB copy (see
+ * {@link YuvImage}), except to show them on the GUI.
+ *
+ * With tracking enabled, detections are not published directly but feed a
+ * {@link TargetTracker}, and a timer publishes the nearest target's predicted
+ * range and bearing at a fixed rate, independent of the camera rate.
+ *
+ * With deadlines enabled, each frame must be published within a latency
+ * target of its capture, and before the next frame is expected. The detector
+ * skips optional stages that would not fit (see {@link FrameDeadline}), and
+ * a frame whose mandatory stages would not fit even so is processed at half
+ * its width and height, on a second context kept for the purpose. Deadlines
+ * only apply when frames are processed on the shared pool, not pipelined.
+ *
+ * @author prentice
+ */
+public class CameraStream {
+	private volatile CameraConfig config;
+	private final BlobTrackingChallenge tracker;
+	private final Executor workers;
+	private final VisionGUI gui;
+
+	private final LatencyStats latency;
+
+	// only touched by the single task the stream may have on the pool
+	private final DetectionContext ctx;
+	private Image dest;
+
+	// frames scaled down, or converted from YUV for a pipeline, on ingest:
+	// one waiting, one being processed, and room for a pipeline's
+	private final FramePool scaledFrames = new FramePool(4);
+
+	private final AtomicReference<CameraFrame> ingestSlot = new AtomicReference<CameraFrame>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final Runnable processTask = new Runnable() {
+		@Override
+		public void run() {
+			processLatest();
+		}
+	};
+
+	private ScheduledExecutorService trackingTimer = null;
+	private long trackingPeriodMicros;
+	private TargetTracker targets = null;
+	private ScheduledFuture<?> trackingTask = null;
+	private final TargetTracker.Prediction prediction = new TargetTracker.Prediction();
+
+	// deadline-aware processing, only used once enabled
+	private double latencyTargetMillis = 0;
+	private FrameDeadline deadline = null;
+	private long lastIngestNanos = 0;
+	// moving average of the time between ingested frames, 0 until known
+	private volatile long framePeriodNanos = 0;
+	private DetectionContext halfCtx = null;
+	private Image half = null;
+	private Image halfDest = null;
+	// RGB copy of the current YUV frame, only made for the GUI
+	private byte[] yuvPixels = null;
+	private Image yuvSource = null;
+
+	private DetectionPipeline<?> pipeline = null;
+	private FrameSource source;
+	private DetectionSink sink;
+
+	/**
+	 * @param config
+	 *            the camera to handle
+	 * @param tracker
+	 *            detector for this camera's frames
+	 * @param workers
+	 *            the pool shared by all streams
+	 * @param gui
+	 *            display for source and annotated frames, may be null
+	 */
+	public CameraStream(CameraConfig config, BlobTrackingChallenge tracker, Executor workers, VisionGUI gui) {
+		this.config = config;
+		this.tracker = tracker;
+		this.workers = workers;
+		this.gui = gui;
+		this.latency = new LatencyStats(config.topic, 100);
+		this.ctx = tracker.acquireContext();
+	}
+
+	public CameraConfig getConfig() {
+		return config;
+	}
+
+	public BlobTrackingChallenge getTracker() {
+		return tracker;
+	}
+
+	public LatencyStats getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Process frames at another resolution from now on. Safe to call from
+	 * any thread.
+	 */
+	public void setResolution(int width, int height) {
+		config = config.withResolution(width, height);
+	}
+
+	/**
+	 * Publish predicted targets at a fixed rate instead of raw detections.
+	 * Must be called before {@link #start(FrameSource, DetectionSink, boolean)}.
+	 *
+	 * @param timer
+	 *            runs the publishing task, may be shared with other streams
+	 * @param rateHz
+	 *            how often to publish
+	 */
+	public void enableTracking(ScheduledExecutorService timer, double rateHz) {
+		trackingTimer = timer;
+		trackingPeriodMicros = Math.max(1, (long) (1000000 / rateHz));
+	}
+
+	/**
+	 * Give every frame a deadline, and cut back its processing to meet it.
+	 * Must be called before {@link #start(FrameSource, DetectionSink, boolean)}.
+	 *
+	 * @param latencyTargetMillis
+	 *            how long after its capture a frame's detection should be
+	 *            published
+	 */
+	public void enableDeadlines(double latencyTargetMillis) {
+		this.latencyTargetMillis = latencyTargetMillis;
+		deadline = new FrameDeadline();
+		ctx.deadline = deadline;
+	}
+
+	/**
+	 * Start taking frames from the source and publishing to the sink.
+	 *
+	 * @param pipelined
+	 *            run frames through a dedicated {@link DetectionPipeline}
+	 *            instead of the shared pool
+	 */
+	public void start(FrameSource source, DetectionSink sink, boolean pipelined) {
+		this.source = source;
+		this.sink = sink;
+		if (trackingTimer != null) {
+			int keys = (config.mode == CameraConfig.Mode.BLOCK) ? Blob.COLORS : TargetTracker.FIDUCIAL_KEYS;
+			targets = new TargetTracker(keys);
+			trackingTask = trackingTimer.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					publishPrediction();
+				}
+			}, trackingPeriodMicros, trackingPeriodMicros, TimeUnit.MICROSECONDS);
+		}
+		if (pipelined) {
+			pipeline = createPipeline();
+			pipeline.start();
+		}
+		source.start(this);
+	}
+
+	public void shutdown() {
+		if (source != null) {
+			source.shutdown();
+		}
+		if (pipeline != null) {
+			pipeline.shutdown();
+		}
+		if (trackingTask != null) {
+			trackingTask.cancel(false);
+		}
+	}
+
+	/**
+	 * Hand an RGB frame to this stream, scaled down to the processing
+	 * resolution first if it is larger. Scaled frames are drawn from a pool
+	 * of the stream's own, so the caller's image is not kept in that case.
+	 *
+	 * @param captureTime
+	 *            wall-clock capture time in milliseconds, or 0 if unknown
+	 */
+	public void ingest(Image image, long captureTime) {
+		CameraConfig current = config;
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (width >= current.width && height >= current.height && (width != current.width || height != current.height)) {
+			Image scaled = scaledFrames.acquire(current.width, current.height);
+			Image.scale(image.getPixelBuffer(), width, height, scaled.getPixelBuffer(), current.width, current.height);
+			ingest(new CameraFrame(scaled, captureTime, scaledFrames));
+			return;
+		}
+		ingest(new CameraFrame(image, captureTime));
+	}
+
+	/**
+	 * Hand a frame to this stream, replacing any frame still waiting in the
+	 * ingest slot.
+	 */
+	public void ingest(CameraFrame frame) {
+		if (pipeline != null && frame.yuv != null) {
+			// the pipeline only takes RGB frames
+			Image rgb = frame.yuv.toImage(scaledFrames.acquire(frame.getWidth(), frame.getHeight()));
+			frame = new CameraFrame(rgb, frame.captureTime, scaledFrames);
+		}
+		latency.recordIngest(frame);
+		if (deadline != null) {
+			measurePeriod(frame);
+		}
+		if (pipeline != null) {
+			if (!pipeline.offer(frame)) {
+				latency.recordDropped();
+				frame.release();
+			}
+			return;
+		}
+		CameraFrame replaced = ingestSlot.getAndSet(frame);
+		if (replaced != null) {
+			latency.recordDropped();
+			replaced.release();
+		}
+		schedule();
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				workers.execute(processTask);
+			} catch (RejectedExecutionException e) {
+				scheduled.set(false);
+			}
+		}
+	}
+
+	private void processLatest() {
+		try {
+			CameraFrame frame = ingestSlot.getAndSet(null);
+			if (frame != null) {
+				frame.markStart();
+				try {
+					process(frame);
+				} finally {
+					frame.release();
+				}
+			}
+		} finally {
+			scheduled.set(false);
+		}
+		// a frame may have arrived after we emptied the slot but before we
+		// cleared the flag, in which case nobody else scheduled it
+		if (ingestSlot.get() != null) {
+			schedule();
+		}
+	}
+
+	private void measurePeriod(CameraFrame frame) {
+		if (lastIngestNanos != 0) {
+			long interval = frame.ingestNanos - lastIngestNanos;
+			long period = framePeriodNanos;
+			framePeriodNanos = (period == 0) ? interval : period + (interval - period) / 8;
+		}
+		lastIngestNanos = frame.ingestNanos;
+	}
+
+	private void process(CameraFrame frame) {
+		if (frame.yuv != null) {
+			processYuv(frame);
+			return;
+		}
+		Image src = frame.image;
+		DetectionContext frameCtx = ctx;
+		if (deadline != null) {
+			long deadlineNanos = deadlineNanos(frame);
+			int pixels = src.getWidth() * src.getHeight();
+			deadline.start(deadlineNanos, pixels);
+			if (!deadline.fits(pixels) && src.getWidth() >= 2 && src.getHeight() >= 2) {
+				src = halve(src);
+				deadline.start(deadlineNanos, src.getWidth() * src.getHeight());
+				deadline.degrade(Degradation.HALF_RESOLUTION);
+				frameCtx = halfContext();
+			}
+		}
+
+		Image out = (src == frame.image) ? dest : halfDest;
+		if (out == null || out.getWidth() != src.getWidth() || out.getHeight() != src.getHeight()) {
+			out = new Image(src);
+		} else {
+			out.copyFrom(src);
+		}
+		if (src == frame.image) {
+			dest = out;
+		} else {
+			halfDest = out;
+		}
+
+		if (config.mode == CameraConfig.Mode.BLOCK) {
+			CompleteBallMessage result = tracker.applyBlock(src, out, frameCtx);
+			recordDegradation();
+			publish(frame, src, out, result);
+		} else {
+			CompleteFiducialMessage result = tracker.applyFiducial(src, out, frameCtx);
+			recordDegradation();
+			publish(frame, src, out, result);
+		}
+	}
+
+	/**
+	 * Process a YUV frame at full size. The detector paints its annotations
+	 * on the output image either way, but the frame is only converted to RGB
+	 * underneath them if there is a GUI to show it on. A deadline may skip
+	 * optional stages, but the frame is never halved.
+	 */
+	private void processYuv(CameraFrame frame) {
+		YuvImage yuv = frame.yuv;
+		int width = yuv.getWidth();
+		int height = yuv.getHeight();
+		if (deadline != null) {
+			deadline.start(deadlineNanos(frame), width * height);
+		}
+		if (dest == null || dest.getWidth() != width || dest.getHeight() != height) {
+			dest = new Image(width, height);
+		}
+		if (gui != null) {
+			if (yuvSource == null || yuvSource.getWidth() != width || yuvSource.getHeight() != height) {
+				yuvPixels = new byte[width * height * 3];
+				yuvSource = new Image(yuvPixels, width, height);
+			}
+			yuv.toRGB(yuvPixels);
+			dest.copyFrom(yuvSource);
+		}
+
+		// without a GUI, publish never looks at the source image
+		if (config.mode == CameraConfig.Mode.BLOCK) {
+			CompleteBallMessage result = tracker.applyBlock(yuv, dest, ctx);
+			recordDegradation();
+			publish(frame, yuvSource, dest, result);
+		} else {
+			CompleteFiducialMessage result = tracker.applyFiducial(yuv, dest, ctx);
+			recordDegradation();
+			publish(frame, yuvSource, dest, result);
+		}
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} by which the frame should be
+	 *         published: the latency target after its capture, and no later
+	 *         than the next frame is expected
+	 */
+	private long deadlineNanos(CameraFrame frame) {
+		double remainingMillis = latencyTargetMillis - (frame.ingestTime - frame.captureTime);
+		long deadlineNanos = frame.ingestNanos + (long) (remainingMillis * 1e6);
+		long period = framePeriodNanos;
+		if (period > 0) {
+			deadlineNanos = Math.min(deadlineNanos, frame.ingestNanos + period);
+		}
+		return deadlineNanos;
+	}
+
+	private Image halve(Image src) {
+		int width = src.getWidth() / 2;
+		int height = src.getHeight() / 2;
+		if (half == null || half.getWidth() != width || half.getHeight() != height) {
+			half = new Image(width, height);
+		}
+		Image.scale(src.getPixelBuffer(), src.getWidth(), src.getHeight(), half.getPixelBuffer(), width, height);
+		return half;
+	}
+
+	private DetectionContext halfContext() {
+		if (halfCtx == null) {
+			halfCtx = tracker.acquireContext();
+			halfCtx.deadline = deadline;
+		}
+		return halfCtx;
+	}
+
+	private void recordDegradation() {
+		if (deadline != null) {
+			latency.recordDegradation(deadline.getDegradation());
+		}
+	}
+
+	private DetectionPipeline<?> createPipeline() {
+		String name = config.getName();
+		if (config.mode == CameraConfig.Mode.BLOCK) {
+			return new DetectionPipeline<CompleteBallMessage>(tracker, DetectionPipeline.BLOCK,
+					new DetectionPipeline.Listener<CompleteBallMessage>() {
+						@Override
+						public void onResult(long frameNumber, CameraFrame frame, Image dest, CompleteBallMessage result) {
+							publish(frame, frame.image, dest, result);
+							frame.release();
+						}
+
+						@Override
+						public void onError(long frameNumber, CameraFrame frame, RuntimeException e) {
+							dropFailed(frame);
+						}
+					}, 1, name);
+		}
+		return new DetectionPipeline<CompleteFiducialMessage>(tracker, DetectionPipeline.FIDUCIAL,
+				new DetectionPipeline.Listener<CompleteFiducialMessage>() {
+					@Override
+					public void onResult(long frameNumber, CameraFrame frame, Image dest, CompleteFiducialMessage result) {
+						publish(frame, frame.image, dest, result);
+						frame.release();
+					}
+
+					@Override
+					public void onError(long frameNumber, CameraFrame frame, RuntimeException e) {
+						dropFailed(frame);
+					}
+				}, 1, name);
+	}
+
+	/**
+	 * Count a frame the pipeline failed to process as dropped, and release
+	 * it.
+	 */
+	private void dropFailed(CameraFrame frame) {
+		latency.recordDropped();
+		frame.release();
+	}
+
+	/**
+	 * @param src
+	 *            the image that was processed, which is smaller than the
+	 *            frame's if it was halved
+	 */
+	private void publish(CameraFrame frame, Image src, Image dest, CompleteBallMessage completeBallMsg) {
+		completeBallMsg.captureTime = frame.captureTime;
+		if (gui != null) {
+			gui.setBlockImage(src.toArray(), dest.toArray(), src.getWidth(), src.getHeight());
+		}
+		if (completeBallMsg.overBudget) {
+			latency.recordOverBudget();
+		}
+		if (completeBallMsg.sendMessage) {
+			if (targets != null) {
+				targets.correct(completeBallMsg.color, completeBallMsg.range, completeBallMsg.bearing, frame.captureTime);
+			} else {
+				sink.publishBall(completeBallMsg.range, completeBallMsg.bearing, completeBallMsg.color);
+			}
+		}
+		latency.recordPublish(frame);
+	}
+
+	private void publish(CameraFrame frame, Image src, Image dest, CompleteFiducialMessage completeFidMsg) {
+		completeFidMsg.captureTime = frame.captureTime;
+		if (gui != null) {
+			gui.setFiducialImage(src.toArray(), dest.toArray(), src.getWidth(), src.getHeight());
+		}
+		if (completeFidMsg.overBudget) {
+			latency.recordOverBudget();
+		}
+		if (completeFidMsg.sendMessage) {
+			if (targets != null) {
+				targets.correct(TargetTracker.fiducialKey(completeFidMsg.topColor, completeFidMsg.bottomColor),
+						completeFidMsg.range, completeFidMsg.bearing, frame.captureTime);
+			} else {
+				sink.publishFiducial(completeFidMsg.range, completeFidMsg.bearing, completeFidMsg.topColor,
+						completeFidMsg.bottomColor, completeFidMsg.captureTime);
+			}
+		}
+		latency.recordPublish(frame);
+	}
+
+	/**
+	 * Publish the nearest tracked target as predicted for now. A fiducial's
+	 * time is the time of the prediction.
+	 */
+	private void publishPrediction() {
+		long now = System.currentTimeMillis();
+		if (!targets.predictNearest(now, prediction)) {
+			return;
+		}
+		if (config.mode == CameraConfig.Mode.BLOCK) {
+			sink.publishBall(prediction.range, prediction.bearing, prediction.key);
+		} else {
+			sink.publishFiducial(prediction.range, prediction.bearing, TargetTracker.topColor(prediction.key),
+					TargetTracker.bottomColor(prediction.key), now);
+		}
+	}
+}
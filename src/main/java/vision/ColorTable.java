@@ -0,0 +1,270 @@
+package vision;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * ColorTable decides, for every hue and saturation, whether a pixel may
+ * belong to an object or to the wall and which colour it is, with one byte
+ * looked up in a 256x256 table. It also holds the hue threshold below which
+ * two neighbouring hues join the same region, and whether each pair of hues
+ * joins, in a second 256x256 table.
+ *
+ * A table is built from a properties file, so that the colours can be tuned
+ * to an arena's lighting without a code change. Every key is optional and
+ * defaults to the values the detector was tuned with:
+ *
+ * <pre>
+ * # first hue of each colour; a colour runs up to the next one's first hue
+ * color.red = 0
+ * color.orange = 10
+ * color.yellow = 24
+ * color.green = 50
+ * color.blue = 120
+ * color.purple = 230
+ * # pixels that may belong to an object
+ * object.saturation = 81-255
+ * object.excludedHues = 18-24
+ * # pixels that may belong to the wall
+ * wall.hues = 11-31
+ * wall.saturation = 81-255
+ * # hue thresholds; hues not listed use the detector's hueThreshold
+ * hueThresholds = 91-255 4, 11-31 1
+ * </pre>
+ *
+ * Ranges are inclusive, and a hue range whose first hue is above its last
+ * wraps around through 255 to 0. Lists are separated by commas.
+ *
+ * Instances are immutable.
+ *
+ * @author prentice
+ */
+public class ColorTable {
+	/**
+	 * The colour names, in the order of their colour ids.
+	 */
+	static final String[] COLOR_NAMES = {"red", "orange", "yellow", "green", "blue", "purple"};
+
+	private static final int[] DEFAULT_COLOR_STARTS = {0, 10, 24, 50, 120, 230};
+
+	/**
+	 * The colours the detector was tuned with.
+	 */
+	public static final ColorTable DEFAULT = new ColorTable(new Properties());
+
+	// class byte: the pixel may be part of an object, of the wall, and its
+	// colour id in the bits above
+	static final int OBJECT = 1;
+	static final int WALL = 2;
+	static final int COLOR_SHIFT = 2;
+
+	// indexed by hue << 8 | sat
+	private final byte[] classes;
+	// threshold given for each hue, -1 where the detector's threshold applies
+	private final int[] ownHueThresholds;
+	// indexed by hue1 << 8 | hue2; null until the detector's threshold is
+	// known
+	private final boolean[] connections;
+	private final int defaultHueThreshold;
+
+	/**
+	 * Build a table from properties as described above.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a value cannot be parsed
+	 */
+	public ColorTable(Properties properties) {
+		classes = new byte[256 * 256];
+		ownHueThresholds = new int[256];
+		connections = null;
+		defaultHueThreshold = -1;
+
+		int[] colorOfHue = new int[256];
+		int[] starts = new int[COLOR_NAMES.length];
+		for (int color = 0; color < COLOR_NAMES.length; color++) {
+			String key = "color." + COLOR_NAMES[color];
+			starts[color] = parseHue(key, properties.getProperty(key, Integer.toString(DEFAULT_COLOR_STARTS[color])));
+		}
+		// every hue takes the colour whose start is the closest at or below
+		// it, going round through 255 if need be
+		for (int hue = 0; hue < 256; hue++) {
+			int best = -1;
+			int bestDistance = 256;
+			for (int color = 0; color < starts.length; color++) {
+				int distance = (hue - starts[color] + 256) % 256;
+				if (distance < bestDistance) {
+					best = color;
+					bestDistance = distance;
+				}
+			}
+			colorOfHue[hue] = best;
+		}
+
+		boolean[] objectSats = parseRanges("object.saturation", properties.getProperty("object.saturation", "81-255"), false);
+		boolean[] excludedHues = parseRanges("object.excludedHues", properties.getProperty("object.excludedHues", "18-24"), true);
+		boolean[] wallHues = parseRanges("wall.hues", properties.getProperty("wall.hues", "11-31"), true);
+		boolean[] wallSats = parseRanges("wall.saturation", properties.getProperty("wall.saturation", "81-255"), false);
+		for (int hue = 0; hue < 256; hue++) {
+			for (int sat = 0; sat < 256; sat++) {
+				int cls = colorOfHue[hue] << COLOR_SHIFT;
+				if (objectSats[sat] && !excludedHues[hue]) {
+					cls |= OBJECT;
+				}
+				if (wallHues[hue] && wallSats[sat]) {
+					cls |= WALL;
+				}
+				classes[(hue << 8) | sat] = (byte) cls;
+			}
+		}
+
+		Arrays.fill(ownHueThresholds, -1);
+		String thresholds = properties.getProperty("hueThresholds", "91-255 4, 11-31 1").trim();
+		if (thresholds.length() > 0) {
+			for (String entry : thresholds.split(",")) {
+				String[] fields = entry.trim().split("\\s+");
+				if (fields.length != 2) {
+					throw new IllegalArgumentException("hueThresholds entries must be '<hues> <threshold>': " + entry);
+				}
+				boolean[] hues = parseRanges("hueThresholds", fields[0], true);
+				int threshold = parseInt("hueThresholds", fields[1]);
+				for (int hue = 0; hue < 256; hue++) {
+					if (hues[hue]) {
+						ownHueThresholds[hue] = threshold;
+					}
+				}
+			}
+		}
+	}
+
+	private ColorTable(ColorTable table, int defaultHueThreshold) {
+		this.classes = table.classes;
+		this.ownHueThresholds = table.ownHueThresholds;
+		this.defaultHueThreshold = defaultHueThreshold;
+		int[] hueThresholds = new int[256];
+		for (int hue = 0; hue < 256; hue++) {
+			hueThresholds[hue] = (ownHueThresholds[hue] < 0) ? defaultHueThreshold : ownHueThresholds[hue];
+		}
+		// the wider of the two hues' thresholds applies, so that joining is
+		// symmetric and regions do not depend on the order pixels are visited
+		this.connections = new boolean[256 * 256];
+		for (int hue1 = 0; hue1 < 256; hue1++) {
+			for (int hue2 = 0; hue2 < 256; hue2++) {
+				connections[(hue1 << 8) | hue2] = Image.hueWithinThreshold(hue1, hue2,
+						Math.max(hueThresholds[hue1], hueThresholds[hue2]));
+			}
+		}
+	}
+
+	/**
+	 * Read a table from a properties file.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a value cannot be parsed
+	 */
+	public static ColorTable load(String path) throws IOException {
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(path);
+		try {
+			properties.load(in);
+		}
+		finally {
+			in.close();
+		}
+		return new ColorTable(properties);
+	}
+
+	/**
+	 * The same table with the hues that have no threshold of their own
+	 * given the detector's threshold.
+	 */
+	ColorTable withDefaultHueThreshold(int hueThreshold) {
+		if (hueThreshold == defaultHueThreshold) {
+			return this;
+		}
+		return new ColorTable(this, hueThreshold);
+	}
+
+	/**
+	 * Whether a pixel may belong to the wall, or to an object of a hue that
+	 * is not forbidden.
+	 */
+	boolean qualifies(boolean findWall, int hue, int sat, boolean[] forbiddenHues) {
+		int cls = classes[(hue << 8) | sat];
+		if (findWall) {
+			return (cls & WALL) != 0;
+		}
+		return (cls & OBJECT) != 0 && !forbiddenHues[hue];
+	}
+
+	/**
+	 * @return the class byte of a pixel, as an unsigned value: bits
+	 *         {@link #OBJECT} and {@link #WALL} and the colour id above
+	 *         {@link #COLOR_SHIFT}
+	 */
+	int classOf(int hue, int sat) {
+		return classes[(hue << 8) | sat];
+	}
+
+	/**
+	 * Whether two neighbouring pixels belong to the same hue-constant region.
+	 * Only valid on a table returned by {@link #withDefaultHueThreshold(int)}.
+	 */
+	boolean connects(int hue1, int hue2) {
+		return connections[(hue1 << 8) | hue2];
+	}
+
+	/**
+	 * @return the colour id of a hue: red = 0, orange = 1, yellow = 2,
+	 *         green = 3, blue = 4, purple = 5
+	 */
+	int colorOf(int hue) {
+		return classes[hue << 8] >> COLOR_SHIFT;
+	}
+
+	/**
+	 * Parse a comma-separated list of inclusive ranges of values from 0 to
+	 * 255 into a table of the values they cover.
+	 */
+	private static boolean[] parseRanges(String key, String value, boolean wraps) {
+		boolean[] covered = new boolean[256];
+		if (value.trim().length() == 0) {
+			return covered;
+		}
+		for (String range : value.split(",")) {
+			String[] ends = range.trim().split("-");
+			if (ends.length < 1 || ends.length > 2) {
+				throw new IllegalArgumentException(key + " must be a list of ranges like 11-31: " + value);
+			}
+			int first = parseHue(key, ends[0]);
+			int last = (ends.length == 2) ? parseHue(key, ends[1]) : first;
+			if (first > last && !wraps) {
+				throw new IllegalArgumentException(key + " ranges must not wrap around: " + value);
+			}
+			for (int i = first; i != last; i = (i + 1) % 256) {
+				covered[i] = true;
+			}
+			covered[last] = true;
+		}
+		return covered;
+	}
+
+	private static int parseHue(String key, String value) {
+		int hue = parseInt(key, value);
+		if (hue < 0 || hue > 255) {
+			throw new IllegalArgumentException(key + " must lie between 0 and 255: " + value);
+		}
+		return hue;
+	}
+
+	private static int parseInt(String key, String value) {
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException(key + " must be a number: " + value);
+		}
+	}
+}
@@ -6,6 +6,10 @@ public class CompleteBallMessage {
 	double bearing;
 	int color;
 	boolean sendMessage;
+	// set if the frame ran over its work budget and was not searched
+	boolean overBudget;
+	// wall-clock capture time of the frame the detection came from, in ms
+	long captureTime;
 	
 	public CompleteBallMessage(double range, double bearing, int color) {
 		this.range = range;
@@ -17,4 +21,26 @@ public class CompleteBallMessage {
 	public CompleteBallMessage() {
 		this.sendMessage = false;
 	}
+
+	void set(double range, double bearing, int color) {
+		this.range = range;
+		this.bearing = bearing;
+		this.color = color;
+		this.sendMessage = true;
+	}
+
+	void set(CompleteBallMessage other) {
+		this.range = other.range;
+		this.bearing = other.bearing;
+		this.color = other.color;
+		this.sendMessage = other.sendMessage;
+		this.overBudget = other.overBudget;
+		this.captureTime = other.captureTime;
+	}
+
+	void clear() {
+		this.sendMessage = false;
+		this.overBudget = false;
+		this.captureTime = 0;
+	}
 }
@@ -7,6 +7,10 @@ public class CompleteFiducialMessage {
 	int topColor;
 	int bottomColor;
 	boolean sendMessage;
+	// set if the frame ran over its work budget and was not searched
+	boolean overBudget;
+	// wall-clock capture time of the frame the detection came from, in ms
+	long captureTime;
 	
 	public CompleteFiducialMessage(double range, double bearing, int topColor, int bottomColor) {
 		this.range = range;
@@ -19,4 +23,28 @@ public class CompleteFiducialMessage {
 	public CompleteFiducialMessage() {
 		this.sendMessage = false;
 	}
+
+	void set(double range, double bearing, int topColor, int bottomColor) {
+		this.range = range;
+		this.bearing = bearing;
+		this.topColor = topColor;
+		this.bottomColor = bottomColor;
+		this.sendMessage = true;
+	}
+
+	void set(CompleteFiducialMessage other) {
+		this.range = other.range;
+		this.bearing = other.bearing;
+		this.topColor = other.topColor;
+		this.bottomColor = other.bottomColor;
+		this.sendMessage = other.sendMessage;
+		this.overBudget = other.overBudget;
+		this.captureTime = other.captureTime;
+	}
+
+	void clear() {
+		this.sendMessage = false;
+		this.overBudget = false;
+		this.captureTime = 0;
+	}
 }
@@ -0,0 +1,250 @@
+package vision;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ContourLabeler finds object regions on the same per-colour qualification
+ * masks as {@link MaskLabeler}, but builds each blob by following its outer
+ * border rather than labeling every run inside it, so the work per blob
+ * grows with its perimeter instead of its area. Like MaskLabeler, it is not
+ * used for the wall.
+ *
+ * Each band mask is opened to drop noise, then closed by the square
+ * MaskLabeler bridges gaps with, so that pixels up to skipThreshold apart
+ * join. Its rows are scanned for runs a
+ * word at a time; a run that no blob of the band covers yet starts a new
+ * 8-connected component, whose outer border is then followed along the pixel
+ * edges in the manner of Suzuki and Abe. While following it the labeler
+ * takes the contour polygon's area and first moments (the shoelace formula),
+ * the blob's bounding box and its outer pixels, and pairs up the left and
+ * right edges met on each row into the blob's runs. The interior is never
+ * visited.
+ *
+ * A blob is its outer contour filled in: holes belong to it, and so does
+ * anything inside them. Its colour is the band it was found in, and its
+ * centroid that of the filled contour, so the pixels' hues are not averaged.
+ *
+ * The work budget is charged for the closed mask's pixels row by row, as
+ * MaskLabeler charges its bridged mask.
+ *
+ * @author prentice
+ */
+class ContourLabeler {
+	// directions along the pixel edges, clockwise: east, south, west, north
+	private static final int[] DX = {1, 0, -1, 0};
+	private static final int[] DY = {0, 1, 0, -1};
+	// offset from an edge's start to the pixel on its right, which is inside
+	private static final int[] INSIDE_DX = {0, -1, -1, 0};
+	private static final int[] INSIDE_DY = {0, 0, -1, -1};
+
+	private final MaskLabeler masks;
+	private final DetectionContext ctx;
+	private final int width;
+	private final int height;
+	private final int closeBefore;
+	private final int closeAfter;
+	private final int probes;
+
+	// vertical edges of the contour being followed: the row, and twice the
+	// column of the inside pixel, plus one for an edge on its right
+	private int[] edgeRows = new int[64];
+	private int[] edgeKeys = new int[64];
+	private int edgeCount;
+	private int[] sortedKeys = new int[64];
+	private final int[] rowEdgeStarts;
+
+	// runs of the blobs found in the current band, as (first column, last
+	// column, next) linked from the row's head
+	private final int[] coveredHeads;
+	private int[] covered = new int[3 * 64];
+	private int coveredCount;
+
+	ContourLabeler(BlobTrackingChallenge tracker, DetectionContext ctx) {
+		this.masks = new MaskLabeler(tracker, ctx);
+		this.ctx = ctx;
+		this.width = ctx.width;
+		this.height = ctx.height;
+		int skip = tracker.getConfig().skipThreshold;
+		this.closeBefore = MaskLabeler.bridgeBefore(skip);
+		this.closeAfter = MaskLabeler.bridgeAfter(skip);
+		this.probes = MaskLabeler.probes(skip);
+		this.rowEdgeStarts = new int[height + 1];
+		this.coveredHeads = new int[height];
+	}
+
+	/**
+	 * Append the object regions of the context's frame to the given list.
+	 * If the frame runs over its work budget, the context's overBudget flag
+	 * is set and labeling stops.
+	 */
+	void label(boolean[] forbiddenHues, List<Blob> discoveredBlobs) {
+		masks.fillBandMasks(forbiddenHues);
+		for (int band = 0; band < MaskLabeler.BANDS && !ctx.overBudget; band++) {
+			if (ctx.bandMasks[band].isEmpty()) {
+				continue;
+			}
+			ctx.cleanMask.open(ctx.bandMasks[band], MaskLabeler.NOISE_RADIUS, ctx.maskScratch1, ctx.maskScratch2);
+			if (closeBefore > 0 || closeAfter > 0) {
+				ctx.bridgeMask.dilate(ctx.cleanMask, closeBefore, closeAfter, ctx.maskScratch1, ctx.maskScratch2);
+				ctx.cleanMask.erode(ctx.bridgeMask, closeBefore, closeAfter, ctx.maskScratch1, ctx.maskScratch2);
+			}
+			traceBand(ctx.cleanMask, band, discoveredBlobs);
+		}
+	}
+
+	private void traceBand(BitMask mask, int band, List<Blob> discoveredBlobs) {
+		Arrays.fill(coveredHeads, -1);
+		coveredCount = 0;
+		int[] rowRuns = ctx.rowRuns;
+		for (int y = 0; y < height; y++) {
+			int found = mask.rowRuns(y, rowRuns);
+			if (MaskLabeler.charge(ctx, rowRuns, found, probes)) {
+				return;
+			}
+			for (int i = 0; i < found; i++) {
+				// rows are scanned in order, so the first run of a component
+				// not covered yet is its top-left pixel
+				if (!isCovered(rowRuns[2 * i], y)) {
+					Blob blob = ctx.obtainBlob();
+					trace(mask, rowRuns[2 * i], y, band, blob);
+					discoveredBlobs.add(blob);
+				}
+			}
+		}
+	}
+
+	private boolean isCovered(int x, int y) {
+		for (int c = coveredHeads[y]; c >= 0; c = covered[3 * c + 2]) {
+			if (covered[3 * c] <= x && x <= covered[3 * c + 1]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Follow the outer border of the component whose top-left pixel is
+	 * (startX, startY), keeping the component on the right, and fill in the
+	 * blob. Positions are pixel corners: corner (x, y) is the top left of
+	 * pixel (x, y).
+	 */
+	private void trace(BitMask mask, int startX, int startY, int band, Blob blob) {
+		edgeCount = 0;
+		int minX = startX, maxX = startX, minY = startY, maxY = startY;
+		long doubleArea = 0;
+		long momentX = 0;
+		long momentY = 0;
+		int x = startX;
+		int y = startY;
+		// the pixels above and to the left are outside, so the top edge of
+		// the start pixel is on the border, heading east
+		int dir = 0;
+		do {
+			int insideX = x + INSIDE_DX[dir];
+			int insideY = y + INSIDE_DY[dir];
+			blob.addContourPixel(insideX, insideY);
+			minX = Math.min(minX, insideX);
+			maxX = Math.max(maxX, insideX);
+			minY = Math.min(minY, insideY);
+			maxY = Math.max(maxY, insideY);
+			if (dir == 1) {
+				addEdge(insideY, 2 * insideX + 1);
+			}
+			else if (dir == 3) {
+				addEdge(insideY, 2 * insideX);
+			}
+
+			int nextX = x + DX[dir];
+			int nextY = y + DY[dir];
+			long cross = (long) x * nextY - (long) nextX * y;
+			doubleArea += cross;
+			momentX += (x + nextX) * cross;
+			momentY += (y + nextY) * cross;
+			x = nextX;
+			y = nextY;
+
+			// turn left if the pixel ahead on the left is inside, which also
+			// joins pixels that touch only at a corner; go on if the pixel
+			// ahead on the right is inside, and turn right otherwise
+			int left = (dir + 3) & 3;
+			if (isInside(mask, x + INSIDE_DX[left], y + INSIDE_DY[left])) {
+				dir = left;
+			}
+			else if (!isInside(mask, x + INSIDE_DX[dir], y + INSIDE_DY[dir])) {
+				dir = (dir + 1) & 3;
+			}
+		} while (x != startX || y != startY);
+
+		addRuns(blob, minY, maxY);
+		// the centroid of the polygon is half a pixel off that of the pixel
+		// centres inside it
+		blob.setContourBasics(momentX / (3.0 * doubleArea) - 0.5, momentY / (3.0 * doubleArea) - 0.5,
+				minX, minY, maxX, maxY, band);
+	}
+
+	private boolean isInside(BitMask mask, int x, int y) {
+		return x >= 0 && x < width && y >= 0 && y < height && mask.get(x, y);
+	}
+
+	private void addEdge(int row, int key) {
+		if (edgeCount == edgeRows.length) {
+			edgeRows = Arrays.copyOf(edgeRows, 2 * edgeRows.length);
+			edgeKeys = Arrays.copyOf(edgeKeys, 2 * edgeKeys.length);
+			sortedKeys = new int[edgeKeys.length];
+		}
+		edgeRows[edgeCount] = row;
+		edgeKeys[edgeCount] = key;
+		edgeCount++;
+	}
+
+	/**
+	 * Sort the contour's vertical edges by row and then by column, and give
+	 * the blob a run from each left edge to the right edge after it.
+	 */
+	private void addRuns(Blob blob, int minY, int maxY) {
+		Arrays.fill(rowEdgeStarts, minY, maxY + 2, 0);
+		for (int i = 0; i < edgeCount; i++) {
+			rowEdgeStarts[edgeRows[i] + 1]++;
+		}
+		for (int y = minY + 1; y <= maxY + 1; y++) {
+			rowEdgeStarts[y] += rowEdgeStarts[y - 1];
+		}
+		// rowEdgeStarts[y] becomes the end of row y's edges while placing
+		for (int i = 0; i < edgeCount; i++) {
+			sortedKeys[rowEdgeStarts[edgeRows[i]]++] = edgeKeys[i];
+		}
+		int rowStart = 0;
+		for (int y = minY; y <= maxY; y++) {
+			int rowEnd = rowEdgeStarts[y];
+			// a row has few edges; a convex blob has two
+			for (int i = rowStart + 1; i < rowEnd; i++) {
+				int key = sortedKeys[i];
+				int j = i;
+				while (j > rowStart && sortedKeys[j - 1] > key) {
+					sortedKeys[j] = sortedKeys[j - 1];
+					j--;
+				}
+				sortedKeys[j] = key;
+			}
+			for (int i = rowStart; i < rowEnd; i += 2) {
+				int first = sortedKeys[i] >> 1;
+				int last = sortedKeys[i + 1] >> 1;
+				blob.addRun(y, first, last);
+				addCovered(y, first, last);
+			}
+			rowStart = rowEnd;
+		}
+	}
+
+	private void addCovered(int y, int first, int last) {
+		if (3 * coveredCount == covered.length) {
+			covered = Arrays.copyOf(covered, 2 * covered.length);
+		}
+		covered[3 * coveredCount] = first;
+		covered[3 * coveredCount + 1] = last;
+		covered[3 * coveredCount + 2] = coveredHeads[y];
+		coveredHeads[y] = coveredCount;
+		coveredCount++;
+	}
+}
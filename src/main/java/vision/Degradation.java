@@ -0,0 +1,19 @@
+package vision;
+
+/**
+ * How far a frame's processing was cut back to meet its deadline; see
+ * {@link FrameDeadline}. Levels are in order of severity, and a frame is
+ * recorded at the most severe one it used.
+ */
+public enum Degradation {
+	/** Every stage ran. */
+	NONE,
+	/** The Gaussian blur was skipped. */
+	NO_BLUR,
+	/** The annotated output image was not painted. */
+	NO_OVERLAY,
+	/** The wall was not searched for, so no hues were forbidden. */
+	NO_WALL_SUPPRESSION,
+	/** The frame was processed at half its width and height. */
+	HALF_RESOLUTION
+}
@@ -0,0 +1,260 @@
+package vision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * DetectionContext is the scratch space for one frame in flight: the image
+ * being interpreted, its blurred copy, its HSV values and the label map. A
+ * context must only be used by one thread at a time. Contexts are handed out
+ * and taken back by
+ * {@link BlobTrackingChallenge#acquireContext()} and
+ * {@link BlobTrackingChallenge#releaseContext(DetectionContext)} so that their
+ * buffers are reused across frames.
+ * 
+ * Everything a frame needs, down to the blobs and the result messages, is
+ * allocated once and recycled, so that processing a frame on a warmed-up
+ * context creates no garbage. The blobs and the result handed out by a detect
+ * stage stay valid only until the context starts its next frame.
+ * 
+ * A context is sized for one resolution at a time. When a frame of another
+ * size arrives,
+ * {@link #ensureSize(int, int, CameraModel, RegionOfInterest)} reallocates
+ * the buffers that depend on the size; frames of the same size reuse them.
+ * 
+ * @author prentice
+ */
+public class DetectionContext {
+	/**
+	 * Side of the square tiles compared between frames for change detection.
+	 */
+	static final int TILE = 16;
+
+	int width;
+	int height;
+	CameraModel cameraModel;
+	// the part of the frame that is processed, or null for all of it
+	RegionOfInterest roi;
+	// the tracker's colour table when this frame was prepared
+	ColorTable colorTable;
+	Image currentImage;
+	byte[] blurredPixels;
+	byte[] blurScratch;
+	Image blurredImage;
+	// a YUV frame converted to RGB, only allocated when blur or change
+	// detection needs one
+	byte[] rgbPixels;
+	Image rgbImage;
+	int[][][] currentHSV;
+	int[] labels;
+	int[] parents;
+	int[] queue;
+
+	// blobs are recycled: the first blobsInUse entries belong to this frame
+	private Blob[] blobPool = new Blob[16];
+	private int blobsInUse;
+
+	final List<Blob> wallRegions = new ArrayList<Blob>();
+	final List<Blob> hueRegions = new ArrayList<Blob>();
+	final List<Blob> objectRegions = new ArrayList<Blob>();
+	final List<Blob> spheres = new ArrayList<Blob>();
+	final int[] wallHueHistogram = new int[256];
+	final boolean[] noForbiddenHues = new boolean[256];
+	final boolean[] forbiddenHues = new boolean[256];
+
+	final CompleteBallMessage ballResult = new CompleteBallMessage();
+	final CompleteFiducialMessage fiducialResult = new CompleteFiducialMessage();
+
+	// change detection: the last frame converted in each tile, and the
+	// number of the frame in which each tile last changed
+	byte[] referencePixels;
+	boolean hasReference;
+	int tilesX;
+	int tilesY;
+	long[] tileChangedAt;
+	long frameNumber;
+	// per-pass incremental labelers (wall, objects), created when first used
+	final IncrementalLabeler[] incrementalLabelers = new IncrementalLabeler[2];
+
+	// labeling work spent on the frame so far, and the budget's limits
+	// scaled to the frame size
+	long pixelVisits;
+	long visitBudget = Long.MAX_VALUE;
+	int blobCountBudget = Integer.MAX_VALUE;
+	int blobAreaBudget = Integer.MAX_VALUE;
+	boolean overBudget;
+
+	// the deadline of the frame being processed, set by the stream; null
+	// while frames have no deadline
+	FrameDeadline deadline;
+
+	// the wall found by the detect stage, or null if there is none or it was
+	// not looked for
+	Blob wall;
+	// told how long each stage of the detect step takes, if set
+	StageListener stageListener;
+
+	// summed-area tables of the frame, only allocated if the configuration
+	// asks for them
+	IntegralImages integrals;
+
+	// bit-packed masks and run buffers, only allocated in the MASK and CONTOUR
+	// labeling modes
+	BitMask[] bandMasks;
+	long[] bandWords;
+	BitMask cleanMask;
+	BitMask bridgeMask;
+	BitMask maskScratch1;
+	BitMask maskScratch2;
+	int[] rowRuns;
+	int[] maskRuns;
+	int[] maskRunParents;
+	int[] maskRunBlobs;
+	MaskLabeler maskLabeler;
+	ContourLabeler contourLabeler;
+	StripLabeler stripLabeler;
+
+	public DetectionContext(int width, int height) {
+		this(width, height, CameraModel.DEFAULT);
+	}
+
+	public DetectionContext(int width, int height, CameraModel cameraModel) {
+		this(width, height, cameraModel, null);
+	}
+
+	/**
+	 * @param roi
+	 *            the part of the frame to process, at any resolution, or null
+	 *            for all of it
+	 */
+	public DetectionContext(int width, int height, CameraModel cameraModel, RegionOfInterest roi) {
+		allocate(width, height, cameraModel, roi);
+	}
+
+	/**
+	 * Have a listener told how long each stage of the detect step takes on
+	 * this context, or stop telling it if null.
+	 */
+	public void setStageListener(StageListener stageListener) {
+		this.stageListener = stageListener;
+	}
+
+	/**
+	 * Make this context ready for frames of the given size, reallocating its
+	 * buffers only if the size has changed.
+	 * 
+	 * @param cameraModel
+	 *            the camera's intrinsics, at any resolution
+	 * @param roi
+	 *            the part of the frame to process, at any resolution, or null
+	 */
+	void ensureSize(int width, int height, CameraModel cameraModel, RegionOfInterest roi) {
+		if (width != this.width || height != this.height) {
+			allocate(width, height, cameraModel, roi);
+		}
+	}
+
+	private void allocate(int width, int height, CameraModel cameraModel, RegionOfInterest roi) {
+		this.width = width;
+		this.height = height;
+		this.cameraModel = cameraModel.forResolution(width, height);
+		this.roi = (roi == null) ? null : roi.forResolution(width, height);
+		blurredPixels = new byte[width * height * 3];
+		blurScratch = new byte[width * height * 3];
+		blurredImage = new Image(blurredPixels, width, height);
+		rgbPixels = null;
+		rgbImage = null;
+		currentHSV = new int[height][width][3];
+		labels = new int[width * height];
+		parents = new int[width * height];
+		queue = new int[width * height];
+		// allocated when change detection is first used
+		referencePixels = null;
+		hasReference = false;
+		tilesX = (width + TILE - 1) / TILE;
+		tilesY = (height + TILE - 1) / TILE;
+		tileChangedAt = new long[tilesX * tilesY];
+		incrementalLabelers[0] = null;
+		incrementalLabelers[1] = null;
+		integrals = null;
+		// the mask buffers are sized on their next use
+		bandMasks = null;
+		maskLabeler = null;
+		contourLabeler = null;
+		stripLabeler = null;
+	}
+
+	void ensureMasks() {
+		if (bandMasks != null) {
+			return;
+		}
+		bandMasks = new BitMask[MaskLabeler.BANDS];
+		for (int i = 0; i < bandMasks.length; i++) {
+			bandMasks[i] = new BitMask(width, height);
+		}
+		bandWords = new long[MaskLabeler.BANDS];
+		cleanMask = new BitMask(width, height);
+		bridgeMask = new BitMask(width, height);
+		maskScratch1 = new BitMask(width, height);
+		maskScratch2 = new BitMask(width, height);
+		rowRuns = new int[width + 2];
+		maskRuns = new int[3 * height];
+		maskRunParents = new int[height];
+		maskRunBlobs = new int[height];
+	}
+
+	/**
+	 * Grow the mask run buffers, keeping their contents, so that they hold at
+	 * least the given number of runs.
+	 */
+	void ensureMaskRuns(int runs) {
+		if (maskRunParents.length >= runs) {
+			return;
+		}
+		int capacity = Math.max(runs, 2 * maskRunParents.length);
+		maskRuns = Arrays.copyOf(maskRuns, 3 * capacity);
+		maskRunParents = Arrays.copyOf(maskRunParents, capacity);
+		maskRunBlobs = Arrays.copyOf(maskRunBlobs, capacity);
+	}
+
+	/**
+	 * Reset a label map for a new labeling, marking the pixels outside the
+	 * region of interest so that they are never labeled.
+	 */
+	void clearLabels(int[] labels) {
+		if (roi == null) {
+			Arrays.fill(labels, BlobTrackingChallenge.UNLABELED);
+		}
+		else {
+			roi.clearLabels(labels);
+		}
+	}
+
+	/**
+	 * Hand every blob back to the pool, at the start of a frame.
+	 */
+	void releaseBlobs() {
+		blobsInUse = 0;
+	}
+
+	/**
+	 * @return an empty blob from the pool, growing the pool if every blob is
+	 *         in use
+	 */
+	Blob obtainBlob() {
+		if (blobsInUse == blobPool.length) {
+			blobPool = Arrays.copyOf(blobPool, 2 * blobPool.length);
+		}
+		Blob blob = blobPool[blobsInUse];
+		if (blob == null) {
+			blob = new Blob();
+			blobPool[blobsInUse] = blob;
+		}
+		else {
+			blob.reset();
+		}
+		blobsInUse++;
+		return blob;
+	}
+}
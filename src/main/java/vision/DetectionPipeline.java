@@ -0,0 +1,222 @@
+package vision;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * DetectionPipeline overlaps the processing of consecutive frames from one
+ * camera. The prepare stage (blur and HSV conversion) of frame N+1 runs on its
+ * own thread while the detect stage (labeling, classification and painting)
+ * of frame N finishes on another. The stages hand frames over through bounded
+ * queues, so a slow detect stage pushes back on the camera instead of
+ * buffering without limit.
+ *
+ * Each stage is a single thread reading a FIFO queue, so results reach the
+ * {@link Listener} in the order the frames were accepted. A frame whose
+ * processing throws is handed to the listener's onError instead, and the
+ * frames after it carry on. The latency of a single frame is unchanged; only
+ * the throughput grows.
+ *
+ * Frames travel in a fixed set of slots, each with its own detection context
+ * and output image, so a running pipeline does not allocate. There are
+ * enough slots to fill both queues and keep both stages busy.
+ *
+ * @author prentice
+ */
+public class DetectionPipeline<R> {
+	/**
+	 * The detect stage of a pipeline, run on a context that has already been
+	 * through {@link BlobTrackingChallenge#prepare(Image, DetectionContext)}.
+	 */
+	public interface Detector<R> {
+		R detect(BlobTrackingChallenge tracker, DetectionContext ctx, Image dest);
+	}
+
+	/**
+	 * Receives results on the detect thread, in frame order. The output image
+	 * and the result are reused once onResult returns.
+	 */
+	public interface Listener<R> {
+		void onResult(long frameNumber, CameraFrame frame, Image dest, R result);
+
+		/**
+		 * Told, on the thread of the stage that threw, that a frame was
+		 * dropped because processing it failed. The pipeline does not touch
+		 * the frame again.
+		 */
+		void onError(long frameNumber, CameraFrame frame, RuntimeException e);
+	}
+
+	public static final Detector<CompleteBallMessage> BLOCK = new Detector<CompleteBallMessage>() {
+		@Override
+		public CompleteBallMessage detect(BlobTrackingChallenge tracker, DetectionContext ctx, Image dest) {
+			return tracker.detectBlock(ctx, dest);
+		}
+	};
+
+	public static final Detector<CompleteFiducialMessage> FIDUCIAL = new Detector<CompleteFiducialMessage>() {
+		@Override
+		public CompleteFiducialMessage detect(BlobTrackingChallenge tracker, DetectionContext ctx, Image dest) {
+			return tracker.detectFiducial(ctx, dest);
+		}
+	};
+
+	private static class Frame {
+		CameraFrame frame;
+		long number;
+		final DetectionContext ctx;
+		Image dest;
+
+		Frame(DetectionContext ctx) {
+			this.ctx = ctx;
+		}
+	}
+
+	private final BlobTrackingChallenge tracker;
+	private final Detector<R> detector;
+	private final Listener<R> listener;
+	private final BlockingQueue<Frame> free;
+	private final BlockingQueue<Frame> incoming;
+	private final BlockingQueue<Frame> prepared;
+	private final Thread prepareThread;
+	private final Thread detectThread;
+
+	/**
+	 * @param tracker
+	 *            the tracker whose stages are run; it may be shared with
+	 *            other pipelines
+	 * @param detector
+	 *            the detect stage, usually {@link #BLOCK} or {@link #FIDUCIAL}
+	 * @param listener
+	 *            receives each result
+	 * @param depth
+	 *            capacity of each hand-off queue between stages
+	 * @param name
+	 *            prefix for the stage thread names
+	 */
+	public DetectionPipeline(BlobTrackingChallenge tracker, Detector<R> detector, Listener<R> listener, int depth, String name) {
+		this.tracker = tracker;
+		this.detector = detector;
+		this.listener = listener;
+		incoming = new ArrayBlockingQueue<Frame>(depth);
+		prepared = new ArrayBlockingQueue<Frame>(depth);
+		int slots = 2 * depth + 2;
+		free = new ArrayBlockingQueue<Frame>(slots);
+		for (int i = 0; i < slots; i++) {
+			free.add(new Frame(tracker.acquireContext()));
+		}
+
+		prepareThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runPrepareStage();
+			}
+		}, name + "-prepare");
+		detectThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runDetectStage();
+			}
+		}, name + "-detect");
+		prepareThread.setDaemon(true);
+		detectThread.setDaemon(true);
+	}
+
+	public void start() {
+		prepareThread.start();
+		detectThread.start();
+	}
+
+	public void shutdown() {
+		prepareThread.interrupt();
+		detectThread.interrupt();
+	}
+
+	/**
+	 * Queue a frame without blocking.
+	 *
+	 * @return false if the pipeline is full and the frame was dropped
+	 */
+	public boolean offer(CameraFrame frame) {
+		Frame slot = free.poll();
+		if (slot == null) {
+			return false;
+		}
+		slot.frame = frame;
+		if (!incoming.offer(slot)) {
+			recycle(slot);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Queue a frame, waiting for room if the pipeline is full.
+	 */
+	public void submit(CameraFrame frame) throws InterruptedException {
+		Frame slot = free.take();
+		slot.frame = frame;
+		incoming.put(slot);
+	}
+
+	private void runPrepareStage() {
+		long frameNumber = 0;
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				Frame frame = incoming.take();
+				frame.number = frameNumber++;
+				frame.frame.markStart();
+				try {
+					tracker.prepare(frame.frame.image, frame.ctx);
+				} catch (RuntimeException e) {
+					fail(frame, e);
+					recycle(frame);
+					continue;
+				}
+				prepared.put(frame);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private void runDetectStage() {
+		while (!Thread.currentThread().isInterrupted()) {
+			Frame frame;
+			try {
+				frame = prepared.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				Image src = frame.frame.image;
+				if (frame.dest == null || frame.dest.getWidth() != src.getWidth() || frame.dest.getHeight() != src.getHeight()) {
+					frame.dest = new Image(src);
+				} else {
+					frame.dest.copyFrom(src);
+				}
+				R result = detector.detect(tracker, frame.ctx, frame.dest);
+				listener.onResult(frame.number, frame.frame, frame.dest, result);
+			} catch (RuntimeException e) {
+				fail(frame, e);
+			} finally {
+				recycle(frame);
+			}
+		}
+	}
+
+	private void fail(Frame frame, RuntimeException e) {
+		e.printStackTrace();
+		try {
+			listener.onError(frame.number, frame.frame, e);
+		} catch (RuntimeException listenerError) {
+			listenerError.printStackTrace();
+		}
+	}
+
+	private void recycle(Frame frame) {
+		frame.frame = null;
+		frame.ctx.currentImage = null;
+		free.add(frame);
+	}
+}
@@ -0,0 +1,27 @@
+package vision;
+
+/**
+ * DetectionSink receives the detections a {@link CameraStream} publishes.
+ * {@link RosDetectionSink} publishes them as ROS messages;
+ * {@link MemoryDetectionSink} keeps them, so that they can be checked after
+ * a run without a ROS master.
+ *
+ * A stream calls its sink from its worker and, with tracking enabled, from
+ * the tracking timer, so a sink must be thread-safe.
+ *
+ * @author prentice
+ */
+public interface DetectionSink {
+	/**
+	 * Publish the ball of the given colour (see {@link Blob}) at a range in
+	 * metres and a bearing in radians.
+	 */
+	void publishBall(double range, double bearing, int color);
+
+	/**
+	 * Publish the fiducial with the given top and bottom colours at a range
+	 * in metres and a bearing in radians, seen at a wall-clock time in
+	 * milliseconds.
+	 */
+	void publishFiducial(double range, double bearing, int top, int bottom, long time);
+}
@@ -0,0 +1,248 @@
+package vision;
+
+/**
+ * DetectorConfig holds the immutable settings of a blob detector: the frame
+ * size, whether to blur, the hue, gap and size thresholds, the labeling
+ * mode, the camera model used for range and bearing, the tile change
+ * threshold, the colour table, the region of interest, whether to build
+ * integral images and the per-frame work budget. A single instance can be
+ * shared by any number of threads; everything that changes from frame to
+ * frame lives in a {@link DetectionContext}.
+ * 
+ * Configurations are made with a {@link Builder}:
+ * 
+ * <pre>
+ * new DetectorConfig.Builder(160, 120).skipThreshold(3).labelingMode(LabelingMode.MASK).build()
+ * </pre>
+ * 
+ * and varied with {@link #toBuilder()}.
+ * 
+ * The width and height are the resolution the thresholds were tuned at.
+ * Frames of other sizes are accepted; the area thresholds are scaled to them.
+ * 
+ * Which saturations qualify is up to the colour table; there is no separate
+ * saturation threshold.
+ * 
+ * @author prentice
+ */
+public class DetectorConfig {
+	/**
+	 * Builds a {@link DetectorConfig}. Settings not given keep the values
+	 * the robot runs with: no blurring, a hue threshold of 2, a skip
+	 * threshold of 1, a size threshold of 150, SERIAL labeling, the default
+	 * camera model and colour table, no change detection, no region of
+	 * interest, no integral images and no work budget.
+	 */
+	public static class Builder {
+		private final int width;
+		private final int height;
+		private boolean useBlurred = false;
+		private int hueThreshold = 2;
+		private int skipThreshold = 1;
+		private int sizeThreshold = 150;
+		private LabelingMode labelingMode = LabelingMode.SERIAL;
+		private CameraModel cameraModel = CameraModel.DEFAULT;
+		private int changeThreshold = -1;
+		private ColorTable colorTable = ColorTable.DEFAULT;
+		private RegionOfInterest roi = null;
+		private boolean integralImages = false;
+		private WorkBudget budget = WorkBudget.UNLIMITED;
+
+		public Builder(int width, int height) {
+			this.width = width;
+			this.height = height;
+		}
+
+		private Builder(DetectorConfig config) {
+			this(config.width, config.height);
+			useBlurred = config.useBlurred;
+			hueThreshold = config.hueThreshold;
+			skipThreshold = config.skipThreshold;
+			sizeThreshold = config.sizeThreshold;
+			labelingMode = config.labelingMode;
+			cameraModel = config.cameraModel;
+			changeThreshold = config.changeThreshold;
+			colorTable = config.colorTable;
+			roi = config.roi;
+			integralImages = config.integralImages;
+			budget = config.budget;
+		}
+
+		public Builder blurred(boolean useBlurred) {
+			this.useBlurred = useBlurred;
+			return this;
+		}
+
+		/**
+		 * @param hueThreshold
+		 *            the largest hue difference between neighbouring pixels
+		 *            of a region, for hues the colour table gives no
+		 *            threshold of their own
+		 */
+		public Builder hueThreshold(int hueThreshold) {
+			this.hueThreshold = hueThreshold;
+			return this;
+		}
+
+		/**
+		 * @param skipThreshold
+		 *            the widest gap of non-qualifying pixels a region may
+		 *            span
+		 */
+		public Builder skipThreshold(int skipThreshold) {
+			this.skipThreshold = skipThreshold;
+			return this;
+		}
+
+		/**
+		 * @param sizeThreshold
+		 *            the smallest area of an object, at the configured
+		 *            resolution
+		 */
+		public Builder sizeThreshold(int sizeThreshold) {
+			this.sizeThreshold = sizeThreshold;
+			return this;
+		}
+
+		public Builder labelingMode(LabelingMode labelingMode) {
+			this.labelingMode = labelingMode;
+			return this;
+		}
+
+		/**
+		 * @param cameraModel
+		 *            the camera's intrinsics; its tables are rebuilt for the
+		 *            configuration's resolution if need be
+		 */
+		public Builder cameraModel(CameraModel cameraModel) {
+			this.cameraModel = cameraModel;
+			return this;
+		}
+
+		/**
+		 * @param changeThreshold
+		 *            the largest sum of absolute differences between a tile
+		 *            of a frame and the same tile of the previous frame for
+		 *            which the tile counts as unchanged and its HSV values
+		 *            and labels are reused; 0 reuses only identical tiles,
+		 *            and a negative value turns change detection off
+		 */
+		public Builder changeThreshold(int changeThreshold) {
+			this.changeThreshold = changeThreshold;
+			return this;
+		}
+
+		/**
+		 * @param colorTable
+		 *            which pixels qualify and which colour they are; hues it
+		 *            gives no threshold of their own use hueThreshold
+		 */
+		public Builder colorTable(ColorTable colorTable) {
+			this.colorTable = colorTable;
+			return this;
+		}
+
+		/**
+		 * @param roi
+		 *            the part of the frame to process, at any resolution, or
+		 *            null to process all of it
+		 */
+		public Builder regionOfInterest(RegionOfInterest roi) {
+			this.roi = roi;
+			return this;
+		}
+
+		/**
+		 * @param integralImages
+		 *            whether to build {@link IntegralImages} of every frame
+		 *            and take blob hues and region statistics from them. A
+		 *            blob's hue is then the circular mean of its pixels'
+		 *            rather than their arithmetic mean, so a blob whose hues
+		 *            lie either side of 0 is classified red or purple
+		 *            instead of blue; other blobs keep their colour
+		 */
+		public Builder integralImages(boolean integralImages) {
+			this.integralImages = integralImages;
+			return this;
+		}
+
+		/**
+		 * @param budget
+		 *            the most labeling work to spend on a frame before giving
+		 *            it up
+		 */
+		public Builder workBudget(WorkBudget budget) {
+			this.budget = budget;
+			return this;
+		}
+
+		public DetectorConfig build() {
+			return new DetectorConfig(this);
+		}
+	}
+
+	final int width;
+	final int height;
+	final boolean useBlurred;
+	final int hueThreshold;
+	final int skipThreshold;
+	final int sizeThreshold;
+	final LabelingMode labelingMode;
+	final CameraModel cameraModel;
+	final int changeThreshold;
+	final ColorTable colorTable;
+	final RegionOfInterest roi;
+	final boolean integralImages;
+	final WorkBudget budget;
+
+	private DetectorConfig(Builder builder) {
+		this.width = builder.width;
+		this.height = builder.height;
+		this.useBlurred = builder.useBlurred;
+		this.hueThreshold = builder.hueThreshold;
+		this.skipThreshold = builder.skipThreshold;
+		this.sizeThreshold = builder.sizeThreshold;
+		this.labelingMode = builder.labelingMode;
+		this.cameraModel = builder.cameraModel.forResolution(width, height);
+		this.changeThreshold = builder.changeThreshold;
+		this.colorTable = builder.colorTable.withDefaultHueThreshold(hueThreshold);
+		this.roi = (builder.roi == null) ? null : builder.roi.forResolution(width, height);
+		this.integralImages = builder.integralImages;
+		this.budget = builder.budget;
+	}
+
+	/**
+	 * @return a builder starting from this configuration's settings
+	 */
+	public Builder toBuilder() {
+		return new Builder(this);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public CameraModel getCameraModel() {
+		return cameraModel;
+	}
+
+	public ColorTable getColorTable() {
+		return colorTable;
+	}
+
+	public RegionOfInterest getRegionOfInterest() {
+		return roi;
+	}
+
+	public boolean usesIntegralImages() {
+		return integralImages;
+	}
+
+	public WorkBudget getWorkBudget() {
+		return budget;
+	}
+}
@@ -0,0 +1,216 @@
+package vision;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * DetectorStages has the stages of the detect step, run on a context that
+ * has been through {@link BlobTrackingChallenge#prepare(Image, DetectionContext)},
+ * and the two detectors made of them: {@link #BLOCK}, which finds the nearest
+ * ball, and {@link #FIDUCIAL}, which suppresses the wall and finds the
+ * nearest pair of spheres. They differ only in their first and last stage.
+ *
+ * Each stage honours the context's {@link WorkBudget} and
+ * {@link FrameDeadline}: once the frame is over budget, the stages after it
+ * do nothing and the last one returns a result with its overBudget flag set,
+ * and the optional stages ask the deadline before they run.
+ *
+ * @author prentice
+ */
+public final class DetectorStages {
+	private DetectorStages() {
+	}
+
+	/**
+	 * Forbid no hues to the object pass.
+	 */
+	public static final Stage<Void, boolean[]> NO_WALL = new Stage<Void, boolean[]>("no wall") {
+		@Override
+		public boolean[] run(BlobTrackingChallenge tracker, DetectionContext ctx, Void input, Image dest) {
+			ctx.wall = null;
+			return ctx.noForbiddenHues;
+		}
+	};
+
+	/**
+	 * Find the wall, unless the deadline has no time for it, and forbid its
+	 * most common hues to the object pass.
+	 */
+	public static final Stage<Void, boolean[]> FIND_WALL = new Stage<Void, boolean[]>("wall") {
+		@Override
+		public boolean[] run(BlobTrackingChallenge tracker, DetectionContext ctx, Void input, Image dest) {
+			FrameDeadline deadline = ctx.deadline;
+			boolean[] disallowedHues = ctx.forbiddenHues;
+			Arrays.fill(disallowedHues, false);
+			ctx.wall = null;
+			if (deadline == null || deadline.allows(FrameDeadline.Stage.WALL)) {
+				long start = System.nanoTime();
+				ctx.wall = tracker.findWall(ctx, disallowedHues);
+				if (deadline != null && !ctx.overBudget) {
+					deadline.record(FrameDeadline.Stage.WALL, System.nanoTime() - start);
+				}
+			}
+			return disallowedHues;
+		}
+	};
+
+	/**
+	 * Label the regions of constant hue, leaving out the forbidden hues, and
+	 * keep the large ones not on the edge as objects (in the context's
+	 * objectRegions) and the round objects among them as spheres.
+	 */
+	public static final Stage<boolean[], List<Blob>> FIND_SPHERES = new Stage<boolean[], List<Blob>>("spheres") {
+		@Override
+		public List<Blob> run(BlobTrackingChallenge tracker, DetectionContext ctx, boolean[] forbiddenHues, Image dest) {
+			if (ctx.overBudget) {
+				ctx.objectRegions.clear();
+				ctx.spheres.clear();
+				return ctx.spheres;
+			}
+			long start = System.nanoTime();
+			List<Blob> hueConstantRegions = tracker.findHueConstantRegions(ctx, false, forbiddenHues, ctx.hueRegions);
+			if (ctx.overBudget) {
+				ctx.objectRegions.clear();
+				ctx.spheres.clear();
+				return ctx.spheres;
+			}
+			List<Blob> discoveredObjects = tracker.findObjectRegions(ctx, hueConstantRegions, ctx.objectRegions);
+			List<Blob> discoveredSpheres = tracker.findSpheres(discoveredObjects, ctx.spheres);
+			if (ctx.deadline != null) {
+				ctx.deadline.record(FrameDeadline.Stage.OBJECTS, System.nanoTime() - start);
+			}
+			return discoveredSpheres;
+		}
+	};
+
+	/**
+	 * Report the nearest ball, and paint the objects grey and the balls in
+	 * their colour if the deadline allows.
+	 */
+	public static final Stage<List<Blob>, CompleteBallMessage> NEAREST_BALL = new Stage<List<Blob>, CompleteBallMessage>("nearest ball") {
+		@Override
+		public CompleteBallMessage run(BlobTrackingChallenge tracker, DetectionContext ctx, List<Blob> discoveredBlocks, Image dest) {
+			CompleteBallMessage completeBallMsg = ctx.ballResult;
+			completeBallMsg.clear();
+			if (ctx.overBudget) {
+				completeBallMsg.overBudget = true;
+				return completeBallMsg;
+			}
+			CameraModel camera = ctx.cameraModel;
+			FrameDeadline deadline = ctx.deadline;
+			boolean overlay = deadline == null || deadline.allows(FrameDeadline.Stage.OVERLAY);
+			long start = System.nanoTime();
+
+			//Color blobs grey
+			List<Blob> discoveredObjects = ctx.objectRegions;
+			int grayscale = 100;
+			for (int i = 0; overlay && i < discoveredObjects.size(); i++) {
+				discoveredObjects.get(i).paint(dest, (byte) grayscale, (byte) grayscale, (byte) grayscale);
+			}
+
+			for (int i = 0; i < discoveredBlocks.size(); i++) {
+				Blob blob = discoveredBlocks.get(i);
+				int[] rgb = BlobTrackingChallenge.getBlobColors(blob.colorClassifier(ctx.colorTable));
+				if (overlay) {
+					blob.paint(dest, (byte) rgb[0], (byte) rgb[1], (byte) rgb[2]);
+				}
+				double currentRange = blob.calculateRangeBlock(camera);
+				double currentBearing = blob.calculateBearing(camera);
+				if (!completeBallMsg.sendMessage || currentRange < completeBallMsg.range) {
+					completeBallMsg.set(currentRange, currentBearing, blob.color);
+				}
+			}
+			if (overlay && deadline != null) {
+				deadline.record(FrameDeadline.Stage.OVERLAY, System.nanoTime() - start);
+			}
+			return completeBallMsg;
+		}
+	};
+
+	/**
+	 * Report the nearest pair of spheres that forms a fiducial, and paint the
+	 * wall black, the objects grey, the spheres white (pink if they are
+	 * spaced like a fiducial's) and the fiducials in their colours if the
+	 * deadline allows.
+	 */
+	public static final Stage<List<Blob>, CompleteFiducialMessage> NEAREST_FIDUCIAL = new Stage<List<Blob>, CompleteFiducialMessage>("nearest fiducial") {
+		@Override
+		public CompleteFiducialMessage run(BlobTrackingChallenge tracker, DetectionContext ctx, List<Blob> discoveredSpheres, Image dest) {
+			if (ctx.overBudget) {
+				return BlobTrackingChallenge.fiducialOverBudget(ctx);
+			}
+			int width = ctx.width;
+			int height = ctx.height;
+			CameraModel camera = ctx.cameraModel;
+			FrameDeadline deadline = ctx.deadline;
+			boolean overlay = deadline == null || deadline.allows(FrameDeadline.Stage.OVERLAY);
+			long start = System.nanoTime();
+
+			if (overlay && ctx.wall != null) {
+				ctx.wall.paint(dest, (byte) 0, (byte) 0, (byte) 0);
+			}
+
+			//Color blobs grey
+			List<Blob> discoveredObjects = ctx.objectRegions;
+			int grayscale = 100;
+			for (int i = 0; overlay && i < discoveredObjects.size(); i++) {
+				discoveredObjects.get(i).paint(dest, (byte) grayscale, (byte) grayscale, (byte) grayscale);
+			}
+
+			//Color spheres white and spaced correctly spheres pink
+			for (int i = 0; overlay && i < discoveredSpheres.size(); i++) {
+				Blob blob = discoveredSpheres.get(i);
+				blob.paint(dest, (byte) 255, (byte) 255, (byte) 255);
+				if (blob.isValidHorizontalFiducial(height)) {
+					blob.paint(dest, (byte) 255, (byte) 102, (byte) 153);
+				}
+			}
+
+			//Color fiducials
+			CompleteFiducialMessage completeFidMsg = ctx.fiducialResult;
+			completeFidMsg.clear();
+			for (int i = 0; i < discoveredSpheres.size(); i++) {
+				for (int j = i + 1; j < discoveredSpheres.size(); j++) {
+					Blob blob1 = discoveredSpheres.get(i);
+					Blob blob2 = discoveredSpheres.get(j);
+					if (blob1.formsFiducial(blob2, width, height)) {
+						int[] rgb1 = BlobTrackingChallenge.getBlobColors(blob1.colorClassifier(ctx.colorTable));
+						int[] rgb2 = BlobTrackingChallenge.getBlobColors(blob2.colorClassifier(ctx.colorTable));
+						if (overlay) {
+							blob1.paint(dest, (byte) rgb1[0], (byte) rgb1[1], (byte) rgb1[2]);
+							blob2.paint(dest, (byte) rgb2[0], (byte) rgb2[1], (byte) rgb2[2]);
+						}
+						double currentRange = (blob1.calculateRangeFiducial(camera) + blob2.calculateRangeFiducial(camera)) / 2.0;
+						double currentBearing = (blob1.calculateBearing(camera) + blob2.calculateBearing(camera)) / 2.0;
+						if (!completeFidMsg.sendMessage || currentRange < completeFidMsg.range) {
+							if (blob1.centroidY > blob2.centroidY) {
+								completeFidMsg.set(currentRange, currentBearing, blob2.color, blob1.color);
+							}
+							else {
+								completeFidMsg.set(currentRange, currentBearing, blob1.color, blob2.color);
+							}
+						}
+					}
+				}
+			}
+			if (overlay && deadline != null) {
+				deadline.record(FrameDeadline.Stage.OVERLAY, System.nanoTime() - start);
+			}
+			return completeFidMsg;
+		}
+	};
+
+	/**
+	 * Find the nearest ball.
+	 */
+	public static final StageChain<Void, CompleteBallMessage> BLOCK = StageChain.of("block", NO_WALL)
+			.then(FIND_SPHERES)
+			.then(NEAREST_BALL);
+
+	/**
+	 * Suppress the wall and find the nearest fiducial.
+	 */
+	public static final StageChain<Void, CompleteFiducialMessage> FIDUCIAL = StageChain.of("fiducial", FIND_WALL)
+			.then(FIND_SPHERES)
+			.then(NEAREST_FIDUCIAL);
+}
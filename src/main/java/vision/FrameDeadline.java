@@ -0,0 +1,146 @@
+package vision;
+
+/**
+ * FrameDeadline is the time by which a stream's current frame should be
+ * published, and what the detector has learnt about how long its stages
+ * take. The stages check it cooperatively: before an optional stage runs, the
+ * detector asks whether the stage and the mandatory stages still to come fit
+ * before the deadline, and skips the stage if not. Before a frame starts, the
+ * stream asks whether even the mandatory stages fit at full resolution, and
+ * processes the frame at half size if not.
+ *
+ * Stage costs are kept as moving averages in nanoseconds per pixel, so that
+ * what is learnt at one resolution carries over to another. A stage that has
+ * never run is taken to cost nothing, so every stage runs at least once.
+ *
+ * A deadline belongs to one stream and is only used by the task processing
+ * its current frame; it is not thread-safe.
+ *
+ * @author prentice
+ */
+public class FrameDeadline {
+	/**
+	 * The stages whose cost is tracked, and the degradation that skipping
+	 * each optional one amounts to.
+	 */
+	public enum Stage {
+		BLUR(Degradation.NO_BLUR),
+		CONVERT(null),
+		WALL(Degradation.NO_WALL_SUPPRESSION),
+		OBJECTS(null),
+		OVERLAY(Degradation.NO_OVERLAY);
+
+		final Degradation whenSkipped;
+
+		Stage(Degradation whenSkipped) {
+			this.whenSkipped = whenSkipped;
+		}
+
+		boolean isOptional() {
+			return whenSkipped != null;
+		}
+	}
+
+	private static final Stage[] STAGES = Stage.values();
+	// weight of the newest measurement in the moving averages
+	private static final double SMOOTHING = 0.125;
+
+	private final double[] nanosPerPixel = new double[STAGES.length];
+	private final boolean[] measured = new boolean[STAGES.length];
+	// stages that have run or been skipped in the current frame
+	private final boolean[] done = new boolean[STAGES.length];
+	private long deadlineNanos = Long.MAX_VALUE;
+	private int pixels;
+	private Degradation degradation = Degradation.NONE;
+
+	/**
+	 * Begin a frame.
+	 *
+	 * @param deadlineNanos
+	 *            the {@link System#nanoTime()} by which the frame should be
+	 *            done, or Long.MAX_VALUE for none
+	 * @param pixels
+	 *            the number of pixels the frame will be processed at
+	 */
+	public void start(long deadlineNanos, int pixels) {
+		this.deadlineNanos = deadlineNanos;
+		this.pixels = pixels;
+		degradation = Degradation.NONE;
+		for (int i = 0; i < done.length; i++) {
+			done[i] = false;
+		}
+	}
+
+	/**
+	 * @return whether the mandatory stages would fit before the deadline if
+	 *         the frame had the given number of pixels
+	 */
+	public boolean fits(int pixels) {
+		double nanos = 0;
+		for (Stage stage : STAGES) {
+			if (!stage.isOptional()) {
+				nanos += nanosPerPixel[stage.ordinal()] * pixels;
+			}
+		}
+		return System.nanoTime() + nanos <= deadlineNanos;
+	}
+
+	/**
+	 * Decide whether an optional stage may run: it may if it and the
+	 * mandatory stages not yet done this frame are expected to finish
+	 * before the deadline. If it may not, the frame is degraded accordingly.
+	 */
+	public boolean allows(Stage stage) {
+		double nanos = nanosPerPixel[stage.ordinal()] * pixels;
+		for (Stage other : STAGES) {
+			if (!other.isOptional() && !done[other.ordinal()]) {
+				nanos += nanosPerPixel[other.ordinal()] * pixels;
+			}
+		}
+		if (System.nanoTime() + nanos <= deadlineNanos) {
+			return true;
+		}
+		done[stage.ordinal()] = true;
+		degrade(stage.whenSkipped);
+		return false;
+	}
+
+	/**
+	 * Record how long a stage of the current frame took.
+	 */
+	public void record(Stage stage, long nanos) {
+		int i = stage.ordinal();
+		double perPixel = (double) nanos / Math.max(1, pixels);
+		nanosPerPixel[i] = measured[i] ? nanosPerPixel[i] + SMOOTHING * (perPixel - nanosPerPixel[i]) : perPixel;
+		measured[i] = true;
+		done[i] = true;
+	}
+
+	/**
+	 * Note that the current frame was cut back at least this far.
+	 */
+	public void degrade(Degradation level) {
+		if (level.compareTo(degradation) > 0) {
+			degradation = level;
+		}
+	}
+
+	/**
+	 * @return the most severe degradation the current frame has used
+	 */
+	public Degradation getDegradation() {
+		return degradation;
+	}
+
+	public long getDeadlineNanos() {
+		return deadlineNanos;
+	}
+
+	/**
+	 * @return the expected cost of a stage at the current frame size, in
+	 *         nanoseconds
+	 */
+	public double estimate(Stage stage) {
+		return nanosPerPixel[stage.ordinal()] * pixels;
+	}
+}
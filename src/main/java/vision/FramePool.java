@@ -0,0 +1,54 @@
+package vision;
+
+/**
+ * FramePool keeps a few images for incoming frames to be copied into, so
+ * that a stream fed at a steady size allocates no pixels per frame. A frame
+ * taken from the pool goes back to it once the stream has published or
+ * dropped the frame (see {@link CameraFrame}); one that never comes back is
+ * simply collected, and the pool allocates another in its place. Images of
+ * another size than the one asked for are discarded as they are found, so
+ * the pool follows a change of resolution.
+ *
+ * A pool may be used from any thread.
+ *
+ * @author prentice
+ */
+public class FramePool {
+	private final Image[] free;
+	private int count = 0;
+
+	/**
+	 * @param capacity
+	 *            how many released images are kept, which should cover the
+	 *            frames a stream may hold at once
+	 */
+	public FramePool(int capacity) {
+		free = new Image[capacity];
+	}
+
+	/**
+	 * @return a released image of the given size, or a new one if there is
+	 *         none; its pixels are whatever they were
+	 */
+	public Image acquire(int width, int height) {
+		synchronized (this) {
+			while (count > 0) {
+				Image image = free[--count];
+				free[count] = null;
+				if (image.getWidth() == width && image.getHeight() == height) {
+					return image;
+				}
+			}
+		}
+		return new Image(new byte[3 * width * height], width, height);
+	}
+
+	/**
+	 * Return an image for reuse. The caller must not touch it afterwards.
+	 */
+	public synchronized void release(Image image) {
+		if (count < free.length) {
+			free[count++] = image;
+		}
+	}
+}
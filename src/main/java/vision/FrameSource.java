@@ -0,0 +1,24 @@
+package vision;
+
+/**
+ * FrameSource feeds a {@link CameraStream} its frames, by calling
+ * {@link CameraStream#ingest(CameraFrame)} or
+ * {@link CameraStream#ingest(Image, long)} on a thread of its own.
+ * {@link RosFrameSource} subscribes to the camera's topic;
+ * {@link ReplayFrameSource} replays recorded frames, so that a stream can
+ * run without a ROS master.
+ *
+ * @author prentice
+ */
+public interface FrameSource {
+	/**
+	 * Start delivering frames to the stream, according to the stream's
+	 * configuration.
+	 */
+	void start(CameraStream stream);
+
+	/**
+	 * Stop delivering frames.
+	 */
+	void shutdown();
+}
@@ -0,0 +1,195 @@
+package vision;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * GroundTruth is what a frame really shows: nothing, a ball of one colour or
+ * a fiducial of two, and optionally its range and bearing. Labels for a
+ * recorded frame log are kept one frame per line:
+ *
+ * <pre>
+ * # frame  what               range (m)  bearing (rad)
+ * 0        none
+ * 1        red                1.20       -0.15
+ * 2        blue/yellow        2.5
+ * </pre>
+ *
+ * where a fiducial is written top colour first, colours are the names of
+ * {@link ColorTable#COLOR_NAMES} or their ids, and frames without a line are
+ * not labelled. A detection matches the truth if it finds the same colours
+ * and, where the truth has them, a range within {@link #RANGE_TOLERANCE} of
+ * it and a bearing within {@link #BEARING_TOLERANCE}.
+ *
+ * Instances are immutable.
+ *
+ * @author prentice
+ */
+public class GroundTruth {
+	/**
+	 * The largest range error of a matching detection, as a fraction of the
+	 * true range.
+	 */
+	public static final double RANGE_TOLERANCE = 0.25;
+
+	/**
+	 * The largest bearing error of a matching detection, in radians.
+	 */
+	public static final double BEARING_TOLERANCE = 0.1;
+
+	public static final GroundTruth NONE = new GroundTruth(-1, -1, Double.NaN, Double.NaN);
+
+	// the ball's colour or the fiducial's top colour, -1 for nothing
+	final int color;
+	// the fiducial's bottom colour, -1 for a ball or nothing
+	final int bottomColor;
+	// NaN if not known
+	final double range;
+	final double bearing;
+
+	public GroundTruth(int color, int bottomColor, double range, double bearing) {
+		this.color = color;
+		this.bottomColor = bottomColor;
+		this.range = range;
+		this.bearing = bearing;
+	}
+
+	public static GroundTruth ball(int color, double range, double bearing) {
+		return new GroundTruth(color, -1, range, bearing);
+	}
+
+	public static GroundTruth fiducial(int topColor, int bottomColor, double range, double bearing) {
+		return new GroundTruth(topColor, bottomColor, range, bearing);
+	}
+
+	public boolean isNone() {
+		return color < 0;
+	}
+
+	public boolean isFiducial() {
+		return bottomColor >= 0;
+	}
+
+	public boolean matches(CompleteBallMessage msg) {
+		if (isNone() || !msg.sendMessage) {
+			return isNone() && !msg.sendMessage;
+		}
+		return !isFiducial() && msg.color == color && closeEnough(msg.range, msg.bearing);
+	}
+
+	public boolean matches(CompleteFiducialMessage msg) {
+		if (isNone() || !msg.sendMessage) {
+			return isNone() && !msg.sendMessage;
+		}
+		return isFiducial() && msg.topColor == color && msg.bottomColor == bottomColor
+				&& closeEnough(msg.range, msg.bearing);
+	}
+
+	private boolean closeEnough(double detectedRange, double detectedBearing) {
+		if (!Double.isNaN(range) && Math.abs(detectedRange - range) > RANGE_TOLERANCE * range) {
+			return false;
+		}
+		return Double.isNaN(bearing) || Math.abs(detectedBearing - bearing) <= BEARING_TOLERANCE;
+	}
+
+	/**
+	 * Read the labels of a frame log of the given length.
+	 *
+	 * @return each frame's truth, or null where a frame is not labelled
+	 * @throws IllegalArgumentException
+	 *             if a line cannot be parsed
+	 */
+	public static GroundTruth[] load(String path, int frames) throws IOException {
+		GroundTruth[] truths = new GroundTruth[frames];
+		BufferedReader in = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int comment = line.indexOf('#');
+				line = ((comment >= 0) ? line.substring(0, comment) : line).trim();
+				if (line.length() == 0) {
+					continue;
+				}
+				String[] fields = line.split("\\s+", 2);
+				int frame = parseInt(fields[0], line);
+				if (frame < 0 || frame >= frames || fields.length < 2) {
+					throw new IllegalArgumentException("Label for no frame of the log: " + line);
+				}
+				truths[frame] = parse(fields[1]);
+			}
+		}
+		finally {
+			in.close();
+		}
+		return truths;
+	}
+
+	/**
+	 * Parse a label written as above, without its frame number.
+	 */
+	public static GroundTruth parse(String label) {
+		String[] fields = label.trim().split("\\s+");
+		if (fields.length > 3) {
+			throw new IllegalArgumentException("Labels must be '<what> [<range> [<bearing>]]': " + label);
+		}
+		if (fields[0].equals("none")) {
+			return NONE;
+		}
+		String[] colors = fields[0].split("/");
+		double range = (fields.length > 1) ? parseDouble(fields[1], label) : Double.NaN;
+		double bearing = (fields.length > 2) ? parseDouble(fields[2], label) : Double.NaN;
+		if (colors.length == 2) {
+			return fiducial(parseColor(colors[0], label), parseColor(colors[1], label), range, bearing);
+		}
+		return ball(parseColor(colors[0], label), range, bearing);
+	}
+
+	private static int parseColor(String name, String label) {
+		for (int color = 0; color < ColorTable.COLOR_NAMES.length; color++) {
+			if (ColorTable.COLOR_NAMES[color].equals(name)) {
+				return color;
+			}
+		}
+		int color = parseInt(name, label);
+		if (color < 0 || color >= Blob.COLORS) {
+			throw new IllegalArgumentException("Unknown colour " + name + ": " + label);
+		}
+		return color;
+	}
+
+	private static int parseInt(String value, String label) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: " + value + " in " + label);
+		}
+	}
+
+	private static double parseDouble(String value, String label) {
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: " + value + " in " + label);
+		}
+	}
+
+	/**
+	 * @return the label as written in a labels file
+	 */
+	@Override
+	public String toString() {
+		if (isNone()) {
+			return "none";
+		}
+		String what = ColorTable.COLOR_NAMES[color] + (isFiducial() ? "/" + ColorTable.COLOR_NAMES[bottomColor] : "");
+		if (Double.isNaN(range)) {
+			return what;
+		}
+		if (Double.isNaN(bearing)) {
+			return String.format(Locale.US, "%s %.3f", what, range);
+		}
+		return String.format(Locale.US, "%s %.3f %.4f", what, range, bearing);
+	}
+}
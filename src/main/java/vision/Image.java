@@ -306,6 +306,26 @@ public class Image implements java.io.Serializable {
 		this.pixels = pixels.clone();
 	}
 
+	/**
+	 * The array backing this Image, without copying it. Callers must not
+	 * modify it.
+	 */
+	byte[] getPixelBuffer() {
+		return pixels;
+	}
+
+	/**
+	 * Overwrite this Image with the pixels of another of the same size,
+	 * without allocating.
+	 */
+	public void copyFrom(Image image) {
+		if (image.width != width || image.height != height) {
+			throw new IllegalArgumentException(
+					"Images must have the same size.");
+		}
+		System.arraycopy(image.pixels, 0, pixels, 0, pixels.length);
+	}
+
 	public int getHue(int x, int y) {
 		
 		int red = getPixelRed(x, y) & 0xff;
@@ -317,22 +337,154 @@ public class Image implements java.io.Serializable {
 	}
 	
 	public int[][][] getHSVArray() {
-		int[][][] hsvArray = new int[height][width][3];
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				int red = getPixelRed(x,y) & 0xff;
-				int green = getPixelGreen(x,y) & 0xff;
-				int blue = getPixelBlue(x,y) & 0xff;
-				float[] hsbvals = new float[3];
-				hsbvals = Color.RGBtoHSB(red, green, blue, hsbvals);
-				hsvArray[y][x][0] = (int) (255*hsbvals[0]);
-				hsvArray[y][x][1] = (int) (255*hsbvals[1]);
-				hsvArray[y][x][2] = (int) (255*hsbvals[2]);
-			}
+		return getHSVArray(new int[height][width][3]);
+	}
+
+	/**
+	 * Compute the HSV values of this Image into an existing [height][width][3]
+	 * array.
+	 * 
+	 * @return hsvArray
+	 */
+	public int[][][] getHSVArray(int[][][] hsvArray) {
+		return getHSVArray(hsvArray, 0, 0, width, height);
+	}
+
+	/**
+	 * Compute the HSV values of the rectangle from (x0, y0) inclusive to (x1,
+	 * y1) exclusive into an existing [height][width][3] array, leaving the
+	 * rest of the array alone.
+	 * 
+	 * @return hsvArray
+	 */
+	public int[][][] getHSVArray(int[][][] hsvArray, int x0, int y0, int x1, int y1) {
+		for (int y = y0; y < y1; y++) {
+			getHSVRun(hsvArray, y, x0, x1 - 1);
 		}
 		return hsvArray;
 	}
 
+	/**
+	 * Compute the HSV values of the pixels from x0 to x1 inclusive on row y
+	 * into an existing [height][width][3] array.
+	 */
+	void getHSVRun(int[][][] hsvArray, int y, int x0, int x1) {
+		int[][] hsvRow = hsvArray[y];
+		byte[] pixels = this.pixels;
+		int index = index(x0, y, width);
+		for (int x = x0; x <= x1; x++, index += 3) {
+			toHSV(pixels[index] & 0xff, pixels[index + 1] & 0xff, pixels[index + 2] & 0xff, hsvRow[x]);
+		}
+	}
+
+	/**
+	 * Compute the HSV values of one pixel, as getHSVArray does.
+	 */
+	static void toHSV(int red, int green, int blue, int[] hsv) {
+		// the channel order decides which of Color.RGBtoHSB's formulas
+		// applies; see HSV_HUE
+		int max, min, sextant, offset;
+		if (red >= green && red >= blue) {
+			max = red;
+			if (blue <= green) { min = blue; sextant = 0; offset = red - green; }
+			else { min = green; sextant = 1; offset = red - blue; }
+		}
+		else if (green >= blue) {
+			max = green;
+			if (red <= blue) { min = red; sextant = 2; offset = green - blue; }
+			else { min = blue; sextant = 3; offset = green - red; }
+		}
+		else {
+			max = blue;
+			if (green <= red) { min = green; sextant = 4; offset = blue - red; }
+			else { min = red; sextant = 5; offset = blue - green; }
+		}
+		int chroma = max - min;
+		hsv[0] = HSV_HUE[(((sextant << 8) | chroma) << 8) | offset] & 0xff;
+		hsv[1] = HSV_SATURATION[(max << 8) | chroma] & 0xff;
+		hsv[2] = HSV_VALUE[max] & 0xff;
+	}
+
+	/*
+	 * getHSVArray's values are (int) (255 * x) of Color.RGBtoHSB's floats.
+	 * Value depends only on the largest channel and saturation only on the
+	 * largest channel and the chroma (largest minus smallest). Hue depends on
+	 * which channel is largest and which smallest (the sextant), the chroma
+	 * and the middle channel's distance below the largest. Each table entry
+	 * is computed by Color.RGBtoHSB itself from a pixel of its class, so the
+	 * tables give exactly the values it would.
+	 */
+	static final byte[] HSV_VALUE = new byte[256];
+	static final byte[] HSV_SATURATION = new byte[256 * 256];
+	private static final byte[] HSV_HUE = new byte[6 * 256 * 256];
+	static {
+		float[] hsb = new float[3];
+		for (int max = 0; max < 256; max++) {
+			for (int chroma = 0; chroma <= max; chroma++) {
+				Color.RGBtoHSB(max, max, max - chroma, hsb);
+				HSV_SATURATION[(max << 8) | chroma] = (byte) (int) (255 * hsb[1]);
+				HSV_VALUE[max] = (byte) (int) (255 * hsb[2]);
+			}
+		}
+		// largest, middle and smallest channel of each sextant
+		int[][] order = {{0, 1, 2}, {0, 2, 1}, {1, 2, 0}, {1, 0, 2}, {2, 0, 1}, {2, 1, 0}};
+		int[] rgb = new int[3];
+		for (int sextant = 0; sextant < 6; sextant++) {
+			for (int chroma = 0; chroma < 256; chroma++) {
+				for (int offset = 0; offset <= chroma; offset++) {
+					rgb[order[sextant][0]] = 255;
+					rgb[order[sextant][1]] = 255 - offset;
+					rgb[order[sextant][2]] = 255 - chroma;
+					Color.RGBtoHSB(rgb[0], rgb[1], rgb[2], hsb);
+					HSV_HUE[(((sextant << 8) | chroma) << 8) | offset] = (byte) (int) (255 * hsb[0]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Resample an image to another size. Each destination pixel is the
+	 * average of the source pixels it covers, so shrinking by any factor
+	 * (integer or not) filters rather than skips pixels.
+	 * 
+	 * @param src
+	 *            A byte[] image
+	 * @param srcWidth
+	 *            The width of src
+	 * @param srcHeight
+	 *            The height of src
+	 * @param dest
+	 *            Receives the resampled image
+	 * @param destWidth
+	 *            The width of dest
+	 * @param destHeight
+	 *            The height of dest
+	 */
+	public static void scale(byte[] src, int srcWidth, int srcHeight, byte[] dest, int destWidth, int destHeight) {
+		for (int y = 0; y < destHeight; y++) {
+			int y0 = y * srcHeight / destHeight;
+			int y1 = Math.max(y0 + 1, (y + 1) * srcHeight / destHeight);
+			for (int x = 0; x < destWidth; x++) {
+				int x0 = x * srcWidth / destWidth;
+				int x1 = Math.max(x0 + 1, (x + 1) * srcWidth / destWidth);
+				int r = 0, g = 0, b = 0;
+				for (int sy = y0; sy < y1; sy++) {
+					for (int sx = x0; sx < x1; sx++) {
+						int i = index(sx, sy, srcWidth);
+						r += src[i + Channel.RED.offset] & 0xff;
+						g += src[i + Channel.GREEN.offset] & 0xff;
+						b += src[i + Channel.BLUE.offset] & 0xff;
+					}
+				}
+				int count = (y1 - y0) * (x1 - x0);
+				int i = index(x, y, destWidth);
+				dest[i + Channel.RED.offset] = (byte) (r / count);
+				dest[i + Channel.GREEN.offset] = (byte) (g / count);
+				dest[i + Channel.BLUE.offset] = (byte) (b / count);
+			}
+		}
+	}
+
 	/**
 	 * Convert between RGB and BGR
 	 * 
@@ -0,0 +1,309 @@
+package vision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * IncrementalLabeler keeps the serial flood-fill labeling of one pass (the
+ * wall search or the object search) from frame to frame, and only redoes the
+ * part of it that the changed tiles can affect.
+ *
+ * Whether two pixels join depends only on their own HSV values, and only
+ * pixels up to skipThreshold apart can join. So a component none of whose
+ * pixels lies within skipThreshold of a changed tile is exactly the same as
+ * in the previous frame, and keeps its label and its blob, statistics and
+ * all. Every other component is dissolved, and the tiles it covered are
+ * flooded again together with the changed tiles. The regions found, and the
+ * order they are listed in, are the same as a full relabeling would give.
+ *
+ * The labeling is redone from scratch when the forbidden hues or the colour
+ * table change, and when the context is resized (which replaces the labeler).
+ *
+ * @author prentice
+ */
+class IncrementalLabeler {
+	private final BlobTrackingChallenge tracker;
+	private final DetectionContext ctx;
+	private final int width;
+	private final int height;
+	private final int[] labels;
+	private final boolean[] forbiddenHues = new boolean[256];
+	private ColorTable colors;
+	private boolean valid = false;
+	private long lastFrame;
+
+	// blob of each label, or null for labels not in use
+	private Blob[] blobs = new Blob[16];
+	// first pixel of each label's component in scan order, as x * height + y
+	private int[] seeds = new int[16];
+	private int[] order = new int[16];
+	private int labelCount = 0;
+	private int[] freeLabels = new int[16];
+	private int freeCount = 0;
+	private final List<Blob> spareBlobs = new ArrayList<Blob>();
+
+	private final boolean[] rescanTiles;
+	private final boolean[] dirtyTiles;
+
+	IncrementalLabeler(BlobTrackingChallenge tracker, DetectionContext ctx) {
+		this.tracker = tracker;
+		this.ctx = ctx;
+		this.width = ctx.width;
+		this.height = ctx.height;
+		this.labels = new int[width * height];
+		this.rescanTiles = new boolean[ctx.tilesX * ctx.tilesY];
+		this.dirtyTiles = new boolean[ctx.tilesX * ctx.tilesY];
+	}
+
+	/**
+	 * Bring the labeling up to date with the context's frame and append its
+	 * regions to the given list, in the order a full scan would find them.
+	 */
+	void label(boolean findWall, boolean[] forbiddenHues, List<Blob> regions) {
+		if (!valid || ctx.colorTable != colors || !Arrays.equals(forbiddenHues, this.forbiddenHues)) {
+			relabel(findWall, forbiddenHues);
+		}
+		else if (ctx.frameNumber != lastFrame) {
+			update(findWall);
+		}
+		if (ctx.overBudget) {
+			// a fill was cut short, so start afresh next frame
+			valid = false;
+			return;
+		}
+		lastFrame = ctx.frameNumber;
+
+		// insertion sort by seed; labels reused after a dissolve are mostly
+		// close to their place already
+		int count = 0;
+		for (int label = 0; label < labelCount; label++) {
+			if (blobs[label] == null) {
+				continue;
+			}
+			int i = count++;
+			while (i > 0 && seeds[order[i - 1]] > seeds[label]) {
+				order[i] = order[i - 1];
+				i--;
+			}
+			order[i] = label;
+		}
+		for (int i = 0; i < count; i++) {
+			regions.add(blobs[order[i]]);
+		}
+	}
+
+	private void relabel(boolean findWall, boolean[] forbiddenHues) {
+		System.arraycopy(forbiddenHues, 0, this.forbiddenHues, 0, forbiddenHues.length);
+		colors = ctx.colorTable;
+		for (int label = 0; label < labelCount; label++) {
+			if (blobs[label] != null) {
+				spareBlobs.add(blobs[label]);
+				blobs[label] = null;
+			}
+		}
+		labelCount = 0;
+		freeCount = 0;
+		ctx.clearLabels(labels);
+		int[][][] hsv = ctx.currentHSV;
+		RegionOfInterest roi = ctx.roi;
+		int lastX = (roi == null) ? width - 1 : roi.maxX;
+		int lastY = (roi == null) ? height - 1 : roi.maxY;
+		for (int x = (roi == null) ? 0 : roi.minX; x <= lastX; x++) {
+			for (int y = (roi == null) ? 0 : roi.minY; y <= lastY; y++) {
+				if (labels[y * width + x] == BlobTrackingChallenge.UNLABELED
+						&& colors.qualifies(findWall, hsv[y][x][0], hsv[y][x][1], this.forbiddenHues)) {
+					flood(x, y, findWall);
+					if (ctx.overBudget) {
+						return;
+					}
+				}
+			}
+		}
+		valid = true;
+	}
+
+	private void update(boolean findWall) {
+		int tilesX = ctx.tilesX;
+		int tilesY = ctx.tilesY;
+		int tile = DetectionContext.TILE;
+		int reach = (tracker.getConfig().skipThreshold + tile - 1) / tile;
+
+		// tiles within skipThreshold of a tile that changed since our last run
+		Arrays.fill(dirtyTiles, false);
+		boolean anyChanged = false;
+		for (int t = 0; t < tilesX * tilesY; t++) {
+			if (ctx.tileChangedAt[t] > lastFrame) {
+				anyChanged = true;
+				int tx = t % tilesX;
+				int ty = t / tilesX;
+				for (int y = Math.max(0, ty - reach); y <= Math.min(tilesY - 1, ty + reach); y++) {
+					for (int x = Math.max(0, tx - reach); x <= Math.min(tilesX - 1, tx + reach); x++) {
+						dirtyTiles[y * tilesX + x] = true;
+					}
+				}
+			}
+		}
+		if (!anyChanged) {
+			return;
+		}
+
+		// dissolve every component with a pixel in a dirty tile; dissolving
+		// unlabels its pixels, so each component is met only once
+		System.arraycopy(dirtyTiles, 0, rescanTiles, 0, dirtyTiles.length);
+		for (int t = 0; t < tilesX * tilesY; t++) {
+			if (!dirtyTiles[t]) {
+				continue;
+			}
+			int x0 = (t % tilesX) * tile;
+			int y0 = (t / tilesX) * tile;
+			for (int y = y0; y < Math.min(height, y0 + tile); y++) {
+				for (int x = x0; x < Math.min(width, x0 + tile); x++) {
+					int label = labels[y * width + x];
+					if (label >= 0) {
+						dissolve(label);
+					}
+				}
+			}
+		}
+
+		int[][][] hsv = ctx.currentHSV;
+		for (int t = 0; t < tilesX * tilesY; t++) {
+			if (!rescanTiles[t]) {
+				continue;
+			}
+			int x0 = (t % tilesX) * tile;
+			int y0 = (t / tilesX) * tile;
+			for (int x = x0; x < Math.min(width, x0 + tile); x++) {
+				for (int y = y0; y < Math.min(height, y0 + tile); y++) {
+					if (labels[y * width + x] == BlobTrackingChallenge.UNLABELED
+							&& colors.qualifies(findWall, hsv[y][x][0], hsv[y][x][1], forbiddenHues)) {
+						flood(x, y, findWall);
+						if (ctx.overBudget) {
+							return;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Unlabel a component's pixels, mark the tiles it covered for rescanning
+	 * and give its label and blob back.
+	 */
+	private void dissolve(int label) {
+		Blob blob = blobs[label];
+		int tile = DetectionContext.TILE;
+		for (int run = 0; run < blob.getRunCount(); run++) {
+			int y = blob.getRunRow(run);
+			int rowStart = y * width;
+			for (int x = blob.getRunStart(run); x <= blob.getRunEnd(run); x++) {
+				labels[rowStart + x] = BlobTrackingChallenge.UNLABELED;
+			}
+			int tileRow = (y / tile) * ctx.tilesX;
+			for (int tx = blob.getRunStart(run) / tile; tx <= blob.getRunEnd(run) / tile; tx++) {
+				rescanTiles[tileRow + tx] = true;
+			}
+		}
+		blobs[label] = null;
+		spareBlobs.add(blob);
+		if (freeCount == freeLabels.length) {
+			freeLabels = Arrays.copyOf(freeLabels, 2 * freeLabels.length);
+		}
+		freeLabels[freeCount++] = label;
+	}
+
+	/**
+	 * Flood a new component from (x, y) and build its blob from the pixels
+	 * the fill reached, scanning their bounding box row by row.
+	 */
+	private void flood(int x, int y, boolean findWall) {
+		int label;
+		if (freeCount > 0) {
+			label = freeLabels[--freeCount];
+		}
+		else {
+			label = labelCount++;
+			if (label == blobs.length) {
+				blobs = Arrays.copyOf(blobs, 2 * blobs.length);
+				seeds = Arrays.copyOf(seeds, 2 * seeds.length);
+				order = new int[2 * order.length];
+			}
+		}
+		int count = tracker.floodFill(ctx, labels, x, y, label, findWall, forbiddenHues);
+
+		int[] pixels = ctx.queue;
+		int minX = width, maxX = 0, minY = height, maxY = 0;
+		int seed = Integer.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			int px = pixels[i] % width;
+			int py = pixels[i] / width;
+			seed = Math.min(seed, px * height + py);
+			minX = Math.min(minX, px);
+			maxX = Math.max(maxX, px);
+			minY = Math.min(minY, py);
+			maxY = Math.max(maxY, py);
+		}
+
+		Blob blob = spareBlob(countRuns(label, minX, maxX, minY, maxY));
+		blob.reset();
+		for (int row = minY; row <= maxY; row++) {
+			int rowStart = row * width;
+			int col = minX;
+			while (col <= maxX) {
+				if (labels[rowStart + col] != label) {
+					col++;
+					continue;
+				}
+				int runStart = col;
+				while (col + 1 <= maxX && labels[rowStart + col + 1] == label) {
+					col++;
+				}
+				blob.addRun(row, runStart, col);
+				col++;
+			}
+		}
+		blobs[label] = blob;
+		seeds[label] = seed;
+	}
+
+	private int countRuns(int label, int minX, int maxX, int minY, int maxY) {
+		int runs = 0;
+		for (int row = minY; row <= maxY; row++) {
+			int rowStart = row * width;
+			boolean inRun = false;
+			for (int col = minX; col <= maxX; col++) {
+				boolean labeled = labels[rowStart + col] == label;
+				if (labeled && !inRun) {
+					runs++;
+				}
+				inRun = labeled;
+			}
+		}
+		return runs;
+	}
+
+	/**
+	 * Take a spare blob that can hold the given number of runs, or the
+	 * largest one if none can. Components come back in a different order
+	 * from frame to frame, so always taking the last spare would keep
+	 * handing large components small blobs to grow.
+	 */
+	private Blob spareBlob(int runs) {
+		int last = spareBlobs.size() - 1;
+		if (last < 0) {
+			return new Blob();
+		}
+		int best = last;
+		for (int i = last; i >= 0 && spareBlobs.get(best).getRunCapacity() < runs; i--) {
+			if (spareBlobs.get(i).getRunCapacity() > spareBlobs.get(best).getRunCapacity()) {
+				best = i;
+			}
+		}
+		Blob blob = spareBlobs.get(best);
+		spareBlobs.set(best, spareBlobs.get(last));
+		spareBlobs.remove(last);
+		return blob;
+	}
+}
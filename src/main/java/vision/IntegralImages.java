@@ -0,0 +1,189 @@
+package vision;
+
+/**
+ * IntegralImages holds summed-area tables of a frame's HSV values, so that
+ * the sum, mean or count over any rectangle takes four lookups however large
+ * the rectangle is.
+ *
+ * Hue is kept as the sums of its cosine and sine, scaled by
+ * {@link #HUE_SCALE}, so that its mean is taken round the colour wheel: a
+ * region of hues either side of 0 averages to a red, not to a cyan. There are
+ * also tables of saturation, value, the number of pixels that may belong to
+ * an object according to the colour table, and, if only a region of interest
+ * was converted, the number of converted pixels. Pixels outside the region
+ * count for nothing.
+ *
+ * Entry (x, y) of a table is the sum over the pixels above and to the left
+ * of pixel (x, y), so a table has (width + 1) * (height + 1) entries.
+ * Rectangles run from (x0, y0) inclusive to (x1, y1) exclusive. The tables
+ * are int arrays whose sums may wrap around; the differences taken for a
+ * rectangle are exact as long as its own sums fit in an int, which holds for
+ * any rectangle of up to two million pixels.
+ *
+ * @author prentice
+ */
+public class IntegralImages {
+	/**
+	 * The length a hue is scaled to before its cosine and sine are summed.
+	 */
+	static final int HUE_SCALE = 1024;
+
+	private static final int[] HUE_COS = new int[256];
+	private static final int[] HUE_SIN = new int[256];
+
+	static {
+		for (int hue = 0; hue < 256; hue++) {
+			double angle = 2 * Math.PI * hue / 256;
+			HUE_COS[hue] = (int) Math.round(HUE_SCALE * Math.cos(angle));
+			HUE_SIN[hue] = (int) Math.round(HUE_SCALE * Math.sin(angle));
+		}
+	}
+
+	final int width;
+	final int height;
+	private final int stride;
+	private final int[] hueCos;
+	private final int[] hueSin;
+	private final int[] sat;
+	private final int[] val;
+	private final int[] qualifying;
+	// null while every pixel is converted
+	private int[] converted;
+
+	public IntegralImages(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.stride = width + 1;
+		int size = stride * (height + 1);
+		hueCos = new int[size];
+		hueSin = new int[size];
+		sat = new int[size];
+		val = new int[size];
+		qualifying = new int[size];
+	}
+
+	/**
+	 * Build the tables from a frame's HSV values.
+	 *
+	 * @param roi
+	 *            the pixels that were converted, or null for all of them
+	 */
+	void build(int[][][] hsv, ColorTable colors, RegionOfInterest roi) {
+		if (roi != null && converted == null) {
+			converted = new int[hueCos.length];
+		}
+		for (int y = 0; y < height; y++) {
+			int[][] hsvRow = hsv[y];
+			int above = y * stride + 1;
+			int row = above + stride;
+			int cosSum = 0, sinSum = 0, satSum = 0, valSum = 0, qualifyingSum = 0, convertedSum = 0;
+			int runs = (roi == null) ? 1 : roi.getRunCount(y);
+			int x = 0;
+			for (int run = 0; run <= runs; run++) {
+				// converted pixels of the run, then the unconverted ones up
+				// to the next run or the end of the row
+				int first = (run == runs) ? width : (roi == null) ? 0 : roi.getRunStart(y, run);
+				int last = (run == runs) ? width - 1 : (roi == null) ? width - 1 : roi.getRunEnd(y, run);
+				for (; x < first; x++) {
+					hueCos[row + x] = hueCos[above + x] + cosSum;
+					hueSin[row + x] = hueSin[above + x] + sinSum;
+					sat[row + x] = sat[above + x] + satSum;
+					val[row + x] = val[above + x] + valSum;
+					qualifying[row + x] = qualifying[above + x] + qualifyingSum;
+					if (converted != null) {
+						converted[row + x] = converted[above + x] + convertedSum;
+					}
+				}
+				for (; x <= last && run < runs; x++) {
+					int[] pixel = hsvRow[x];
+					int hue = pixel[0];
+					cosSum += HUE_COS[hue];
+					sinSum += HUE_SIN[hue];
+					satSum += pixel[1];
+					valSum += pixel[2];
+					qualifyingSum += colors.classOf(hue, pixel[1]) & ColorTable.OBJECT;
+					convertedSum++;
+					hueCos[row + x] = hueCos[above + x] + cosSum;
+					hueSin[row + x] = hueSin[above + x] + sinSum;
+					sat[row + x] = sat[above + x] + satSum;
+					val[row + x] = val[above + x] + valSum;
+					qualifying[row + x] = qualifying[above + x] + qualifyingSum;
+					if (converted != null) {
+						converted[row + x] = converted[above + x] + convertedSum;
+					}
+				}
+			}
+		}
+		if (roi == null) {
+			converted = null;
+		}
+	}
+
+	private int sum(int[] table, int x0, int y0, int x1, int y1) {
+		return table[y1 * stride + x1] - table[y0 * stride + x1] - table[y1 * stride + x0] + table[y0 * stride + x0];
+	}
+
+	/**
+	 * @return the number of converted pixels in the rectangle
+	 */
+	public int count(int x0, int y0, int x1, int y1) {
+		if (converted == null) {
+			return (x1 - x0) * (y1 - y0);
+		}
+		return sum(converted, x0, y0, x1, y1);
+	}
+
+	/**
+	 * @return the number of pixels in the rectangle that the colour table
+	 *         allows in an object, whatever hues the wall has forbidden
+	 */
+	public int qualifyingCount(int x0, int y0, int x1, int y1) {
+		return sum(qualifying, x0, y0, x1, y1);
+	}
+
+	/**
+	 * @return the sum of the hues' cosines in the rectangle, each scaled to
+	 *         {@link #HUE_SCALE}
+	 */
+	int hueCosSum(int x0, int y0, int x1, int y1) {
+		return sum(hueCos, x0, y0, x1, y1);
+	}
+
+	int hueSinSum(int x0, int y0, int x1, int y1) {
+		return sum(hueSin, x0, y0, x1, y1);
+	}
+
+	/**
+	 * @return the circular mean hue of the rectangle, from 0 up to 256, or
+	 *         -1 if it has no converted pixels or its hues cancel out
+	 */
+	public double meanHue(int x0, int y0, int x1, int y1) {
+		return circularMean(hueCosSum(x0, y0, x1, y1), hueSinSum(x0, y0, x1, y1));
+	}
+
+	public double meanSaturation(int x0, int y0, int x1, int y1) {
+		int count = count(x0, y0, x1, y1);
+		return (count == 0) ? 0 : (double) sum(sat, x0, y0, x1, y1) / count;
+	}
+
+	public double meanValue(int x0, int y0, int x1, int y1) {
+		int count = count(x0, y0, x1, y1);
+		return (count == 0) ? 0 : (double) sum(val, x0, y0, x1, y1) / count;
+	}
+
+	/**
+	 * @return the hue, from 0 up to 256, whose direction is that of the given
+	 *         sums of cosines and sines, or -1 if both are zero
+	 */
+	static double circularMean(double cosSum, double sinSum) {
+		if (cosSum == 0 && sinSum == 0) {
+			return -1;
+		}
+		double hue = Math.atan2(sinSum, cosSum) * 256 / (2 * Math.PI);
+		if (hue < 0) {
+			hue += 256;
+		}
+		// a hue just below 0 can round up to 256
+		return (hue >= 256) ? 0 : hue;
+	}
+}
@@ -0,0 +1,114 @@
+package vision;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * JpegDecoder decodes compressed camera frames straight into RGB pixels at
+ * full, half, quarter or eighth size, so that a camera running at a large
+ * mode can be processed at a small resolution without decoding and scaling a
+ * full-size frame.
+ *
+ * A decoder keeps one JPEG reader and one destination image, laid out as the
+ * RGB byte triples {@link Image} uses, and reuses both for every frame of
+ * the same size. The reader keeps every n-th pixel of each n-by-n block as it
+ * converts the decoded rows to RGB, which saves the colour conversion and
+ * copying of the others; the Image I/O reader does not expose the IDCT
+ * scaling of the underlying library, so every block is still decoded.
+ *
+ * A decoder is used by one thread at a time, and the image it returns is
+ * overwritten by the next frame it decodes.
+ *
+ * @author prentice
+ */
+public class JpegDecoder {
+	/**
+	 * The largest factor a frame is scaled down by while it is decoded.
+	 */
+	public static final int MAX_SCALE = 8;
+
+	private static final ColorModel RGB = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+			false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+	private final ImageReader reader;
+	private final ImageReadParam param;
+	private BufferedImage destination;
+	private Image image;
+
+	public JpegDecoder() {
+		Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("jpeg");
+		if (!readers.hasNext()) {
+			throw new IllegalStateException("No JPEG reader is installed");
+		}
+		reader = readers.next();
+		param = reader.getDefaultReadParam();
+	}
+
+	/**
+	 * Decode a frame at the smallest of full, half, quarter and eighth size
+	 * that is still at least the given size, or at full size if it is
+	 * smaller than that already.
+	 *
+	 * @return the decoded frame, which belongs to the decoder
+	 * @throws IOException
+	 *             if the data is not a JPEG image
+	 */
+	public Image decode(byte[] data, int offset, int length, int minWidth, int minHeight) throws IOException {
+		ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(data, offset, length));
+		try {
+			reader.setInput(input, true, true);
+			int fullWidth = reader.getWidth(0);
+			int fullHeight = reader.getHeight(0);
+			int scale = 1;
+			while (scale < MAX_SCALE && scaled(fullWidth, 2 * scale) >= minWidth
+					&& scaled(fullHeight, 2 * scale) >= minHeight) {
+				scale *= 2;
+			}
+			int width = scaled(fullWidth, scale);
+			int height = scaled(fullHeight, scale);
+			if (image == null || image.getWidth() != width || image.getHeight() != height) {
+				allocate(width, height);
+			}
+			param.setSourceSubsampling(scale, scale, 0, 0);
+			param.setDestination(destination);
+			reader.read(0, param);
+			return image;
+		}
+		finally {
+			reader.setInput(null);
+			input.close();
+		}
+	}
+
+	/**
+	 * @return the number of pixels kept from a row or column of the given
+	 *         length when every scale-th one is
+	 */
+	private static int scaled(int length, int scale) {
+		return (length + scale - 1) / scale;
+	}
+
+	private void allocate(int width, int height) {
+		byte[] pixels = new byte[width * height * 3];
+		WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(pixels, pixels.length),
+				width, height, width * 3, 3, new int[] {0, 1, 2}, null);
+		destination = new BufferedImage(RGB, raster, false, null);
+		image = new Image(pixels, width, height);
+	}
+}
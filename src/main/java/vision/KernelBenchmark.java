@@ -0,0 +1,239 @@
+package vision;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * KernelBenchmark times the per-pixel kernels (blur, HSV conversion) and the
+ * detection stages built on them at the resolutions the cameras can run at,
+ * and reports how much each allocates per frame where the JVM can tell.
+ *
+ * <pre>
+ * java vision.KernelBenchmark [frames per measurement]
+ * </pre>
+ *
+ * The frames are noise with a few coloured balls, so labeling has some work
+ * to do. The "flooded" kernels detect on a frame that is one saturated colour
+ * throughout, the worst case for the serial flood fill, without and with a
+ * {@link WorkBudget}. "hsv yuyv" converts the same frame from YUYV.
+ *
+ * @author prentice
+ */
+public class KernelBenchmark {
+	private static final int[][] RESOLUTIONS = {{160, 120}, {320, 240}, {640, 480}};
+
+	/**
+	 * One kernel, run on a frame prepared by {@link #setUp}.
+	 */
+	private static abstract class Kernel {
+		final String name;
+
+		Kernel(String name) {
+			this.name = name;
+		}
+
+		abstract void run();
+	}
+
+	public static void main(String[] args) {
+		int frames = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+		System.out.println("kernel              size       ms/frame   bytes/frame");
+		for (int[] resolution : RESOLUTIONS) {
+			for (Kernel kernel : kernels(resolution[0], resolution[1])) {
+				measure(kernel, resolution[0], resolution[1], frames);
+			}
+		}
+	}
+
+	private static Kernel[] kernels(final int width, final int height) {
+		final Image src = new Image(syntheticFrame(width, height, new Random(1)), width, height);
+		final Image dest = new Image(src);
+		final byte[] blurred = new byte[width * height * 3];
+		final byte[] scratch = new byte[width * height * 3];
+		final int[][][] hsv = new int[height][width][3];
+		final YuvImage yuyv = toYuyv(src.getPixelBuffer(), width, height);
+
+		DetectorConfig config = new DetectorConfig.Builder(width, height).build();
+		final BlobTrackingChallenge serial = new BlobTrackingChallenge(config, false);
+		final BlobTrackingChallenge mask = new BlobTrackingChallenge(config.toBuilder().labelingMode(LabelingMode.MASK).build(), false);
+		final BlobTrackingChallenge contour = new BlobTrackingChallenge(config.toBuilder().labelingMode(LabelingMode.CONTOUR).build(), false);
+		final BlobTrackingChallenge blurring = new BlobTrackingChallenge(config.toBuilder().blurred(true).build(), false);
+		final DetectionContext serialCtx = serial.acquireContext();
+		final DetectionContext maskCtx = mask.acquireContext();
+		final DetectionContext contourCtx = contour.acquireContext();
+		final DetectionContext blurringCtx = blurring.acquireContext();
+		serial.prepare(src, serialCtx);
+
+		final Image flooded = new Image(floodedFrame(width, height), width, height);
+		DetectorConfig wideGaps = config.toBuilder().skipThreshold(3).build();
+		final BlobTrackingChallenge unbudgeted = new BlobTrackingChallenge(wideGaps, false);
+		final BlobTrackingChallenge budgeted = new BlobTrackingChallenge(wideGaps.toBuilder()
+				.workBudget(new WorkBudget(49L * width * height, 1000, width * height / 4)).build(), false);
+		final DetectionContext unbudgetedCtx = unbudgeted.acquireContext();
+		final DetectionContext budgetedCtx = budgeted.acquireContext();
+		unbudgeted.prepare(flooded, unbudgetedCtx);
+		budgeted.prepare(flooded, budgetedCtx);
+		mask.prepare(src, maskCtx);
+		contour.prepare(src, contourCtx);
+
+		return new Kernel[] {
+			new Kernel("blur") {
+				@Override
+				void run() {
+					GaussianBlur.apply(src.getPixelBuffer(), blurred, scratch, width, height);
+				}
+			},
+			new Kernel("hsv") {
+				@Override
+				void run() {
+					src.getHSVArray(hsv);
+				}
+			},
+			new Kernel("hsv yuyv") {
+				@Override
+				void run() {
+					yuyv.getHSVArray(hsv, 0, 0, width, height);
+				}
+			},
+			new Kernel("detect serial") {
+				@Override
+				void run() {
+					serial.detectFiducial(serialCtx, dest);
+				}
+			},
+			new Kernel("detect mask") {
+				@Override
+				void run() {
+					mask.detectFiducial(maskCtx, dest);
+				}
+			},
+			new Kernel("detect contour") {
+				@Override
+				void run() {
+					contour.detectFiducial(contourCtx, dest);
+				}
+			},
+			new Kernel("flooded") {
+				@Override
+				void run() {
+					unbudgeted.detectBlock(unbudgetedCtx, dest);
+				}
+			},
+			new Kernel("flooded, budget") {
+				@Override
+				void run() {
+					// the frame is prepared once, so start its budget again
+					budgeted.startBudget(budgetedCtx);
+					budgeted.detectBlock(budgetedCtx, dest);
+				}
+			},
+			new Kernel("fiducial frame") {
+				@Override
+				void run() {
+					blurring.applyFiducial(src, dest, blurringCtx);
+				}
+			},
+		};
+	}
+
+	private static void measure(Kernel kernel, int width, int height, int frames) {
+		// warm up so that the JIT has compiled the kernel
+		for (int i = 0; i < frames; i++) {
+			kernel.run();
+		}
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < frames; i++) {
+			kernel.run();
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocatedAfter = allocatedBytes();
+		String allocated = (allocatedBefore < 0 || allocatedAfter < 0) ? "n/a"
+				: Long.toString((allocatedAfter - allocatedBefore) / frames);
+		System.out.println(String.format("%-18s  %-9s  %9.3f  %12s", kernel.name, width + "x" + height,
+				elapsed / 1e6 / frames, allocated));
+	}
+
+	/**
+	 * @return the bytes allocated so far by this thread, or -1 if the JVM
+	 *         does not count them
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+		if (!sunThreads.isThreadAllocatedMemorySupported() || !sunThreads.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+		return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Convert an RGB frame to BT.601 studio-range YUYV, averaging the chroma
+	 * of each pair of pixels.
+	 */
+	static YuvImage toYuyv(byte[] rgb, int width, int height) {
+		byte[] yuyv = new byte[2 * width * height];
+		for (int i = 0; i < width * height; i += 2) {
+			int u = 0;
+			int v = 0;
+			for (int j = i; j < i + 2; j++) {
+				int red = rgb[3 * j] & 0xff;
+				int green = rgb[3 * j + 1] & 0xff;
+				int blue = rgb[3 * j + 2] & 0xff;
+				yuyv[2 * j] = (byte) Math.round(16 + 0.257 * red + 0.504 * green + 0.098 * blue);
+				u += Math.round(128 - 0.148 * red - 0.291 * green + 0.439 * blue);
+				v += Math.round(128 + 0.439 * red - 0.368 * green - 0.071 * blue);
+			}
+			yuyv[2 * i + 1] = (byte) (u / 2);
+			yuyv[2 * i + 3] = (byte) (v / 2);
+		}
+		return new YuvImage(yuyv, width, height, YuvImage.Layout.YUYV);
+	}
+
+	/**
+	 * A frame of one saturated red, in which every pixel qualifies.
+	 */
+	static byte[] floodedFrame(int width, int height) {
+		byte[] pixels = new byte[width * height * 3];
+		for (int i = 0; i < pixels.length; i += 3) {
+			pixels[i] = (byte) 230;
+			pixels[i + 1] = (byte) 20;
+			pixels[i + 2] = (byte) 20;
+		}
+		return pixels;
+	}
+
+	/**
+	 * A grey, noisy frame with a few coloured balls on it.
+	 */
+	static byte[] syntheticFrame(int width, int height, Random random) {
+		byte[] pixels = new byte[width * height * 3];
+		for (int i = 0; i < pixels.length; i += 3) {
+			int grey = 150 + random.nextInt(20);
+			pixels[i] = (byte) grey;
+			pixels[i + 1] = (byte) grey;
+			pixels[i + 2] = (byte) (grey - 10);
+		}
+		int[][] colors = {{230, 20, 20}, {240, 240, 30}, {40, 200, 40}, {40, 90, 220}};
+		for (int ball = 0; ball < colors.length; ball++) {
+			int radius = width / 16 + random.nextInt(width / 16);
+			int centreX = radius + random.nextInt(width - 2 * radius);
+			int centreY = radius + random.nextInt(height - 2 * radius);
+			for (int y = centreY - radius; y <= centreY + radius; y++) {
+				for (int x = centreX - radius; x <= centreX + radius; x++) {
+					if ((x - centreX) * (x - centreX) + (y - centreY) * (y - centreY) <= radius * radius) {
+						int i = (y * width + x) * 3;
+						pixels[i] = (byte) colors[ball][0];
+						pixels[i + 1] = (byte) colors[ball][1];
+						pixels[i + 2] = (byte) colors[ball][2];
+					}
+				}
+			}
+		}
+		return pixels;
+	}
+}
@@ -0,0 +1,33 @@
+package vision;
+
+/**
+ * How {@link BlobTrackingChallenge#findHueConstantRegions} groups qualifying
+ * pixels into blobs. SERIAL and STRIPS return the same regions and differ only
+ * in how the work is scheduled. MASK and CONTOUR group object pixels by
+ * colour band instead of by hue difference, and smooth blob outlines, so
+ * their blobs differ in detail from SERIAL's, though on synthetic scenes
+ * they find the same targets about as often.
+ */
+public enum LabelingMode {
+	/** Breadth-first flood fill over the whole frame on the calling thread. */
+	SERIAL,
+	/**
+	 * Union-find labeling of horizontal strips in parallel on a fork-join
+	 * pool, followed by a merge across the strip seams.
+	 */
+	STRIPS,
+	/**
+	 * Connected components of bit-packed, per-colour qualification masks
+	 * after noise removal and gap bridging by word-parallel morphology. Only
+	 * objects are found this way; the wall is flood filled as in SERIAL. See
+	 * {@link MaskLabeler}.
+	 */
+	MASK,
+	/**
+	 * The same masks as MASK, with each blob built by following its outer
+	 * border, so that large blobs cost in proportion to their perimeter.
+	 * Holes are filled in, and a blob's centroid is that of its outline. The
+	 * wall is flood filled as in SERIAL. See {@link ContourLabeler}.
+	 */
+	CONTOUR
+}
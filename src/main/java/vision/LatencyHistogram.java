@@ -0,0 +1,62 @@
+package vision;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts latencies in one-millisecond buckets up to
+ * {@link #MAX_MILLIS}; anything slower lands in the last bucket. Recording is
+ * lock-free so that ingest and worker threads can record concurrently.
+ *
+ * @author prentice
+ */
+public class LatencyHistogram {
+	public static final int MAX_MILLIS = 1000;
+
+	private final AtomicLongArray counts = new AtomicLongArray(MAX_MILLIS + 1);
+
+	public void record(double millis) {
+		int bucket = (int) Math.max(0, Math.min(MAX_MILLIS, Math.round(millis)));
+		counts.incrementAndGet(bucket);
+	}
+
+	public long getCount() {
+		long total = 0;
+		for (int i = 0; i <= MAX_MILLIS; i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * @param fraction
+	 *            a value between 0 and 1, e.g. 0.99 for the 99th percentile
+	 * @return the smallest bucket, in milliseconds, holding at least that
+	 *         fraction of the recorded latencies, or 0 if nothing was recorded
+	 */
+	public int percentile(double fraction) {
+		long total = getCount();
+		if (total == 0) {
+			return 0;
+		}
+		long wanted = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for (int i = 0; i <= MAX_MILLIS; i++) {
+			seen += counts.get(i);
+			if (seen >= wanted) {
+				return i;
+			}
+		}
+		return MAX_MILLIS;
+	}
+
+	public void reset() {
+		for (int i = 0; i <= MAX_MILLIS; i++) {
+			counts.set(i, 0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "p50 " + percentile(0.5) + " ms, p90 " + percentile(0.9) + " ms, p99 " + percentile(0.99) + " ms, n=" + getCount();
+	}
+}
@@ -0,0 +1,119 @@
+package vision;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyStats splits the age of a camera stream's detections into the time
+ * from capture to ingest (driver and transport), from ingest to the start of
+ * processing (queueing) and from the start of processing to publication
+ * (detection). Frames replaced in the ingest slot before a worker reached
+ * them are counted as dropped, and frames given up for running over the
+ * detector's {@link WorkBudget} as over budget. Frames cut back to meet a
+ * {@link FrameDeadline} are counted by how far they were degraded.
+ *
+ * @author prentice
+ */
+public class LatencyStats {
+	private final String name;
+	private final int reportInterval;
+	private final LatencyHistogram captureToIngest = new LatencyHistogram();
+	private final LatencyHistogram ingestToStart = new LatencyHistogram();
+	private final LatencyHistogram startToPublish = new LatencyHistogram();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong overBudget = new AtomicLong();
+	private final AtomicLongArray degraded = new AtomicLongArray(Degradation.values().length);
+	private final AtomicLong published = new AtomicLong();
+
+	/**
+	 * @param name
+	 *            used to label the printed reports
+	 * @param reportInterval
+	 *            print a report every this many published frames, or never
+	 *            if not positive
+	 */
+	public LatencyStats(String name, int reportInterval) {
+		this.name = name;
+		this.reportInterval = reportInterval;
+	}
+
+	public void recordIngest(CameraFrame frame) {
+		captureToIngest.record(frame.ingestTime - frame.captureTime);
+	}
+
+	/**
+	 * Record the queueing and processing time of a frame whose detection has
+	 * just been published.
+	 */
+	public void recordPublish(CameraFrame frame) {
+		ingestToStart.record((frame.startNanos - frame.ingestNanos) / 1e6);
+		startToPublish.record((System.nanoTime() - frame.startNanos) / 1e6);
+		long count = published.incrementAndGet();
+		if (reportInterval > 0 && count % reportInterval == 0) {
+			System.out.println(this);
+		}
+	}
+
+	public void recordDropped() {
+		dropped.incrementAndGet();
+	}
+
+	public void recordOverBudget() {
+		overBudget.incrementAndGet();
+	}
+
+	public void recordDegradation(Degradation level) {
+		degraded.incrementAndGet(level.ordinal());
+	}
+
+	public LatencyHistogram getCaptureToIngest() {
+		return captureToIngest;
+	}
+
+	public LatencyHistogram getIngestToStart() {
+		return ingestToStart;
+	}
+
+	public LatencyHistogram getStartToPublish() {
+		return startToPublish;
+	}
+
+	public long getPublished() {
+		return published.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public long getOverBudget() {
+		return overBudget.get();
+	}
+
+	/**
+	 * @return the number of frames processed at this level of degradation
+	 */
+	public long getDegraded(Degradation level) {
+		return degraded.get(level.ordinal());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		report.append(name).append(" latency:: capture->ingest ").append(captureToIngest)
+				.append(" | ingest->start ").append(ingestToStart)
+				.append(" | start->publish ").append(startToPublish)
+				.append(" | dropped ").append(dropped.get())
+				.append(" | over budget ").append(overBudget.get());
+		// only streams with deadlines degrade frames
+		String separator = " | degraded ";
+		for (Degradation level : Degradation.values()) {
+			long count = degraded.get(level.ordinal());
+			if (level != Degradation.NONE && count > 0) {
+				report.append(separator).append(level.name().toLowerCase().replace('_', ' ')).append(' ').append(count);
+				separator = ", ";
+			}
+		}
+		return report.toString();
+	}
+}
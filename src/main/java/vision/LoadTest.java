@@ -0,0 +1,82 @@
+package vision;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoadTest runs the node's camera streams, with their shared worker pool,
+ * ingest slots and, optionally, pipelines, on recorded frames instead of
+ * cameras, and reports how many frames each stream published, dropped and
+ * detected something in, and its latencies.
+ *
+ * <pre>
+ * java vision.LoadTest &lt;frame log&gt; [speed|max] [frames per second] [repeat] [pipelined]
+ * </pre>
+ *
+ * The frame log is a recording made by a {@link BlobTrackingChallenge} (see
+ * {@link ReplayFrameSource}), replayed to each of the default cameras at the
+ * given multiple of its frame rate (1 and 15 unless given), or as fast as
+ * possible with <code>max</code>. Detections are kept in memory rather than
+ * published.
+ *
+ * @author prentice
+ */
+public class LoadTest {
+	// how long streams are given to finish their last frames
+	private static final long DRAIN_MILLIS = 500;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("usage: LoadTest <frame log> [speed|max] [frames per second] [repeat] [pipelined]");
+			System.exit(1);
+		}
+		List<Image> frames = ReplayFrameSource.load(args[0]);
+		double speed = (args.length > 1) ? (args[1].equals("max") ? ReplayFrameSource.AS_FAST_AS_POSSIBLE
+				: Double.parseDouble(args[1])) : 1;
+		double framesPerSecond = (args.length > 2) ? Double.parseDouble(args[2]) : 15;
+		int repeat = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+		boolean pipelined = args.length > 4 && args[4].equals("pipelined");
+
+		String[] cameras = CameraConfig.DEFAULT_CAMERAS;
+		ThreadPoolExecutor workers = VisualServo.createWorkers(cameras.length);
+		List<CameraStream> streams = new ArrayList<CameraStream>();
+		List<ReplayFrameSource> sources = new ArrayList<ReplayFrameSource>();
+		List<MemoryDetectionSink> sinks = new ArrayList<MemoryDetectionSink>();
+		for (String spec : cameras) {
+			CameraConfig camera = CameraConfig.parse(spec);
+			BlobTrackingChallenge tracker = VisualServo.createTracker(camera, LabelingMode.SERIAL, CameraModel.DEFAULT,
+					null, WorkBudget.UNLIMITED);
+			streams.add(new CameraStream(camera, tracker, workers, null));
+			sources.add(new ReplayFrameSource(frames, framesPerSecond, speed, repeat));
+			sinks.add(new MemoryDetectionSink());
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < streams.size(); i++) {
+			streams.get(i).start(sources.get(i), sinks.get(i), pipelined);
+		}
+		for (ReplayFrameSource source : sources) {
+			source.awaitFinished(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		Thread.sleep(DRAIN_MILLIS);
+		for (CameraStream stream : streams) {
+			stream.shutdown();
+		}
+		workers.shutdownNow();
+
+		System.out.println(String.format("%d frames, %s, over %.2f s", frames.size() * repeat,
+				(speed == ReplayFrameSource.AS_FAST_AS_POSSIBLE) ? "as fast as possible" : speed + "x " + framesPerSecond + " fps",
+				seconds));
+		for (int i = 0; i < streams.size(); i++) {
+			LatencyStats latency = streams.get(i).getLatency();
+			System.out.println(String.format("%s: replayed %d, published %d (%.1f/s), detections %d",
+					streams.get(i).getConfig().getName(), sources.get(i).getReplayed(), latency.getPublished(),
+					latency.getPublished() / seconds, sinks.get(i).size()));
+			System.out.println(latency);
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package vision;
+
+import java.util.List;
+
+/**
+ * MaskLabeler finds the object regions on bit-packed qualification masks
+ * instead of probing the skipThreshold neighbourhood of every pixel.
+ *
+ * Qualifying pixels are sorted into one mask per colour band. Each mask is
+ * opened with a 3x3 square to drop single-pixel noise and ragged edges, then
+ * dilated by a square of side skipThreshold (reaching one pixel less to the
+ * right and down when skipThreshold is even) so that pixels up to
+ * skipThreshold apart touch. The 8-connected components of the dilated mask
+ * are found run by run, and each blob gets the runs of the opened mask that
+ * fall inside its component. The cost is a few word operations per 64
+ * pixels plus work per run; it no longer grows with the square of
+ * skipThreshold.
+ *
+ * The frame's {@link WorkBudget} is still charged as if each pixel of the
+ * bridged mask had been flood filled, (2 * skipThreshold + 1)^2 probes a
+ * pixel, a row at a time, so that one budget gives up the same frames in
+ * every mode; labeling stops at the first row over it.
+ *
+ * Pixels are grouped by colour band rather than by hue difference between
+ * neighbours, so a ball whose hue sits right on a band boundary can come out
+ * as two blobs. That is why the wall is not looked for this way: its hues
+ * overlap an object colour's band, and an object of that colour touching
+ * the wall would be taken into it.
+ *
+ * A labeler belongs to one context and keeps all its state there, so it can
+ * be reused from frame to frame without allocating.
+ *
+ * @author prentice
+ */
+class MaskLabeler {
+	static final int BANDS = Blob.COLORS;
+	static final int NOISE_RADIUS = 1;
+
+	private final DetectionContext ctx;
+	private final int width;
+	private final int height;
+	private final int bridgeBefore;
+	private final int bridgeAfter;
+	private final int probes;
+
+	MaskLabeler(BlobTrackingChallenge tracker, DetectionContext ctx) {
+		this.ctx = ctx;
+		this.width = ctx.width;
+		this.height = ctx.height;
+		int skip = tracker.getConfig().skipThreshold;
+		this.bridgeBefore = bridgeBefore(skip);
+		this.bridgeAfter = bridgeAfter(skip);
+		this.probes = probes(skip);
+	}
+
+	/**
+	 * @return how far to dilate left and up so that pixels up to skip apart
+	 *         touch, together with {@link #bridgeAfter(int)}
+	 */
+	static int bridgeBefore(int skip) {
+		return skip / 2;
+	}
+
+	/**
+	 * @return how far to dilate right and down; the two reaches add up to
+	 *         skip - 1
+	 */
+	static int bridgeAfter(int skip) {
+		return Math.max(0, skip - 1) / 2;
+	}
+
+	/**
+	 * @return the probes a flood fill makes for each pixel it visits, which
+	 *         the mask labelers charge for each pixel of their masks
+	 */
+	static int probes(int skip) {
+		return (2 * skip + 1) * (2 * skip + 1);
+	}
+
+	/**
+	 * Charge the pixels of a row's runs to the context's work budget.
+	 * 
+	 * @return whether the frame is now over budget
+	 */
+	static boolean charge(DetectionContext ctx, int[] rowRuns, int found, int probes) {
+		long pixels = 0;
+		for (int i = 0; i < found; i++) {
+			pixels += rowRuns[2 * i + 1] - rowRuns[2 * i] + 1;
+		}
+		ctx.pixelVisits += pixels * probes;
+		if (ctx.pixelVisits > ctx.visitBudget) {
+			ctx.overBudget = true;
+		}
+		return ctx.overBudget;
+	}
+
+	/**
+	 * Append the object regions of the context's frame to the given list.
+	 * If the frame runs over its work budget, the context's overBudget flag
+	 * is set and labeling stops.
+	 */
+	void label(boolean[] forbiddenHues, List<Blob> discoveredBlobs) {
+		fillBandMasks(forbiddenHues);
+		for (int band = 0; band < BANDS && !ctx.overBudget; band++) {
+			if (ctx.bandMasks[band].isEmpty()) {
+				continue;
+			}
+			ctx.cleanMask.open(ctx.bandMasks[band], NOISE_RADIUS, ctx.maskScratch1, ctx.maskScratch2);
+			ctx.bridgeMask.dilate(ctx.cleanMask, bridgeBefore, bridgeAfter, ctx.maskScratch1, ctx.maskScratch2);
+			labelBand(discoveredBlobs);
+		}
+	}
+
+	/**
+	 * Sort the qualifying pixels into the band masks. Each pixel's bit is
+	 * ORed, without a branch, into the current word of its band's mask, and
+	 * the words are stored every 64 pixels, so the masks are written a word
+	 * at a time rather than a bit at a time.
+	 */
+	void fillBandMasks(boolean[] forbiddenHues) {
+		ctx.ensureMasks();
+		for (int band = 0; band < BANDS; band++) {
+			ctx.bandMasks[band].clear();
+		}
+		int[][][] hsv = ctx.currentHSV;
+		ColorTable colors = ctx.colorTable;
+		RegionOfInterest roi = ctx.roi;
+		long[] words = ctx.bandWords;
+		int wordsPerRow = ctx.bandMasks[0].wordsPerRow;
+		for (int y = 0; y < height; y++) {
+			int[][] hsvRow = hsv[y];
+			int runs = (roi == null) ? 1 : roi.getRunCount(y);
+			for (int run = 0; run < runs; run++) {
+				int lastX = (roi == null) ? width - 1 : roi.getRunEnd(y, run);
+				for (int x = (roi == null) ? 0 : roi.getRunStart(y, run); x <= lastX; x++) {
+					int hue = hsvRow[x][0];
+					int cls = colors.classOf(hue, hsvRow[x][1]);
+					long qualifies = ((cls & ColorTable.OBJECT) != 0 && !forbiddenHues[hue]) ? 1L : 0L;
+					words[cls >> ColorTable.COLOR_SHIFT] |= qualifies << (x & 63);
+					if ((x & 63) == 63 || x == lastX) {
+						int index = y * wordsPerRow + (x >>> 6);
+						for (int band = 0; band < BANDS; band++) {
+							ctx.bandMasks[band].bits[index] |= words[band];
+							words[band] = 0;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Label the runs of the bridge mask with union-find, joining each run to
+	 * the runs of the previous row that overlap it or touch it diagonally,
+	 * then hand the clean mask's runs to the blob of the bridge run that
+	 * contains them.
+	 */
+	private void labelBand(List<Blob> discoveredBlobs) {
+		int[] rowRuns = ctx.rowRuns;
+		int runCount = 0;
+		int previousRowStart = 0;
+		int previousRowEnd = 0;
+		for (int y = 0; y < height; y++) {
+			int found = ctx.bridgeMask.rowRuns(y, rowRuns);
+			if (charge(ctx, rowRuns, found, probes)) {
+				return;
+			}
+			ctx.ensureMaskRuns(runCount + found);
+			int[] runs = ctx.maskRuns;
+			int[] parents = ctx.maskRunParents;
+			int rowStart = runCount;
+			int above = previousRowStart;
+			for (int i = 0; i < found; i++) {
+				int start = rowRuns[2 * i];
+				int end = rowRuns[2 * i + 1];
+				runs[3 * runCount] = y;
+				runs[3 * runCount + 1] = start;
+				runs[3 * runCount + 2] = end;
+				parents[runCount] = runCount;
+				// skip runs above that end before this one could touch them
+				while (above < previousRowEnd && runs[3 * above + 2] < start - 1) {
+					above++;
+				}
+				for (int j = above; j < previousRowEnd && runs[3 * j + 1] <= end + 1; j++) {
+					union(parents, runCount, j);
+				}
+				runCount++;
+			}
+			previousRowStart = rowStart;
+			previousRowEnd = runCount;
+		}
+
+		int[] runs = ctx.maskRuns;
+		int[] parents = ctx.maskRunParents;
+		// index into discoveredBlobs of each root's blob, or -1
+		int[] blobForRoot = ctx.maskRunBlobs;
+		for (int i = 0; i < runCount; i++) {
+			blobForRoot[i] = -1;
+		}
+		int bridgeRun = 0;
+		for (int y = 0; y < height; y++) {
+			int found = ctx.cleanMask.rowRuns(y, rowRuns);
+			for (int i = 0; i < found; i++) {
+				int start = rowRuns[2 * i];
+				// the clean mask lies inside the bridge mask, so some bridge
+				// run on this row contains the clean run
+				while (runs[3 * bridgeRun] < y || runs[3 * bridgeRun + 2] < start) {
+					bridgeRun++;
+				}
+				int root = find(parents, bridgeRun);
+				Blob blob;
+				if (blobForRoot[root] < 0) {
+					blob = ctx.obtainBlob();
+					blobForRoot[root] = discoveredBlobs.size();
+					discoveredBlobs.add(blob);
+				}
+				else {
+					blob = discoveredBlobs.get(blobForRoot[root]);
+				}
+				blob.addRun(y, start, rowRuns[2 * i + 1]);
+			}
+		}
+	}
+
+	private static int find(int[] parents, int run) {
+		while (parents[run] != run) {
+			parents[run] = parents[parents[run]];
+			run = parents[run];
+		}
+		return run;
+	}
+
+	private static void union(int[] parents, int a, int b) {
+		int rootA = find(parents, a);
+		int rootB = find(parents, b);
+		if (rootA < rootB) {
+			parents[rootB] = rootA;
+		} else if (rootB < rootA) {
+			parents[rootA] = rootB;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package vision;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MemoryDetectionSink keeps every detection published to it, in the order
+ * they arrived, for a test or a load run to check afterwards.
+ *
+ * @author prentice
+ */
+public class MemoryDetectionSink implements DetectionSink {
+	/**
+	 * One published ball or fiducial.
+	 */
+	public static class Detection {
+		public final double range;
+		public final double bearing;
+		// a ball's colour, or a fiducial's top colour
+		public final int color;
+		// a fiducial's bottom colour, or -1 for a ball
+		public final int bottomColor;
+		// the fiducial's time, or when the ball was published, in wall-clock
+		// milliseconds
+		public final long time;
+		public final long publishedNanos;
+
+		Detection(double range, double bearing, int color, int bottomColor, long time) {
+			this.range = range;
+			this.bearing = bearing;
+			this.color = color;
+			this.bottomColor = bottomColor;
+			this.time = time;
+			this.publishedNanos = System.nanoTime();
+		}
+
+		public boolean isFiducial() {
+			return bottomColor >= 0;
+		}
+
+		@Override
+		public String toString() {
+			String colors = isFiducial() ? color + "/" + bottomColor : Integer.toString(color);
+			return String.format("%s range %.3f bearing %.3f at %d", colors, range, bearing, time);
+		}
+	}
+
+	private final List<Detection> detections = new ArrayList<Detection>();
+
+	@Override
+	public synchronized void publishBall(double range, double bearing, int color) {
+		detections.add(new Detection(range, bearing, color, -1, System.currentTimeMillis()));
+	}
+
+	@Override
+	public synchronized void publishFiducial(double range, double bearing, int top, int bottom, long time) {
+		detections.add(new Detection(range, bearing, top, bottom, time));
+	}
+
+	/**
+	 * @return a copy of the detections published so far
+	 */
+	public synchronized List<Detection> getDetections() {
+		return new ArrayList<Detection>(detections);
+	}
+
+	public synchronized int size() {
+		return detections.size();
+	}
+
+	public synchronized void clear() {
+		detections.clear();
+	}
+}
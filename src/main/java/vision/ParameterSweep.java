@@ -0,0 +1,267 @@
+package vision;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ParameterSweep tunes the detector offline: it runs every configuration of
+ * a grid, or a random sample of it, on labelled recorded frames, one
+ * configuration per core at a time, and reports the configurations on the
+ * Pareto front of accuracy against frame time, each the cheapest to reach
+ * its accuracy.
+ *
+ * <pre>
+ * java vision.ParameterSweep &lt;frame log&gt; &lt;labels&gt; &lt;block|fiducial&gt; [random &lt;configurations&gt; [seed]]
+ * </pre>
+ *
+ * The frame log is read as by {@link ReplayFrameSource} and the labels as by
+ * {@link GroundTruth}; the accuracy is the fraction of labelled frames whose
+ * detection matches its label. The parameters swept are blurring (off and
+ * on), the hue threshold (1 to 4), the gap threshold (0 to 2), the size
+ * threshold (50 to 300 pixels), the lowest saturation an object may have (61
+ * to 101) and, for fiducials, the band of wall hues, 600 configurations for
+ * balls and 1800 for fiducials in all.
+ *
+ * A configuration's frame time is the processor time of its thread per
+ * frame, on a second pass over the frames, so that configurations running
+ * side by side barely disturb each other's times.
+ *
+ * @author prentice
+ */
+public class ParameterSweep {
+	private static final boolean[] BLUR = {false, true};
+	private static final int[] HUE_THRESHOLDS = {1, 2, 3, 4};
+	private static final int[] SKIP_THRESHOLDS = {0, 1, 2};
+	private static final int[] SIZE_THRESHOLDS = {50, 100, 150, 200, 300};
+	private static final int[] OBJECT_SATURATIONS = {61, 71, 81, 91, 101};
+	private static final String[] WALL_HUES = {"11-31", "13-29", "9-33"};
+
+	/**
+	 * One configuration of the detector, and how it did once run.
+	 */
+	static class Trial implements Callable<Trial> {
+		final boolean useBlurred;
+		final int hueThreshold;
+		final int skipThreshold;
+		final int sizeThreshold;
+		final int objectSaturation;
+		final String wallHues;
+		double accuracy;
+		double millisPerFrame;
+
+		// set for the run
+		List<Image> frames;
+		GroundTruth[] truths;
+		boolean fiducial;
+
+		Trial(boolean useBlurred, int hueThreshold, int skipThreshold, int sizeThreshold, int objectSaturation, String wallHues) {
+			this.useBlurred = useBlurred;
+			this.hueThreshold = hueThreshold;
+			this.skipThreshold = skipThreshold;
+			this.sizeThreshold = sizeThreshold;
+			this.objectSaturation = objectSaturation;
+			this.wallHues = wallHues;
+		}
+
+		DetectorConfig config(int width, int height) {
+			Properties colors = new Properties();
+			colors.setProperty("object.saturation", objectSaturation + "-255");
+			colors.setProperty("wall.hues", wallHues);
+			return new DetectorConfig.Builder(width, height).blurred(useBlurred).hueThreshold(hueThreshold)
+					.skipThreshold(skipThreshold).sizeThreshold(sizeThreshold).colorTable(new ColorTable(colors)).build();
+		}
+
+		@Override
+		public Trial call() {
+			Image first = frames.get(0);
+			BlobTrackingChallenge tracker = new BlobTrackingChallenge(config(first.getWidth(), first.getHeight()), false);
+			DetectionContext ctx = tracker.acquireContext();
+			Image dest = new Image(first);
+			// the first pass warms up the code and the context
+			run(tracker, ctx, dest);
+			long start = cpuTime();
+			int correct = run(tracker, ctx, dest);
+			millisPerFrame = (cpuTime() - start) / 1e6 / frames.size();
+			int labelled = 0;
+			for (GroundTruth truth : truths) {
+				if (truth != null) {
+					labelled++;
+				}
+			}
+			accuracy = (double) correct / labelled;
+			tracker.releaseContext(ctx);
+			return this;
+		}
+
+		/**
+		 * @return the number of frames whose detection matches their label
+		 */
+		private int run(BlobTrackingChallenge tracker, DetectionContext ctx, Image dest) {
+			int correct = 0;
+			for (int i = 0; i < frames.size(); i++) {
+				Image src = frames.get(i);
+				if (dest.getWidth() != src.getWidth() || dest.getHeight() != src.getHeight()) {
+					dest = new Image(src);
+				}
+				boolean matches;
+				if (fiducial) {
+					CompleteFiducialMessage result = tracker.applyFiducial(src, dest, ctx);
+					matches = truths[i] != null && truths[i].matches(result);
+				} else {
+					CompleteBallMessage result = tracker.applyBlock(src, dest, ctx);
+					matches = truths[i] != null && truths[i].matches(result);
+				}
+				if (matches) {
+					correct++;
+				}
+			}
+			return correct;
+		}
+
+		@Override
+		public String toString() {
+			return "blur " + useBlurred + ", hue " + hueThreshold + ", skip " + skipThreshold + ", size " + sizeThreshold
+					+ ", object saturation " + objectSaturation + "-255" + (fiducial ? ", wall hues " + wallHues : "");
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+		if (args.length < 3 || (!args[2].equals("block") && !args[2].equals("fiducial"))
+				|| (args.length > 3 && (!args[3].equals("random") || args.length < 5))) {
+			System.err.println("usage: ParameterSweep <frame log> <labels> <block|fiducial> [random <configurations> [seed]]");
+			System.exit(1);
+		}
+		List<Image> frames = ReplayFrameSource.load(args[0]);
+		GroundTruth[] truths = GroundTruth.load(args[1], frames.size());
+		boolean fiducial = args[2].equals("fiducial");
+		int labelled = 0;
+		for (GroundTruth truth : truths) {
+			if (truth != null) {
+				labelled++;
+			}
+		}
+		if (frames.isEmpty() || labelled == 0) {
+			System.err.println(args[1] + ": no frame of " + args[0] + " is labelled");
+			System.exit(1);
+		}
+
+		// the wall band only matters to the fiducial detector
+		String[] wallHues = fiducial ? WALL_HUES : new String[] {WALL_HUES[0]};
+		List<Trial> trials = grid(wallHues);
+		if (args.length > 3) {
+			int count = Integer.parseInt(args[4]);
+			long seed = (args.length > 5) ? Long.parseLong(args[5]) : 1;
+			trials = sample(trials, count, new Random(seed));
+		}
+		for (Trial trial : trials) {
+			trial.frames = frames;
+			trial.truths = truths;
+			trial.fiducial = fiducial;
+		}
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println(trials.size() + " configurations on " + labelled + " labelled frames, " + cores + " at a time");
+		ExecutorService workers = Executors.newFixedThreadPool(cores);
+		List<Future<Trial>> results = new ArrayList<Future<Trial>>();
+		for (Trial trial : trials) {
+			results.add(workers.submit(trial));
+		}
+		List<Trial> done = new ArrayList<Trial>();
+		for (Future<Trial> result : results) {
+			done.add(result.get());
+		}
+		workers.shutdown();
+
+		System.out.println(" ms/frame  accuracy  configuration");
+		for (Trial trial : paretoFront(done)) {
+			System.out.println(String.format("%9.3f  %7.1f%%  %s", trial.millisPerFrame, 100 * trial.accuracy, trial));
+		}
+	}
+
+	static List<Trial> grid(String[] wallHues) {
+		List<Trial> trials = new ArrayList<Trial>();
+		for (boolean useBlurred : BLUR) {
+			for (int hueThreshold : HUE_THRESHOLDS) {
+				for (int skipThreshold : SKIP_THRESHOLDS) {
+					for (int sizeThreshold : SIZE_THRESHOLDS) {
+						for (int objectSaturation : OBJECT_SATURATIONS) {
+							for (String wall : wallHues) {
+								trials.add(new Trial(useBlurred, hueThreshold, skipThreshold, sizeThreshold, objectSaturation, wall));
+							}
+						}
+					}
+				}
+			}
+		}
+		return trials;
+	}
+
+	/**
+	 * @return count configurations of the grid drawn at random without
+	 *         repeats, or all of it if it has no more than that
+	 */
+	static List<Trial> sample(List<Trial> grid, int count, Random random) {
+		if (count >= grid.size()) {
+			return grid;
+		}
+		List<Trial> trials = new ArrayList<Trial>();
+		Set<Integer> drawn = new HashSet<Integer>();
+		while (trials.size() < count) {
+			int index = random.nextInt(grid.size());
+			if (drawn.add(index)) {
+				trials.add(grid.get(index));
+			}
+		}
+		return trials;
+	}
+
+	/**
+	 * @return the trials no other trial is both at least as accurate and
+	 *         faster than, fastest first
+	 */
+	static List<Trial> paretoFront(List<Trial> trials) {
+		List<Trial> sorted = new ArrayList<Trial>(trials);
+		Collections.sort(sorted, new Comparator<Trial>() {
+			@Override
+			public int compare(Trial a, Trial b) {
+				int byTime = Double.compare(a.millisPerFrame, b.millisPerFrame);
+				return (byTime != 0) ? byTime : Double.compare(b.accuracy, a.accuracy);
+			}
+		});
+		List<Trial> front = new ArrayList<Trial>();
+		double best = -1;
+		for (Trial trial : sorted) {
+			if (trial.accuracy > best) {
+				front.add(trial);
+				best = trial.accuracy;
+			}
+		}
+		return front;
+	}
+
+	/**
+	 * @return the processor time of this thread in nanoseconds, or the wall
+	 *         time if the JVM does not measure it
+	 */
+	private static long cpuTime() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled()) {
+			return threads.getCurrentThreadCpuTime();
+		}
+		return System.nanoTime();
+	}
+}
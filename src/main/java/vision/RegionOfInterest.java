@@ -0,0 +1,301 @@
+package vision;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * RegionOfInterest is the fixed part of a camera's frame where targets can
+ * appear, such as the band between the ceiling and the robot's own chassis.
+ * Pixels outside it are never blurred, converted or labeled, and never belong
+ * to a blob.
+ *
+ * A region is given either as row and column bands, in pixels of the
+ * resolution it is declared at,
+ *
+ * <pre>
+ * rows 30-99
+ * rows 30-99; cols 10-149, 155-159
+ * </pre>
+ *
+ * where a pixel is inside if its row lies in one of the row ranges and its
+ * column in one of the column ranges (a missing clause allows every row or
+ * column), or as a PGM image whose non-zero pixels are inside. Either way
+ * {@link #forResolution(int, int)} resamples it to the frame size.
+ *
+ * The region is stored as runs of inside pixels per row, with its bounding
+ * box. Instances are immutable.
+ *
+ * @author prentice
+ */
+public class RegionOfInterest {
+	/**
+	 * Label-map value of pixels outside the region; see
+	 * {@link #clearLabels(int[])}.
+	 */
+	static final int OUTSIDE = -2;
+
+	final int width;
+	final int height;
+	private final boolean[] inside;
+	// the runs of row y are the (first, last) column pairs in
+	// runs[2 * rowStarts[y]] up to runs[2 * rowStarts[y + 1]]
+	private final int[] rowStarts;
+	private final int[] runs;
+	// the bounding box, inclusive; minX > maxX if the region is empty
+	final int minX;
+	final int minY;
+	final int maxX;
+	final int maxY;
+	private final int[] labelTemplate;
+
+	/**
+	 * @param inside
+	 *            whether each pixel, in raster order, is in the region
+	 */
+	public RegionOfInterest(boolean[] inside, int width, int height) {
+		if (inside.length != width * height) {
+			throw new IllegalArgumentException("Region of interest must have one entry per pixel");
+		}
+		this.width = width;
+		this.height = height;
+		this.inside = inside.clone();
+
+		int runCount = 0;
+		for (int i = 0; i < inside.length; i++) {
+			if (inside[i] && (i % width == 0 || !inside[i - 1])) {
+				runCount++;
+			}
+		}
+		rowStarts = new int[height + 1];
+		runs = new int[2 * runCount];
+		labelTemplate = new int[width * height];
+		int run = 0;
+		int minX = width, minY = height, maxX = -1, maxY = -1;
+		for (int y = 0; y < height; y++) {
+			rowStarts[y] = run;
+			int x = 0;
+			while (x < width) {
+				int index = y * width + x;
+				if (!inside[index]) {
+					labelTemplate[index] = OUTSIDE;
+					x++;
+					continue;
+				}
+				int start = x;
+				while (x < width && inside[y * width + x]) {
+					labelTemplate[y * width + x] = BlobTrackingChallenge.UNLABELED;
+					x++;
+				}
+				runs[2 * run] = start;
+				runs[2 * run + 1] = x - 1;
+				run++;
+				minX = Math.min(minX, start);
+				maxX = Math.max(maxX, x - 1);
+				minY = Math.min(minY, y);
+				maxY = y;
+			}
+		}
+		rowStarts[height] = run;
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+	}
+
+	/**
+	 * Parse a region written as bands, or the path of a PGM file.
+	 *
+	 * @param width
+	 *            the width the bands are given at
+	 * @param height
+	 *            the height the bands are given at
+	 */
+	public static RegionOfInterest parse(String spec, int width, int height) throws IOException {
+		String trimmed = spec.trim();
+		if (trimmed.startsWith("rows") || trimmed.startsWith("cols")) {
+			return bands(trimmed, width, height);
+		}
+		return load(trimmed);
+	}
+
+	/**
+	 * Build a region from row and column bands, as described above.
+	 */
+	public static RegionOfInterest bands(String spec, int width, int height) {
+		boolean[] rows = null;
+		boolean[] cols = null;
+		for (String clause : spec.split(";")) {
+			String[] fields = clause.trim().split("\\s+", 2);
+			if (fields.length != 2) {
+				throw new IllegalArgumentException("Region bands must be 'rows <ranges>; cols <ranges>': " + spec);
+			}
+			if (fields[0].equals("rows")) {
+				rows = parseRanges(fields[1], height, spec);
+			}
+			else if (fields[0].equals("cols")) {
+				cols = parseRanges(fields[1], width, spec);
+			}
+			else {
+				throw new IllegalArgumentException("Region bands must be 'rows <ranges>; cols <ranges>': " + spec);
+			}
+		}
+		boolean[] inside = new boolean[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				inside[y * width + x] = (rows == null || rows[y]) && (cols == null || cols[x]);
+			}
+		}
+		return new RegionOfInterest(inside, width, height);
+	}
+
+	private static boolean[] parseRanges(String ranges, int size, String spec) {
+		boolean[] covered = new boolean[size];
+		for (String range : ranges.split(",")) {
+			String[] ends = range.trim().split("-");
+			try {
+				int first = Integer.parseInt(ends[0].trim());
+				int last = (ends.length == 2) ? Integer.parseInt(ends[1].trim()) : first;
+				if (ends.length > 2 || first < 0 || last >= size || first > last) {
+					throw new IllegalArgumentException("Region band out of range 0-" + (size - 1) + ": " + spec);
+				}
+				Arrays.fill(covered, first, last + 1, true);
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Region bands must be ranges of numbers: " + spec);
+			}
+		}
+		return covered;
+	}
+
+	/**
+	 * Read a region from a binary (P5) or plain (P2) PGM file; non-zero
+	 * pixels are inside.
+	 */
+	public static RegionOfInterest load(String path) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(path));
+		try {
+			String magic = readToken(in);
+			if (!magic.equals("P5") && !magic.equals("P2")) {
+				throw new IOException(path + " is not a PGM file");
+			}
+			int width = Integer.parseInt(readToken(in));
+			int height = Integer.parseInt(readToken(in));
+			int maxValue = Integer.parseInt(readToken(in));
+			boolean[] inside = new boolean[width * height];
+			for (int i = 0; i < inside.length; i++) {
+				int value;
+				if (magic.equals("P2")) {
+					value = Integer.parseInt(readToken(in));
+				}
+				else {
+					value = in.read();
+					if (maxValue > 255) {
+						value = (value << 8) | in.read();
+					}
+					if (value < 0) {
+						throw new IOException(path + " ends early");
+					}
+				}
+				inside[i] = value != 0;
+			}
+			return new RegionOfInterest(inside, width, height);
+		}
+		catch (NumberFormatException e) {
+			throw new IOException(path + " has a malformed PGM header");
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a whitespace-separated PGM token, skipping comments. The single
+	 * whitespace character after the token is consumed.
+	 */
+	private static String readToken(InputStream in) throws IOException {
+		StringBuilder token = new StringBuilder();
+		int c = in.read();
+		while (c != -1) {
+			if (c == '#' && token.length() == 0) {
+				while (c != -1 && c != '\n') {
+					c = in.read();
+				}
+			}
+			else if (Character.isWhitespace(c)) {
+				if (token.length() > 0) {
+					break;
+				}
+			}
+			else {
+				token.append((char) c);
+			}
+			c = in.read();
+		}
+		if (token.length() == 0) {
+			throw new IOException("PGM file ends early");
+		}
+		return token.toString();
+	}
+
+	/**
+	 * The same region resampled to another resolution, each pixel taking the
+	 * value of the pixel nearest its centre.
+	 */
+	public RegionOfInterest forResolution(int width, int height) {
+		if (width == this.width && height == this.height) {
+			return this;
+		}
+		boolean[] resampled = new boolean[width * height];
+		for (int y = 0; y < height; y++) {
+			int sourceRow = (2 * y + 1) * this.height / (2 * height);
+			for (int x = 0; x < width; x++) {
+				int sourceCol = (2 * x + 1) * this.width / (2 * width);
+				resampled[y * width + x] = inside[sourceRow * this.width + sourceCol];
+			}
+		}
+		return new RegionOfInterest(resampled, width, height);
+	}
+
+	public boolean contains(int x, int y) {
+		return inside[y * width + x];
+	}
+
+	public boolean isEmpty() {
+		return maxX < minX;
+	}
+
+	int getRunCount(int y) {
+		return rowStarts[y + 1] - rowStarts[y];
+	}
+
+	/**
+	 * @return the first column of the given run of row y
+	 */
+	int getRunStart(int y, int run) {
+		return runs[2 * (rowStarts[y] + run)];
+	}
+
+	/**
+	 * @return the last column of the given run of row y
+	 */
+	int getRunEnd(int y, int run) {
+		return runs[2 * (rowStarts[y] + run) + 1];
+	}
+
+	/**
+	 * Reset a label map for a new labeling: pixels inside the region become
+	 * {@link BlobTrackingChallenge#UNLABELED} and pixels outside
+	 * {@link #OUTSIDE}, which no flood fill ever enters.
+	 */
+	void clearLabels(int[] labels) {
+		System.arraycopy(labelTemplate, 0, labels, 0, labelTemplate.length);
+	}
+
+	@Override
+	public String toString() {
+		return "rows " + minY + "-" + maxY + ", cols " + minX + "-" + maxX + " at " + width + "x" + height;
+	}
+}
@@ -0,0 +1,135 @@
+package vision;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReplayFrameSource plays recorded frames to a stream from a thread of its
+ * own, as a camera would: at the recording's frame rate, some multiple of
+ * it, or as fast as the thread can hand them over. Each frame is stamped
+ * with the time it is handed over, and frames larger than the stream's
+ * resolution are scaled down like a camera's.
+ *
+ * Frames are recorded by a {@link BlobTrackingChallenge} created with
+ * serialize set, as a serialized list of images; see {@link #load(String)}.
+ * The frames are never modified, so one list can be replayed to several
+ * streams at once.
+ *
+ * @author prentice
+ */
+public class ReplayFrameSource implements FrameSource {
+	/**
+	 * The speed at which frames are handed over without waiting.
+	 */
+	public static final double AS_FAST_AS_POSSIBLE = 0;
+
+	private final List<Image> frames;
+	private final double periodNanos;
+	private final int repeat;
+	private final CountDownLatch finished = new CountDownLatch(1);
+	private volatile long replayed = 0;
+	private Thread thread;
+
+	/**
+	 * @param framesPerSecond
+	 *            the rate the frames were recorded at
+	 * @param speed
+	 *            how many times faster than recorded to replay them, or
+	 *            {@link #AS_FAST_AS_POSSIBLE}
+	 * @param repeat
+	 *            how many times to replay the whole list
+	 */
+	public ReplayFrameSource(List<Image> frames, double framesPerSecond, double speed, int repeat) {
+		if (frames.isEmpty() || framesPerSecond <= 0 || speed < 0 || repeat < 1) {
+			throw new IllegalArgumentException("Replay needs frames, a positive frame rate and repeat count, and a speed of at least 0");
+		}
+		this.frames = frames;
+		this.periodNanos = (speed == AS_FAST_AS_POSSIBLE) ? 0 : 1e9 / (framesPerSecond * speed);
+		this.repeat = repeat;
+	}
+
+	/**
+	 * Read a list of frames recorded by a {@link BlobTrackingChallenge}.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Image> load(String path) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new FileInputStream(path));
+		try {
+			return (List<Image>) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Not a recording of frames: " + e.getMessage());
+		} catch (ClassCastException e) {
+			throw new IOException("Not a recording of frames: " + e.getMessage());
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public void start(final CameraStream stream) {
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					replay(stream);
+				} finally {
+					finished.countDown();
+				}
+			}
+		}, "replay " + stream.getConfig().getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void replay(CameraStream stream) {
+		long start = System.nanoTime();
+		long count = 0;
+		for (int pass = 0; pass < repeat; pass++) {
+			for (Image frame : frames) {
+				// frames are due on a fixed schedule, so a late frame does not
+				// delay the ones after it
+				long wait = start + (long) (count * periodNanos) - System.nanoTime();
+				if (wait > 0) {
+					try {
+						TimeUnit.NANOSECONDS.sleep(wait);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (Thread.currentThread().isInterrupted()) {
+					return;
+				}
+				stream.ingest(frame, System.currentTimeMillis());
+				replayed = ++count;
+			}
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Wait until every frame has been handed over, or the source is shut
+	 * down.
+	 *
+	 * @return whether the replay finished in time
+	 */
+	public boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+		return finished.await(timeout, unit);
+	}
+
+	/**
+	 * @return the number of frames handed over so far
+	 */
+	public long getReplayed() {
+		return replayed;
+	}
+}
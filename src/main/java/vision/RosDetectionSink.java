@@ -0,0 +1,49 @@
+package vision;
+
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import rss_msgs.BallLocationMsg;
+import rss_msgs.FiducialMsg;
+
+/**
+ * RosDetectionSink publishes a stream's detections on its output topic, as
+ * the message type of its mode.
+ *
+ * @author prentice
+ */
+public class RosDetectionSink implements DetectionSink {
+	private Publisher<BallLocationMsg> ballLocationPub;
+	private Publisher<FiducialMsg> fiducialLocationPub;
+
+	/**
+	 * Create the publisher for the stream's output topic.
+	 */
+	public RosDetectionSink(ConnectedNode node, CameraConfig config) {
+		if (config.mode == CameraConfig.Mode.BLOCK) {
+			ballLocationPub = node.newPublisher(config.outputTopic, config.mode.messageType);
+		} else {
+			fiducialLocationPub = node.newPublisher(config.outputTopic, config.mode.messageType);
+		}
+	}
+
+	@Override
+	public void publishBall(double range, double bearing, int color) {
+		BallLocationMsg ballMsg = ballLocationPub.newMessage();
+		ballMsg.setRange(range);
+		ballMsg.setBearing(bearing);
+		ballMsg.setColor(color);
+		ballLocationPub.publish(ballMsg);
+	}
+
+	@Override
+	public void publishFiducial(double range, double bearing, int top, int bottom, long time) {
+		FiducialMsg fidMsg = fiducialLocationPub.newMessage();
+		fidMsg.setRange(range);
+		fidMsg.setBearing(bearing);
+		fidMsg.setTop(top);
+		fidMsg.setBottom(bottom);
+		fidMsg.setTime(time);
+		fiducialLocationPub.publish(fidMsg);
+	}
+}
@@ -0,0 +1,197 @@
+package vision;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.ros.message.MessageListener;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Subscriber;
+
+/**
+ * RosFrameSource subscribes to a stream's camera topic and hands it every
+ * maxCount-th frame. Raw frames may be RGB (or BGR) or one of the YUV
+ * layouts of {@link YuvImage}; a stream configured as compressed takes the
+ * camera's JPEG frames instead, and decodes them with a {@link JpegDecoder}
+ * at the smallest power-of-two fraction of their size that is still at least
+ * the processing resolution. Decoded frames are copied into images from a
+ * small {@link FramePool}, which the stream hands back as it finishes with
+ * them.
+ *
+ * @author prentice
+ */
+public class RosFrameSource implements FrameSource, MessageListener<sensor_msgs.Image> {
+	// one frame waiting, one being processed, and room for a pipeline's
+	private static final int POOLED_FRAMES = 4;
+
+	private final ConnectedNode node;
+	private final boolean reverseRGB;
+	private final int maxCount;
+	// only touched by the subscriber's thread
+	private int count = 0;
+	private JpegDecoder decoder = null;
+	private final FramePool frames = new FramePool(POOLED_FRAMES);
+
+	private CameraStream stream;
+	private Subscriber<sensor_msgs.Image> subscriber;
+	private Subscriber<sensor_msgs.CompressedImage> compressedSubscriber;
+
+	/**
+	 * @param reverseRGB
+	 *            whether frames arrive as BGR
+	 * @param maxCount
+	 *            only every maxCount-th frame is processed
+	 */
+	public RosFrameSource(ConnectedNode node, boolean reverseRGB, int maxCount) {
+		this.node = node;
+		this.reverseRGB = reverseRGB;
+		this.maxCount = maxCount;
+	}
+
+	@Override
+	public void start(CameraStream stream) {
+		this.stream = stream;
+		CameraConfig config = stream.getConfig();
+		if (config.compressed) {
+			decoder = new JpegDecoder();
+			compressedSubscriber = node.newSubscriber(config.topic + "/compressed", "sensor_msgs/CompressedImage");
+			compressedSubscriber.addMessageListener(new MessageListener<sensor_msgs.CompressedImage>() {
+				@Override
+				public void onNewMessage(sensor_msgs.CompressedImage message) {
+					onCompressedMessage(message);
+				}
+			});
+		} else {
+			subscriber = node.newSubscriber(config.topic, "sensor_msgs/Image");
+			subscriber.addMessageListener(this);
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		if (subscriber != null) {
+			subscriber.shutdown();
+		}
+		if (compressedSubscriber != null) {
+			compressedSubscriber.shutdown();
+		}
+	}
+
+	@Override
+	public void onNewMessage(sensor_msgs.Image message) {
+		if (!countFrame()) {
+			return;
+		}
+		YuvImage.Layout layout = YuvImage.layoutOf(message.getEncoding());
+		if (layout != null) {
+			onYuvMessage(message, layout);
+			return;
+		}
+
+		int width = (int) message.getWidth();
+		int height = (int) message.getHeight();
+		if (width <= 0 || height <= 0 || message.getData().array().length < 3 * width * height) {
+			System.err.println(stream.getConfig().topic + ": dropping malformed " + width + "x" + height + " frame");
+			return;
+		}
+		byte[] rgbData;
+		if (reverseRGB) {
+			rgbData = Image.RGB2BGR(message.getData().array(), width, height);
+		} else {
+			rgbData = message.getData().array();
+		}
+		if (rgbData.length != 3 * width * height) {
+			// Strip the first n characters to make the length right (yay hacks! P.S. don't let tej see this code)
+			rgbData = Arrays.copyOfRange(rgbData, rgbData.length - 3*width*height, rgbData.length);
+		}
+		stream.ingest(new Image(rgbData, width, height), stampMillis(message.getHeader()));
+	}
+
+	/**
+	 * Hand a YUV frame to the stream as it is, or converted to RGB if it is
+	 * larger than the processing resolution and has to be scaled down.
+	 */
+	private void onYuvMessage(sensor_msgs.Image message, YuvImage.Layout layout) {
+		int width = (int) message.getWidth();
+		int height = (int) message.getHeight();
+		byte[] data = message.getData().array();
+		YuvImage yuv;
+		try {
+			int size = YuvImage.size(width, height, layout);
+			if (width <= 0 || height <= 0 || data.length < size) {
+				throw new IllegalArgumentException();
+			}
+			if (data.length != size) {
+				// the same offset hack as for RGB frames
+				data = Arrays.copyOfRange(data, data.length - size, data.length);
+			}
+			yuv = new YuvImage(data, width, height, layout);
+		} catch (IllegalArgumentException e) {
+			System.err.println(stream.getConfig().topic + ": dropping malformed " + width + "x" + height + " " + layout + " frame");
+			return;
+		}
+
+		CameraConfig current = stream.getConfig();
+		if (width >= current.width && height >= current.height && (width != current.width || height != current.height)) {
+			stream.ingest(yuv.toImage(), stampMillis(message.getHeader()));
+			return;
+		}
+		stream.ingest(new CameraFrame(yuv, stampMillis(message.getHeader())));
+	}
+
+	/**
+	 * Decode a JPEG frame and hand it to the stream. Decoded frames are
+	 * always RGB, whatever the driver's raw frames are.
+	 */
+	private void onCompressedMessage(sensor_msgs.CompressedImage message) {
+		if (!countFrame()) {
+			return;
+		}
+		CameraConfig current = stream.getConfig();
+		if (message.getFormat() != null && message.getFormat().contains("png")) {
+			System.err.println(current.topic + ": dropping " + message.getFormat() + " frame, only JPEG is supported");
+			return;
+		}
+
+		ChannelBuffer data = message.getData();
+		Image decoded;
+		try {
+			decoded = decoder.decode(data.array(), data.arrayOffset() + data.readerIndex(), data.readableBytes(),
+					current.width, current.height);
+		} catch (IOException e) {
+			System.err.println(current.topic + ": dropping undecodable frame: " + e.getMessage());
+			return;
+		}
+
+		// the decoded image belongs to the decoder, so the frame gets a copy
+		int width = decoded.getWidth();
+		int height = decoded.getHeight();
+		Image frame;
+		if (width >= current.width && height >= current.height && (width != current.width || height != current.height)) {
+			frame = frames.acquire(current.width, current.height);
+			Image.scale(decoded.getPixelBuffer(), width, height, frame.getPixelBuffer(), current.width, current.height);
+		} else {
+			frame = frames.acquire(width, height);
+			frame.copyFrom(decoded);
+		}
+		stream.ingest(new CameraFrame(frame, stampMillis(message.getHeader()), frames));
+	}
+
+	/**
+	 * @return whether this frame is one of the every maxCount-th that are
+	 *         processed
+	 */
+	private boolean countFrame() {
+		count++;
+		if (count < maxCount) {
+			return false;
+		}
+		count = 0;
+		return true;
+	}
+
+	private static long stampMillis(std_msgs.Header header) {
+		org.ros.message.Time stamp = header.getStamp();
+		return (stamp == null || stamp.isZero()) ? 0 : stamp.totalNsecs() / 1000000;
+	}
+}
@@ -0,0 +1,50 @@
+package vision;
+
+/**
+ * Stage is one step of a detector. It takes the output of the stage before
+ * it, works on the frame held by a {@link DetectionContext}, and draws any
+ * buffers it needs from the context, so a running detector does not
+ * allocate. Its output belongs to the context and is valid until the
+ * context's next frame.
+ *
+ * Stages keep no state of their own, so one stage may be part of any number
+ * of detectors and run on any number of threads, each with its own context.
+ * They are put together with {@link StageChain}; {@link DetectorStages} has
+ * the stages the block and fiducial detectors are made of.
+ *
+ * @param <I>
+ *            what the stage takes
+ * @param <O>
+ *            what the stage gives the next one
+ * @author prentice
+ */
+public abstract class Stage<I, O> {
+	private final String name;
+
+	protected Stage(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the stage's name, as reported to a {@link StageListener}
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Run the stage on the context's current frame.
+	 *
+	 * @param tracker
+	 *            the detector the stage runs for, which holds its
+	 *            configuration
+	 * @param dest
+	 *            the annotated output image, which the stage may paint on
+	 */
+	public abstract O run(BlobTrackingChallenge tracker, DetectionContext ctx, I input, Image dest);
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,100 @@
+package vision;
+
+/**
+ * StageChain runs stages one after another, each taking the output of the
+ * one before it. A chain is declared by naming its stages in order, and the
+ * compiler checks that each stage takes what the one before gives:
+ *
+ * <pre>
+ * StageChain.of("fiducial", DetectorStages.FIND_WALL)
+ *         .then(DetectorStages.FIND_SPHERES)
+ *         .then(DetectorStages.NEAREST_FIDUCIAL)
+ * </pre>
+ *
+ * If the context has a {@link StageListener}, it is told how long each stage
+ * took. A chain is a stage itself, so a chain can be part of another, in
+ * which case the listener hears of both the inner stages and the whole.
+ *
+ * Chains are immutable: {@link #then(Stage)} returns a new chain and leaves
+ * this one as it is.
+ *
+ * @author prentice
+ */
+public class StageChain<I, O> extends Stage<I, O> {
+	/**
+	 * A single stage, reported to the context's listener when it finishes.
+	 */
+	private static class Timed<I, O> extends Stage<I, O> {
+		private final Stage<I, O> stage;
+
+		Timed(Stage<I, O> stage) {
+			super(stage.getName());
+			this.stage = stage;
+		}
+
+		@Override
+		public O run(BlobTrackingChallenge tracker, DetectionContext ctx, I input, Image dest) {
+			StageListener listener = ctx.stageListener;
+			if (listener == null) {
+				return stage.run(tracker, ctx, input, dest);
+			}
+			long start = System.nanoTime();
+			O output = stage.run(tracker, ctx, input, dest);
+			listener.stageFinished(stage.getName(), System.nanoTime() - start);
+			return output;
+		}
+	}
+
+	/**
+	 * The stages of a chain so far, followed by one more.
+	 */
+	private static class Link<I, M, O> extends Stage<I, O> {
+		private final Stage<I, M> first;
+		private final Stage<M, O> second;
+
+		Link(Stage<I, M> first, Stage<M, O> second) {
+			super(first.getName() + " -> " + second.getName());
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public O run(BlobTrackingChallenge tracker, DetectionContext ctx, I input, Image dest) {
+			return second.run(tracker, ctx, first.run(tracker, ctx, input, dest), dest);
+		}
+	}
+
+	private final Stage<I, O> stages;
+
+	private StageChain(String name, Stage<I, O> stages) {
+		super(name);
+		this.stages = stages;
+	}
+
+	/**
+	 * @return a chain of one stage
+	 */
+	public static <I, O> StageChain<I, O> of(String name, Stage<I, O> first) {
+		return new StageChain<I, O>(name, new Timed<I, O>(first));
+	}
+
+	/**
+	 * @return a chain of this chain's stages followed by the given one
+	 */
+	public <N> StageChain<I, N> then(Stage<O, N> next) {
+		return new StageChain<I, N>(getName(), new Link<I, O, N>(stages, new Timed<O, N>(next)));
+	}
+
+	@Override
+	public O run(BlobTrackingChallenge tracker, DetectionContext ctx, I input, Image dest) {
+		return stages.run(tracker, ctx, input, dest);
+	}
+
+	/**
+	 * @return the chain's name and its stages in order
+	 */
+	@Override
+	public String toString() {
+		return getName() + ": " + stages.getName();
+	}
+}
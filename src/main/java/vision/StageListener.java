@@ -0,0 +1,11 @@
+package vision;
+
+/**
+ * Receives how long each stage of a {@link StageChain} took on a context. It
+ * is called on the thread that ran the stage, as soon as the stage returns.
+ *
+ * @author prentice
+ */
+public interface StageListener {
+	void stageFinished(String stage, long nanos);
+}
@@ -0,0 +1,261 @@
+package vision;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * StripLabeler finds the same hue-constant regions as the serial flood fill
+ * in {@link BlobTrackingChallenge#findNewBlob}, and numbers them in the same
+ * order, but splits the frame into horizontal strips that are labeled in
+ * parallel.
+ *
+ * Each strip joins every qualifying pixel to the qualifying pixels within
+ * <code>skipThreshold</code> above and to the left of it in a union-find
+ * forest stored in the context. A strip only ever links pixels inside itself,
+ * so the strips never write to the same entries. Once all
+ * strips are done, the pixels in the first <code>skipThreshold</code> rows of
+ * each strip are joined to their neighbours above the seam, which bridges
+ * gaps across strips exactly as the flood fill would.
+ *
+ * Each pixel joined costs the frame's {@link WorkBudget} the same
+ * (2 * skipThreshold + 1)^2 probes as a flood fill visit. The strips add up
+ * their work a row at a time in a shared counter, and all of them stop once
+ * it runs over the budget.
+ *
+ * A labeler belongs to one context and keeps its tree of fork/join tasks,
+ * which are reinitialized and run again on every frame, so it can be reused
+ * from frame to frame without allocating on the calling thread.
+ *
+ * @author prentice
+ */
+class StripLabeler {
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+	private static final int NOT_QUALIFIED = -1;
+
+	private final DetectionContext ctx;
+	private final int[] parent;
+	private final int[] labels;
+	private final int width;
+	private final int height;
+	private final int skip;
+	private final int probes;
+	private final int stripHeight;
+	private final StripTask root;
+	// pixel visits of the frame so far, shared by the strips
+	private final AtomicLong visits = new AtomicLong();
+
+	// the pass being labeled
+	private ColorTable colors;
+	private RegionOfInterest roi;
+	private boolean findWall;
+	private boolean[] forbiddenHues;
+	private int[][][] hsv;
+	private long visitBudget;
+
+	StripLabeler(BlobTrackingChallenge tracker, DetectionContext ctx) {
+		this.ctx = ctx;
+		this.parent = ctx.parents;
+		this.labels = ctx.labels;
+		this.width = ctx.width;
+		this.height = ctx.height;
+		this.skip = tracker.getConfig().skipThreshold;
+		this.probes = (2 * skip + 1) * (2 * skip + 1);
+		int strips = Math.max(1, Math.min(POOL.getParallelism() * 2, height));
+		this.stripHeight = (height + strips - 1) / strips;
+		this.root = new StripTask(0, height);
+	}
+
+	/**
+	 * Label the context's frame into its label map.
+	 * 
+	 * @return the number of labels used, or 0 if the frame ran over its
+	 *         work budget
+	 */
+	int label(boolean findWall, boolean[] forbiddenHues) {
+		this.colors = ctx.colorTable;
+		this.roi = ctx.roi;
+		this.findWall = findWall;
+		this.forbiddenHues = forbiddenHues;
+		this.hsv = ctx.currentHSV;
+		this.visitBudget = ctx.visitBudget;
+		visits.set(ctx.pixelVisits);
+		root.reset();
+		POOL.invoke(root);
+		for (int seam = stripHeight; seam < height && !overBudget(); seam += stripHeight) {
+			mergeSeam(seam);
+		}
+		ctx.pixelVisits = visits.get();
+		if (overBudget()) {
+			ctx.overBudget = true;
+			return 0;
+		}
+		return assignLabels();
+	}
+
+	private boolean overBudget() {
+		return visits.get() > visitBudget;
+	}
+
+	/**
+	 * Charge a row's joined pixels to the budget.
+	 * 
+	 * @return whether the frame is now over budget
+	 */
+	private boolean charge(int joined) {
+		return visits.addAndGet((long) joined * probes) > visitBudget;
+	}
+
+	private class StripTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int startRow;
+		private final int endRow;
+		private final StripTask first;
+		private final StripTask second;
+
+		StripTask(int startRow, int endRow) {
+			this.startRow = startRow;
+			this.endRow = endRow;
+			if (endRow - startRow <= stripHeight) {
+				first = null;
+				second = null;
+			}
+			else {
+				// split on a strip boundary so that the seams are where
+				// label() expects them
+				int strips = (endRow - startRow + stripHeight - 1) / stripHeight;
+				int middle = startRow + (strips / 2) * stripHeight;
+				first = new StripTask(startRow, middle);
+				second = new StripTask(middle, endRow);
+			}
+		}
+
+		/**
+		 * Make this task and its subtasks ready to run again.
+		 */
+		void reset() {
+			reinitialize();
+			if (first != null) {
+				first.reset();
+				second.reset();
+			}
+		}
+
+		@Override
+		protected void compute() {
+			if (first == null) {
+				labelStrip(startRow, endRow);
+			}
+			else {
+				invokeAll(first, second);
+			}
+		}
+	}
+
+	private void labelStrip(int startRow, int endRow) {
+		for (int y = startRow; y < endRow; y++) {
+			for (int x = 0; x < width; x++) {
+				int index = y * width + x;
+				parent[index] = qualifies(x, y) ? index : NOT_QUALIFIED;
+			}
+		}
+		for (int y = startRow; y < endRow; y++) {
+			int joined = 0;
+			for (int x = 0; x < width; x++) {
+				if (parent[y * width + x] != NOT_QUALIFIED) {
+					joinPrecedingNeighbours(x, y, startRow, y);
+					joined++;
+				}
+			}
+			if (charge(joined)) {
+				return;
+			}
+		}
+	}
+
+	private void mergeSeam(int seam) {
+		int lastRow = Math.min(height, seam + skip);
+		for (int y = seam; y < lastRow; y++) {
+			int joined = 0;
+			for (int x = 0; x < width; x++) {
+				if (parent[y * width + x] != NOT_QUALIFIED) {
+					joinPrecedingNeighbours(x, y, 0, seam - 1);
+					joined++;
+				}
+			}
+			if (charge(joined)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Join (x, y) with every connected neighbour within skipThreshold whose
+	 * row lies in [minRow, y], and which comes before (x, y) in raster order
+	 * when it shares its row.
+	 */
+	private void joinPrecedingNeighbours(int x, int y, int minRow, int maxRow) {
+		int index = y * width + x;
+		int hue = hsv[y][x][0];
+		int fromRow = Math.max(minRow, y - skip);
+		int toRow = Math.min(maxRow, y);
+		for (int yPos = fromRow; yPos <= toRow; yPos++) {
+			int fromCol = Math.max(0, x - skip);
+			int toCol = (yPos == y) ? x - 1 : Math.min(width - 1, x + skip);
+			for (int xPos = fromCol; xPos <= toCol; xPos++) {
+				int neighbour = yPos * width + xPos;
+				if (parent[neighbour] != NOT_QUALIFIED && colors.connects(hsv[yPos][xPos][0], hue)) {
+					union(index, neighbour);
+				}
+			}
+		}
+	}
+
+	private boolean qualifies(int x, int y) {
+		return (roi == null || roi.contains(x, y)) && colors.qualifies(findWall, hsv[y][x][0], hsv[y][x][1], forbiddenHues);
+	}
+
+	private int find(int index) {
+		while (parent[index] != index) {
+			parent[index] = parent[parent[index]];
+			index = parent[index];
+		}
+		return index;
+	}
+
+	private void union(int a, int b) {
+		int rootA = find(a);
+		int rootB = find(b);
+		if (rootA < rootB) {
+			parent[rootB] = rootA;
+		} else if (rootB < rootA) {
+			parent[rootA] = rootB;
+		}
+	}
+
+	/**
+	 * Give each component a consecutive label, in the order the serial flood
+	 * fill finds them: by the first of its pixels met going down each column
+	 * in turn. Regions are then listed in the same order in both modes, and
+	 * ties between them are broken the same way.
+	 */
+	private int assignLabels() {
+		Arrays.fill(labels, BlobTrackingChallenge.UNLABELED);
+		int labelCount = 0;
+		int size = width * height;
+		for (int x = 0; x < width; x++) {
+			for (int index = x; index < size; index += width) {
+				if (parent[index] == NOT_QUALIFIED) {
+					continue;
+				}
+				int root = find(index);
+				if (labels[root] == BlobTrackingChallenge.UNLABELED) {
+					labels[root] = labelCount++;
+				}
+				labels[index] = labels[root];
+			}
+		}
+		return labelCount;
+	}
+}
@@ -0,0 +1,549 @@
+package vision;
+
+import java.awt.Color;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * SyntheticScene renders a camera frame of a known scene, so that the
+ * detector can be measured on frames with exact ground truth and on
+ * conditions the recordings do not cover: many or huge blobs, clutter, noise,
+ * blur and large resolutions.
+ *
+ * A scene has a wall above the horizon and a floor below it, balls of any of
+ * the detector's colours at given ranges and bearings, two-sphere fiducials,
+ * and clutter: elongated bars of object colours, which are not round, and
+ * specks too small to count. Balls and spheres are drawn through the
+ * default {@link CameraModel} at the frame's resolution, with the sizes
+ * {@link Blob} assumes (6 cm balls, 10 cm spheres), nearest last, and in a
+ * hue from the middle of their colour's band in {@link ColorTable#DEFAULT}.
+ * Sensor noise and blur are applied last.
+ *
+ * Rendering is deterministic: the same scene and seed always give the same
+ * frame. Instances are immutable; the with methods return modified copies.
+ *
+ * <pre>
+ * java vision.SyntheticScene &lt;block|fiducial&gt; &lt;frames&gt; &lt;width&gt;x&lt;height&gt; &lt;frame log&gt; &lt;labels&gt; [balls] [fiducials] [clutter] [noise] [blur] [seed]
+ * </pre>
+ *
+ * writes a frame log of random scenes, as {@link ReplayFrameSource} reads,
+ * and the truth for the given detector, as {@link GroundTruth} reads.
+ *
+ * @author prentice
+ */
+public class SyntheticScene {
+	private static final double BALL_SIZE = 0.06;
+	private static final double SPHERE_SIZE = 0.1;
+	// a saturated hue in the default table's wall band, but not an object's
+	private static final int WALL_HUE = 21;
+
+	/**
+	 * A ball, centred at a range in metres, a bearing in radians (positive
+	 * to the left) and an elevation in radians above the optical axis.
+	 */
+	public static class Ball {
+		public final int color;
+		public final double range;
+		public final double bearing;
+		public final double elevation;
+
+		public Ball(int color, double range, double bearing, double elevation) {
+			this.color = color;
+			this.range = range;
+			this.bearing = bearing;
+			this.elevation = elevation;
+		}
+	}
+
+	/**
+	 * Two spheres, one on top of the other, at a range in metres and a
+	 * bearing in radians. They touch in the middle row of the frame, as
+	 * {@link Blob#isValidHorizontalFiducial(int)} expects.
+	 */
+	public static class Fiducial {
+		public final int topColor;
+		public final int bottomColor;
+		public final double range;
+		public final double bearing;
+
+		public Fiducial(int topColor, int bottomColor, double range, double bearing) {
+			this.topColor = topColor;
+			this.bottomColor = bottomColor;
+			this.range = range;
+			this.bearing = bearing;
+		}
+	}
+
+	private final int width;
+	private final int height;
+	private final CameraModel camera;
+	private final boolean wall;
+	private final List<Ball> balls;
+	private final List<Fiducial> fiducials;
+	private final int clutter;
+	private final double noise;
+	private final int blur;
+	private final long seed;
+
+	/**
+	 * An empty scene of wall and floor, with no noise, blur or clutter.
+	 */
+	public SyntheticScene(int width, int height) {
+		this(width, height, true, Collections.<Ball>emptyList(), Collections.<Fiducial>emptyList(), 0, 0, 0, 1);
+	}
+
+	private SyntheticScene(int width, int height, boolean wall, List<Ball> balls, List<Fiducial> fiducials, int clutter, double noise, int blur, long seed) {
+		if (width < 8 || height < 8) {
+			throw new IllegalArgumentException("Scenes must be at least 8x8");
+		}
+		this.width = width;
+		this.height = height;
+		this.camera = CameraModel.DEFAULT.forResolution(width, height);
+		this.wall = wall;
+		this.balls = balls;
+		this.fiducials = fiducials;
+		this.clutter = clutter;
+		this.noise = noise;
+		this.blur = blur;
+		this.seed = seed;
+	}
+
+	/**
+	 * @return a copy of this scene with another ball
+	 */
+	public SyntheticScene withBall(int color, double range, double bearing, double elevation) {
+		List<Ball> more = new ArrayList<Ball>(balls);
+		more.add(new Ball(color, range, bearing, elevation));
+		return new SyntheticScene(width, height, wall, more, fiducials, clutter, noise, blur, seed);
+	}
+
+	/**
+	 * @return a copy of this scene with another fiducial
+	 */
+	public SyntheticScene withFiducial(int topColor, int bottomColor, double range, double bearing) {
+		List<Fiducial> more = new ArrayList<Fiducial>(fiducials);
+		more.add(new Fiducial(topColor, bottomColor, range, bearing));
+		return new SyntheticScene(width, height, wall, balls, more, clutter, noise, blur, seed);
+	}
+
+	/**
+	 * @return a copy of this scene with or without the wall; without it, the
+	 *         floor fills the frame
+	 */
+	public SyntheticScene withWall(boolean wall) {
+		return new SyntheticScene(width, height, wall, balls, fiducials, clutter, noise, blur, seed);
+	}
+
+	/**
+	 * @param clutter
+	 *            the number of bars and specks scattered where there is no
+	 *            ball or fiducial
+	 */
+	public SyntheticScene withClutter(int clutter) {
+		return new SyntheticScene(width, height, wall, balls, fiducials, clutter, noise, blur, seed);
+	}
+
+	/**
+	 * @param noise
+	 *            the standard deviation of the gaussian noise added to every
+	 *            channel of every pixel, in levels of 0 to 255
+	 */
+	public SyntheticScene withNoise(double noise) {
+		return new SyntheticScene(width, height, wall, balls, fiducials, clutter, noise, blur, seed);
+	}
+
+	/**
+	 * @param blur
+	 *            the number of passes of {@link GaussianBlur} over the frame
+	 */
+	public SyntheticScene withBlur(int blur) {
+		return new SyntheticScene(width, height, wall, balls, fiducials, clutter, noise, blur, seed);
+	}
+
+	/**
+	 * @param seed
+	 *            seeds the placement of clutter and the noise
+	 */
+	public SyntheticScene withSeed(long seed) {
+		return new SyntheticScene(width, height, wall, balls, fiducials, clutter, noise, blur, seed);
+	}
+
+	/**
+	 * A scene of randomly placed balls and fiducials that neither overlap
+	 * nor touch the edge of the frame, each between a twelfth and a fifth of
+	 * the frame's width across. No two balls, and no two fiducials, are
+	 * within a tenth of each other's range, so the nearest is never in
+	 * doubt. An object that cannot be fitted in is left out.
+	 *
+	 * The block detector takes a fiducial's spheres for balls, so scenes for
+	 * it should have no fiducials.
+	 */
+	public static SyntheticScene random(int width, int height, int balls, int fiducials, Random random) {
+		SyntheticScene scene = new SyntheticScene(width, height).withSeed(random.nextLong());
+		double f = scene.focalLength();
+		List<double[]> discs = new ArrayList<double[]>();
+		List<Double> radii = new ArrayList<Double>();
+		for (int i = 0; i < fiducials; i++) {
+			for (int attempt = 0; attempt < 100; attempt++) {
+				double radius = diameter(width, random) / 2;
+				if (4 * radius + 4 >= height) {
+					continue;
+				}
+				double x = radius + 2 + random.nextDouble() * (width - 2 * radius - 4);
+				double[] top = {x, height / 2 - radius, radius};
+				double[] bottom = {x, height / 2 + radius, radius};
+				if (fits(discs, top) && fits(discs, bottom) && distinct(radii, radius)) {
+					radii.add(radius);
+					discs.add(top);
+					discs.add(bottom);
+					int topColor = random.nextInt(Blob.COLORS);
+					// a fiducial's spheres are different colours
+					int bottomColor = (topColor + 1 + random.nextInt(Blob.COLORS - 1)) % Blob.COLORS;
+					scene = scene.withFiducial(topColor, bottomColor, SPHERE_SIZE * f / (2 * radius),
+							Math.atan((scene.centerX() - x) / f));
+					break;
+				}
+			}
+		}
+		radii.clear();
+		for (int i = 0; i < balls; i++) {
+			for (int attempt = 0; attempt < 100; attempt++) {
+				double radius = diameter(width, random) / 2;
+				if (2 * radius + 4 >= height) {
+					continue;
+				}
+				double x = radius + 2 + random.nextDouble() * (width - 2 * radius - 4);
+				double y = radius + 2 + random.nextDouble() * (height - 2 * radius - 4);
+				double[] disc = {x, y, radius};
+				if (fits(discs, disc) && distinct(radii, radius)) {
+					radii.add(radius);
+					discs.add(disc);
+					scene = scene.withBall(random.nextInt(Blob.COLORS), BALL_SIZE * f / (2 * radius),
+							Math.atan((scene.centerX() - x) / f), Math.atan((scene.centerY() - y) / f));
+					break;
+				}
+			}
+		}
+		return scene;
+	}
+
+	private static double diameter(int width, Random random) {
+		return width / 12.0 + random.nextDouble() * (width / 5.0 - width / 12.0);
+	}
+
+	/**
+	 * @return whether a radius, and so a range, differs by at least a tenth
+	 *         from each of the others
+	 */
+	private static boolean distinct(List<Double> radii, double radius) {
+		for (double other : radii) {
+			if (Math.abs(radius - other) < 0.1 * Math.max(radius, other)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether a disc keeps at least two pixels clear of all the
+	 *         others
+	 */
+	private static boolean fits(List<double[]> discs, double[] disc) {
+		for (double[] other : discs) {
+			if (Math.hypot(disc[0] - other[0], disc[1] - other[1]) < disc[2] + other[2] + 2) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public List<Ball> getBalls() {
+		return Collections.unmodifiableList(balls);
+	}
+
+	public List<Fiducial> getFiducials() {
+		return Collections.unmodifiableList(fiducials);
+	}
+
+	/**
+	 * @return what the block detector should report: the nearest ball, or
+	 *         none
+	 */
+	public GroundTruth blockTruth() {
+		Ball nearest = null;
+		for (Ball ball : balls) {
+			if (nearest == null || ball.range < nearest.range) {
+				nearest = ball;
+			}
+		}
+		return (nearest == null) ? GroundTruth.NONE : GroundTruth.ball(nearest.color, nearest.range, nearest.bearing);
+	}
+
+	/**
+	 * @return what the fiducial detector should report: the nearest
+	 *         fiducial, or none
+	 */
+	public GroundTruth fiducialTruth() {
+		Fiducial nearest = null;
+		for (Fiducial fiducial : fiducials) {
+			if (nearest == null || fiducial.range < nearest.range) {
+				nearest = fiducial;
+			}
+		}
+		return (nearest == null) ? GroundTruth.NONE
+				: GroundTruth.fiducial(nearest.topColor, nearest.bottomColor, nearest.range, nearest.bearing);
+	}
+
+	/**
+	 * @return the scene drawn in a new image
+	 */
+	public Image render() {
+		byte[] pixels = new byte[width * height * 3];
+		Random random = new Random(seed);
+		int horizon = wall ? (int) Math.round(centerY()) : 0;
+		fill(pixels, 0, 0, width, horizon, Color.HSBtoRGB(WALL_HUE / 255f, 0.6f, 0.7f));
+		fill(pixels, 0, horizon, width, height, Color.HSBtoRGB(0.08f, 0.12f, 0.55f));
+
+		// the objects' discs, so that clutter can keep clear of them
+		List<double[]> discs = new ArrayList<double[]>();
+		List<Object> objects = new ArrayList<Object>();
+		objects.addAll(balls);
+		objects.addAll(fiducials);
+		double f = focalLength();
+		for (Object object : objects) {
+			if (object instanceof Ball) {
+				Ball ball = (Ball) object;
+				discs.add(new double[] {centerX() - f * Math.tan(ball.bearing), centerY() - f * Math.tan(ball.elevation),
+						BALL_SIZE * f / (2 * ball.range)});
+			} else {
+				Fiducial fiducial = (Fiducial) object;
+				double radius = SPHERE_SIZE * f / (2 * fiducial.range);
+				double x = centerX() - f * Math.tan(fiducial.bearing);
+				discs.add(new double[] {x, height / 2 - radius, radius});
+				discs.add(new double[] {x, height / 2 + radius, radius});
+			}
+		}
+		drawClutter(pixels, discs, random);
+
+		// nearest last, so that it hides what is behind it
+		Collections.sort(objects, new Comparator<Object>() {
+			@Override
+			public int compare(Object a, Object b) {
+				return Double.compare(rangeOf(b), rangeOf(a));
+			}
+		});
+		for (Object object : objects) {
+			if (object instanceof Ball) {
+				Ball ball = (Ball) object;
+				disc(pixels, centerX() - f * Math.tan(ball.bearing), centerY() - f * Math.tan(ball.elevation),
+						BALL_SIZE * f / (2 * ball.range), rgbOf(ball.color));
+			} else {
+				Fiducial fiducial = (Fiducial) object;
+				double radius = SPHERE_SIZE * f / (2 * fiducial.range);
+				double x = centerX() - f * Math.tan(fiducial.bearing);
+				disc(pixels, x, height / 2 - radius, radius, rgbOf(fiducial.topColor));
+				disc(pixels, x, height / 2 + radius, radius, rgbOf(fiducial.bottomColor));
+			}
+		}
+
+		if (noise > 0) {
+			for (int i = 0; i < pixels.length; i++) {
+				int value = (pixels[i] & 0xff) + (int) Math.round(noise * random.nextGaussian());
+				pixels[i] = (byte) ((value < 0) ? 0 : (value > 255) ? 255 : value);
+			}
+		}
+		if (blur > 0) {
+			byte[] blurred = new byte[pixels.length];
+			byte[] scratch = new byte[pixels.length];
+			for (int pass = 0; pass < blur; pass++) {
+				GaussianBlur.apply(pixels, blurred, scratch, width, height);
+				byte[] swap = pixels;
+				pixels = blurred;
+				blurred = swap;
+			}
+		}
+		return new Image(pixels, width, height);
+	}
+
+	private static double rangeOf(Object object) {
+		return (object instanceof Ball) ? ((Ball) object).range : ((Fiducial) object).range;
+	}
+
+	/**
+	 * Scatter bars, at least three times as long as they are wide, and specks
+	 * of a few pixels, in object colours, clear of the objects.
+	 */
+	private void drawClutter(byte[] pixels, List<double[]> discs, Random random) {
+		for (int i = 0; i < clutter; i++) {
+			for (int attempt = 0; attempt < 20; attempt++) {
+				int w;
+				int h;
+				if (random.nextBoolean()) {
+					int thickness = 1 + random.nextInt(Math.max(1, width / 40));
+					int length = 3 * thickness + random.nextInt(Math.max(1, width / 6));
+					boolean across = random.nextBoolean();
+					w = across ? length : thickness;
+					h = across ? thickness : length;
+				} else {
+					w = 1 + random.nextInt(2);
+					h = 1 + random.nextInt(2);
+				}
+				if (w >= width || h >= height) {
+					continue;
+				}
+				int x0 = random.nextInt(width - w);
+				int y0 = random.nextInt(height - h);
+				if (clear(discs, x0, y0, w, h)) {
+					fill(pixels, x0, y0, x0 + w, y0 + h, rgbOf(random.nextInt(Blob.COLORS)));
+					break;
+				}
+			}
+		}
+	}
+
+	private static boolean clear(List<double[]> discs, int x0, int y0, int w, int h) {
+		for (double[] disc : discs) {
+			// distance from the disc's centre to the nearest point of the
+			// rectangle, which must leave two pixels between them
+			double dx = Math.max(Math.max(x0 - disc[0], 0), disc[0] - (x0 + w - 1));
+			double dy = Math.max(Math.max(y0 - disc[1], 0), disc[1] - (y0 + h - 1));
+			if (Math.hypot(dx, dy) < disc[2] + 2) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void fill(byte[] pixels, int x0, int y0, int x1, int y1, int rgb) {
+		for (int y = Math.max(0, y0); y < Math.min(height, y1); y++) {
+			for (int x = Math.max(0, x0); x < Math.min(width, x1); x++) {
+				set(pixels, x, y, rgb);
+			}
+		}
+	}
+
+	/**
+	 * Fill the pixels whose centres lie within the radius of (cx, cy), in
+	 * the pixel coordinates the detector takes centroids in.
+	 */
+	private void disc(byte[] pixels, double cx, double cy, double radius, int rgb) {
+		for (int y = (int) Math.floor(cy - radius); y <= (int) Math.ceil(cy + radius); y++) {
+			for (int x = (int) Math.floor(cx - radius); x <= (int) Math.ceil(cx + radius); x++) {
+				if (x >= 0 && x < width && y >= 0 && y < height
+						&& (x - cx) * (x - cx) + (y - cy) * (y - cy) <= radius * radius) {
+					set(pixels, x, y, rgb);
+				}
+			}
+		}
+	}
+
+	private void set(byte[] pixels, int x, int y, int rgb) {
+		int i = (y * width + x) * 3;
+		pixels[i] = (byte) (rgb >> 16);
+		pixels[i + 1] = (byte) (rgb >> 8);
+		pixels[i + 2] = (byte) rgb;
+	}
+
+	private double focalLength() {
+		return camera.focalLength * width;
+	}
+
+	private double centerX() {
+		return camera.centerX * width;
+	}
+
+	private double centerY() {
+		return camera.centerY * height;
+	}
+
+	private static int rgbOf(int color) {
+		return Color.HSBtoRGB(COLOR_HUES[color] / 255f, 0.85f, 0.9f);
+	}
+
+	/*
+	 * For each colour, the middle of the longest run of hues the default
+	 * table gives that colour and lets an object have.
+	 */
+	private static final int[] COLOR_HUES = new int[Blob.COLORS];
+	static {
+		ColorTable table = ColorTable.DEFAULT;
+		boolean[] noForbiddenHues = new boolean[256];
+		for (int color = 0; color < Blob.COLORS; color++) {
+			int bestStart = 0;
+			int bestLength = 0;
+			int start = 0;
+			int length = 0;
+			for (int hue = 0; hue < 256; hue++) {
+				if (table.colorOf(hue) == color && table.qualifies(false, hue, 255, noForbiddenHues)) {
+					if (length == 0) {
+						start = hue;
+					}
+					length++;
+					if (length > bestLength) {
+						bestStart = start;
+						bestLength = length;
+					}
+				} else {
+					length = 0;
+				}
+			}
+			COLOR_HUES[color] = bestStart + bestLength / 2;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 5 || (!args[0].equals("block") && !args[0].equals("fiducial"))) {
+			System.err.println("usage: SyntheticScene <block|fiducial> <frames> <width>x<height> <frame log> <labels>"
+					+ " [balls] [fiducials] [clutter] [noise] [blur] [seed]");
+			System.exit(1);
+		}
+		boolean fiducial = args[0].equals("fiducial");
+		int frames = Integer.parseInt(args[1]);
+		int[] size = CameraConfig.parseResolution(args[2]);
+		int balls = (args.length > 5) ? Integer.parseInt(args[5]) : 3;
+		int fiducials = (args.length > 6) ? Integer.parseInt(args[6]) : (fiducial ? 1 : 0);
+		int clutter = (args.length > 7) ? Integer.parseInt(args[7]) : 5;
+		double noise = (args.length > 8) ? Double.parseDouble(args[8]) : 4;
+		int blur = (args.length > 9) ? Integer.parseInt(args[9]) : 0;
+		long seed = (args.length > 10) ? Long.parseLong(args[10]) : 1;
+
+		Random random = new Random(seed);
+		List<Image> images = new ArrayList<Image>();
+		PrintWriter labels = new PrintWriter(args[4]);
+		try {
+			labels.println("# " + frames + " synthetic " + args[2] + " frames, " + balls + " balls, " + fiducials
+					+ " fiducials, clutter " + clutter + ", noise " + noise + ", blur " + blur + ", seed " + seed);
+			for (int i = 0; i < frames; i++) {
+				SyntheticScene scene = random(size[0], size[1], balls, fiducials, random).withClutter(clutter)
+						.withNoise(noise).withBlur(blur);
+				images.add(scene.render());
+				labels.println(i + " " + (fiducial ? scene.fiducialTruth() : scene.blockTruth()));
+			}
+		}
+		finally {
+			labels.close();
+		}
+		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(args[3]));
+		try {
+			out.writeObject(images);
+		}
+		finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package vision;
+
+/**
+ * TargetTracker smooths and extrapolates the detections of one camera stream.
+ * Every target, identified by a small integer key (a ball's colour, or a
+ * fiducial's pair of colours), has a constant-velocity Kalman filter on its
+ * range and on its bearing. Detections correct the filter at the time the
+ * frame was captured; predictions extrapolate it to any later time, so that
+ * a stream can publish estimates between, and ahead of, its vision frames.
+ *
+ * Range and bearing are filtered independently, each with the state
+ * (position, velocity) and white-noise acceleration as process noise. Times
+ * are wall-clock milliseconds, like {@link CameraFrame#getCaptureTime()}.
+ *
+ * A target that has not been seen for <code>timeoutMillis</code> is dropped,
+ * and predictions never reach further than <code>maxPredictionMillis</code>
+ * past the last detection. All methods are synchronized, since detections
+ * arrive on a worker thread and predictions are read on a timer thread.
+ *
+ * @author prentice
+ */
+public class TargetTracker {
+	/**
+	 * A predicted target, filled in by {@link TargetTracker#predictNearest}.
+	 */
+	public static class Prediction {
+		public int key;
+		public double range;
+		public double bearing;
+	}
+
+	/**
+	 * Position and velocity along one axis, with their covariance.
+	 */
+	private static class Axis {
+		double position;
+		double velocity;
+		double p00, p01, p11;
+
+		void reset(double measurement, double measurementNoise, double velocityVariance) {
+			position = measurement;
+			velocity = 0;
+			p00 = measurementNoise;
+			p01 = 0;
+			p11 = velocityVariance;
+		}
+
+		void correct(double measurement, double dt, double processNoise, double measurementNoise) {
+			// predict: x = F x, P = F P F' + Q with F = [1 dt; 0 1]
+			position += velocity * dt;
+			double dt2 = dt * dt;
+			double n00 = p00 + 2 * dt * p01 + dt2 * p11 + processNoise * dt2 * dt / 3;
+			double n01 = p01 + dt * p11 + processNoise * dt2 / 2;
+			double n11 = p11 + processNoise * dt;
+
+			// update with a measurement of the position
+			double s = n00 + measurementNoise;
+			double k0 = n00 / s;
+			double k1 = n01 / s;
+			double innovation = measurement - position;
+			position += k0 * innovation;
+			velocity += k1 * innovation;
+			p00 = (1 - k0) * n00;
+			p01 = (1 - k0) * n01;
+			p11 = n11 - k1 * n01;
+		}
+
+		double predict(double dt) {
+			return position + velocity * dt;
+		}
+	}
+
+	private static class Track {
+		final Axis range = new Axis();
+		final Axis bearing = new Axis();
+		boolean live;
+		long lastTime;
+	}
+
+	/**
+	 * The number of keys a tracker of fiducials needs.
+	 */
+	static final int FIDUCIAL_KEYS = Blob.COLORS * Blob.COLORS;
+
+	private final Track[] tracks;
+	private final double rangeProcessNoise;
+	private final double bearingProcessNoise;
+	private final double rangeNoise;
+	private final double bearingNoise;
+	private final long timeoutMillis;
+	private final long maxPredictionMillis;
+
+	/**
+	 * A tracker with noise levels suited to the robot's cameras: range
+	 * measured to about 5 cm and bearing to about 1 degree, targets
+	 * accelerating (relative to the robot) by up to about 1 m/s^2 and
+	 * 1 rad/s^2.
+	 *
+	 * @param keys
+	 *            targets are identified by keys from 0 to keys - 1
+	 */
+	public TargetTracker(int keys) {
+		this(keys, 1.0, 1.0, 0.05 * 0.05, 0.02 * 0.02, 500, 300);
+	}
+
+	/**
+	 * @param keys
+	 *            targets are identified by keys from 0 to keys - 1
+	 * @param rangeProcessNoise
+	 *            spectral density of the range acceleration, in m^2/s^3
+	 * @param bearingProcessNoise
+	 *            spectral density of the bearing acceleration, in rad^2/s^3
+	 * @param rangeNoise
+	 *            variance of a range measurement, in m^2
+	 * @param bearingNoise
+	 *            variance of a bearing measurement, in rad^2
+	 * @param timeoutMillis
+	 *            drop a target not seen for this long
+	 * @param maxPredictionMillis
+	 *            never extrapolate further than this past a detection
+	 */
+	public TargetTracker(int keys, double rangeProcessNoise, double bearingProcessNoise, double rangeNoise,
+			double bearingNoise, long timeoutMillis, long maxPredictionMillis) {
+		this.tracks = new Track[keys];
+		for (int i = 0; i < keys; i++) {
+			tracks[i] = new Track();
+		}
+		this.rangeProcessNoise = rangeProcessNoise;
+		this.bearingProcessNoise = bearingProcessNoise;
+		this.rangeNoise = rangeNoise;
+		this.bearingNoise = bearingNoise;
+		this.timeoutMillis = timeoutMillis;
+		this.maxPredictionMillis = maxPredictionMillis;
+	}
+
+	/**
+	 * Correct a target's filter with a detection, starting a new track if the
+	 * target is not being tracked. Detections older than the track's last one
+	 * are ignored.
+	 */
+	public synchronized void correct(int key, double range, double bearing, long timeMillis) {
+		Track track = tracks[key];
+		if (!track.live || timeMillis - track.lastTime > timeoutMillis) {
+			track.range.reset(range, rangeNoise, 1.0);
+			track.bearing.reset(bearing, bearingNoise, 1.0);
+			track.live = true;
+			track.lastTime = timeMillis;
+			return;
+		}
+		if (timeMillis < track.lastTime) {
+			return;
+		}
+		double dt = (timeMillis - track.lastTime) / 1000.0;
+		track.range.correct(range, dt, rangeProcessNoise, rangeNoise);
+		track.bearing.correct(bearing, dt, bearingProcessNoise, bearingNoise);
+		track.lastTime = timeMillis;
+	}
+
+	/**
+	 * Predict every live target to the given time and report the closest.
+	 *
+	 * @param prediction
+	 *            receives the closest target
+	 * @return false if no target is being tracked
+	 */
+	public synchronized boolean predictNearest(long timeMillis, Prediction prediction) {
+		boolean found = false;
+		for (int key = 0; key < tracks.length; key++) {
+			Track track = tracks[key];
+			if (!track.live) {
+				continue;
+			}
+			long age = timeMillis - track.lastTime;
+			if (age > timeoutMillis) {
+				track.live = false;
+				continue;
+			}
+			double dt = Math.max(0, Math.min(age, maxPredictionMillis)) / 1000.0;
+			double range = Math.max(0, track.range.predict(dt));
+			if (!found || range < prediction.range) {
+				prediction.key = key;
+				prediction.range = range;
+				prediction.bearing = track.bearing.predict(dt);
+				found = true;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return the key of a fiducial with the given top and bottom colours
+	 */
+	static int fiducialKey(int topColor, int bottomColor) {
+		return topColor * Blob.COLORS + bottomColor;
+	}
+
+	/**
+	 * @return the top colour of a fiducial's key
+	 */
+	static int topColor(int fiducialKey) {
+		return fiducialKey / Blob.COLORS;
+	}
+
+	/**
+	 * @return the bottom colour of a fiducial's key
+	 */
+	static int bottomColor(int fiducialKey) {
+		return fiducialKey % Blob.COLORS;
+	}
+
+	/**
+	 * Forget every target.
+	 */
+	public synchronized void clear() {
+		for (int key = 0; key < tracks.length; key++) {
+			tracks[key].live = false;
+		}
+	}
+}
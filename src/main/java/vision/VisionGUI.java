@@ -246,6 +246,26 @@ public class VisionGUI extends JPanel {
     	repaint();
     }
     
+    public void setBlockImage(byte[] src, byte[] dest, int width, int height) {
+    	synchronized(srcBlockImage) {
+    		srcBlockImage.set(src, width, height);
+    	}
+    	synchronized(destBlockImage) {
+    		destBlockImage.set(dest, width, height);
+    	}
+    	repaint();
+    }
+    
+    public void setFiducialImage(byte[] src, byte[] dest, int width, int height) {
+    	synchronized(srcFiducialImage) {
+    		srcFiducialImage.set(src, width, height);
+    	}
+    	synchronized(destFiducialImage) {
+    		destFiducialImage.set(dest, width, height);
+    	}
+    	repaint();
+    }
+    
     public void eraseVisionImage() {
     	synchronized(srcBlockImage) {
     		srcBlockImage.unset();
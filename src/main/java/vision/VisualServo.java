@@ -1,51 +1,102 @@
 package vision;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import org.ros.message.MessageListener;
-import rss_msgs.MotionMsg;
-import rss_msgs.BallLocationMsg;
-import rss_msgs.FiducialMsg;
 import org.ros.namespace.GraphName;
 import org.ros.node.AbstractNodeMain;
 import org.ros.node.ConnectedNode;
 import org.ros.node.Node;
-import org.ros.node.topic.Publisher;
-import org.ros.node.topic.Subscriber;
+import org.ros.node.parameter.ParameterListener;
+import org.ros.node.parameter.ParameterTree;
 
 /**
- * 
+ * VisualServo runs blob detection on every configured camera stream and
+ * publishes the results. Streams are read from the <code>cameras</code>
+ * parameter (see {@link CameraConfig}) and all share one bounded worker pool
+ * with a thread per core, so adding a camera adds no threads. A stream may
+ * take the camera's JPEG frames instead of its raw ones, which are decoded
+ * at reduced scale when the stream's resolution allows.
+ *
+ * If the <code>tracking_rate</code> parameter is positive, each stream
+ * filters its detections with a {@link TargetTracker} and one timer thread
+ * publishes the predicted targets of all streams at that rate, in Hz.
+ *
+ * Each camera's intrinsics are read once, at startup, from the parameters
+ * <code>camera_model/&lt;name&gt;/focal_length</code>, <code>center_x</code>,
+ * <code>center_y</code>, <code>height</code> and <code>tilt</code>, where the
+ * name is the last part of the camera's topic; see {@link CameraModel} for
+ * their meaning and defaults.
+ *
+ * A camera's processing resolution can be switched while the node runs by
+ * setting <code>camera_mode/&lt;name&gt;</code> to a resolution such as
+ * <code>320x240</code> or <code>640x480</code>. Frames are processed at the
+ * size the driver sends them, scaled down to that resolution if they are
+ * larger, so lowering it trades detail for frame rate.
+ *
+ * A camera can be limited to a fixed region of its frame, such as the band
+ * between the ceiling and the robot's chassis, with the parameter
+ * <code>roi/&lt;name&gt;</code>: either row and column bands at the camera's
+ * configured resolution, like <code>rows 30-99; cols 0-159</code>, or the
+ * path of a PGM mask; see {@link RegionOfInterest}. It is read at startup.
+ *
+ * If the <code>color_table</code> parameter names a file, pixels are
+ * classified with the {@link ColorTable} read from it. Setting the parameter
+ * again, to the same or another file, reloads the table on every stream
+ * without restarting the node.
+ *
+ * The <code>work_budget</code> parameter caps the labeling work spent on a
+ * frame, like <code>visits 4000000, blobs 200, area 12000</code>; frames
+ * that run over it yield no detection. See {@link WorkBudget}.
+ *
+ * If the <code>latency_target</code> parameter is positive, each frame is
+ * given a deadline that many milliseconds after its capture, and no later
+ * than the next frame is expected. A stream that would miss it skips the
+ * blur, the annotated image or the wall search, or processes the frame at
+ * half size; see {@link FrameDeadline}. Deadlines are not used with
+ * <code>pipelined</code>.
+ *
+ * The streams take their frames from a {@link FrameSource} and publish
+ * through a {@link DetectionSink}; {@link LoadTest} runs the same streams on
+ * recorded frames without ROS.
+ *
  * @author previous TA's, prentice, vona
- * 
+ *
  */
-public class VisualServo extends AbstractNodeMain implements Runnable {
+public class VisualServo extends AbstractNodeMain {
 
-    private static final int width = 160;
-    private static final int height = 120;
-    
-    private int count = 0;
     private final int maxCount = 3;
 
+    private VisionGUI gui;
+
     /**
      * <p>
-     * The blob tracker.
+     * The configured camera streams.
      * </p>
      **/
-    private BlobTrackingChallenge blockTracker = null;
-    private BlobTrackingChallenge fiducialTracker = null;
-
-    private VisionGUI gui;
-    private ArrayBlockingQueue<byte[]> blockQueue = new ArrayBlockingQueue<byte[]>(1);
-    private ArrayBlockingQueue<byte[]> fiducialQueue = new ArrayBlockingQueue<byte[]>(1);
+    private final List<CameraStream> streams = new ArrayList<CameraStream>();
 
-    protected boolean firstUpdate = true;
+    /**
+     * <p>
+     * Worker pool shared by all camera streams.
+     * </p>
+     **/
+    private ThreadPoolExecutor workers = null;
 
-    public Subscriber<sensor_msgs.Image> vidSubBlock;
-    public Subscriber<sensor_msgs.Image> vidSubFiducial;
+    /**
+     * <p>
+     * Timer publishing tracked targets, if tracking is enabled.
+     * </p>
+     **/
+    private ScheduledThreadPoolExecutor trackingTimer = null;
 
-    private Publisher<rss_msgs.BallLocationMsg> ballLocationPub;
-    private Publisher<rss_msgs.FiducialMsg> fiducialLocationPub;
+    protected boolean firstUpdate = true;
 
     /**
      * <p>
@@ -56,154 +107,176 @@ public class VisualServo extends AbstractNodeMain implements Runnable {
         gui = new VisionGUI();
     }
 
-
     /**
      * <p>
-     * Handle a CameraMessage. Perform blob tracking and servo robot towards
-     * target.
+     * Run the VisualServo process
      * </p>
-     * 
-     * @param rawImage
-     *            a received camera message
+     *
+     * @param node
+     *            optional command-line argument containing hostname
      */
-    public void handleBlock(byte[] rawImage) {
-        blockQueue.offer(rawImage);
-    }
-    
-    public void handleFiducial(byte[] rawImage) {
-    	fiducialQueue.offer(rawImage);
-    }
-
     @Override
-    public void run() {
-        while (true) {
-            Image srcBlock = null;
-            Image srcFiducial = null;
-            try {
-                srcBlock = new Image(blockQueue.take(), width, height);
-                srcFiducial = new Image(fiducialQueue.take(), width, height);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                continue;
+    public void onStart(final ConnectedNode node) {
+        ParameterTree params = node.getParameterTree();
+
+        final boolean reverseRGB = params.getBoolean("reverse_rgb", false);
+        final boolean pipelined = params.getBoolean("pipelined", false);
+        final double trackingRate = params.getDouble("tracking_rate", 0.0);
+        final double latencyTarget = params.getDouble("latency_target", 0.0);
+        LabelingMode labelingMode = LabelingMode.valueOf(params.getString(
+                "labeling_mode", LabelingMode.SERIAL.name()).toUpperCase());
+        WorkBudget budget = params.has("work_budget")
+                ? WorkBudget.parse(params.getString("work_budget", "")) : WorkBudget.UNLIMITED;
+
+        List<CameraConfig> cameras = new ArrayList<CameraConfig>();
+        for (Object spec : params.getList("cameras", Arrays.asList(CameraConfig.DEFAULT_CAMERAS))) {
+            cameras.add(CameraConfig.parse(spec.toString()));
+        }
+
+        workers = createWorkers(cameras.size());
+        if (trackingRate > 0) {
+            trackingTimer = new ScheduledThreadPoolExecutor(1);
+        }
+
+        for (CameraConfig camera : cameras) {
+            BlobTrackingChallenge tracker = createTracker(camera, labelingMode, loadCameraModel(params, camera),
+                    loadRegionOfInterest(params, camera), budget);
+            CameraStream stream = new CameraStream(camera, tracker, workers, gui);
+            if (trackingTimer != null) {
+                stream.enableTracking(trackingTimer, trackingRate);
             }
-            
-            count++;
-            if (count == maxCount) {
-            	count = 0;
-	            Image destBlock = new Image(srcBlock);
-	            CompleteBallMessage completeBallMsg = blockTracker.applyBlock(srcBlock, destBlock);
-	            Image destFiducial = new Image(srcFiducial);
-	            CompleteFiducialMessage completeFidMsg = fiducialTracker.applyFiducial(srcFiducial, destFiducial);
-	
-	            // update newly formed vision message
-	            gui.setVisionImage(srcBlock.toArray(),srcFiducial.toArray(),destBlock.toArray(),destFiducial.toArray(),width,height);
-	
-	            if (completeBallMsg.sendMessage) {
-	            	BallLocationMsg ballMsg = ballLocationPub.newMessage();
-	            	ballMsg.setRange(completeBallMsg.range);
-	            	ballMsg.setBearing(completeBallMsg.bearing);
-	            	ballMsg.setColor(completeBallMsg.color);
-	            	ballLocationPub.publish(ballMsg);
-	            }
-	            
-	            if (completeFidMsg.sendMessage) {
-	            	FiducialMsg fidMsg = fiducialLocationPub.newMessage();
-	            	fidMsg.setRange(completeFidMsg.range);
-	            	fidMsg.setBearing(completeFidMsg.bearing);
-	            	fidMsg.setTop(completeFidMsg.topColor);
-	            	fidMsg.setBottom(completeFidMsg.bottomColor);
-			fidMsg.setTime(System.currentTimeMillis());
-
-			fiducialLocationPub.publish(fidMsg);
-	            }
+            if (latencyTarget > 0) {
+                stream.enableDeadlines(latencyTarget);
             }
+            stream.start(new RosFrameSource(node, reverseRGB, maxCount), new RosDetectionSink(node, camera), pipelined);
+            watchCameraMode(params, stream);
+            streams.add(stream);
         }
+        watchColorTable(params);
     }
 
     /**
-     * <p>
-     * Run the VisualServo process
-     * </p>
-     * 
-     * @param node
-     *            optional command-line argument containing hostname
+     * Create the worker pool shared by the given number of streams, with a
+     * thread per core.
      */
-    @Override
-    public void onStart(final ConnectedNode node) {
-	// bhomberg -- I just made the blob tracking threshold smaller so that it'll spot blocks from further away
-        blockTracker = new BlobTrackingChallenge(width, height, false, false, 2, 80, 1, 150);
-        fiducialTracker = new BlobTrackingChallenge(width, height, false, false, 2, 80, 1, 150);
-
-        // Begin Student Code
-
-        // set parameters on blobTrack as you desire
+    static ThreadPoolExecutor createWorkers(int streams) {
+        // Each stream has at most one task queued or running, so a queue as
+        // long as the stream list can never overflow.
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(cores, cores, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, streams)));
+    }
 
-        // initialize the ROS publication to command/MotorsBallLocation
-        ballLocationPub = node.newPublisher("/vision/BallLocation", "rss_msgs/BallLocationMsg");
-        fiducialLocationPub = node.newPublisher("/vision/FiducialLocation", "rss_msgs/FiducialMsg");
+    /**
+     * Create a camera's detector, with the thresholds the robot runs with.
+     */
+    static BlobTrackingChallenge createTracker(CameraConfig camera, LabelingMode labelingMode, CameraModel cameraModel,
+            RegionOfInterest roi, WorkBudget budget) {
+        // bhomberg -- I just made the blob tracking threshold smaller so that it'll spot blocks from further away
+        DetectorConfig detectorConfig = new DetectorConfig.Builder(camera.width, camera.height).hueThreshold(2)
+                .skipThreshold(1).sizeThreshold(150).labelingMode(labelingMode).cameraModel(cameraModel)
+                .regionOfInterest(roi).workBudget(budget).build();
+        return new BlobTrackingChallenge(detectorConfig, false);
+    }
 
-        // End Student Code
+    private static CameraModel loadCameraModel(ParameterTree params, CameraConfig camera) {
+        String prefix = "camera_model/" + camera.getName() + "/";
+        CameraModel defaults = CameraModel.DEFAULT;
+        return new CameraModel(params.getDouble(prefix + "focal_length", defaults.focalLength),
+                params.getDouble(prefix + "center_x", defaults.centerX),
+                params.getDouble(prefix + "center_y", defaults.centerY),
+                params.getDouble(prefix + "height", defaults.cameraHeight),
+                params.getDouble(prefix + "tilt", defaults.tilt),
+                camera.width, camera.height);
+    }
 
-        final boolean reverseRGB = node.getParameterTree().getBoolean(
-                "reverse_rgb", false);
+    /**
+     * @return the camera's region of interest, or null to process whole
+     *         frames if none is given or it cannot be read
+     */
+    private static RegionOfInterest loadRegionOfInterest(ParameterTree params, CameraConfig camera) {
+        String name = "roi/" + camera.getName();
+        if (!params.has(name)) {
+            return null;
+        }
+        String spec = params.getString(name, "");
+        try {
+            RegionOfInterest roi = RegionOfInterest.parse(spec, camera.width, camera.height);
+            System.out.println(name + ": processing " + roi);
+            return roi;
+        } catch (IOException e) {
+            System.err.println(name + ": cannot read " + spec + ": " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println(name + ": " + e.getMessage());
+        }
+        return null;
+    }
 
-        vidSubBlock = node.newSubscriber("/rss/low_video", "sensor_msgs/Image");
-		vidSubBlock.addMessageListener(new MessageListener<sensor_msgs.Image>() {
+    /**
+     * Apply the camera's <code>camera_mode</code> parameter now and whenever
+     * it changes.
+     */
+    private static void watchCameraMode(ParameterTree params, final CameraStream stream) {
+        final String name = "camera_mode/" + stream.getConfig().getName();
+        ParameterListener listener = new ParameterListener() {
             @Override
-            public void onNewMessage(sensor_msgs.Image message) {
-                byte[] rgbData;
-                if (reverseRGB) {
-                    rgbData = Image.RGB2BGR(message.getData().array(), (int) message.getWidth(),
-                                            (int) message.getHeight());
-                } else {
-                    rgbData = message.getData().array();
-                }
-                assert ((int) message.getWidth() == width);
-                assert ((int) message.getHeight() == height);
-                if ((int) message.getWidth() != width) {
-                	throw new RuntimeException ("Widths don't match: " + message.getWidth() + "," + width);
+            public void onNewValue(Object value) {
+                try {
+                    int[] size = CameraConfig.parseResolution(value.toString());
+                    stream.setResolution(size[0], size[1]);
+                    System.out.println(name + ": processing at " + size[0] + "x" + size[1]);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(name + ": " + e.getMessage());
                 }
-                if ((int) message.getHeight() != height) {
-                	throw new RuntimeException ("Heights don't match: " + message.getHeight() + "," + height);
+            }
+        };
+        if (params.has(name)) {
+            listener.onNewValue(params.getString(name, ""));
+        }
+        params.addParameterListener(name, listener);
+    }
+
+    /**
+     * Load the colour table named by the <code>color_table</code> parameter
+     * now and whenever the parameter is set. A table that cannot be read is
+     * reported and the streams keep the table they have.
+     */
+    private void watchColorTable(ParameterTree params) {
+        final String name = "color_table";
+        ParameterListener listener = new ParameterListener() {
+            @Override
+            public void onNewValue(Object value) {
+                String path = value.toString();
+                try {
+                    ColorTable table = ColorTable.load(path);
+                    for (CameraStream stream : streams) {
+                        stream.getTracker().setColorTable(table);
+                    }
+                    System.out.println(name + ": loaded " + path);
+                } catch (IOException e) {
+                    System.err.println(name + ": cannot read " + path + ": " + e.getMessage());
+                } catch (IllegalArgumentException e) {
+                    System.err.println(name + ": " + path + ": " + e.getMessage());
                 }
-                if (rgbData.length != 3 * width * height) {
-				    // Strip the first n characters to make the length right (yay hacks! P.S. don't let tej see this code)
-				    byte[] rgbDataNew = Arrays.copyOfRange(rgbData, rgbData.length - 3*width*height, rgbData.length);
-				    rgbData = rgbDataNew;
-				}
-                handleBlock(rgbData);
             }
-        });
-		
-		vidSubFiducial = node.newSubscriber("/rss/high_video", "sensor_msgs/Image");
-		vidSubFiducial.addMessageListener(new MessageListener<sensor_msgs.Image>() {
-			@Override
-			public void onNewMessage(sensor_msgs.Image message) {
-				byte[] rgbData;
-				if (reverseRGB) {
-					rgbData = Image.RGB2BGR(message.getData().array(), (int) message.getWidth(),
-							(int) message.getHeight());
-				} else {
-					rgbData = message.getData().array();
-				}
-				assert ((int) message.getWidth() == width);
-				assert ((int) message.getHeight() == height);
-				if ((int) message.getWidth() != width) {
-					throw new RuntimeException ("Widths don't match: " + message.getWidth() + "," + width);
-				}
-				if ((int) message.getHeight() != height) {
-					throw new RuntimeException ("Heights don't match: " + message.getHeight() + "," + height);
-				}
-				if (rgbData.length != 3 * width * height) {
-					// Strip the first n characters to make the length right (yay hacks! P.S. don't let tej see this code)
-					byte[] rgbDataNew = Arrays.copyOfRange(rgbData, rgbData.length - 3*width*height, rgbData.length);
-					rgbData = rgbDataNew;
-				}
-				handleFiducial(rgbData);
-			}
-		});
-        Thread runningStuff = new Thread(this);
-        runningStuff.start();
+        };
+        if (params.has(name)) {
+            listener.onNewValue(params.getString(name, ""));
+        }
+        params.addParameterListener(name, listener);
+    }
+
+    @Override
+    public void onShutdown(Node node) {
+        for (CameraStream stream : streams) {
+            stream.shutdown();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        if (trackingTimer != null) {
+            trackingTimer.shutdownNow();
+        }
     }
 
     @Override
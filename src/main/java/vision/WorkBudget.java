@@ -0,0 +1,105 @@
+package vision;
+
+/**
+ * WorkBudget caps the work a detector may spend labeling one frame, so that a
+ * pathological frame, such as a coloured wall filling the view, cannot stall
+ * its stream. It limits the pixel visits of the flood fills (each visited
+ * pixel costs (2 * skipThreshold + 1)^2 probes), the number of regions a pass
+ * may find, and the area of a single candidate object. Pixel visits are
+ * counted in every labeling mode: by the flood fills of the SERIAL mode, with
+ * or without change detection, per joined pixel by the strips of STRIPS, and
+ * per pixel of the masks in MASK and CONTOUR, which are charged the same
+ * probes a flood fill would make although they do less work.
+ *
+ * A frame that runs over its budget is abandoned: the detect stage stops
+ * labeling at once and returns no detection with its overBudget flag set.
+ *
+ * The limits are given at the configured resolution and scaled with the frame
+ * area, like the size threshold. A budget is written as a comma-separated
+ * list of limits, any of which may be left out:
+ *
+ * <pre>
+ * visits 4000000, blobs 200, area 12000
+ * </pre>
+ *
+ * Instances are immutable.
+ *
+ * @author prentice
+ */
+public class WorkBudget {
+	public static final WorkBudget UNLIMITED = new WorkBudget(Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+	final long maxPixelVisits;
+	final int maxBlobs;
+	final int maxBlobArea;
+
+	/**
+	 * @param maxPixelVisits
+	 *            the most pixel probes labeling one frame may make, over both
+	 *            passes
+	 * @param maxBlobs
+	 *            the most regions one labeling pass may find
+	 * @param maxBlobArea
+	 *            the most pixels a region of the object pass may have; the
+	 *            wall pass is not limited
+	 */
+	public WorkBudget(long maxPixelVisits, int maxBlobs, int maxBlobArea) {
+		if (maxPixelVisits <= 0 || maxBlobs <= 0 || maxBlobArea <= 0) {
+			throw new IllegalArgumentException("Work budget limits must be positive");
+		}
+		this.maxPixelVisits = maxPixelVisits;
+		this.maxBlobs = maxBlobs;
+		this.maxBlobArea = maxBlobArea;
+	}
+
+	/**
+	 * Parse a budget written as described above; limits left out are
+	 * unlimited.
+	 */
+	public static WorkBudget parse(String spec) {
+		long visits = Long.MAX_VALUE;
+		int blobs = Integer.MAX_VALUE;
+		int area = Integer.MAX_VALUE;
+		for (String limit : spec.split(",")) {
+			String[] fields = limit.trim().split("\\s+");
+			if (fields.length != 2) {
+				throw new IllegalArgumentException("Work budget limits must be '<name> <limit>': " + spec);
+			}
+			try {
+				if (fields[0].equals("visits")) {
+					visits = Long.parseLong(fields[1]);
+				}
+				else if (fields[0].equals("blobs")) {
+					blobs = Integer.parseInt(fields[1]);
+				}
+				else if (fields[0].equals("area")) {
+					area = Integer.parseInt(fields[1]);
+				}
+				else {
+					throw new IllegalArgumentException("Unknown work budget limit " + fields[0] + ": " + spec);
+				}
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Work budget limits must be numbers: " + spec);
+			}
+		}
+		return new WorkBudget(visits, blobs, area);
+	}
+
+	public long getMaxPixelVisits() {
+		return maxPixelVisits;
+	}
+
+	public int getMaxBlobs() {
+		return maxBlobs;
+	}
+
+	public int getMaxBlobArea() {
+		return maxBlobArea;
+	}
+
+	@Override
+	public String toString() {
+		return "visits " + maxPixelVisits + ", blobs " + maxBlobs + ", area " + maxBlobArea;
+	}
+}
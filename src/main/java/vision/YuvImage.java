@@ -0,0 +1,312 @@
+package vision;
+
+import java.awt.Color;
+
+/**
+ * YuvImage is a camera frame in one of the YUV layouts USB cameras produce
+ * natively, so that its HSV values can be computed without converting it to
+ * RGB first.
+ *
+ * Hue, and the spread between the largest and smallest RGB channel, depend
+ * only on a pixel's chroma, since luma adds the same amount to every
+ * channel. They are looked up in tables indexed by the 256 x 256 possible
+ * (U, V) pairs, and luma is only used to place the largest and smallest
+ * channel, which give value and saturation. A chroma sample is shared by
+ * two pixels in 4:2:2 and by four in 4:2:0, and is looked up once per pair.
+ * The samples are taken to be BT.601 with studio range (luma 16 to 235), as
+ * camera drivers produce. A pixel whose RGB channels would clip has a
+ * different hue from its chroma's, so it is converted through RGB instead;
+ * either way, the values are exactly those of the frame {@link #toRGB}
+ * gives.
+ *
+ * @author prentice
+ */
+public class YuvImage {
+	/**
+	 * How the samples of a frame are laid out.
+	 */
+	public enum Layout {
+		/** 4:2:2, packed as Y0 U Y1 V. */
+		YUYV,
+		/** 4:2:2, packed as U Y0 V Y1. */
+		UYVY,
+		/** 4:2:0, planar: all of Y, then all of U, then all of V. */
+		I420,
+		/** 4:2:0, the Y plane followed by interleaved U and V. */
+		NV12
+	}
+
+	final byte[] data;
+	final int width;
+	final int height;
+	final Layout layout;
+	// dimensions of the chroma planes of the 4:2:0 layouts
+	private final int chromaWidth;
+	private final int chromaHeight;
+	// distance from a pixel's U sample to its V sample
+	private final int vOffset;
+	// distance between the luma samples of neighbouring pixels, and between
+	// the chroma samples of neighbouring pairs
+	private final int lumaStep;
+	private final int chromaStep;
+
+	/**
+	 * @param data
+	 *            the frame's samples; not copied
+	 */
+	public YuvImage(byte[] data, int width, int height, Layout layout) {
+		if ((layout == Layout.YUYV || layout == Layout.UYVY) && width % 2 != 0) {
+			throw new IllegalArgumentException("Packed 4:2:2 frames must have an even width");
+		}
+		if (data.length != size(width, height, layout)) {
+			throw new IllegalArgumentException("Length does not match width, height and layout.");
+		}
+		this.data = data;
+		this.width = width;
+		this.height = height;
+		this.layout = layout;
+		this.chromaWidth = (width + 1) / 2;
+		this.chromaHeight = (height + 1) / 2;
+		switch (layout) {
+		case I420:
+			vOffset = chromaWidth * chromaHeight;
+			lumaStep = 1;
+			chromaStep = 1;
+			break;
+		case NV12:
+			vOffset = 1;
+			lumaStep = 1;
+			chromaStep = 2;
+			break;
+		default:
+			vOffset = 2;
+			lumaStep = 2;
+			chromaStep = 4;
+		}
+	}
+
+	/**
+	 * @return the number of bytes a frame of this size and layout has
+	 */
+	public static int size(int width, int height, Layout layout) {
+		if (layout == Layout.YUYV || layout == Layout.UYVY) {
+			return 2 * width * height;
+		}
+		return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+	}
+
+	/**
+	 * @return the layout of a ROS image encoding, or null if it is not one
+	 *         of the YUV layouts
+	 */
+	public static Layout layoutOf(String encoding) {
+		if (encoding == null) {
+			return null;
+		}
+		String name = encoding.toLowerCase();
+		if (name.equals("yuyv") || name.equals("yuv422_yuy2")) {
+			return Layout.YUYV;
+		}
+		// ROS's yuv422 is UYVY
+		if (name.equals("uyvy") || name.equals("yuv422")) {
+			return Layout.UYVY;
+		}
+		if (name.equals("i420") || name.equals("yuv420")) {
+			return Layout.I420;
+		}
+		if (name.equals("nv12")) {
+			return Layout.NV12;
+		}
+		return null;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public Layout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * @return the index of the luma sample of the first pixel of row y; the
+	 *         next pixel's is lumaStep further on
+	 */
+	private int lumaRow(int y) {
+		switch (layout) {
+		case YUYV:
+			return y * width * 2;
+		case UYVY:
+			return y * width * 2 + 1;
+		default:
+			return y * width;
+		}
+	}
+
+	/**
+	 * @return the index of the U sample of the first pair of pixels of row
+	 *         y; the next pair's is chromaStep further on, and each V sample
+	 *         is vOffset after its U
+	 */
+	private int chromaRow(int y) {
+		switch (layout) {
+		case YUYV:
+			return y * width * 2 + 1;
+		case UYVY:
+			return y * width * 2;
+		case I420:
+			return width * height + (y >> 1) * chromaWidth;
+		default:
+			return width * height + (y >> 1) * 2 * chromaWidth;
+		}
+	}
+
+	/**
+	 * Compute the HSV values of the rectangle from (x0, y0) inclusive to (x1,
+	 * y1) exclusive into an existing [height][width][3] array, on the same
+	 * scale as {@link Image#getHSVArray(int[][][])}.
+	 */
+	public int[][][] getHSVArray(int[][][] hsvArray, int x0, int y0, int x1, int y1) {
+		for (int y = y0; y < y1; y++) {
+			getHSVRun(hsvArray, y, x0, x1 - 1);
+		}
+		return hsvArray;
+	}
+
+	/**
+	 * Compute the HSV values of the pixels from x0 to x1 inclusive on row y
+	 * into an existing [height][width][3] array.
+	 */
+	void getHSVRun(int[][][] hsvArray, int y, int x0, int x1) {
+		int[][] hsvRow = hsvArray[y];
+		byte[] data = this.data;
+		int lumaRow = lumaRow(y);
+		int chromaRow = chromaRow(y);
+		// a pair at a time, from the pair x0 is in
+		for (int x = x0 & ~1; x <= x1; x += 2) {
+			int u = chromaRow + (x >> 1) * chromaStep;
+			int cb = data[u] & 0xff;
+			int cr = data[u + vOffset] & 0xff;
+			int chroma = CHROMA[(cb << 8) | cr];
+			if (x >= x0) {
+				toHSV(data[lumaRow + x * lumaStep] & 0xff, cb, cr, chroma, hsvRow[x]);
+			}
+			if (x + 1 <= x1) {
+				toHSV(data[lumaRow + (x + 1) * lumaStep] & 0xff, cb, cr, chroma, hsvRow[x + 1]);
+			}
+		}
+	}
+
+	/**
+	 * Compute the HSV values of one pixel from its luma, its chroma and the
+	 * chroma's CHROMA entry.
+	 */
+	private static void toHSV(int y, int cb, int cr, int chroma, int[] hsv) {
+		int luma = LUMA[y];
+		int max = luma + ((chroma >> 10) & 0x3ff) - CHROMA_BIAS;
+		int min = luma + (chroma & 0x3ff) - CHROMA_BIAS;
+		if (min < 0 || max > 255) {
+			Image.toHSV(clamp(luma + V_RED[cr]), clamp(luma + U_GREEN[cb] + V_GREEN[cr]), clamp(luma + U_BLUE[cb]), hsv);
+			return;
+		}
+		hsv[0] = chroma >>> 20;
+		hsv[1] = Image.HSV_SATURATION[(max << 8) | (max - min)] & 0xff;
+		hsv[2] = Image.HSV_VALUE[max] & 0xff;
+	}
+
+	/**
+	 * Convert the frame to RGB triples, in the layout {@link Image} uses,
+	 * into an existing array of 3 * width * height bytes.
+	 */
+	public void toRGB(byte[] rgb) {
+		if (rgb.length != width * height * 3) {
+			throw new IllegalArgumentException("Length does not match width and height.");
+		}
+		byte[] data = this.data;
+		int index = 0;
+		for (int y = 0; y < height; y++) {
+			int lumaIndex = lumaRow(y);
+			int chromaRow = chromaRow(y);
+			for (int x = 0; x < width; x++, index += 3, lumaIndex += lumaStep) {
+				int luma = LUMA[data[lumaIndex] & 0xff];
+				int u = chromaRow + (x >> 1) * chromaStep;
+				int cb = data[u] & 0xff;
+				int cr = data[u + vOffset] & 0xff;
+				rgb[index] = (byte) clamp(luma + V_RED[cr]);
+				rgb[index + 1] = (byte) clamp(luma + U_GREEN[cb] + V_GREEN[cr]);
+				rgb[index + 2] = (byte) clamp(luma + U_BLUE[cb]);
+			}
+		}
+	}
+
+	/**
+	 * @return the frame converted to a new RGB Image
+	 */
+	public Image toImage() {
+		byte[] rgb = new byte[width * height * 3];
+		toRGB(rgb);
+		return new Image(rgb, width, height);
+	}
+
+	/**
+	 * Convert the frame into an existing image of the same size.
+	 *
+	 * @return dest
+	 */
+	public Image toImage(Image dest) {
+		if (dest.getWidth() != width || dest.getHeight() != height) {
+			throw new IllegalArgumentException("Image size does not match width and height.");
+		}
+		toRGB(dest.getPixelBuffer());
+		return dest;
+	}
+
+	private static int clamp(int value) {
+		return (value < 0) ? 0 : (value > 255) ? 255 : value;
+	}
+
+	/*
+	 * BT.601 studio range: each RGB channel is LUMA[y] plus a contribution of
+	 * the chroma. CHROMA, indexed by (U << 8) | V, packs Color.RGBtoHSB's hue
+	 * of a pair's channels into the top bits, and the contributions to the
+	 * largest and smallest channel, plus CHROMA_BIAS, into two 10-bit fields
+	 * below it, so a pair takes one lookup.
+	 */
+	private static final int CHROMA_BIAS = 512;
+	private static final int[] LUMA = new int[256];
+	private static final int[] V_RED = new int[256];
+	private static final int[] U_GREEN = new int[256];
+	private static final int[] V_GREEN = new int[256];
+	private static final int[] U_BLUE = new int[256];
+	private static final int[] CHROMA = new int[256 * 256];
+	static {
+		for (int i = 0; i < 256; i++) {
+			LUMA[i] = (int) Math.round(1.164 * (i - 16));
+			V_RED[i] = (int) Math.round(1.596 * (i - 128));
+			U_GREEN[i] = (int) Math.round(-0.392 * (i - 128));
+			V_GREEN[i] = (int) Math.round(-0.813 * (i - 128));
+			U_BLUE[i] = (int) Math.round(2.017 * (i - 128));
+		}
+		float[] hsb = new float[3];
+		for (int u = 0; u < 256; u++) {
+			for (int v = 0; v < 256; v++) {
+				int red = V_RED[v];
+				int green = U_GREEN[u] + V_GREEN[v];
+				int blue = U_BLUE[u];
+				int max = Math.max(red, Math.max(green, blue));
+				int min = Math.min(red, Math.min(green, blue));
+				// hue only depends on the channels' proportions, so bring them
+				// into Color.RGBtoHSB's range
+				double scale = (max - min > 255) ? 255.0 / (max - min) : 1;
+				Color.RGBtoHSB((int) Math.round((red - min) * scale), (int) Math.round((green - min) * scale),
+						(int) Math.round((blue - min) * scale), hsb);
+				int hue = (int) (255 * hsb[0]);
+				CHROMA[(u << 8) | v] = (hue << 20) | ((max + CHROMA_BIAS) << 10) | (min + CHROMA_BIAS);
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package vision;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that a warmed-up detector allocates (next to) nothing per frame on
+ * the thread that runs it, in every labeling mode. Work done on other
+ * threads, such as the STRIPS fork-join tasks, is not counted.
+ *
+ * @author prentice
+ */
+public class AllocationTest {
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+	private static final int FRAMES = 20;
+	private static final int WARMUP_PASSES = 30;
+	private static final int PASSES = 5;
+
+	// thread allocation counters are exact, but reading one may itself
+	// allocate a little
+	private static final long FRAME_BUDGET = 16;
+	// the fork/join pool allocates a node whenever the calling thread has to
+	// wait for its tasks
+	private static final long STRIPS_FRAME_BUDGET = 128;
+
+	@Test
+	public void serialAllocatesNothing() {
+		assertBudget(new DetectorConfig.Builder(WIDTH, HEIGHT).build(), FRAME_BUDGET);
+	}
+
+	@Test
+	public void stripsAllocatesLittle() {
+		assertBudget(new DetectorConfig.Builder(WIDTH, HEIGHT).labelingMode(LabelingMode.STRIPS).build(), STRIPS_FRAME_BUDGET);
+	}
+
+	@Test
+	public void maskAllocatesNothing() {
+		assertBudget(new DetectorConfig.Builder(WIDTH, HEIGHT).labelingMode(LabelingMode.MASK).build(), FRAME_BUDGET);
+	}
+
+	@Test
+	public void contourAllocatesNothing() {
+		assertBudget(new DetectorConfig.Builder(WIDTH, HEIGHT).labelingMode(LabelingMode.CONTOUR).build(), FRAME_BUDGET);
+	}
+
+	@Test
+	public void incrementalAllocatesNothing() {
+		assertBudget(new DetectorConfig.Builder(WIDTH, HEIGHT).changeThreshold(0).build(), FRAME_BUDGET);
+	}
+
+	@Test
+	public void blurredAllocatesNothing() {
+		assertBudget(new DetectorConfig.Builder(WIDTH, HEIGHT).blurred(true).integralImages(true).build(), FRAME_BUDGET);
+	}
+
+	private static void assertBudget(DetectorConfig config, long frameBudget) {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		long thread = Thread.currentThread().getId();
+
+		Random random = new Random(1);
+		Image[] frames = new Image[FRAMES];
+		Image[] dests = new Image[FRAMES];
+		for (int i = 0; i < FRAMES; i++) {
+			frames[i] = SyntheticScene.random(WIDTH, HEIGHT, 3, 1, random).withClutter(4).withNoise(4).render();
+			dests[i] = new Image(frames[i]);
+		}
+		BlobTrackingChallenge tracker = new BlobTrackingChallenge(config, false);
+		DetectionContext ctx = tracker.acquireContext();
+		for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+			run(tracker, ctx, frames, dests);
+		}
+		// the least of several passes, so that a one-off event such as a
+		// deoptimization, which reallocates objects the compiler had
+		// eliminated, is not taken for a per-frame cost
+		long perFrame = Long.MAX_VALUE;
+		for (int pass = 0; pass < PASSES; pass++) {
+			long before = threads.getThreadAllocatedBytes(thread);
+			run(tracker, ctx, frames, dests);
+			perFrame = Math.min(perFrame, (threads.getThreadAllocatedBytes(thread) - before) / FRAMES);
+		}
+		assertTrue(config.labelingMode + " allocated " + perFrame + " bytes per frame", perFrame <= frameBudget);
+	}
+
+	private static void run(BlobTrackingChallenge tracker, DetectionContext ctx, Image[] frames, Image[] dests) {
+		for (int i = 0; i < frames.length; i++) {
+			tracker.applyBlock(frames[i], dests[i], ctx);
+			tracker.applyFiducial(frames[i], dests[i], ctx);
+		}
+	}
+}
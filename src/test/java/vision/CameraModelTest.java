@@ -0,0 +1,95 @@
+package vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the default camera model against the range and bearing formulas
+ * the detector used before it had one, and the scaling of a model to other
+ * resolutions.
+ *
+ * @author prentice
+ */
+public class CameraModelTest {
+	private static final double BLOCK_SIZE = 0.06;
+	private static final double HALF_VIEW = Math.atan2(14.0, 29.0);
+
+	@Test
+	public void defaultRangeMatchesOldFormula() {
+		for (int width = 1; width <= 160; width++) {
+			double old = BLOCK_SIZE * 160 / width * 0.29 / 0.28;
+			assertEquals("width " + width, old, CameraModel.DEFAULT.range(BLOCK_SIZE, width), 1e-12);
+		}
+	}
+
+	/**
+	 * The old bearing was linear in the column, (80 - x) * atan2(14, 29) /
+	 * 80. The pinhole model agrees with it at the centre and the edges of the
+	 * image, and differs by up to 0.7 degrees in between.
+	 */
+	@Test
+	public void defaultBearingMatchesOldFormulaAtCentreAndEdges() {
+		CameraModel model = CameraModel.DEFAULT;
+		assertEquals(0, model.bearing(80), 1e-12);
+		assertEquals(HALF_VIEW, model.bearing(0), 1e-12);
+		assertEquals(-HALF_VIEW, model.bearing(160), 1e-12);
+		double largest = 0;
+		for (int x = 0; x <= 160; x++) {
+			double old = (80 - x) * HALF_VIEW / 80;
+			largest = Math.max(largest, Math.abs(model.bearing(x) - old));
+		}
+		assertEquals(0.7, Math.toDegrees(largest), 0.01);
+		// bearings are positive to the left, and clamped outside the image
+		assertTrue(model.bearing(40) > model.bearing(41));
+		assertEquals(HALF_VIEW, model.bearing(-3), 1e-12);
+		assertEquals(-HALF_VIEW, model.bearing(170), 1e-12);
+	}
+
+	/**
+	 * Fractional columns, such as a blob's centroid, are interpolated
+	 * between their neighbours.
+	 */
+	@Test
+	public void interpolatesFractionalColumns() {
+		CameraModel model = CameraModel.DEFAULT;
+		assertEquals((model.bearing(30) + model.bearing(31)) / 2, model.bearing(30.5), 1e-12);
+		assertEquals(0.75 * model.range(1, 20) + 0.25 * model.range(1, 21), model.range(1, 20.25), 1e-12);
+	}
+
+	@Test
+	public void scalesToOtherResolutions() {
+		CameraModel model = new CameraModel(29.0 / 28.0, 0.5, 0.5, 0.3, 0.2, 160, 120);
+		assertSame(model, model.forResolution(160, 120));
+		for (int scale = 2; scale <= 4; scale *= 2) {
+			CameraModel scaled = model.forResolution(160 * scale, 120 * scale);
+			assertEquals(160 * scale, scaled.getWidth());
+			assertEquals(120 * scale, scaled.getHeight());
+			for (int x = 0; x <= 160; x += 8) {
+				String column = "column " + x + " at x" + scale;
+				assertEquals(column, model.bearing(x), scaled.bearing(scale * x), 1e-12);
+			}
+			for (int width = 1; width <= 160; width += 7) {
+				String size = "width " + width + " at x" + scale;
+				assertEquals(size, model.range(BLOCK_SIZE, width), scaled.range(BLOCK_SIZE, scale * width), 1e-12);
+			}
+			for (int y = 0; y <= 120; y += 6) {
+				String row = "row " + y + " at x" + scale;
+				assertEquals(row, model.groundRange(y), scaled.groundRange(scale * y), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void projectsRowsOntoTheFloor() {
+		CameraModel model = new CameraModel(29.0 / 28.0, 0.5, 0.5, 0.3, 0.2, 160, 120);
+		// the optical axis meets the floor at height / tan(tilt)
+		assertEquals(0.3 / Math.tan(0.2), model.groundRange(60), 1e-12);
+		assertTrue(model.groundRange(100) < model.groundRange(80));
+		// a row above the horizon never meets the floor
+		assertEquals(Double.POSITIVE_INFINITY, model.groundRange(0), 0);
+		assertTrue(Double.isNaN(CameraModel.DEFAULT.groundRange(60)));
+	}
+}
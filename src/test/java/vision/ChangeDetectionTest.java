@@ -0,0 +1,134 @@
+package vision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that reusing the HSV values and labels of unchanged tiles gives
+ * exactly the detections and annotated frames of a full conversion, and
+ * that only the changed tiles are converted again.
+ *
+ * @author prentice
+ */
+public class ChangeDetectionTest {
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+	private static final int FRAMES = 60;
+
+	@Test
+	public void matchesFullConversion() {
+		for (int skip = 1; skip <= 3; skip++) {
+			assertMatches(new DetectorConfig.Builder(WIDTH, HEIGHT).skipThreshold(skip));
+		}
+	}
+
+	@Test
+	public void matchesFullConversionBlurred() {
+		assertMatches(new DetectorConfig.Builder(WIDTH, HEIGHT).blurred(true));
+	}
+
+	@Test
+	public void convertsOnlyChangedTiles() {
+		BlobTrackingChallenge tracker = new BlobTrackingChallenge(
+				new DetectorConfig.Builder(WIDTH, HEIGHT).changeThreshold(0).build(), false);
+		DetectionContext ctx = tracker.acquireContext();
+		Image frame = background();
+		tracker.prepare(frame, ctx);
+		long[] changed = new long[ctx.tileChangedAt.length];
+		Arrays.fill(changed, ctx.frameNumber);
+		assertArrayEquals("the first frame converts every tile", changed, ctx.tileChangedAt);
+
+		tracker.prepare(frame, ctx);
+		assertArrayEquals("an identical frame converts no tile", changed, ctx.tileChangedAt);
+
+		Image next = new Image(frame);
+		next.setPixel(37, 90, (byte) 0, (byte) 0, (byte) 0);
+		tracker.prepare(next, ctx);
+		changed[(90 / DetectionContext.TILE) * ctx.tilesX + 37 / DetectionContext.TILE] = ctx.frameNumber;
+		assertArrayEquals("one changed pixel converts its tile", changed, ctx.tileChangedAt);
+	}
+
+	/**
+	 * Run a sequence of frames through a detector with change detection and
+	 * one without, and compare every detection, annotated frame and HSV
+	 * value.
+	 */
+	private static void assertMatches(DetectorConfig.Builder builder) {
+		BlobTrackingChallenge incremental = new BlobTrackingChallenge(builder.changeThreshold(0).build(), false);
+		BlobTrackingChallenge full = new BlobTrackingChallenge(builder.changeThreshold(-1).build(), false);
+		DetectionContext incrementalCtx = incremental.acquireContext();
+		DetectionContext fullCtx = full.acquireContext();
+		Image background = background();
+		Random random = new Random(5);
+		for (int f = 0; f < FRAMES; f++) {
+			Image frame = frame(background, f, random);
+			Image incrementalDest = new Image(frame);
+			Image fullDest = new Image(frame);
+			String message = "frame " + f + ", skip " + builder.build().skipThreshold;
+			if (f % 2 == 0) {
+				assertEquals(message, describe(full.applyBlock(frame, fullDest, fullCtx)),
+						describe(incremental.applyBlock(frame, incrementalDest, incrementalCtx)));
+			} else {
+				assertEquals(message, describe(full.applyFiducial(frame, fullDest, fullCtx)),
+						describe(incremental.applyFiducial(frame, incrementalDest, incrementalCtx)));
+			}
+			assertArrayEquals(message, fullDest.getPixelBuffer(), incrementalDest.getPixelBuffer());
+			assertTrue(message, Arrays.deepEquals(fullCtx.currentHSV, incrementalCtx.currentHSV));
+		}
+	}
+
+	private static Image background() {
+		return new SyntheticScene(WIDTH, HEIGHT).withFiducial(2, 3, 0.8, -0.1).withClutter(3).withNoise(3).withSeed(11)
+				.render();
+	}
+
+	/**
+	 * @return the background with a yellow disc moving across it, a block of
+	 *         wall colour that comes and goes, and now and then a burst of
+	 *         noise
+	 */
+	private static Image frame(Image background, int f, Random random) {
+		Image frame = new Image(background);
+		int cx = WIDTH / 2 + (int) (WIDTH / 4 * Math.sin(f * 0.1));
+		disc(frame, cx, HEIGHT / 2, WIDTH / 12, 240, 240, 30);
+		if ((f / 15) % 2 == 1) {
+			for (int y = 0; y < HEIGHT / 3; y++) {
+				for (int x = WIDTH / 2; x < WIDTH; x++) {
+					frame.setPixel(x, y, (byte) 200, (byte) 170, (byte) 60);
+				}
+			}
+		}
+		if (f % 7 == 0) {
+			for (int k = 0; k < 50; k++) {
+				frame.setPixel(random.nextInt(WIDTH), random.nextInt(HEIGHT), (byte) random.nextInt(256),
+						(byte) random.nextInt(256), (byte) random.nextInt(256));
+			}
+		}
+		return frame;
+	}
+
+	private static void disc(Image image, int cx, int cy, int r, int red, int green, int blue) {
+		for (int y = Math.max(0, cy - r); y <= Math.min(HEIGHT - 1, cy + r); y++) {
+			for (int x = Math.max(0, cx - r); x <= Math.min(WIDTH - 1, cx + r); x++) {
+				if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= r * r) {
+					image.setPixel(x, y, (byte) red, (byte) green, (byte) blue);
+				}
+			}
+		}
+	}
+
+	private static String describe(CompleteBallMessage msg) {
+		return msg.sendMessage ? msg.color + " at " + msg.range + ", " + msg.bearing : "nothing";
+	}
+
+	private static String describe(CompleteFiducialMessage msg) {
+		return msg.sendMessage ? msg.topColor + "/" + msg.bottomColor + " at " + msg.range + ", " + msg.bearing
+				: "nothing";
+	}
+}
@@ -0,0 +1,244 @@
+package vision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * @author prentice
+ */
+public class ColorTableTest {
+	private static final boolean[] NO_FORBIDDEN_HUES = new boolean[256];
+
+	/**
+	 * The default table classifies and joins pixels exactly as the detector
+	 * did before colours could be configured.
+	 */
+	@Test
+	public void defaultMatchesTunedRules() {
+		ColorTable table = ColorTable.DEFAULT.withDefaultHueThreshold(2);
+		for (int hue = 0; hue < 256; hue++) {
+			for (int sat = 0; sat < 256; sat++) {
+				String pixel = "hue " + hue + ", sat " + sat;
+				assertEquals(pixel, hue > 10 && hue < 32 && sat > 80, table.qualifies(true, hue, sat, NO_FORBIDDEN_HUES));
+				assertEquals(pixel, sat > 80 && !(hue > 17 && hue < 25), table.qualifies(false, hue, sat, NO_FORBIDDEN_HUES));
+			}
+			assertEquals("hue " + hue, tunedColor(hue), table.colorOf(hue));
+			for (int hue2 = 0; hue2 < 256; hue2++) {
+				int threshold = Math.max(tunedThreshold(hue), tunedThreshold(hue2));
+				assertEquals("hues " + hue + " and " + hue2, Image.hueWithinThreshold(hue, hue2, threshold),
+						table.connects(hue, hue2));
+			}
+		}
+	}
+
+	/**
+	 * Before colours could be configured, a pixel joined its neighbour's
+	 * region if their hues were within the threshold of the pixel's own hue,
+	 * so a region depended on the order the flood fill reached its pixels,
+	 * which the strips cannot reproduce. A pair now takes the wider of the
+	 * two thresholds, which only ever joins more. On the recorded frames each
+	 * old region lies within one new region, and the regions large enough to
+	 * be objects gain the few fringe pixels pinned here.
+	 */
+	@Test
+	public void widerThresholdOnlyAddsFringePixels() throws IOException {
+		JpegDecoder decoder = new JpegDecoder();
+		StringBuilder gained = new StringBuilder();
+		for (String fixture : new String[] {"scene-320x240.jpg", "scene-153x115.jpg"}) {
+			byte[] data = JpegDecoderTest.read(fixture);
+			Image frame = new Image(decoder.decode(data, 0, data.length, Integer.MAX_VALUE, Integer.MAX_VALUE));
+			DetectorConfig config = new DetectorConfig.Builder(frame.getWidth(), frame.getHeight()).build();
+			BlobTrackingChallenge tracker = new BlobTrackingChallenge(config, false);
+			DetectionContext ctx = tracker.acquireContext();
+			tracker.prepare(frame, ctx);
+			for (boolean findWall : new boolean[] {true, false}) {
+				String pass = fixture + (findWall ? " wall" : " objects");
+				int[] tuned = regions(ctx, findWall, true);
+				int[] wider = regions(ctx, findWall, false);
+				tracker.findHueConstantRegions(ctx, findWall, NO_FORBIDDEN_HUES, new ArrayList<Blob>());
+				assertArrayEquals(pass + " is labeled as the detector does", wider, ctx.labels);
+				gained.append(pass).append(' ').append(gainedPixels(tuned, wider, config.sizeThreshold)).append('\n');
+			}
+		}
+		assertEquals("scene-320x240.jpg wall 0\nscene-320x240.jpg objects 10\n"
+				+ "scene-153x115.jpg wall 0\nscene-153x115.jpg objects 40\n", gained.toString());
+	}
+
+	/**
+	 * Flood fill the frame as the serial labeler does, seeding in column
+	 * order, with either the table's rule or the tuned threshold of the pixel
+	 * being added.
+	 * 
+	 * @return each pixel's region, or -1
+	 */
+	private static int[] regions(DetectionContext ctx, boolean findWall, boolean tunedThreshold) {
+		int width = ctx.width;
+		int height = ctx.height;
+		int[][][] hsv = ctx.currentHSV;
+		ColorTable table = ctx.colorTable;
+		int[] labels = new int[width * height];
+		Arrays.fill(labels, BlobTrackingChallenge.UNLABELED);
+		int[] queue = new int[width * height];
+		int label = 0;
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				if (labels[y * width + x] != BlobTrackingChallenge.UNLABELED
+						|| !table.qualifies(findWall, hsv[y][x][0], hsv[y][x][1], NO_FORBIDDEN_HUES)) {
+					continue;
+				}
+				int head = 0;
+				int tail = 0;
+				labels[y * width + x] = label;
+				queue[tail++] = y * width + x;
+				while (head < tail) {
+					int pointX = queue[head] % width;
+					int pointY = queue[head++] / width;
+					int hue = hsv[pointY][pointX][0];
+					for (int yPos = Math.max(0, pointY - 1); yPos <= Math.min(height - 1, pointY + 1); yPos++) {
+						for (int xPos = Math.max(0, pointX - 1); xPos <= Math.min(width - 1, pointX + 1); xPos++) {
+							int neighbourHue = hsv[yPos][xPos][0];
+							boolean connects = tunedThreshold
+									? Image.hueWithinThreshold(neighbourHue, hue, tunedThreshold(neighbourHue))
+									: table.connects(neighbourHue, hue);
+							if (connects && labels[yPos * width + xPos] == BlobTrackingChallenge.UNLABELED
+									&& table.qualifies(findWall, neighbourHue, hsv[yPos][xPos][1], NO_FORBIDDEN_HUES)) {
+								labels[yPos * width + xPos] = label;
+								queue[tail++] = yPos * width + xPos;
+							}
+						}
+					}
+				}
+				label++;
+			}
+		}
+		return labels;
+	}
+
+	/**
+	 * Check that each region of the tuned labeling lies within one region of
+	 * the wider one.
+	 * 
+	 * @return how many more pixels the wider regions larger than minSize have
+	 *         than the largest tuned region inside each
+	 */
+	private static int gainedPixels(int[] tuned, int[] wider, int minSize) {
+		int[] widerRegion = new int[tuned.length];
+		int[] tunedSizes = new int[tuned.length];
+		int[] widerSizes = new int[tuned.length];
+		Arrays.fill(widerRegion, BlobTrackingChallenge.UNLABELED);
+		for (int i = 0; i < tuned.length; i++) {
+			if (tuned[i] == BlobTrackingChallenge.UNLABELED) {
+				continue;
+			}
+			if (widerRegion[tuned[i]] == BlobTrackingChallenge.UNLABELED) {
+				widerRegion[tuned[i]] = wider[i];
+			}
+			assertEquals("tuned region " + tuned[i], widerRegion[tuned[i]], wider[i]);
+			tunedSizes[tuned[i]]++;
+			widerSizes[wider[i]]++;
+		}
+		int[] largestTuned = new int[tuned.length];
+		for (int label = 0; label < tuned.length && widerRegion[label] != BlobTrackingChallenge.UNLABELED; label++) {
+			largestTuned[widerRegion[label]] = Math.max(largestTuned[widerRegion[label]], tunedSizes[label]);
+		}
+		int gained = 0;
+		for (int label = 0; label < tuned.length; label++) {
+			if (widerSizes[label] > minSize) {
+				gained += widerSizes[label] - largestTuned[label];
+			}
+		}
+		return gained;
+	}
+
+	@Test
+	public void forbiddenHuesDoNotQualifyAsObjects() {
+		boolean[] forbidden = new boolean[256];
+		forbidden[130] = true;
+		assertEquals(false, ColorTable.DEFAULT.qualifies(false, 130, 200, forbidden));
+		assertEquals(true, ColorTable.DEFAULT.qualifies(false, 131, 200, forbidden));
+	}
+
+	@Test
+	public void loadsFile() throws Exception {
+		File file = new File(ColorTableTest.class.getResource("arena.properties").toURI());
+		ColorTable table = ColorTable.load(file.getPath()).withDefaultHueThreshold(2);
+
+		assertEquals(0, table.colorOf(13));
+		assertEquals(1, table.colorOf(14));
+		assertEquals(2, table.colorOf(24));
+		// wall hues wrap round through 255
+		assertEquals(true, table.qualifies(true, 250, 60, NO_FORBIDDEN_HUES));
+		assertEquals(true, table.qualifies(true, 0, 60, NO_FORBIDDEN_HUES));
+		assertEquals(true, table.qualifies(true, 20, 60, NO_FORBIDDEN_HUES));
+		assertEquals(false, table.qualifies(true, 21, 60, NO_FORBIDDEN_HUES));
+		assertEquals(false, table.qualifies(true, 249, 255, NO_FORBIDDEN_HUES));
+		assertEquals(false, table.qualifies(true, 0, 59, NO_FORBIDDEN_HUES));
+		// no hues are excluded from objects, but they need more saturation
+		assertEquals(true, table.qualifies(false, 20, 100, NO_FORBIDDEN_HUES));
+		assertEquals(false, table.qualifies(false, 120, 99, NO_FORBIDDEN_HUES));
+		// the wall hues only join their own hue, the others the detector's
+		// threshold, and a pair takes the wider of the two
+		assertEquals(false, table.connects(5, 6));
+		assertEquals(true, table.connects(5, 5));
+		assertEquals(true, table.connects(120, 122));
+		assertEquals(false, table.connects(120, 123));
+		assertEquals(true, table.connects(20, 22));
+		assertEquals(true, table.connects(22, 20));
+	}
+
+	@Test
+	public void withDefaultHueThresholdKeepsOwnThresholds() {
+		ColorTable table = ColorTable.DEFAULT.withDefaultHueThreshold(6);
+		assertEquals(true, table.connects(40, 46));
+		assertEquals(false, table.connects(40, 47));
+		assertEquals(false, table.connects(15, 17));
+		assertEquals(true, table.connects(200, 204));
+		assertEquals(false, table.connects(200, 205));
+	}
+
+	@Test
+	public void rejectsMalformedValues() {
+		assertRejected("color.red", "ten");
+		assertRejected("color.blue", "256");
+		assertRejected("wall.hues", "11-31-40");
+		assertRejected("wall.hues", "-5");
+		assertRejected("object.saturation", "200-80");
+		assertRejected("hueThresholds", "11-31");
+		assertRejected("hueThresholds", "11-31 x");
+	}
+
+	private static void assertRejected(String key, String value) {
+		Properties properties = new Properties();
+		properties.setProperty(key, value);
+		try {
+			new ColorTable(properties);
+			fail(key + " = " + value + " was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static int tunedColor(int hue) {
+		if (hue < 10) return 0;
+		if (hue < 24) return 1;
+		if (hue < 50) return 2;
+		if (hue < 120) return 3;
+		if (hue < 230) return 4;
+		return 5;
+	}
+
+	private static int tunedThreshold(int hue) {
+		if (hue > 10 && hue < 32) return 1;
+		if (hue > 90) return 4;
+		return 2;
+	}
+}
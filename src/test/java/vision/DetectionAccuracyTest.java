@@ -0,0 +1,75 @@
+package vision;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Measures every labeling mode against the ground truth of random synthetic
+ * scenes with noise and clutter, and against SERIAL.
+ *
+ * @author prentice
+ */
+public class DetectionAccuracyTest {
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+	private static final int SCENES = 100;
+	// scenes a mode may get wrong that SERIAL gets right
+	private static final int TOLERANCE = 2;
+
+	private final Image[] fiducialFrames = new Image[SCENES];
+	private final GroundTruth[] fiducialTruths = new GroundTruth[SCENES];
+	private final Image[] blockFrames = new Image[SCENES];
+	private final GroundTruth[] blockTruths = new GroundTruth[SCENES];
+
+	public DetectionAccuracyTest() {
+		Random random = new Random(7);
+		for (int i = 0; i < SCENES; i++) {
+			SyntheticScene scene = SyntheticScene.random(WIDTH, HEIGHT, 2, 2, random).withClutter(3).withNoise(3);
+			fiducialFrames[i] = scene.render();
+			fiducialTruths[i] = scene.fiducialTruth();
+			scene = SyntheticScene.random(WIDTH, HEIGHT, 3, 0, random).withClutter(3).withNoise(3);
+			blockFrames[i] = scene.render();
+			blockTruths[i] = scene.blockTruth();
+		}
+	}
+
+	@Test
+	public void everyModeMatchesSerial() {
+		for (int skip = 1; skip <= 2; skip++) {
+			int[] serial = hits(LabelingMode.SERIAL, skip);
+			assertTrue("SERIAL found " + serial[0] + " fiducials", serial[0] >= SCENES * 9 / 10);
+			assertTrue("SERIAL found " + serial[1] + " balls", serial[1] >= SCENES * 9 / 10);
+			for (LabelingMode mode : LabelingMode.values()) {
+				int[] hits = hits(mode, skip);
+				String found = mode + " with skip " + skip + " found " + hits[0] + " fiducials and " + hits[1]
+						+ " balls, SERIAL " + serial[0] + " and " + serial[1];
+				assertTrue(found, hits[0] >= serial[0] - TOLERANCE);
+				assertTrue(found, hits[1] >= serial[1] - TOLERANCE);
+			}
+		}
+	}
+
+	/**
+	 * @return how many fiducial scenes and how many block scenes the mode
+	 *         got right
+	 */
+	private int[] hits(LabelingMode mode, int skip) {
+		BlobTrackingChallenge tracker = new BlobTrackingChallenge(
+				new DetectorConfig.Builder(WIDTH, HEIGHT).labelingMode(mode).skipThreshold(skip).build(), false);
+		DetectionContext ctx = tracker.acquireContext();
+		Image dest = new Image(WIDTH, HEIGHT);
+		int[] hits = new int[2];
+		for (int i = 0; i < SCENES; i++) {
+			if (fiducialTruths[i].matches(tracker.applyFiducial(fiducialFrames[i], dest, ctx))) {
+				hits[0]++;
+			}
+			if (blockTruths[i].matches(tracker.applyBlock(blockFrames[i], dest, ctx))) {
+				hits[1]++;
+			}
+		}
+		return hits;
+	}
+}
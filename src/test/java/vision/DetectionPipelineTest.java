@@ -0,0 +1,152 @@
+package vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Runs frames through a pipeline whose detect stage takes an uneven time,
+ * and checks that results come out in frame order and that failed frames
+ * are handed back to the listener.
+ *
+ * @author prentice
+ */
+public class DetectionPipelineTest {
+	private static final int WIDTH = 40;
+	private static final int HEIGHT = 30;
+	private static final int FRAMES = 40;
+
+	/**
+	 * Records, in the order it is told, the capture time of each frame,
+	 * negated for a failed one.
+	 */
+	private static class Recorder implements DetectionPipeline.Listener<Integer> {
+		final List<Long> frames = new ArrayList<Long>();
+		final List<Long> numbers = new ArrayList<Long>();
+		final List<CameraFrame> failed = new ArrayList<CameraFrame>();
+		final CountDownLatch done = new CountDownLatch(FRAMES);
+
+		@Override
+		public synchronized void onResult(long frameNumber, CameraFrame frame, Image dest, Integer result) {
+			frames.add(frame.getCaptureTime());
+			numbers.add(frameNumber);
+			done.countDown();
+		}
+
+		@Override
+		public synchronized void onError(long frameNumber, CameraFrame frame, RuntimeException e) {
+			frames.add(-frame.getCaptureTime());
+			numbers.add(frameNumber);
+			failed.add(frame);
+			done.countDown();
+		}
+
+		void await() throws InterruptedException {
+			assertTrue("all frames came back", done.await(20, TimeUnit.SECONDS));
+		}
+	}
+
+	/**
+	 * A detect stage that takes up to a few milliseconds, and fails every
+	 * failEvery-th frame it is given, if failEvery is positive.
+	 */
+	private static DetectionPipeline.Detector<Integer> detector(final int failEvery) {
+		return new DetectionPipeline.Detector<Integer>() {
+			private final Random random = new Random(4);
+			private int calls = 0;
+
+			@Override
+			public Integer detect(BlobTrackingChallenge tracker, DetectionContext ctx, Image dest) {
+				calls++;
+				try {
+					Thread.sleep(random.nextInt(3));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (failEvery > 0 && calls % failEvery == 0) {
+					throw new IllegalStateException("failed on purpose");
+				}
+				return calls;
+			}
+		};
+	}
+
+	@Test
+	public void publishesResultsInFrameOrder() throws Exception {
+		Recorder recorder = new Recorder();
+		DetectionPipeline<Integer> pipeline = new DetectionPipeline<Integer>(tracker(), detector(0), recorder, 2,
+				"order");
+		pipeline.start();
+		try {
+			for (int i = 1; i <= FRAMES; i++) {
+				pipeline.submit(new CameraFrame(new Image(WIDTH, HEIGHT), i));
+			}
+			recorder.await();
+		} finally {
+			pipeline.shutdown();
+		}
+		List<Long> expected = new ArrayList<Long>();
+		List<Long> numbers = new ArrayList<Long>();
+		for (int i = 1; i <= FRAMES; i++) {
+			expected.add((long) i);
+			numbers.add((long) i - 1);
+		}
+		assertEquals(expected, recorder.frames);
+		assertEquals(numbers, recorder.numbers);
+	}
+
+	/**
+	 * A frame whose detect stage throws goes to onError in its place, and a
+	 * frame that cannot be prepared goes there from the prepare stage; the
+	 * frames around them are published as usual.
+	 */
+	@Test
+	public void handsFailedFramesToTheListener() throws Exception {
+		Recorder recorder = new Recorder();
+		DetectionPipeline<Integer> pipeline = new DetectionPipeline<Integer>(tracker(), detector(7), recorder, 2,
+				"failures");
+		// a frame without pixels cannot be prepared
+		CameraFrame unprepared = new CameraFrame((Image) null, FRAMES / 2);
+		pipeline.start();
+		try {
+			for (int i = 1; i <= FRAMES; i++) {
+				pipeline.submit((i == FRAMES / 2) ? unprepared : new CameraFrame(new Image(WIDTH, HEIGHT), i));
+			}
+			recorder.await();
+		} finally {
+			pipeline.shutdown();
+		}
+		assertTrue("the frame that could not be prepared failed", recorder.failed.contains(unprepared));
+		assertEquals(FRAMES, recorder.frames.size());
+		// every 7th frame detected fails, counting past the unprepared one
+		int detected = 0;
+		for (int i = 1; i <= FRAMES; i++) {
+			if (i == FRAMES / 2) {
+				assertTrue(recorder.frames.contains((long) -i));
+				continue;
+			}
+			detected++;
+			long expected = (detected % 7 == 0) ? -i : i;
+			assertTrue("frame " + i, recorder.frames.contains(expected));
+		}
+		// the detect stage reports in frame order, failures included
+		long last = 0;
+		for (long frame : recorder.frames) {
+			if (frame != -FRAMES / 2) {
+				assertTrue(recorder.frames.toString(), Math.abs(frame) > last);
+				last = Math.abs(frame);
+			}
+		}
+	}
+
+	private static BlobTrackingChallenge tracker() {
+		return new BlobTrackingChallenge(new DetectorConfig.Builder(WIDTH, HEIGHT).build(), false);
+	}
+}
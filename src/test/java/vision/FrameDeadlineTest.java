@@ -0,0 +1,99 @@
+package vision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author prentice
+ */
+public class FrameDeadlineTest {
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+	private static final long SECOND = 1000000000L;
+
+	@Test
+	public void unmeasuredStagesCostNothing() {
+		FrameDeadline deadline = new FrameDeadline();
+		deadline.start(System.nanoTime() + SECOND, 100);
+		assertTrue(deadline.fits(100));
+		assertTrue(deadline.allows(FrameDeadline.Stage.BLUR));
+		assertEquals(0, deadline.estimate(FrameDeadline.Stage.CONVERT), 0);
+	}
+
+	@Test
+	public void averagesCostPerPixel() {
+		FrameDeadline deadline = new FrameDeadline();
+		deadline.start(Long.MAX_VALUE, 100);
+		deadline.record(FrameDeadline.Stage.CONVERT, 1000);
+		assertEquals(1000, deadline.estimate(FrameDeadline.Stage.CONVERT), 1e-9);
+		deadline.record(FrameDeadline.Stage.CONVERT, 2000);
+		assertEquals(1125, deadline.estimate(FrameDeadline.Stage.CONVERT), 1e-9);
+		// the cost carries over to another frame size in proportion
+		deadline.start(Long.MAX_VALUE, 400);
+		assertEquals(4500, deadline.estimate(FrameDeadline.Stage.CONVERT), 1e-9);
+	}
+
+	/**
+	 * An optional stage only runs if it fits together with the mandatory
+	 * stages still to come, and skipping it degrades the frame.
+	 */
+	@Test
+	public void skipsOptionalStagesThatDoNotFit() {
+		FrameDeadline deadline = new FrameDeadline();
+		deadline.start(Long.MAX_VALUE, 1000);
+		deadline.record(FrameDeadline.Stage.BLUR, 1000000);
+		deadline.record(FrameDeadline.Stage.OBJECTS, 100 * SECOND);
+
+		deadline.start(System.nanoTime() + 10 * SECOND, 1000);
+		assertFalse(deadline.fits(1000));
+		assertTrue(deadline.fits(10));
+		assertFalse(deadline.allows(FrameDeadline.Stage.BLUR));
+		assertEquals(Degradation.NO_BLUR, deadline.getDegradation());
+		// once the costly mandatory stage is done, the rest fits
+		deadline.record(FrameDeadline.Stage.OBJECTS, 0);
+		assertTrue(deadline.allows(FrameDeadline.Stage.OVERLAY));
+		assertEquals(Degradation.NO_BLUR, deadline.getDegradation());
+	}
+
+	@Test
+	public void keepsTheMostSevereDegradation() {
+		FrameDeadline deadline = new FrameDeadline();
+		deadline.start(Long.MAX_VALUE, 100);
+		deadline.degrade(Degradation.NO_WALL_SUPPRESSION);
+		deadline.degrade(Degradation.NO_BLUR);
+		assertEquals(Degradation.NO_WALL_SUPPRESSION, deadline.getDegradation());
+		deadline.start(Long.MAX_VALUE, 100);
+		assertEquals(Degradation.NONE, deadline.getDegradation());
+	}
+
+	/**
+	 * A frame whose deadline has passed skips every optional stage, and
+	 * leaves the output image unpainted; one with time to spare runs them
+	 * all.
+	 */
+	@Test
+	public void detectorSkipsOptionalStagesPastDeadline() {
+		BlobTrackingChallenge tracker = new BlobTrackingChallenge(
+				new DetectorConfig.Builder(WIDTH, HEIGHT).blurred(true).build(), false);
+		DetectionContext ctx = tracker.acquireContext();
+		ctx.deadline = new FrameDeadline();
+		Image frame = new SyntheticScene(WIDTH, HEIGHT).withFiducial(4, 3, 0.8, 0).withSeed(2).render();
+
+		for (int i = 0; i < 3; i++) {
+			ctx.deadline.start(Long.MAX_VALUE, WIDTH * HEIGHT);
+			Image dest = new Image(frame);
+			assertTrue(tracker.applyFiducial(frame, dest, ctx).sendMessage);
+			assertEquals(Degradation.NONE, ctx.deadline.getDegradation());
+		}
+
+		ctx.deadline.start(System.nanoTime() - 1, WIDTH * HEIGHT);
+		Image dest = new Image(frame);
+		tracker.applyFiducial(frame, dest, ctx);
+		assertEquals(Degradation.NO_WALL_SUPPRESSION, ctx.deadline.getDegradation());
+		assertArrayEquals(frame.getPixelBuffer(), dest.getPixelBuffer());
+	}
+}
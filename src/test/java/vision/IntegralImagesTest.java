@@ -0,0 +1,177 @@
+package vision;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the rectangle sums of the integral images against brute force, with
+ * and without a region of interest, and the hues blobs take from them.
+ *
+ * @author prentice
+ */
+public class IntegralImagesTest {
+	private static final int WIDTH = 37;
+	private static final int HEIGHT = 23;
+	private static final boolean[] NO_FORBIDDEN_HUES = new boolean[256];
+
+	@Test
+	public void matchesBruteForce() {
+		Random random = new Random(7);
+		int[][][] hsv = randomHsv(random);
+		IntegralImages integrals = new IntegralImages(WIDTH, HEIGHT);
+		integrals.build(hsv, ColorTable.DEFAULT, null);
+		assertMatches(integrals, hsv, null, random);
+	}
+
+	@Test
+	public void matchesBruteForceInRegionOfInterest() {
+		Random random = new Random(8);
+		boolean[] inside = new boolean[WIDTH * HEIGHT];
+		for (int y = 0; y < HEIGHT; y++) {
+			// leave some rows out, and break the others into several runs
+			for (int x = 0; x < WIDTH && y % 5 != 3; x++) {
+				inside[y * WIDTH + x] = random.nextInt(4) != 0;
+			}
+		}
+		RegionOfInterest roi = new RegionOfInterest(inside, WIDTH, HEIGHT);
+		int[][][] hsv = randomHsv(random);
+		IntegralImages integrals = new IntegralImages(WIDTH, HEIGHT);
+		integrals.build(hsv, ColorTable.DEFAULT, roi);
+		assertMatches(integrals, hsv, roi, random);
+	}
+
+	/**
+	 * Tables built with a region of interest and then without one count
+	 * every pixel again.
+	 */
+	@Test
+	public void forgetsRegionOfInterest() {
+		Random random = new Random(9);
+		int[][][] hsv = randomHsv(random);
+		IntegralImages integrals = new IntegralImages(WIDTH, HEIGHT);
+		integrals.build(hsv, ColorTable.DEFAULT, new RegionOfInterest(new boolean[WIDTH * HEIGHT], WIDTH, HEIGHT));
+		assertEquals(0, integrals.count(0, 0, WIDTH, HEIGHT));
+		integrals.build(hsv, ColorTable.DEFAULT, null);
+		assertMatches(integrals, hsv, null, random);
+	}
+
+	@Test
+	public void circularMeanWrapsAround() {
+		assertEquals(0, mean(255, 1), 1e-9);
+		assertEquals(0, mean(250, 6), 1e-9);
+		assertEquals(254.5, mean(254, 255), 1e-9);
+		assertEquals(1.5, mean(1, 2), 1e-9);
+		assertEquals(-1, IntegralImages.circularMean(0, 0), 0);
+		// opposite hues cancel
+		IntegralImages integrals = new IntegralImages(2, 1);
+		integrals.build(new int[][][] {{{0, 200, 200}, {128, 200, 200}}}, ColorTable.DEFAULT, null);
+		assertEquals(-1, integrals.meanHue(0, 0, 2, 1), 0);
+		// a direction just below 0 comes out as 0 rather than 256
+		assertEquals(0, IntegralImages.circularMean(1, -1e-300), 0);
+	}
+
+	/**
+	 * A blob takes the circular mean of its hues from the integral images,
+	 * and the arithmetic mean otherwise. Of the blobs made of two hues up to
+	 * 8 apart, the only ones whose colour changes are those whose hues lie
+	 * either side of 0: the arithmetic mean puts them half way round the
+	 * wheel, in blue, where the circular mean keeps them red or purple. A
+	 * blob of one hue keeps it exactly.
+	 */
+	@Test
+	public void blobsEitherSideOfZeroChangeColour() {
+		int[][][] hsv = new int[1][8][3];
+		IntegralImages integrals = new IntegralImages(8, 1);
+		for (int spread = 0; spread <= 8; spread++) {
+			for (int hue = 0; hue < 256; hue++) {
+				for (int x = 0; x < 8; x++) {
+					hsv[0][x][0] = (x < 4) ? hue : (hue + spread) % 256;
+					hsv[0][x][1] = 200;
+					hsv[0][x][2] = 200;
+				}
+				integrals.build(hsv, ColorTable.DEFAULT, null);
+				Blob arithmetic = new Blob();
+				arithmetic.addRun(0, 0, 7);
+				arithmetic.calculateBasics(8, 1, hsv);
+				Blob circular = new Blob();
+				circular.addRun(0, 0, 7);
+				circular.calculateBasics(8, 1, integrals);
+
+				String blob = "hues " + hue + " and " + (hue + spread) % 256;
+				int midway = ColorTable.DEFAULT.colorOf((int) (hue + spread / 2.0) % 256);
+				assertEquals(blob, midway, circular.colorClassifier(ColorTable.DEFAULT));
+				if (hue + spread < 256) {
+					assertEquals(blob, midway, arithmetic.colorClassifier(ColorTable.DEFAULT));
+				} else {
+					assertEquals(blob, ColorTable.DEFAULT.colorOf(128), arithmetic.colorClassifier(ColorTable.DEFAULT));
+				}
+			}
+		}
+	}
+
+	private static double mean(int hue1, int hue2) {
+		double angle1 = 2 * Math.PI * hue1 / 256;
+		double angle2 = 2 * Math.PI * hue2 / 256;
+		return IntegralImages.circularMean(Math.cos(angle1) + Math.cos(angle2), Math.sin(angle1) + Math.sin(angle2));
+	}
+
+	/**
+	 * Compare every statistic of tables built from the HSV values, over
+	 * random rectangles and the whole frame, with sums over the pixels the
+	 * region of interest contains.
+	 */
+	private static void assertMatches(IntegralImages integrals, int[][][] hsv, RegionOfInterest roi, Random random) {
+		for (int i = 0; i < 500; i++) {
+			int x0 = random.nextInt(WIDTH + 1);
+			int y0 = random.nextInt(HEIGHT + 1);
+			int x1 = x0 + random.nextInt(WIDTH + 1 - x0);
+			int y1 = y0 + random.nextInt(HEIGHT + 1 - y0);
+			if (i == 0) {
+				x0 = 0;
+				y0 = 0;
+				x1 = WIDTH;
+				y1 = HEIGHT;
+			}
+			String rect = "(" + x0 + ", " + y0 + ") to (" + x1 + ", " + y1 + ")";
+			int count = 0, qualifying = 0, cos = 0, sin = 0;
+			long sat = 0, val = 0;
+			for (int y = y0; y < y1; y++) {
+				for (int x = x0; x < x1; x++) {
+					if (roi != null && !roi.contains(x, y)) {
+						continue;
+					}
+					int[] pixel = hsv[y][x];
+					double angle = 2 * Math.PI * pixel[0] / 256;
+					count++;
+					qualifying += ColorTable.DEFAULT.qualifies(false, pixel[0], pixel[1], NO_FORBIDDEN_HUES) ? 1 : 0;
+					cos += Math.round(IntegralImages.HUE_SCALE * Math.cos(angle));
+					sin += Math.round(IntegralImages.HUE_SCALE * Math.sin(angle));
+					sat += pixel[1];
+					val += pixel[2];
+				}
+			}
+			assertEquals(rect, count, integrals.count(x0, y0, x1, y1));
+			assertEquals(rect, qualifying, integrals.qualifyingCount(x0, y0, x1, y1));
+			assertEquals(rect, cos, integrals.hueCosSum(x0, y0, x1, y1));
+			assertEquals(rect, sin, integrals.hueSinSum(x0, y0, x1, y1));
+			assertEquals(rect, IntegralImages.circularMean(cos, sin), integrals.meanHue(x0, y0, x1, y1), 0);
+			assertEquals(rect, (count == 0) ? 0 : (double) sat / count, integrals.meanSaturation(x0, y0, x1, y1), 1e-9);
+			assertEquals(rect, (count == 0) ? 0 : (double) val / count, integrals.meanValue(x0, y0, x1, y1), 1e-9);
+		}
+	}
+
+	private static int[][][] randomHsv(Random random) {
+		int[][][] hsv = new int[HEIGHT][WIDTH][3];
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				hsv[y][x][0] = random.nextInt(256);
+				hsv[y][x][1] = random.nextInt(256);
+				hsv[y][x][2] = random.nextInt(256);
+			}
+		}
+		return hsv;
+	}
+}
@@ -0,0 +1,112 @@
+package vision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+/**
+ * Decodes the JPEG fixtures at each scale and checks the result against the
+ * full-size decode, whose every n-th pixel the scaled decode should keep.
+ *
+ * @author prentice
+ */
+public class JpegDecoderTest {
+	private static final String[] FIXTURES = {"scene-320x240.jpg", "scene-153x115.jpg"};
+
+	@Test
+	public void scaledDecodesKeepEveryNthPixel() throws IOException {
+		JpegDecoder decoder = new JpegDecoder();
+		for (String fixture : FIXTURES) {
+			byte[] data = read(fixture);
+			Image full = new Image(decoder.decode(data, 0, data.length, Integer.MAX_VALUE, Integer.MAX_VALUE));
+			for (int scale = 1; scale <= JpegDecoder.MAX_SCALE; scale *= 2) {
+				int width = (full.getWidth() + scale - 1) / scale;
+				int height = (full.getHeight() + scale - 1) / scale;
+				Image scaled = decoder.decode(data, 0, data.length, width, height);
+				assertEquals(fixture + " at 1/" + scale, width, scaled.getWidth());
+				assertEquals(fixture + " at 1/" + scale, height, scaled.getHeight());
+				assertArrayEquals(fixture + " at 1/" + scale, subsample(full, scale), scaled.toArray());
+			}
+		}
+	}
+
+	/**
+	 * The decoder picks the smallest scale that is still at least the size
+	 * asked for.
+	 */
+	@Test
+	public void decodesAtLeastTheSizeAskedFor() throws IOException {
+		JpegDecoder decoder = new JpegDecoder();
+		byte[] data = read("scene-320x240.jpg");
+		assertSize(320, 240, decoder.decode(data, 0, data.length, 161, 120));
+		assertSize(160, 120, decoder.decode(data, 0, data.length, 160, 120));
+		assertSize(80, 60, decoder.decode(data, 0, data.length, 80, 41));
+		assertSize(40, 30, decoder.decode(data, 0, data.length, 1, 1));
+		assertSize(320, 240, decoder.decode(data, 0, data.length, 640, 480));
+	}
+
+	/**
+	 * A frame in the middle of a larger buffer, as a message's data is,
+	 * decodes the same as on its own.
+	 */
+	@Test
+	public void decodesAtAnOffset() throws IOException {
+		JpegDecoder decoder = new JpegDecoder();
+		byte[] data = read("scene-153x115.jpg");
+		byte[] alone = decoder.decode(data, 0, data.length, 77, 58).toArray();
+		byte[] padded = new byte[data.length + 20];
+		System.arraycopy(data, 0, padded, 7, data.length);
+		assertArrayEquals(alone, decoder.decode(padded, 7, data.length, 77, 58).toArray());
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOtherData() throws IOException {
+		byte[] data = new byte[256];
+		new JpegDecoder().decode(data, 0, data.length, 1, 1);
+	}
+
+	private static void assertSize(int width, int height, Image image) {
+		assertTrue("expected " + width + "x" + height + ", got " + image.getWidth() + "x" + image.getHeight(),
+				image.getWidth() == width && image.getHeight() == height);
+	}
+
+	/**
+	 * @return every scale-th pixel of every scale-th row
+	 */
+	private static byte[] subsample(Image full, int scale) {
+		int width = (full.getWidth() + scale - 1) / scale;
+		int height = (full.getHeight() + scale - 1) / scale;
+		byte[] src = full.getPixelBuffer();
+		byte[] dest = new byte[3 * width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				System.arraycopy(src, 3 * (y * scale * full.getWidth() + x * scale), dest, 3 * (y * width + x), 3);
+			}
+		}
+		return dest;
+	}
+
+	static byte[] read(String fixture) throws IOException {
+		InputStream in = JpegDecoderTest.class.getResourceAsStream(fixture);
+		if (in == null) {
+			throw new IOException("missing fixture " + fixture);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author prentice
+ */
+public class MaskLabelerTest {
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+
+	/**
+	 * Orange lies in the wall's hues; an orange sphere against the wall must
+	 * not be taken into it and its hue forbidden.
+	 */
+	@Test
+	public void findsOrangeFiducialAgainstWall() {
+		for (LabelingMode mode : LabelingMode.values()) {
+			BlobTrackingChallenge tracker = new BlobTrackingChallenge(
+					new DetectorConfig.Builder(WIDTH, HEIGHT).labelingMode(mode).build(), false);
+			Random random = new Random(3);
+			for (int i = 0; i < 20; i++) {
+				SyntheticScene scene = new SyntheticScene(WIDTH, HEIGHT)
+						.withFiducial(1, 2 + random.nextInt(4), 0.5 + 0.5 * random.nextDouble(), 0.4 * random.nextDouble() - 0.2)
+						.withNoise(3).withSeed(i);
+				Image frame = scene.render();
+				CompleteFiducialMessage msg = tracker.applyFiducial(frame, new Image(frame));
+				assertTrue(mode + " missed the fiducial in scene " + i, scene.fiducialTruth().matches(msg));
+			}
+		}
+	}
+
+	/**
+	 * Blobs up to skipThreshold apart join, as in the flood fill, for odd
+	 * and even thresholds.
+	 */
+	@Test
+	public void bridgesGapsUpToSkipThreshold() {
+		for (int skip = 1; skip <= 6; skip++) {
+			assertEquals("skip " + skip + ", " + skip + " apart", 1, regions(LabelingMode.MASK, skip, skip));
+			assertEquals("skip " + skip + ", " + (skip + 1) + " apart", 2, regions(LabelingMode.MASK, skip, skip + 1));
+			assertEquals(regions(LabelingMode.SERIAL, skip, skip), regions(LabelingMode.MASK, skip, skip));
+			assertEquals(regions(LabelingMode.SERIAL, skip, skip + 1), regions(LabelingMode.MASK, skip, skip + 1));
+		}
+	}
+
+	/**
+	 * @return how many object regions two 8x8 blue squares make whose
+	 *         nearest columns are the given distance apart
+	 */
+	private static int regions(LabelingMode mode, int skip, int distance) {
+		Image frame = new Image(WIDTH, HEIGHT);
+		byte[] pixels = frame.getPixelBuffer();
+		for (int i = 0; i < pixels.length; i += 3) {
+			pixels[i] = (byte) 120;
+			pixels[i + 1] = (byte) 120;
+			pixels[i + 2] = (byte) 110;
+		}
+		square(pixels, 40, 50);
+		square(pixels, 47 + distance, 50 + distance / 2);
+		BlobTrackingChallenge tracker = new BlobTrackingChallenge(
+				new DetectorConfig.Builder(WIDTH, HEIGHT).labelingMode(mode).skipThreshold(skip).build(), false);
+		DetectionContext ctx = tracker.acquireContext();
+		tracker.prepare(frame, ctx);
+		List<Blob> regions = new ArrayList<Blob>();
+		tracker.findHueConstantRegions(ctx, false, ctx.noForbiddenHues, regions);
+		return regions.size();
+	}
+
+	private static void square(byte[] pixels, int x0, int y0) {
+		for (int y = y0; y < y0 + 8; y++) {
+			for (int x = x0; x < x0 + 8; x++) {
+				int i = 3 * (y * WIDTH + x);
+				pixels[i] = (byte) 40;
+				pixels[i + 1] = (byte) 90;
+				pixels[i + 2] = (byte) 220;
+			}
+		}
+	}
+}
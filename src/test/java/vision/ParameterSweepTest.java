@@ -0,0 +1,111 @@
+package vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author prentice
+ */
+public class ParameterSweepTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * The front keeps, fastest first, each trial that is more accurate than
+	 * every faster one, and of equally fast ones only the most accurate.
+	 */
+	@Test
+	public void keepsTheParetoFront() {
+		ParameterSweep.Trial slowTie = trial(2, 0.5);
+		ParameterSweep.Trial fastest = trial(0.5, 0.2);
+		ParameterSweep.Trial beaten = trial(1, 0.5);
+		ParameterSweep.Trial sameTime = trial(1, 0.6);
+		ParameterSweep.Trial better = trial(2, 0.8);
+		ParameterSweep.Trial slowerWorse = trial(3, 0.7);
+		ParameterSweep.Trial best = trial(4, 0.9);
+		List<ParameterSweep.Trial> trials = Arrays.asList(slowTie, best, beaten, slowerWorse, fastest, better, sameTime);
+		assertEquals(Arrays.asList(fastest, sameTime, better, best), ParameterSweep.paretoFront(trials));
+	}
+
+	@Test
+	public void sweepsTheWholeGrid() {
+		assertEquals(600, ParameterSweep.grid(new String[] {"11-31"}).size());
+		assertEquals(1800, ParameterSweep.grid(new String[] {"11-31", "13-29", "9-33"}).size());
+	}
+
+	@Test
+	public void samplesWithoutRepeats() {
+		List<ParameterSweep.Trial> grid = ParameterSweep.grid(new String[] {"11-31"});
+		List<ParameterSweep.Trial> sample = ParameterSweep.sample(grid, 50, new Random(1));
+		assertEquals(50, sample.size());
+		assertEquals(50, new HashSet<ParameterSweep.Trial>(sample).size());
+		assertTrue(grid.containsAll(sample));
+		assertSame(grid, ParameterSweep.sample(grid, 600, new Random(1)));
+	}
+
+	/**
+	 * A trial's accuracy is the fraction of labelled frames of a recorded
+	 * log whose detection matches the label; unlabelled frames do not count.
+	 */
+	@Test
+	public void scoresLabelledFrames() throws Exception {
+		File log = folder.newFile("frames.log");
+		File labels = folder.newFile("labels.txt");
+		SyntheticScene.main(new String[] {"fiducial", "20", "160x120", log.getPath(), labels.getPath(), "2", "1", "3", "3"});
+		List<Image> frames = ReplayFrameSource.load(log.getPath());
+		GroundTruth[] truths = GroundTruth.load(labels.getPath(), frames.size());
+		truths[3] = null;
+		truths[11] = null;
+
+		ParameterSweep.Trial trial = new ParameterSweep.Trial(false, 2, 1, 150, 81, "11-31");
+		trial.frames = frames;
+		trial.truths = truths;
+		trial.fiducial = true;
+		trial.call();
+
+		BlobTrackingChallenge tracker = new BlobTrackingChallenge(trial.config(160, 120), false);
+		int correct = 0;
+		for (int i = 0; i < frames.size(); i++) {
+			Image frame = frames.get(i);
+			if (truths[i] != null && truths[i].matches(tracker.applyFiducial(frame, new Image(frame)))) {
+				correct++;
+			}
+		}
+		assertEquals(correct / 18.0, trial.accuracy, 1e-9);
+		assertTrue("accuracy " + trial.accuracy, trial.accuracy >= 0.8);
+		assertTrue(trial.millisPerFrame > 0);
+	}
+
+	@Test
+	public void configuresTheDetector() {
+		DetectorConfig config = new ParameterSweep.Trial(true, 3, 2, 200, 91, "13-29").config(160, 120);
+		assertTrue(config.useBlurred);
+		assertEquals(3, config.hueThreshold);
+		assertEquals(2, config.skipThreshold);
+		assertEquals(200, config.sizeThreshold);
+		boolean[] noForbiddenHues = new boolean[256];
+		assertTrue(!config.colorTable.qualifies(false, 130, 90, noForbiddenHues));
+		assertTrue(config.colorTable.qualifies(false, 130, 91, noForbiddenHues));
+		assertTrue(!config.colorTable.qualifies(true, 12, 200, noForbiddenHues));
+		assertTrue(config.colorTable.qualifies(true, 13, 200, noForbiddenHues));
+	}
+
+	private static ParameterSweep.Trial trial(double millisPerFrame, double accuracy) {
+		ParameterSweep.Trial trial = new ParameterSweep.Trial(false, 2, 1, 150, 81, "11-31");
+		trial.millisPerFrame = millisPerFrame;
+		trial.accuracy = accuracy;
+		return trial;
+	}
+}
@@ -0,0 +1,112 @@
+package vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * @author prentice
+ */
+public class RegionOfInterestTest {
+	// the region drawn in the PGM fixtures, at their 16x12
+	private static final String FIXTURE_BANDS = "rows 2-9; cols 1-6, 10-14";
+
+	@Test
+	public void parsesBands() {
+		RegionOfInterest roi = RegionOfInterest.bands(FIXTURE_BANDS, 16, 12);
+		assertEquals(1, roi.minX);
+		assertEquals(2, roi.minY);
+		assertEquals(14, roi.maxX);
+		assertEquals(9, roi.maxY);
+		assertEquals(0, roi.getRunCount(1));
+		assertEquals(2, roi.getRunCount(2));
+		assertEquals(10, roi.getRunStart(5, 1));
+		assertEquals(14, roi.getRunEnd(5, 1));
+		assertTrue(roi.contains(6, 9));
+		assertFalse(roi.contains(7, 9));
+		assertFalse(roi.contains(6, 10));
+
+		RegionOfInterest rows = RegionOfInterest.bands("rows 3", 16, 12);
+		assertEquals(0, rows.minX);
+		assertEquals(15, rows.maxX);
+		assertEquals(3, rows.minY);
+		assertEquals(3, rows.maxY);
+	}
+
+	@Test
+	public void loadsPlainAndBinaryPgm() throws Exception {
+		RegionOfInterest bands = RegionOfInterest.bands(FIXTURE_BANDS, 16, 12);
+		assertSameRegion(bands, RegionOfInterest.load(fixture("roi.pgm")));
+		assertSameRegion(bands, RegionOfInterest.load(fixture("roi-binary.pgm")));
+		assertSameRegion(bands, RegionOfInterest.parse(fixture("roi.pgm"), 160, 120));
+		assertSameRegion(bands, RegionOfInterest.parse(" " + FIXTURE_BANDS, 16, 12));
+	}
+
+	@Test
+	public void resamplesToFrameSize() {
+		RegionOfInterest small = RegionOfInterest.bands(FIXTURE_BANDS, 16, 12);
+		assertTrue(small.forResolution(16, 12) == small);
+		assertSameRegion(RegionOfInterest.bands("rows 20-99; cols 10-69, 100-149", 160, 120), small.forResolution(160, 120));
+		assertSameRegion(RegionOfInterest.bands("rows 1-4; cols 0-2, 5-6", 8, 6), small.forResolution(8, 6));
+	}
+
+	@Test
+	public void rejectsMalformedBands() {
+		String[] specs = {"rows", "rows 2-9; colz 1-6", "rows 2-12", "rows 9-2", "rows two", "cols 1-2-3"};
+		for (String spec : specs) {
+			try {
+				RegionOfInterest.bands(spec, 16, 12);
+				fail(spec + " was accepted");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles() throws Exception {
+		RegionOfInterest.load(fixture("arena.properties"));
+	}
+
+	/**
+	 * Targets outside the region are never found, and a region covering the
+	 * whole frame finds what no region does.
+	 */
+	@Test
+	public void ignoresTargetsOutside() {
+		SyntheticScene scene = new SyntheticScene(160, 120).withFiducial(4, 3, 0.8, 0.25).withSeed(1);
+		Image frame = scene.render();
+		assertTrue(detects(frame, null));
+		assertTrue(detects(frame, RegionOfInterest.bands("rows 0-119; cols 0-159", 160, 120)));
+		assertTrue(detects(frame, RegionOfInterest.bands("cols 0-79", 160, 120)));
+		assertFalse(detects(frame, RegionOfInterest.bands("cols 80-159", 160, 120)));
+		// given at another resolution, the region is resampled to the frame's
+		assertFalse(detects(frame, RegionOfInterest.bands("cols 40-79", 80, 60)));
+	}
+
+	private static boolean detects(Image frame, RegionOfInterest roi) {
+		BlobTrackingChallenge tracker = new BlobTrackingChallenge(
+				new DetectorConfig.Builder(160, 120).regionOfInterest(roi).build(), false);
+		return tracker.applyFiducial(frame, new Image(frame)).sendMessage;
+	}
+
+	private static void assertSameRegion(RegionOfInterest expected, RegionOfInterest actual) {
+		assertEquals(expected.width, actual.width);
+		assertEquals(expected.height, actual.height);
+		for (int y = 0; y < expected.height; y++) {
+			for (int x = 0; x < expected.width; x++) {
+				assertEquals("pixel " + x + ", " + y, expected.contains(x, y), actual.contains(x, y));
+			}
+		}
+	}
+
+	private static String fixture(String name) throws Exception {
+		return new File(RegionOfInterestTest.class.getResource(name).toURI()).getPath();
+	}
+}
@@ -0,0 +1,213 @@
+package vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Runs camera streams from replayed frames into memory, as on the robot but
+ * without ROS, and checks what they publish against the detector run on
+ * the same frames directly.
+ *
+ * @author prentice
+ */
+public class ReplayTest {
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+	private static final int FRAMES = 12;
+
+	// runs each stream's task on the thread that schedules it, so that no
+	// frame is ever replaced before it is processed
+	private static final Executor INLINE = new Executor() {
+		@Override
+		public void execute(Runnable task) {
+			task.run();
+		}
+	};
+
+	@Test
+	public void publishesEveryFrameInOrder() throws Exception {
+		List<Image> frames = scenes(WIDTH, HEIGHT);
+		MemoryDetectionSink sink = replay(frames, INLINE, false, 2);
+		List<String> expected = expected(frames);
+		expected.addAll(expected(frames));
+		assertEquals(expected, published(sink));
+	}
+
+	/**
+	 * Frames larger than the stream's resolution are scaled down to it
+	 * first.
+	 */
+	@Test
+	public void scalesLargerFrames() throws Exception {
+		List<Image> frames = scenes(2 * WIDTH, 2 * HEIGHT);
+		List<Image> scaled = new ArrayList<Image>();
+		for (Image frame : frames) {
+			Image small = new Image(WIDTH, HEIGHT);
+			Image.scale(frame.getPixelBuffer(), 2 * WIDTH, 2 * HEIGHT, small.getPixelBuffer(), WIDTH, HEIGHT);
+			scaled.add(small);
+		}
+		assertEquals(expected(scaled), published(replay(frames, INLINE, false, 1)));
+	}
+
+	/**
+	 * On a worker pool or a pipeline, frames may be dropped, but whatever is
+	 * published must come from one whole frame.
+	 */
+	@Test
+	public void publishesWholeFramesWhenDropping() throws Exception {
+		List<Image> frames = scenes(2 * WIDTH, 2 * HEIGHT);
+		List<Image> scaled = new ArrayList<Image>();
+		for (Image frame : frames) {
+			Image small = new Image(WIDTH, HEIGHT);
+			Image.scale(frame.getPixelBuffer(), 2 * WIDTH, 2 * HEIGHT, small.getPixelBuffer(), WIDTH, HEIGHT);
+			scaled.add(small);
+		}
+		Set<String> expected = new HashSet<String>(expected(scaled));
+		ExecutorService workers = Executors.newFixedThreadPool(2);
+		try {
+			for (String detection : published(replay(frames, workers, false, 20))) {
+				assertTrue("pooled: " + detection, expected.contains(detection));
+			}
+		} finally {
+			workers.shutdown();
+		}
+		for (String detection : published(replay(frames, INLINE, true, 20))) {
+			assertTrue("pipelined: " + detection, expected.contains(detection));
+		}
+	}
+
+	/**
+	 * A pipeline converts YUV frames into pooled RGB images, which are
+	 * reused once published or dropped; every detection must still come from
+	 * one whole frame.
+	 */
+	@Test
+	public void publishesPipelinedYuvFrames() throws Exception {
+		List<Image> scenes = scenes(WIDTH, HEIGHT);
+		List<YuvImage> frames = new ArrayList<YuvImage>();
+		List<Image> converted = new ArrayList<Image>();
+		for (Image scene : scenes) {
+			YuvImage yuv = KernelBenchmark.toYuyv(scene.getPixelBuffer(), WIDTH, HEIGHT);
+			frames.add(yuv);
+			converted.add(yuv.toImage());
+		}
+		Set<String> expected = new HashSet<String>(expected(converted));
+		MemoryDetectionSink sink = new MemoryDetectionSink();
+		CameraStream stream = stream(INLINE);
+		// the test hands the frames over itself
+		stream.start(new FrameSource() {
+			@Override
+			public void start(CameraStream stream) {
+			}
+
+			@Override
+			public void shutdown() {
+			}
+		}, sink, true);
+		for (int i = 0; i < 20 * FRAMES; i++) {
+			stream.ingest(new CameraFrame(frames.get(i % FRAMES), 0));
+		}
+		Thread.sleep(200);
+		stream.shutdown();
+		List<String> published = published(sink);
+		assertTrue(published.size() > 0);
+		for (String detection : published) {
+			assertTrue("pipelined YUV: " + detection, expected.contains(detection));
+		}
+	}
+
+	/**
+	 * Frames are handed over on the recording's schedule.
+	 */
+	@Test
+	public void replaysAtFrameRate() throws Exception {
+		List<Image> frames = scenes(WIDTH, HEIGHT);
+		ReplayFrameSource source = new ReplayFrameSource(frames, 100, 1, 1);
+		CameraStream stream = stream(INLINE);
+		long start = System.nanoTime();
+		stream.start(source, new MemoryDetectionSink(), false);
+		assertTrue(source.awaitFinished(10, TimeUnit.SECONDS));
+		stream.shutdown();
+		assertEquals(FRAMES, source.getReplayed());
+		// the last frame is due (FRAMES - 1) periods after the first
+		assertTrue(System.nanoTime() - start >= (FRAMES - 1) * 10000000L);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyReplay() {
+		new ReplayFrameSource(new ArrayList<Image>(), 30, 1, 1);
+	}
+
+	private static MemoryDetectionSink replay(List<Image> frames, Executor workers, boolean pipelined, int repeat)
+			throws InterruptedException {
+		ReplayFrameSource source = new ReplayFrameSource(frames, 30, ReplayFrameSource.AS_FAST_AS_POSSIBLE, repeat);
+		MemoryDetectionSink sink = new MemoryDetectionSink();
+		CameraStream stream = stream(workers);
+		stream.start(source, sink, pipelined);
+		assertTrue(source.awaitFinished(30, TimeUnit.SECONDS));
+		assertEquals(repeat * frames.size(), source.getReplayed());
+		// let the last frames through before stopping
+		Thread.sleep(200);
+		stream.shutdown();
+		return sink;
+	}
+
+	private static CameraStream stream(Executor workers) {
+		CameraConfig config = new CameraConfig("replay", WIDTH, HEIGHT, CameraConfig.Mode.FIDUCIAL, "detections");
+		BlobTrackingChallenge tracker = new BlobTrackingChallenge(new DetectorConfig.Builder(WIDTH, HEIGHT).build(), false);
+		return new CameraStream(config, tracker, workers, null);
+	}
+
+	/**
+	 * @return distinct scenes of one fiducial each, all of which the detector
+	 *         finds
+	 */
+	private static List<Image> scenes(int width, int height) {
+		Random random = new Random(9);
+		List<Image> frames = new ArrayList<Image>();
+		for (int i = 0; i < FRAMES; i++) {
+			frames.add(new SyntheticScene(width, height).withFiducial(2 + i % 4, 0, 0.6 + 0.4 * random.nextDouble(),
+					0.4 * random.nextDouble() - 0.2).withSeed(i).render());
+		}
+		return frames;
+	}
+
+	/**
+	 * @return what the detector publishes for each frame run on its own
+	 */
+	private static List<String> expected(List<Image> frames) {
+		BlobTrackingChallenge tracker = new BlobTrackingChallenge(new DetectorConfig.Builder(WIDTH, HEIGHT).build(), false);
+		List<String> detections = new ArrayList<String>();
+		for (Image frame : frames) {
+			CompleteFiducialMessage msg = tracker.applyFiducial(frame, new Image(frame));
+			assertTrue(msg.sendMessage);
+			detections.add(describe(msg.topColor, msg.bottomColor, msg.range, msg.bearing));
+		}
+		return detections;
+	}
+
+	private static List<String> published(MemoryDetectionSink sink) {
+		List<String> detections = new ArrayList<String>();
+		for (MemoryDetectionSink.Detection detection : sink.getDetections()) {
+			assertTrue(detection.isFiducial());
+			detections.add(describe(detection.color, detection.bottomColor, detection.range, detection.bearing));
+		}
+		return detections;
+	}
+
+	private static String describe(int top, int bottom, double range, double bearing) {
+		return top + "/" + bottom + " at " + range + ", " + bearing;
+	}
+}
@@ -0,0 +1,104 @@
+package vision;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author prentice
+ */
+public class StageChainTest {
+	private static final Stage<Integer, Integer> DOUBLE = new Stage<Integer, Integer>("double") {
+		@Override
+		public Integer run(BlobTrackingChallenge tracker, DetectionContext ctx, Integer input, Image dest) {
+			return 2 * input;
+		}
+	};
+
+	private static final Stage<Integer, Integer> INCREMENT = new Stage<Integer, Integer>("increment") {
+		@Override
+		public Integer run(BlobTrackingChallenge tracker, DetectionContext ctx, Integer input, Image dest) {
+			return input + 1;
+		}
+	};
+
+	private static final Stage<Integer, String> FORMAT = new Stage<Integer, String>("format") {
+		@Override
+		public String run(BlobTrackingChallenge tracker, DetectionContext ctx, Integer input, Image dest) {
+			return "<" + input + ">";
+		}
+	};
+
+	/**
+	 * Collects the names of the stages it hears of, in order.
+	 */
+	private static class Recorder implements StageListener {
+		final List<String> stages = new ArrayList<String>();
+
+		@Override
+		public void stageFinished(String stage, long nanos) {
+			stages.add(stage);
+		}
+	}
+
+	@Test
+	public void runsStagesInOrder() {
+		StageChain<Integer, String> chain = StageChain.of("sum", DOUBLE).then(INCREMENT).then(FORMAT);
+		assertEquals("<7>", chain.run(null, new DetectionContext(1, 1), 3, null));
+		assertEquals("sum: double -> increment -> format", chain.toString());
+	}
+
+	@Test
+	public void reportsEachStage() {
+		DetectionContext ctx = new DetectionContext(1, 1);
+		Recorder recorder = new Recorder();
+		ctx.setStageListener(recorder);
+		StageChain.of("sum", DOUBLE).then(INCREMENT).then(FORMAT).run(null, ctx, 3, null);
+		assertEquals(Arrays.asList("double", "increment", "format"), recorder.stages);
+	}
+
+	/**
+	 * A chain inside another is reported after its own stages.
+	 */
+	@Test
+	public void reportsNestedChains() {
+		DetectionContext ctx = new DetectionContext(1, 1);
+		Recorder recorder = new Recorder();
+		ctx.setStageListener(recorder);
+		StageChain<Integer, Integer> inner = StageChain.of("inner", INCREMENT).then(DOUBLE);
+		String output = StageChain.of("outer", DOUBLE).then(inner).then(FORMAT).run(null, ctx, 1, null);
+		assertEquals("<6>", output);
+		assertEquals(Arrays.asList("double", "increment", "double", "inner", "format"), recorder.stages);
+	}
+
+	@Test
+	public void thenLeavesTheChainAsItWas() {
+		StageChain<Integer, Integer> chain = StageChain.of("sum", DOUBLE);
+		chain.then(INCREMENT);
+		assertEquals(Integer.valueOf(6), chain.run(null, new DetectionContext(1, 1), 3, null));
+		assertEquals("sum: double", chain.toString());
+	}
+
+	/**
+	 * The fiducial detector is the chain of its stages, each reported by
+	 * name.
+	 */
+	@Test
+	public void detectorRunsItsStages() {
+		BlobTrackingChallenge tracker = new BlobTrackingChallenge(new DetectorConfig.Builder(160, 120).build(), false);
+		DetectionContext ctx = tracker.acquireContext();
+		Recorder recorder = new Recorder();
+		ctx.setStageListener(recorder);
+		Image frame = new SyntheticScene(160, 120).withFiducial(4, 3, 0.8, 0).withSeed(2).render();
+		tracker.applyFiducial(frame, new Image(frame), ctx);
+		assertEquals(Arrays.asList("wall", "spheres", "nearest fiducial"), recorder.stages);
+
+		recorder.stages.clear();
+		tracker.applyBlock(frame, new Image(frame), ctx);
+		assertEquals(Arrays.asList("no wall", "spheres", "nearest ball"), recorder.stages);
+	}
+}
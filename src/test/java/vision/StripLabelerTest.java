@@ -0,0 +1,57 @@
+package vision;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author prentice
+ */
+public class StripLabelerTest {
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+
+	/**
+	 * STRIPS finds the same regions as SERIAL, run for run, and lists them
+	 * in the same order.
+	 */
+	@Test
+	public void matchesSerialRegionsInOrder() {
+		Random random = new Random(5);
+		for (int skip = 1; skip <= 3; skip++) {
+			DetectorConfig serialConfig = new DetectorConfig.Builder(WIDTH, HEIGHT).skipThreshold(skip).build();
+			BlobTrackingChallenge serial = new BlobTrackingChallenge(serialConfig, false);
+			BlobTrackingChallenge strips = new BlobTrackingChallenge(
+					serialConfig.toBuilder().labelingMode(LabelingMode.STRIPS).build(), false);
+			DetectionContext serialCtx = serial.acquireContext();
+			DetectionContext stripsCtx = strips.acquireContext();
+			for (int i = 0; i < 10; i++) {
+				Image frame = SyntheticScene.random(WIDTH, HEIGHT, 3, 1, random).withClutter(6).withNoise(6).render();
+				serial.prepare(frame, serialCtx);
+				strips.prepare(frame, stripsCtx);
+				for (boolean findWall : new boolean[] {true, false}) {
+					List<Blob> expected = serial.findHueConstantRegions(serialCtx, findWall, serialCtx.noForbiddenHues, new ArrayList<Blob>());
+					List<Blob> actual = strips.findHueConstantRegions(stripsCtx, findWall, stripsCtx.noForbiddenHues, new ArrayList<Blob>());
+					String pass = "skip " + skip + ", frame " + i + (findWall ? ", wall" : ", objects");
+					assertEquals(pass, expected.size(), actual.size());
+					for (int b = 0; b < expected.size(); b++) {
+						assertEquals(pass + ", region " + b, runs(expected.get(b)), runs(actual.get(b)));
+					}
+				}
+			}
+		}
+	}
+
+	private static String runs(Blob blob) {
+		StringBuilder runs = new StringBuilder();
+		for (int run = 0; run < blob.getRunCount(); run++) {
+			runs.append(blob.getRunRow(run)).append(':').append(blob.getRunStart(run)).append('-')
+					.append(blob.getRunEnd(run)).append(' ');
+		}
+		return runs.toString();
+	}
+}
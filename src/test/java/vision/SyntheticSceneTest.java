@@ -0,0 +1,134 @@
+package vision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the synthetic scenes' rendering and ground truth, and that the
+ * detector finds what the truth says in most of them.
+ *
+ * @author prentice
+ */
+public class SyntheticSceneTest {
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+	private static final int SCENES = 100;
+	// scenes out of SCENES the default detector must get right, with a
+	// margin below what it does (99 and 100)
+	private static final int BLOCK_ACCURACY = 95;
+	private static final int FIDUCIAL_ACCURACY = 95;
+
+	@Test
+	public void rendersDeterministically() {
+		SyntheticScene scene = SyntheticScene.random(WIDTH, HEIGHT, 3, 1, new Random(2)).withClutter(4).withNoise(4).withBlur(1);
+		assertArrayEquals(scene.render().getPixelBuffer(), scene.render().getPixelBuffer());
+		SyntheticScene again = SyntheticScene.random(WIDTH, HEIGHT, 3, 1, new Random(2)).withClutter(4).withNoise(4).withBlur(1);
+		assertArrayEquals(scene.render().getPixelBuffer(), again.render().getPixelBuffer());
+		assertFalse(Arrays.equals(scene.render().getPixelBuffer(), scene.withSeed(3).render().getPixelBuffer()));
+	}
+
+	@Test
+	public void withMethodsLeaveTheSceneAsItWas() {
+		SyntheticScene empty = new SyntheticScene(WIDTH, HEIGHT);
+		SyntheticScene ball = empty.withBall(3, 1, 0, 0);
+		assertEquals(0, empty.getBalls().size());
+		assertEquals(1, ball.getBalls().size());
+		assertSame(GroundTruth.NONE, empty.blockTruth());
+		assertSame(GroundTruth.NONE, ball.fiducialTruth());
+	}
+
+	@Test
+	public void truthIsTheNearestObject() {
+		SyntheticScene scene = new SyntheticScene(WIDTH, HEIGHT).withBall(0, 1.5, 0.1, 0).withBall(4, 0.7, -0.2, 0.1)
+				.withBall(2, 1.1, 0, 0).withFiducial(1, 3, 2.0, 0).withFiducial(5, 4, 0.9, 0.2);
+		assertEquals("blue 0.700 -0.2000", scene.blockTruth().toString());
+		assertEquals("purple/blue 0.900 0.2000", scene.fiducialTruth().toString());
+	}
+
+	/**
+	 * A ball is drawn where its bearing and elevation put it, positive
+	 * bearings to the left and positive elevations up, in its colour.
+	 */
+	@Test
+	public void drawsObjectsWhereTheCameraSeesThem() {
+		for (int color = 0; color < Blob.COLORS; color++) {
+			Image centre = new SyntheticScene(WIDTH, HEIGHT).withBall(color, 0.5, 0, 0).render();
+			assertEquals(color, colorAt(centre, WIDTH / 2, HEIGHT / 2));
+		}
+		Image upperLeft = new SyntheticScene(WIDTH, HEIGHT).withBall(4, 0.5, 0.2, 0.15).withWall(false).render();
+		assertEquals(-1, colorAt(upperLeft, WIDTH / 2, HEIGHT / 2));
+		int x = (int) Math.round(WIDTH / 2.0 - CameraModel.DEFAULT.focalLength * WIDTH * Math.tan(0.2));
+		int y = (int) Math.round(HEIGHT / 2.0 - CameraModel.DEFAULT.focalLength * WIDTH * Math.tan(0.15));
+		assertTrue(x < WIDTH / 2 && y < HEIGHT / 2);
+		assertEquals(4, colorAt(upperLeft, x, y));
+	}
+
+	@Test
+	public void randomScenesHaveDistinctRanges() {
+		Random random = new Random(4);
+		for (int i = 0; i < SCENES; i++) {
+			SyntheticScene scene = SyntheticScene.random(WIDTH, HEIGHT, 3, 2, random);
+			assertTrue(scene.getBalls().size() <= 3 && scene.getFiducials().size() <= 2);
+			for (SyntheticScene.Ball a : scene.getBalls()) {
+				for (SyntheticScene.Ball b : scene.getBalls()) {
+					assertTrue(a == b || Math.abs(a.range - b.range) >= 0.09 * Math.max(a.range, b.range));
+				}
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTinyScenes() {
+		new SyntheticScene(4, 120);
+	}
+
+	@Test
+	public void blockDetectorFindsTheNearestBall() {
+		BlobTrackingChallenge tracker = new BlobTrackingChallenge(new DetectorConfig.Builder(WIDTH, HEIGHT).build(), false);
+		Random random = new Random(12);
+		int correct = 0;
+		for (int i = 0; i < SCENES; i++) {
+			SyntheticScene scene = SyntheticScene.random(WIDTH, HEIGHT, 3, 0, random).withClutter(3).withNoise(3);
+			Image frame = scene.render();
+			if (scene.blockTruth().matches(tracker.applyBlock(frame, new Image(frame)))) {
+				correct++;
+			}
+		}
+		assertTrue(correct + " of " + SCENES + " balls found", correct >= BLOCK_ACCURACY);
+	}
+
+	@Test
+	public void fiducialDetectorFindsTheNearestFiducial() {
+		BlobTrackingChallenge tracker = new BlobTrackingChallenge(new DetectorConfig.Builder(WIDTH, HEIGHT).build(), false);
+		Random random = new Random(13);
+		int correct = 0;
+		for (int i = 0; i < SCENES; i++) {
+			SyntheticScene scene = SyntheticScene.random(WIDTH, HEIGHT, 2, 1, random).withClutter(3).withNoise(3);
+			Image frame = scene.render();
+			if (scene.fiducialTruth().matches(tracker.applyFiducial(frame, new Image(frame)))) {
+				correct++;
+			}
+		}
+		assertTrue(correct + " of " + SCENES + " fiducials found", correct >= FIDUCIAL_ACCURACY);
+	}
+
+	/**
+	 * @return the colour the default table gives the pixel, or -1 if it
+	 *         could not be part of an object
+	 */
+	private static int colorAt(Image image, int x, int y) {
+		int[] hsv = image.getHSVArray()[y][x];
+		if (!ColorTable.DEFAULT.qualifies(false, hsv[0], hsv[1], new boolean[256])) {
+			return -1;
+		}
+		return ColorTable.DEFAULT.colorOf(hsv[0]);
+	}
+}
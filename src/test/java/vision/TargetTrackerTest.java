@@ -0,0 +1,235 @@
+package vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Feeds the tracker a target moving at constant velocity, and checks its
+ * estimates, the limits on prediction and the bookkeeping of tracks against
+ * the filter written out with matrices.
+ *
+ * @author prentice
+ */
+public class TargetTrackerTest {
+	private static final int KEY = 3;
+	private static final long TIMEOUT = 500;
+	private static final long MAX_PREDICTION = 300;
+	private static final long PERIOD = 33;
+
+	/**
+	 * A target starting at 2 m and 0.3 rad, closing at 0.5 m/s and turning
+	 * at -0.2 rad/s.
+	 */
+	private static double range(long time) {
+		return 2.0 - 0.5 * time / 1000.0;
+	}
+
+	private static double bearing(long time) {
+		return 0.3 - 0.2 * time / 1000.0;
+	}
+
+	/**
+	 * @return a tracker expecting a steady target, fed two seconds of
+	 *         detections with about 1 cm and 0.5 degree of noise, the last at
+	 *         {@link #lastTime()}
+	 */
+	private static TargetTracker tracked() {
+		TargetTracker tracker = new TargetTracker(Blob.COLORS, 0.01, 0.01, 0.01 * 0.01, 0.01 * 0.01, TIMEOUT,
+				MAX_PREDICTION);
+		Random random = new Random(3);
+		for (long time = 0; time <= lastTime(); time += PERIOD) {
+			tracker.correct(KEY, range(time) + 0.01 * random.nextGaussian(), bearing(time) + 0.01 * random.nextGaussian(),
+					time);
+		}
+		return tracker;
+	}
+
+	private static long lastTime() {
+		return 60 * PERIOD;
+	}
+
+	private static TargetTracker.Prediction predict(TargetTracker tracker, long time) {
+		TargetTracker.Prediction prediction = new TargetTracker.Prediction();
+		assertTrue("a target at " + time, tracker.predictNearest(time, prediction));
+		return prediction;
+	}
+
+	@Test
+	public void convergesOnConstantVelocity() {
+		TargetTracker tracker = tracked();
+		long last = lastTime();
+		TargetTracker.Prediction now = predict(tracker, last);
+		assertEquals(KEY, now.key);
+		assertEquals(range(last), now.range, 0.01);
+		assertEquals(bearing(last), now.bearing, 0.01);
+		TargetTracker.Prediction later = predict(tracker, last + 100);
+		assertEquals("range velocity", -0.5, (later.range - now.range) / 0.1, 0.05);
+		assertEquals("bearing velocity", -0.2, (later.bearing - now.bearing) / 0.1, 0.05);
+	}
+
+	@Test
+	public void extrapolatesBetweenDetections() {
+		TargetTracker tracker = tracked();
+		long time = lastTime() + 200;
+		TargetTracker.Prediction prediction = predict(tracker, time);
+		assertEquals(range(time), prediction.range, 0.02);
+		assertEquals(bearing(time), prediction.bearing, 0.02);
+	}
+
+	@Test
+	public void stopsExtrapolatingAtMaxPrediction() {
+		TargetTracker tracker = tracked();
+		TargetTracker.Prediction atLimit = predict(tracker, lastTime() + MAX_PREDICTION);
+		TargetTracker.Prediction past = predict(tracker, lastTime() + TIMEOUT);
+		assertEquals(atLimit.range, past.range, 0);
+		assertEquals(atLimit.bearing, past.bearing, 0);
+		// a prediction for before the last detection is the detection's
+		TargetTracker.Prediction before = predict(tracker, lastTime() - 100);
+		TargetTracker.Prediction atLast = predict(tracker, lastTime());
+		assertEquals(atLast.range, before.range, 0);
+	}
+
+	@Test
+	public void dropsTargetsAfterTimeout() {
+		TargetTracker tracker = tracked();
+		TargetTracker.Prediction prediction = new TargetTracker.Prediction();
+		assertFalse(tracker.predictNearest(lastTime() + TIMEOUT + 1, prediction));
+		assertFalse(tracker.predictNearest(lastTime(), prediction));
+	}
+
+	/**
+	 * A detection after the timeout starts the track again from scratch,
+	 * even if no prediction has dropped it yet.
+	 */
+	@Test
+	public void restartsTrackAfterTimeout() {
+		TargetTracker tracker = tracked();
+		long time = lastTime() + TIMEOUT + 1;
+		tracker.correct(KEY, 4.0, -0.5, time);
+		TargetTracker.Prediction now = predict(tracker, time);
+		assertEquals(4.0, now.range, 0);
+		assertEquals(-0.5, now.bearing, 0);
+		TargetTracker.Prediction later = predict(tracker, time + 100);
+		assertEquals("no velocity yet", 4.0, later.range, 0);
+	}
+
+	@Test
+	public void ignoresOutOfOrderDetections() {
+		TargetTracker tracker = tracked();
+		TargetTracker.Prediction before = predict(tracker, lastTime() + 50);
+		tracker.correct(KEY, 1.0, 0.0, lastTime() - PERIOD / 2);
+		TargetTracker.Prediction after = predict(tracker, lastTime() + 50);
+		assertEquals(before.range, after.range, 0);
+		assertEquals(before.bearing, after.bearing, 0);
+	}
+
+	/**
+	 * The scalar updates of the filter match the Kalman equations written
+	 * with matrices, P = (I - K H)(F P F' + Q), over irregular intervals.
+	 */
+	@Test
+	public void correctsLikeTheMatrixFilter() {
+		double q = 0.7;
+		double r = 0.04;
+		TargetTracker tracker = new TargetTracker(1, q, q, r, r, 10000, 10000);
+		MatrixFilter reference = new MatrixFilter(q, r);
+		long[] times = {0, 40, 70, 150, 160, 400, 433};
+		double[] measurements = {1.0, 1.1, 1.05, 1.4, 1.3, 2.0, 2.2};
+		for (int i = 0; i < times.length; i++) {
+			tracker.correct(0, measurements[i], measurements[i], times[i]);
+			reference.correct(measurements[i], times[i]);
+			String step = "after " + times[i] + " ms";
+			long last = times[i];
+			assertEquals(step, reference.x[0], predict(tracker, last).range, 1e-9);
+			assertEquals(step, reference.x[0] + 0.1 * reference.x[1], predict(tracker, last + 100).range, 1e-9);
+			assertEquals(step, reference.x[0] + 0.1 * reference.x[1], predict(tracker, last + 100).bearing, 1e-9);
+		}
+	}
+
+	@Test
+	public void packsFiducialKeys() {
+		boolean[] used = new boolean[TargetTracker.FIDUCIAL_KEYS];
+		for (int top = 0; top < Blob.COLORS; top++) {
+			for (int bottom = 0; bottom < Blob.COLORS; bottom++) {
+				int key = TargetTracker.fiducialKey(top, bottom);
+				assertFalse("key " + key + " reused", used[key]);
+				used[key] = true;
+				assertEquals(top, TargetTracker.topColor(key));
+				assertEquals(bottom, TargetTracker.bottomColor(key));
+			}
+		}
+	}
+
+	@Test
+	public void predictsNearestFiducial() {
+		TargetTracker tracker = new TargetTracker(TargetTracker.FIDUCIAL_KEYS);
+		tracker.correct(TargetTracker.fiducialKey(2, 4), 1.5, 0.1, 0);
+		tracker.correct(TargetTracker.fiducialKey(4, 2), 0.8, -0.1, 0);
+		tracker.correct(TargetTracker.fiducialKey(5, 5), 2.5, 0.0, 0);
+		TargetTracker.Prediction nearest = predict(tracker, 0);
+		assertEquals(4, TargetTracker.topColor(nearest.key));
+		assertEquals(2, TargetTracker.bottomColor(nearest.key));
+		assertEquals(0.8, nearest.range, 0);
+	}
+
+	/**
+	 * One axis of the filter, with the state and covariance as matrices.
+	 */
+	private static class MatrixFilter {
+		private final double q;
+		private final double r;
+		final double[] x = new double[2];
+		private double[][] p;
+		private long lastTime = -1;
+
+		MatrixFilter(double q, double r) {
+			this.q = q;
+			this.r = r;
+		}
+
+		void correct(double measurement, long time) {
+			if (lastTime < 0) {
+				x[0] = measurement;
+				x[1] = 0;
+				p = new double[][] {{r, 0}, {0, 1}};
+				lastTime = time;
+				return;
+			}
+			double dt = (time - lastTime) / 1000.0;
+			lastTime = time;
+			double[][] f = {{1, dt}, {0, 1}};
+			double[][] noise = {{q * dt * dt * dt / 3, q * dt * dt / 2}, {q * dt * dt / 2, q * dt}};
+			double[] predicted = {x[0] + dt * x[1], x[1]};
+			double[][] covariance = add(multiply(multiply(f, p), transpose(f)), noise);
+			double[] gain = {covariance[0][0] / (covariance[0][0] + r), covariance[1][0] / (covariance[0][0] + r)};
+			double innovation = measurement - predicted[0];
+			x[0] = predicted[0] + gain[0] * innovation;
+			x[1] = predicted[1] + gain[1] * innovation;
+			double[][] update = {{1 - gain[0], 0}, {-gain[1], 1}};
+			p = multiply(update, covariance);
+		}
+
+		private static double[][] multiply(double[][] a, double[][] b) {
+			double[][] c = new double[2][2];
+			for (int i = 0; i < 2; i++) {
+				for (int j = 0; j < 2; j++) {
+					c[i][j] = a[i][0] * b[0][j] + a[i][1] * b[1][j];
+				}
+			}
+			return c;
+		}
+
+		private static double[][] transpose(double[][] a) {
+			return new double[][] {{a[0][0], a[1][0]}, {a[0][1], a[1][1]}};
+		}
+
+		private static double[][] add(double[][] a, double[][] b) {
+			return new double[][] {{a[0][0] + b[0][0], a[0][1] + b[0][1]}, {a[1][0] + b[1][0], a[1][1] + b[1][1]}};
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package vision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author prentice
+ */
+public class WorkBudgetTest {
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+	private static final WorkBudget BUDGET = new WorkBudget(10L * WIDTH * HEIGHT, 1000, WIDTH * HEIGHT / 4);
+
+	@Test
+	public void parsesLimits() {
+		WorkBudget budget = WorkBudget.parse("visits 4000000, blobs 200, area 12000");
+		assertEquals(4000000L, budget.getMaxPixelVisits());
+		assertEquals(200, budget.getMaxBlobs());
+		assertEquals(12000, budget.getMaxBlobArea());
+		budget = WorkBudget.parse("blobs 50");
+		assertEquals(Long.MAX_VALUE, budget.getMaxPixelVisits());
+		assertEquals(50, budget.getMaxBlobs());
+		assertEquals(Integer.MAX_VALUE, budget.getMaxBlobArea());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownLimits() {
+		WorkBudget.parse("visits 10, pixels 20");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNonPositiveLimits() {
+		WorkBudget.parse("blobs 0");
+	}
+
+	/**
+	 * A frame filled with one object colour runs over the budget in every
+	 * mode, and is given up without a detection.
+	 */
+	@Test
+	public void givesUpSaturatedFrames() {
+		Image flooded = new Image(KernelBenchmark.floodedFrame(WIDTH, HEIGHT), WIDTH, HEIGHT);
+		for (LabelingMode mode : LabelingMode.values()) {
+			BlobTrackingChallenge tracker = new BlobTrackingChallenge(
+					new DetectorConfig.Builder(WIDTH, HEIGHT).labelingMode(mode).workBudget(BUDGET).build(), false);
+			CompleteBallMessage ball = tracker.applyBlock(flooded, new Image(flooded));
+			assertTrue(mode + " block", ball.overBudget);
+			assertFalse(mode + " block", ball.sendMessage);
+			CompleteFiducialMessage fiducial = tracker.applyFiducial(flooded, new Image(flooded));
+			assertTrue(mode + " fiducial", fiducial.overBudget);
+			assertFalse(mode + " fiducial", fiducial.sendMessage);
+		}
+	}
+
+	/**
+	 * With only pixel visits limited, a flooded frame is given up part way
+	 * through labeling in every mode, rather than once it has been labeled.
+	 */
+	@Test
+	public void stopsLabelingFloodedFramesEarly() {
+		Image flooded = new Image(KernelBenchmark.floodedFrame(WIDTH, HEIGHT), WIDTH, HEIGHT);
+		for (LabelingMode mode : LabelingMode.values()) {
+			DetectorConfig config = new DetectorConfig.Builder(WIDTH, HEIGHT).labelingMode(mode).build();
+			int probes = (2 * config.skipThreshold + 1) * (2 * config.skipThreshold + 1);
+			long wholeFrame = (long) probes * WIDTH * HEIGHT;
+			BlobTrackingChallenge tracker = new BlobTrackingChallenge(config.toBuilder()
+					.workBudget(new WorkBudget(wholeFrame / 4, Integer.MAX_VALUE, Integer.MAX_VALUE)).build(), false);
+			DetectionContext ctx = tracker.acquireContext();
+			assertTrue(mode + " block", tracker.applyBlock(flooded, new Image(flooded), ctx).overBudget);
+			assertTrue(mode + " block stopped after " + ctx.pixelVisits, ctx.pixelVisits < wholeFrame / 2);
+			assertTrue(mode + " fiducial", tracker.applyFiducial(flooded, new Image(flooded), ctx).overBudget);
+			assertTrue(mode + " fiducial stopped after " + ctx.pixelVisits, ctx.pixelVisits < wholeFrame / 2);
+		}
+	}
+
+	/**
+	 * The same budget leaves ordinary frames alone.
+	 */
+	@Test
+	public void keepsOrdinaryFrames() {
+		for (LabelingMode mode : LabelingMode.values()) {
+			BlobTrackingChallenge tracker = new BlobTrackingChallenge(
+					new DetectorConfig.Builder(WIDTH, HEIGHT).labelingMode(mode).workBudget(BUDGET).build(), false);
+			DetectionContext ctx = tracker.acquireContext();
+			Random random = new Random(11);
+			for (int i = 0; i < 20; i++) {
+				SyntheticScene scene = SyntheticScene.random(WIDTH, HEIGHT, 3, 0, random).withClutter(3).withNoise(3);
+				Image frame = scene.render();
+				CompleteBallMessage msg = tracker.applyBlock(frame, new Image(frame), ctx);
+				assertFalse(mode + " scene " + i, msg.overBudget);
+				assertTrue(mode + " scene " + i, scene.blockTruth().matches(msg));
+			}
+		}
+	}
+
+	/**
+	 * With wide gaps, a saturated frame costs the flood fill far more than
+	 * an ordinary one; the budget bounds the slowest frames to a fraction of
+	 * that.
+	 */
+	@Test
+	public void boundsSaturatedFrameTime() {
+		DetectorConfig wideGaps = new DetectorConfig.Builder(WIDTH, HEIGHT).skipThreshold(3).build();
+		Image flooded = new Image(KernelBenchmark.floodedFrame(WIDTH, HEIGHT), WIDTH, HEIGHT);
+		long[] unbudgeted = frameTimes(new BlobTrackingChallenge(wideGaps, false), flooded);
+		long[] budgeted = frameTimes(new BlobTrackingChallenge(wideGaps.toBuilder().workBudget(BUDGET).build(), false), flooded);
+		long median = unbudgeted[unbudgeted.length / 2];
+		long p99 = budgeted[budgeted.length * 99 / 100];
+		assertTrue("budgeted p99 " + p99 + " ns, unbudgeted median " + median + " ns", p99 < median / 2);
+	}
+
+	/**
+	 * @return the sorted thread CPU times of the block detector on the
+	 *         frame, after warming up, so that other processes on the machine
+	 *         do not count
+	 */
+	private static long[] frameTimes(BlobTrackingChallenge tracker, Image frame) {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isCurrentThreadCpuTimeSupported());
+		DetectionContext ctx = tracker.acquireContext();
+		Image dest = new Image(frame);
+		for (int i = 0; i < 200; i++) {
+			tracker.applyBlock(frame, dest, ctx);
+		}
+		long[] times = new long[200];
+		for (int i = 0; i < times.length; i++) {
+			long start = threads.getCurrentThreadCpuTime();
+			tracker.applyBlock(frame, dest, ctx);
+			times[i] = threads.getCurrentThreadCpuTime() - start;
+		}
+		Arrays.sort(times);
+		return times;
+	}
+}
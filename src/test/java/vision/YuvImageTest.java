@@ -0,0 +1,240 @@
+package vision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the HSV values computed from a YUV frame's chroma are exactly
+ * those of the frame converted to RGB, in every layout.
+ *
+ * @author prentice
+ */
+public class YuvImageTest {
+	private static final YuvImage.Layout[] LAYOUTS = YuvImage.Layout.values();
+
+	/**
+	 * Every (U, V) pair, at luma values inside, at and beyond the studio
+	 * range, where the channels clip.
+	 */
+	@Test
+	public void everyChromaMatchesRGB() {
+		int width = 2 * 256;
+		int height = 256;
+		int[] lumas = {0, 16, 40, 100, 128, 180, 235, 255};
+		for (int luma : lumas) {
+			byte[] data = new byte[2 * width * height];
+			for (int u = 0; u < 256; u++) {
+				for (int v = 0; v < 256; v++) {
+					int i = 4 * (u * 256 + v);
+					data[i] = (byte) luma;
+					data[i + 1] = (byte) u;
+					data[i + 2] = (byte) luma;
+					data[i + 3] = (byte) v;
+				}
+			}
+			assertMatchesRGB("luma " + luma, new YuvImage(data, width, height, YuvImage.Layout.YUYV));
+		}
+	}
+
+	@Test
+	public void randomFramesMatchRGB() {
+		Random random = new Random(4);
+		for (YuvImage.Layout layout : LAYOUTS) {
+			// 4:2:0 frames may have odd sizes, whose last chroma sample
+			// covers a single row or column
+			int width = (layout == YuvImage.Layout.I420 || layout == YuvImage.Layout.NV12) ? 37 : 38;
+			int height = 23;
+			byte[] data = new byte[YuvImage.size(width, height, layout)];
+			random.nextBytes(data);
+			assertMatchesRGB(layout.toString(), new YuvImage(data, width, height, layout));
+		}
+	}
+
+	/**
+	 * The same samples packed in each layout give the same frame.
+	 */
+	@Test
+	public void layoutsAgree() {
+		int width = 36;
+		int height = 20;
+		Random random = new Random(8);
+		byte[] luma = new byte[width * height];
+		byte[] u = new byte[(width / 2) * (height / 2)];
+		byte[] v = new byte[u.length];
+		random.nextBytes(luma);
+		random.nextBytes(u);
+		random.nextBytes(v);
+		byte[] expected = null;
+		for (YuvImage.Layout layout : LAYOUTS) {
+			byte[] rgb = new byte[3 * width * height];
+			new YuvImage(pack(layout, luma, u, v, width, height), width, height, layout).toRGB(rgb);
+			if (expected == null) {
+				expected = rgb;
+			}
+			assertArrayEquals(layout.toString(), expected, rgb);
+		}
+	}
+
+	/**
+	 * Converting into an existing image gives the same pixels as into a new
+	 * one, and only fits an image of the frame's size.
+	 */
+	@Test
+	public void convertsIntoExistingImage() {
+		int width = 36;
+		int height = 20;
+		byte[] data = new byte[2 * width * height];
+		new Random(10).nextBytes(data);
+		YuvImage yuv = new YuvImage(data, width, height, YuvImage.Layout.YUYV);
+		Image dest = new Image(width, height);
+		assertSame(dest, yuv.toImage(dest));
+		assertArrayEquals(yuv.toImage().getPixelBuffer(), dest.getPixelBuffer());
+		try {
+			yuv.toImage(new Image(width, height + 1));
+			fail("an image of another size was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Only the rectangle asked for is computed, from odd columns as well as
+	 * even ones.
+	 */
+	@Test
+	public void computesRectangles() {
+		int width = 20;
+		int height = 10;
+		byte[] data = new byte[YuvImage.size(width, height, YuvImage.Layout.NV12)];
+		new Random(2).nextBytes(data);
+		YuvImage yuv = new YuvImage(data, width, height, YuvImage.Layout.NV12);
+		int[][][] all = yuv.getHSVArray(new int[height][width][3], 0, 0, width, height);
+		int[][][] part = new int[height][width][3];
+		for (int[][] row : part) {
+			for (int[] hsv : row) {
+				Arrays.fill(hsv, -1);
+			}
+		}
+		yuv.getHSVArray(part, 3, 2, 12, 7);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				boolean inside = x >= 3 && x < 12 && y >= 2 && y < 7;
+				assertArrayEquals(x + ", " + y, inside ? all[y][x] : new int[] {-1, -1, -1}, part[y][x]);
+			}
+		}
+	}
+
+	/**
+	 * A detector given the YUV frame finds and paints exactly what it does
+	 * given the frame converted to RGB.
+	 */
+	@Test
+	public void detectsAsFromRGB() {
+		int width = 160;
+		int height = 120;
+		Random random = new Random(6);
+		BlobTrackingChallenge tracker = new BlobTrackingChallenge(new DetectorConfig.Builder(width, height).build(), false);
+		DetectionContext ctx = tracker.acquireContext();
+		for (int i = 0; i < 10; i++) {
+			Image scene = SyntheticScene.random(width, height, 2, 1, random).withClutter(3).withNoise(3).render();
+			YuvImage yuv = KernelBenchmark.toYuyv(scene.getPixelBuffer(), width, height);
+			Image rgb = yuv.toImage();
+			Image yuvDest = new Image(rgb);
+			Image rgbDest = new Image(rgb);
+			CompleteFiducialMessage fromYuv = tracker.applyFiducial(yuv, yuvDest, ctx);
+			CompleteFiducialMessage fromRgb = tracker.applyFiducial(rgb, rgbDest, ctx);
+			assertEquals(fromRgb.sendMessage, fromYuv.sendMessage);
+			assertEquals(fromRgb.range, fromYuv.range, 0);
+			assertEquals(fromRgb.bearing, fromYuv.bearing, 0);
+			assertArrayEquals(rgbDest.getPixelBuffer(), yuvDest.getPixelBuffer());
+			CompleteBallMessage ballFromYuv = tracker.applyBlock(yuv, yuvDest, ctx);
+			CompleteBallMessage ballFromRgb = tracker.applyBlock(rgb, rgbDest, ctx);
+			assertEquals(ballFromRgb.sendMessage, ballFromYuv.sendMessage);
+			assertEquals(ballFromRgb.color, ballFromYuv.color);
+			assertEquals(ballFromRgb.range, ballFromYuv.range, 0);
+		}
+	}
+
+	@Test
+	public void readsRosEncodings() {
+		assertEquals(YuvImage.Layout.YUYV, YuvImage.layoutOf("yuv422_yuy2"));
+		assertEquals(YuvImage.Layout.UYVY, YuvImage.layoutOf("yuv422"));
+		assertEquals(YuvImage.Layout.I420, YuvImage.layoutOf("I420"));
+		assertEquals(YuvImage.Layout.NV12, YuvImage.layoutOf("nv12"));
+		assertNull(YuvImage.layoutOf("rgb8"));
+		assertNull(YuvImage.layoutOf(null));
+	}
+
+	@Test
+	public void rejectsMalformedFrames() {
+		assertRejected(new byte[2 * 5 * 4], 5, 4, YuvImage.Layout.YUYV);
+		assertRejected(new byte[2 * 6 * 4 - 1], 6, 4, YuvImage.Layout.UYVY);
+		assertRejected(new byte[5 * 3 + 2 * 2 * 1], 5, 3, YuvImage.Layout.I420);
+		assertTrue(new YuvImage(new byte[5 * 3 + 2 * 3 * 2], 5, 3, YuvImage.Layout.NV12).getWidth() == 5);
+	}
+
+	private static void assertRejected(byte[] data, int width, int height, YuvImage.Layout layout) {
+		try {
+			new YuvImage(data, width, height, layout);
+			fail(layout + " " + width + "x" + height + " with " + data.length + " bytes was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static void assertMatchesRGB(String message, YuvImage yuv) {
+		int width = yuv.getWidth();
+		int height = yuv.getHeight();
+		int[][][] expected = yuv.toImage().getHSVArray(new int[height][width][3]);
+		int[][][] actual = yuv.getHSVArray(new int[height][width][3], 0, 0, width, height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				assertArrayEquals(message + " at " + x + ", " + y, expected[y][x], actual[y][x]);
+			}
+		}
+	}
+
+	/**
+	 * Pack full-size luma and 4:2:0 chroma planes into a layout; the 4:2:2
+	 * layouts repeat each chroma row for both rows it covers.
+	 */
+	private static byte[] pack(YuvImage.Layout layout, byte[] luma, byte[] u, byte[] v, int width, int height) {
+		byte[] data = new byte[YuvImage.size(width, height, layout)];
+		int chromaWidth = width / 2;
+		int planes = width * height;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int chroma = (y / 2) * chromaWidth + x / 2;
+				switch (layout) {
+				case YUYV:
+					data[2 * (y * width + x)] = luma[y * width + x];
+					data[2 * (y * width + x) + 1] = (x % 2 == 0) ? u[chroma] : v[chroma];
+					break;
+				case UYVY:
+					data[2 * (y * width + x) + 1] = luma[y * width + x];
+					data[2 * (y * width + x)] = (x % 2 == 0) ? u[chroma] : v[chroma];
+					break;
+				case I420:
+					data[y * width + x] = luma[y * width + x];
+					data[planes + chroma] = u[chroma];
+					data[planes + u.length + chroma] = v[chroma];
+					break;
+				default:
+					data[y * width + x] = luma[y * width + x];
+					data[planes + 2 * chroma] = u[chroma];
+					data[planes + 2 * chroma + 1] = v[chroma];
+				}
+			}
+		}
+		return data;
+	}
+}